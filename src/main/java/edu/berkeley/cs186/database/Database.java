@@ -10,17 +10,27 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.index.HashIndex;
+import edu.berkeley.cs186.database.index.IndexType;
+import edu.berkeley.cs186.database.index.KeyEncoding;
+import edu.berkeley.cs186.database.index.NodeCache;
+import edu.berkeley.cs186.database.index.NodeLatches;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.query.SortOperator;
+import edu.berkeley.cs186.database.query.disk.ExternalSorter;
+import edu.berkeley.cs186.database.query.disk.SpillFile;
+import edu.berkeley.cs186.database.query.disk.SpillSpace;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.recovery.ARIESRecoveryManager;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
@@ -28,6 +38,7 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.ScanPredicate;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -39,6 +50,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Phaser;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -75,7 +87,7 @@ public class Database implements AutoCloseable {
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // 默认1G
     // 有效页面大小 - 表元数据大小
-    private static final int MAX_SCHEMA_SIZE = 4006;
+    private static final int MAX_SCHEMA_SIZE = 4002;
 
     // _metadata.tables，管理数据库中的所有表
     private Table tableMetadata;
@@ -101,6 +113,19 @@ public class Database implements AutoCloseable {
     private Phaser activeTransactions = new Phaser(0);
     // 关于数据库内容的统计信息
     private Map<String, TableStats> stats = new ConcurrentHashMap<>();
+    // 是否以并发模式使用索引（见BPlusTree）
+    private boolean concurrentIndexes = false;
+    // 优化器是否考虑索引嵌套循环连接
+    private boolean indexJoins = false;
+    // 索引的分区号 -> 并发模式下该索引节点的闩
+    private Map<Integer, NodeLatches> indexLatches = new ConcurrentHashMap<>();
+    // 索引的分区号 -> 该索引上层内部节点的缓存（并发模式下不使用）
+    private Map<Integer, NodeCache> indexCaches = new ConcurrentHashMap<>();
+    // 批量加载索引时叶节点的填充率（见BPlusTree.bulkLoad）
+    private float indexFillFactor = 0.9f;
+    // 外部排序使用的线程数（见SortOperator），为1时不使用sortPool
+    private int sortParallelism = 1;
+    private ForkJoinPool sortPool;
 
     // 为演示加载的表名
     private ArrayList<String> demoTables = new ArrayList<>();
@@ -294,6 +319,9 @@ public class Database implements AutoCloseable {
 
         this.bufferManager.close();
         this.diskSpaceManager.close();
+
+        if (this.sortPool != null) this.sortPool.shutdown();
+        this.sortPool = null;
     }
 
     public LockManager getLockManager() {
@@ -318,6 +346,71 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    /**
+     * 设置是否以并发模式使用B+树索引。并发模式下索引操作不锁定整棵树，
+     * 而是使用节点的闩，同一索引上的插入和查找可以并发进行（见BPlusTree）。
+     *
+     * 事务回滚按字节撤销页面的修改，会覆盖其他事务对同一索引页面的并发修改，所以
+     * 修改过并发模式的B+树索引的事务不能回滚，回滚到在这之前建立的保存点也会被拒绝
+     * （抛出DatabaseException，事务仍然可以提交）。并发模式因此适用于不会中止的写入，
+     * 例如批量导入。崩溃恢复时未提交的事务仍然按字节撤销，所以崩溃时正在向并发模式的
+     * 索引写入的事务可能让索引丢失其他已提交事务写入的键，这时需要重建索引。
+     *
+     * @throws IllegalStateException 如果有活跃的事务
+     */
+    public synchronized void setConcurrentIndexes(boolean concurrentIndexes) {
+        if (!activeTransactions.isTerminated() && activeTransactions.getRegisteredParties() > 0) {
+            throw new IllegalStateException("cannot switch the index mode while transactions are active");
+        }
+        this.concurrentIndexes = concurrentIndexes;
+    }
+
+    /**
+     * 设置优化器选择连接算法时是否考虑索引嵌套循环连接（见INLJOperator）。打开时，如果连接的
+     * 右边是一张表上的顺序扫描并且表在连接列上有B+树索引，右表的记录通过索引批量查找而不是
+     * 被扫描。默认关闭，此时优化器只考虑嵌套循环连接、哈希连接和排序合并连接。
+     */
+    public void setIndexJoins(boolean indexJoins) {
+        this.indexJoins = indexJoins;
+    }
+
+    /**
+     * 设置批量加载索引（见Transaction.createIndex）时叶节点的填充率。填充率小于1时
+     * 每个叶节点留出一些空位，之后的插入不会立即导致叶节点分裂。
+     */
+    public void setIndexFillFactor(float indexFillFactor) {
+        if (indexFillFactor <= 0 || indexFillFactor > 1) {
+            throw new IllegalArgumentException("fill factor must be in (0, 1], got " + indexFillFactor);
+        }
+        this.indexFillFactor = indexFillFactor;
+    }
+
+    /**
+     * 设置外部排序（见SortOperator）使用的线程数。大于1时第0趟在这么多线程中同时
+     * 排序并写出几块记录，合并时不相交的几组Run也并行地合并；工作内存由同时进行的任务平分。
+     */
+    public synchronized void setSortParallelism(int sortParallelism) {
+        if (sortParallelism < 1) {
+            throw new IllegalArgumentException("sort parallelism must be at least 1, got " + sortParallelism);
+        }
+        if (sortParallelism != this.sortParallelism && this.sortPool != null) {
+            this.sortPool.shutdown();
+            this.sortPool = null;
+        }
+        this.sortParallelism = sortParallelism;
+    }
+
+    public synchronized int getSortParallelism() {
+        return this.sortParallelism;
+    }
+
+    /** @return 外部排序使用的线程池，只使用一个线程时返回null */
+    private synchronized ForkJoinPool getSortPool() {
+        if (this.sortParallelism == 1) return null;
+        if (this.sortPool == null) this.sortPool = new ForkJoinPool(this.sortParallelism);
+        return this.sortPool;
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -326,13 +419,15 @@ public class Database implements AutoCloseable {
      * 1 | part_num     | int
      * 2 | page_num     | long
      * 3 | schema       | byte array(MAX_SCHEMA_SIZE)
+     * 4 | layout       | int (ordinal of Table.Layout)
      */
     public Schema getTableInfoSchema() {
         return new Schema()
                 .add("table_name", Type.stringType(32))
                 .add("part_num", Type.intType())
                 .add("page_num", Type.longType())
-                .add("schema", Type.byteArrayType(MAX_SCHEMA_SIZE));
+                .add("schema", Type.byteArrayType(MAX_SCHEMA_SIZE))
+                .add("layout", Type.intType());
     }
 
     /**
@@ -340,24 +435,34 @@ public class Database implements AutoCloseable {
      *   | field name          | field type
      * --+---------------------+------------
      * 0 | table_name          | string(32)
-     * 1 | col_name            | string(32)
+     * 1 | col_name            | string(64) (comma separated)
      * 2 | order               | int
      * 3 | part_num            | int
      * 4 | root_page_num       | long
      * 5 | key_schema_typeid   | int
      * 6 | key_schema_typesize | int
      * 7 | height              | int
+     * 8 | is_unique           | bool
+     * 9 | is_compressed       | bool
+     * 10| fill_factor         | float
+     * 11| include_cols        | string(64) (comma separated)
+     * 12| index_type          | int (ordinal of IndexType)
      */
     public Schema getIndexInfoSchema() {
         return new Schema()
                 .add("table_name", Type.stringType(32))
-                .add("col_name", Type.stringType(32))
+                .add("col_name", Type.stringType(64))
                 .add("order", Type.intType())
                 .add("part_num", Type.intType())
                 .add("root_page_num", Type.longType())
                 .add("key_schema_typeid", Type.intType())
                 .add("key_schema_typesize", Type.intType())
-                .add("height", Type.intType());
+                .add("height", Type.intType())
+                .add("is_unique", Type.boolType())
+                .add("is_compressed", Type.boolType())
+                .add("fill_factor", Type.floatType())
+                .add("include_cols", Type.stringType(64))
+                .add("index_type", Type.intType());
     }
 
     // a single row of _metadata.tables
@@ -366,12 +471,14 @@ public class Database implements AutoCloseable {
         int partNum;
         long pageNum;
         Schema schema;
+        Table.Layout layout;
 
         TableMetadata(String tableName) {
             this.tableName = tableName;
             this.partNum = -1;
             this.pageNum = -1;
             this.schema = new Schema();
+            this.layout = Table.Layout.ROW;
         }
 
         TableMetadata(Record record) {
@@ -379,13 +486,14 @@ public class Database implements AutoCloseable {
             partNum = record.getValue(1).getInt();
             pageNum = record.getValue(2).getLong();
             schema = Schema.fromBytes(ByteBuffer.wrap(record.getValue(3).toBytes()));
+            layout = Table.Layout.fromInt(record.getValue(4).getInt());
         }
 
         Record toRecord() {
             byte[] schemaBytes = schema.toBytes();
             byte[] padded = new byte[MAX_SCHEMA_SIZE];
             System.arraycopy(schemaBytes, 0, padded, 0, schemaBytes.length);
-            return new Record(tableName, partNum, pageNum, padded);
+            return new Record(tableName, partNum, pageNum, padded, layout.ordinal());
         }
     }
 
@@ -439,13 +547,33 @@ public class Database implements AutoCloseable {
         return null;
     }
 
+    /**
+     * 丢弃所有表的区域映射。回滚可能恢复已删除的记录或被更新覆盖的旧值，
+     * 而区域映射的摘要只会扩展，因此回滚后摘要可能不再包含页面中的所有值。
+     */
+    private void invalidateZoneMaps() {
+        for (TableStats tableStats : stats.values()) {
+            tableStats.getZoneMap().clear();
+        }
+    }
+
+    // Rolling back restores index pages underneath any cached B+ tree nodes,
+    // so the caches have to be dropped
+    private void invalidateIndexCaches() {
+        for (NodeCache cache : indexCaches.values()) {
+            cache.invalidate();
+        }
+    }
+
     // TableMetadata -> Table object
     private Table tableFromMetadata(TableMetadata metadata) {
         String tableName = normalize(metadata.tableName);
         LockContext tableContext = getTableContext(tableName);
         long page0 = DiskSpaceManager.getVirtualPageNum(metadata.partNum, 0);
         PageDirectory pd = new PageDirectory(bufferManager, metadata.partNum, page0, (short) 0, tableContext);
-        return new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        Table table = new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        table.setLayout(metadata.layout);
+        return table;
     }
 
     /**
@@ -499,6 +627,44 @@ public class Database implements AutoCloseable {
         return null;
     }
 
+    /**
+     * @param tableName
+     * @param columnName
+     * @return the (rid, metadata) pair of a B+ tree index that can be used to
+     * look up tableName.columnName: the index on exactly that column if there
+     * is one, and otherwise a composite index whose first column is columnName.
+     * Returns null if no such index exists.
+     */
+    private Pair<RecordId, BPlusTreeMetadata> findColumnIndexMetadata(String tableName, String columnName) {
+        Pair<RecordId, BPlusTreeMetadata> exact = getColumnIndexMetadata(tableName, columnName);
+        if (exact != null && !exact.getSecond().isHash()) return exact;
+        tableName = normalize(tableName);
+        columnName = normalize(columnName);
+        for (Pair<RecordId, BPlusTreeMetadata> p: scanIndexMetadata()) {
+            BPlusTreeMetadata metadata = p.getSecond();
+            if (metadata.isHash()) continue;
+            String currTableName = normalize(metadata.getTableName());
+            String firstColumnName = normalize(metadata.getColNames().get(0));
+            if (currTableName.equals(tableName) && firstColumnName.equals(columnName)) {
+                LockUtil.ensureSufficientLockHeld(
+                        getColumnIndexMetadataContext(tableName, metadata.getColName()), LockType.S);
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tableName
+     * @param columnName
+     * @return the (rid, metadata) pair of the hash index on
+     * tableName.columnName, or null if there is no such index.
+     */
+    private Pair<RecordId, BPlusTreeMetadata> findHashIndexMetadata(String tableName, String columnName) {
+        Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
+        return pair != null && pair.getSecond().isHash() ? pair : null;
+    }
+
     /**
      * @param tableName
      * @return a list of (rid, metadata) pairs for all of the indices on the
@@ -525,7 +691,19 @@ public class Database implements AutoCloseable {
         String tableName = normalize(metadata.getTableName());
         String columnName = normalize(metadata.getColName());
         LockContext indexContext = lockManager.databaseContext().childContext(tableName + "." + columnName);
-        return new BPlusTree(bufferManager, metadata, indexContext);
+        if (concurrentIndexes) {
+            NodeLatches latches = indexLatches.computeIfAbsent(metadata.getPartNum(), p -> new NodeLatches());
+            return new BPlusTree(bufferManager, metadata, indexContext, latches);
+        }
+        NodeCache cache = indexCaches.computeIfAbsent(metadata.getPartNum(), p -> new NodeCache());
+        return new BPlusTree(bufferManager, metadata, indexContext, null, cache);
+    }
+
+    private HashIndex hashIndexFromMetadata(BPlusTreeMetadata metadata) {
+        String tableName = normalize(metadata.getTableName());
+        String columnName = normalize(metadata.getColName());
+        LockContext indexContext = lockManager.databaseContext().childContext(tableName + "." + columnName);
+        return new HashIndex(bufferManager, metadata, indexContext);
     }
 
     // get the lock context for database/_metadata.tables
@@ -601,7 +779,11 @@ public class Database implements AutoCloseable {
         Map<String, String> aliases;
         Map<String, Table> tempTables;
         long tempTableCounter;
+        // 溢出文件共享的溢出空间，第一次创建溢出文件时才创建
+        SpillSpace spillSpace;
         boolean recoveryTransaction;
+        // 事务对并发模式的B+树索引做过的修改次数，这样的修改不能回滚（见setConcurrentIndexes）
+        long concurrentIndexWrites;
 
         private TransactionContextImpl(long tNum, boolean recoveryTransaction) {
             this.transNum = tNum;
@@ -621,6 +803,16 @@ public class Database implements AutoCloseable {
             return Database.this.getWorkMem();
         }
 
+        @Override
+        public ForkJoinPool getSortPool() {
+            return Database.this.getSortPool();
+        }
+
+        @Override
+        public boolean useIndexJoins() {
+            return indexJoins;
+        }
+
         @Override
         public String createTempTable(Schema schema) {
             String tempTableName = "tempTable" + tempTableCounter++;
@@ -640,10 +832,21 @@ public class Database implements AutoCloseable {
             bufferManager.freePart(t.getPartNum());
         }
 
+        @Override
+        public synchronized SpillFile createSpillFile(Schema schema) {
+            // 排序的工作线程也会创建溢出文件，所以这个方法是同步的
+            if (spillSpace == null) spillSpace = new SpillSpace(bufferManager);
+            return new SpillFile(spillSpace, schema);
+        }
+
         @Override
         public void deleteAllTempTables() {
             Set<String> keys = new HashSet<>(tempTables.keySet());
             for (String tableName : keys) deleteTempTable(tableName);
+            synchronized (this) {
+                if (spillSpace != null) spillSpace.close();
+                spillSpace = null;
+            }
         }
 
         @Override
@@ -659,7 +862,21 @@ public class Database implements AutoCloseable {
         @Override
         public boolean indexExists(String tableName, String columnName) {
             if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
-            return getColumnIndexMetadata(tableName, columnName) != null;
+            return findColumnIndexMetadata(tableName, columnName) != null;
+        }
+
+        @Override
+        public boolean hashIndexExists(String tableName, String columnName) {
+            if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
+            return findHashIndexMetadata(tableName, columnName) != null;
+        }
+
+        @Override
+        public List<String> getIndexColumns(String tableName, String columnName) {
+            if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
+            Pair<RecordId, BPlusTreeMetadata> pair = findColumnIndexMetadata(tableName, columnName);
+            if (pair == null) throw new DatabaseException("Index `" + tableName + "." + columnName + "` does not exist!");
+            return pair.getSecond().getCoveredColNames();
         }
 
         @Override
@@ -690,7 +907,7 @@ public class Database implements AutoCloseable {
             // Since we'll likely scan multiple pages of records, its better
             // to get an S lock on the whole table up front
             LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
-            Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
+            Pair<RecordId, BPlusTreeMetadata> pair = findColumnIndexMetadata(tableName, columnName);
 
             if (pair != null) {
                 BPlusTree tree = indexFromMetadata(pair.getSecond());
@@ -709,10 +926,14 @@ public class Database implements AutoCloseable {
         public Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue) {
             Table tab = getTable(tableName);
             tableName = tab.getName();
-            BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
+            BPlusTreeMetadata metadata = findColumnIndexMetadata(tableName, columnName).getSecond();
+            BPlusTree tree = indexFromMetadata(metadata);
             // Since we'll likely scan multiple pages of records, its better
             // to get an S lock on the whole table up front
             LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
+            if (metadata.isEncoded()) {
+                startValue = metadata.getLowerBound(tab.getSchema(), startValue);
+            }
             return tab.recordIterator(tree.scanGreaterEqual(startValue));
         }
 
@@ -720,22 +941,215 @@ public class Database implements AutoCloseable {
         public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) {
             Table tab = getTable(tableName);
             tableName = tab.getName();
-            BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
+            Pair<RecordId, BPlusTreeMetadata> pair = findColumnIndexMetadata(tableName, columnName);
+            if (pair == null) {
+                pair = findHashIndexMetadata(tableName, columnName);
+                return tab.recordIterator(hashIndexFromMetadata(pair.getSecond()).scanEqual(key));
+            }
+            BPlusTreeMetadata metadata = pair.getSecond();
+            BPlusTree tree = indexFromMetadata(metadata);
+            if (metadata.isEncoded()) {
+                return tab.recordIterator(tree.scanRange(metadata.getLowerBound(tab.getSchema(), key),
+                                                         metadata.getUpperBound(tab.getSchema(), key)));
+            }
             return tab.recordIterator(tree.scanEqual(key));
         }
 
+        @Override
+        public List<Iterator<Record>> lookupKeys(String tableName, String columnName, List<DataBox> keys) {
+            Table tab = getTable(tableName);
+            tableName = tab.getName();
+            List<Iterator<Record>> result = new ArrayList<>();
+            Pair<RecordId, BPlusTreeMetadata> pair = findColumnIndexMetadata(tableName, columnName);
+            if (pair == null) {
+                // Hash lookups are independent of each other, so there is
+                // nothing to share between the keys
+                HashIndex index = hashIndexFromMetadata(findHashIndexMetadata(tableName, columnName).getSecond());
+                for (DataBox key : keys) {
+                    result.add(tab.recordIterator(index.scanEqual(key)));
+                }
+                return result;
+            }
+            BPlusTreeMetadata metadata = pair.getSecond();
+            BPlusTree tree = indexFromMetadata(metadata);
+            List<List<RecordId>> rids;
+            if (metadata.isEncoded()) {
+                List<DataBox> lows = new ArrayList<>();
+                List<DataBox> highs = new ArrayList<>();
+                for (DataBox key : keys) {
+                    lows.add(metadata.getLowerBound(tab.getSchema(), key));
+                    highs.add(metadata.getUpperBound(tab.getSchema(), key));
+                }
+                rids = tree.scanRangeBatch(lows, highs);
+            } else {
+                rids = tree.scanRangeBatch(keys, keys);
+            }
+            for (List<RecordId> matches : rids) {
+                result.add(tab.recordIterator(matches.iterator()));
+            }
+            return result;
+        }
+
+        @Override
+        public Iterator<Record> indexOnlyScan(String tableName, String columnName, List<String> columns,
+                                              DataBox startValue, DataBox endValue) {
+            Table tab = getTable(tableName);
+            tableName = tab.getName();
+            BPlusTreeMetadata metadata = findColumnIndexMetadata(tableName, columnName).getSecond();
+            // The table itself is never read, but we still need an S lock on
+            // it so that the scanned entries can't change under us
+            LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
+
+            // positions[i] is the position of columns[i] among the columns
+            // stored in the index's keys
+            List<String> covered = metadata.getCoveredColNames();
+            int[] positions = new int[columns.size()];
+            for (int i = 0; i < columns.size(); ++i) {
+                positions[i] = -1;
+                for (int j = 0; j < covered.size(); ++j) {
+                    if (covered.get(j).equalsIgnoreCase(columns.get(i))) positions[i] = j;
+                }
+                if (positions[i] < 0) {
+                    throw new DatabaseException("index on " + tableName + "(" + metadata.getColName()
+                            + ") does not cover column " + columns.get(i));
+                }
+            }
+
+            Schema schema = tab.getSchema();
+            Iterator<Pair<DataBox, RecordId>> entries = scanIndexEntries(tab, metadata, startValue, endValue);
+            return new Iterator<Record>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    DataBox key = entries.next().getFirst();
+                    List<DataBox> values = metadata.isEncoded()
+                            ? metadata.decodeKey(schema, key)
+                            : Collections.singletonList(key);
+                    List<DataBox> projected = new ArrayList<>();
+                    for (int position : positions) {
+                        projected.add(values.get(position));
+                    }
+                    return new Record(projected);
+                }
+            };
+        }
+
+        @Override
+        public Iterator<Record> bitmapHeapScan(String tableName, String columnName,
+                                               DataBox startValue, DataBox endValue) {
+            Table tab = getTable(tableName);
+            tableName = tab.getName();
+            BPlusTreeMetadata metadata = findColumnIndexMetadata(tableName, columnName).getSecond();
+            // Since we'll likely scan multiple pages of records, its better
+            // to get an S lock on the whole table up front
+            LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
+
+            // Collect the matching record ids into one bitmap per data page,
+            // then visit the pages in page number order, reading each once.
+            // At most workMem pages worth of record ids are collected at a
+            // time; a larger range is processed in several such chunks
+            int maxRids = Math.max(1, getWorkMemSize() * BufferManager.EFFECTIVE_PAGE_SIZE / RecordId.getSizeInBytes());
+            Iterator<Pair<DataBox, RecordId>> entries = scanIndexEntries(tab, metadata, startValue, endValue);
+            return new Iterator<Record>() {
+                private Iterator<Map.Entry<Long, BitSet>> pageIter = Collections.emptyIterator();
+                private Iterator<Record> records = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!records.hasNext()) {
+                        if (!pageIter.hasNext()) {
+                            if (!entries.hasNext()) return false;
+                            TreeMap<Long, BitSet> pages = new TreeMap<>();
+                            for (int i = 0; i < maxRids && entries.hasNext(); i++) {
+                                RecordId rid = entries.next().getSecond();
+                                pages.computeIfAbsent(rid.getPageNum(), p -> new BitSet()).set(rid.getEntryNum());
+                            }
+                            pageIter = pages.entrySet().iterator();
+                        }
+                        Map.Entry<Long, BitSet> page = pageIter.next();
+                        records = tab.getRecords(page.getKey(), page.getValue()).iterator();
+                    }
+                    return true;
+                }
+
+                @Override
+                public Record next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return records.next();
+                }
+            };
+        }
+
+        /**
+         * @return the (key, rid) entries of the index `metadata` whose value of
+         * the (first) indexed column is in [startValue, endValue], where a null
+         * bound means the range is unbounded on that side
+         */
+        private Iterator<Pair<DataBox, RecordId>> scanIndexEntries(Table tab, BPlusTreeMetadata metadata,
+                                                                   DataBox startValue, DataBox endValue) {
+            BPlusTree tree = indexFromMetadata(metadata);
+            if (metadata.isEncoded()) {
+                Schema schema = tab.getSchema();
+                if (startValue != null) startValue = metadata.getLowerBound(schema, startValue);
+                if (endValue != null) endValue = metadata.getUpperBound(schema, endValue);
+            }
+            return tree.scanEntries(startValue, endValue);
+        }
+
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
             return getTable(tableName).iterator();
         }
 
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, List<ScanPredicate> predicates,
+                                                              List<Integer> columns) {
+            return getTable(tableName).iterator(predicates, columns);
+        }
+
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
             tableName = aliases.getOrDefault(tableName, tableName);
-            BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
+            Pair<RecordId, BPlusTreeMetadata> pair = findColumnIndexMetadata(tableName, columnName);
+            if (pair == null) {
+                pair = findHashIndexMetadata(tableName, columnName);
+                return hashIndexFromMetadata(pair.getSecond()).get(key).isPresent();
+            }
+            BPlusTreeMetadata metadata = pair.getSecond();
+            BPlusTree tree = indexFromMetadata(metadata);
+            if (metadata.isEncoded()) {
+                Schema s = getTable(tableName).getSchema();
+                return tree.scanRange(metadata.getLowerBound(s, key), metadata.getUpperBound(s, key)).hasNext();
+            }
             return tree.get(key).isPresent();
         }
 
+        // add (key, rid) to the index described by metadata, whatever its type
+        private void putIndexEntry(BPlusTreeMetadata metadata, DataBox key, RecordId rid) {
+            if (metadata.isHash()) {
+                hashIndexFromMetadata(metadata).put(key, rid);
+            } else {
+                if (concurrentIndexes) concurrentIndexWrites++;
+                indexFromMetadata(metadata).put(key, rid);
+            }
+        }
+
+        // remove (key, rid) from the index described by metadata, whatever its type
+        private void removeIndexEntry(BPlusTreeMetadata metadata, DataBox key, RecordId rid) {
+            if (metadata.isHash()) {
+                hashIndexFromMetadata(metadata).remove(key, rid);
+            } else {
+                if (concurrentIndexes) concurrentIndexWrites++;
+                indexFromMetadata(metadata).remove(key);
+            }
+        }
+
         @Override
         public RecordId addRecord(String tableName, Record record) {
             Table tab = getTable(tableName);
@@ -745,13 +1159,9 @@ public class Database implements AutoCloseable {
             }
             RecordId rid = tab.addRecord(record);
             Schema s = tab.getSchema();
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
-                BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox key = record.getValue(colNames.indexOf(column));
-                tree.put(key, rid);
+                putIndexEntry(p.getSecond(), p.getSecond().getKey(s, record, rid), rid);
             }
             return rid;
         }
@@ -762,13 +1172,9 @@ public class Database implements AutoCloseable {
             tableName = tab.getName();
             Schema s = tab.getSchema();
             Record record = tab.deleteRecord(rid);
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
-                BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox key = record.getValue(colNames.indexOf(column));
-                tree.remove(key);
+                removeIndexEntry(p.getSecond(), p.getSecond().getKey(s, record, rid), rid);
             }
             return rid;
         }
@@ -785,15 +1191,12 @@ public class Database implements AutoCloseable {
             Schema s = tab.getSchema();
 
             Record old = tab.updateRecord(rid, updated);
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
-                BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox oldKey = old.getValue(colNames.indexOf(column));
-                DataBox newKey = updated.getValue(colNames.indexOf(column));
-                tree.remove(oldKey);
-                tree.put(newKey, rid);
+                DataBox oldKey = p.getSecond().getKey(s, old, rid);
+                DataBox newKey = p.getSecond().getKey(s, updated, rid);
+                removeIndexEntry(p.getSecond(), oldKey, rid);
+                putIndexEntry(p.getSecond(), newKey, rid);
             }
             return rid;
         }
@@ -909,7 +1312,7 @@ public class Database implements AutoCloseable {
         @Override
         public int getTreeOrder(String tableName, String columnName) {
             if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
-            Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
+            Pair<RecordId, BPlusTreeMetadata> pair = findColumnIndexMetadata(tableName, columnName);
             if (pair == null) throw new DatabaseException("Index `" + tableName + "." + columnName + "` does not exist!");
             return pair.getSecond().getOrder();
         }
@@ -917,7 +1320,7 @@ public class Database implements AutoCloseable {
         @Override
         public int getTreeHeight(String tableName, String columnName) {
             if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
-            Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
+            Pair<RecordId, BPlusTreeMetadata> pair = findColumnIndexMetadata(tableName, columnName);
             if (pair == null) throw new DatabaseException("Index `" + tableName + "." + columnName + "` does not exist!");
             return pair.getSecond().getHeight();
         }
@@ -981,7 +1384,9 @@ public class Database implements AutoCloseable {
     private class TransactionImpl extends Transaction {
         private long transNum;
         private boolean recoveryTransaction;
-        private TransactionContext transactionContext;
+        private TransactionContextImpl transactionContext;
+        // 保存点的名称 -> 建立保存点时事务对并发模式的索引做过的修改次数
+        private Map<String, Long> savepointIndexWrites = new HashMap<>();
 
         private TransactionImpl(long transNum, boolean recovery) {
             this.transNum = transNum;
@@ -1013,7 +1418,12 @@ public class Database implements AutoCloseable {
 
         @Override
         protected void startRollback() {
+            if (transactionContext.concurrentIndexWrites > 0) {
+                throw new DatabaseException("transaction " + transNum
+                        + " modified an index in concurrent mode and cannot be rolled back");
+            }
             recoveryManager.abort(transNum);
+            invalidateZoneMaps();
             this.cleanup();
         }
 
@@ -1023,9 +1433,13 @@ public class Database implements AutoCloseable {
                 return;
             }
 
+            boolean rolledBack = getStatus() == Status.ABORTING || getStatus() == Status.RECOVERY_ABORTING;
             if (!this.recoveryTransaction) {
                 recoveryManager.end(transNum);
             }
+            if (rolledBack) {
+                invalidateIndexCaches();
+            }
 
             transactionContext.close();
             activeTransactions.arriveAndDeregister();
@@ -1038,6 +1452,11 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createTable(Schema s, String tableName) {
+            createTable(s, tableName, Table.Layout.ROW);
+        }
+
+        @Override
+        public void createTable(Schema s, String tableName, Table.Layout layout) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1054,6 +1473,7 @@ public class Database implements AutoCloseable {
             metadata.partNum = diskSpaceManager.allocPart();
             metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
             metadata.schema = s;
+            metadata.layout = layout;
             synchronized (tableMetadata) {
                 tableMetadata.addRecord(metadata.toRecord());
             }
@@ -1097,9 +1517,23 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createIndex(String tableName, String columnName, boolean bulkLoad) {
+            createIndex(tableName, Collections.singletonList(columnName), true, bulkLoad);
+        }
+
+        @Override
+        public void createIndex(String tableName, List<String> columnNames, boolean unique, boolean bulkLoad) {
+            createIndex(tableName, columnNames, Collections.emptyList(), unique, bulkLoad);
+        }
+
+        @Override
+        public void createIndex(String tableName, List<String> columnNames, List<String> includeColumnNames,
+                                boolean unique, boolean bulkLoad) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
+            if (columnNames.isEmpty()) {
+                throw new IllegalArgumentException("an index must have at least one column");
+            }
             // We want to check that the table exists
             TableMetadata tableMetadata = getTableMetadata(tableName).getSecond();
             if (tableMetadata == null) {
@@ -1109,12 +1543,39 @@ public class Database implements AutoCloseable {
             Schema s = tableMetadata.schema;
             List<String> schemaColNames = s.getFieldNames();
             List<Type> schemaColType = s.getFieldTypes();
-            if (!schemaColNames.contains(columnName)) {
-                throw new DatabaseException("table " + tableName + " does not have a column " + columnName);
+            List<Type> colTypes = new ArrayList<>();
+            for (String columnName : columnNames) {
+                if (!schemaColNames.contains(columnName)) {
+                    throw new DatabaseException("table " + tableName + " does not have a column " + columnName);
+                }
+                if (Collections.frequency(columnNames, columnName) > 1) {
+                    throw new DatabaseException("column " + columnName + " appears more than once in the index");
+                }
+                colTypes.add(schemaColType.get(schemaColNames.indexOf(columnName)));
             }
+            if (unique && !includeColumnNames.isEmpty()) {
+                // Included values are part of the encoded key, so two records
+                // with the same key columns would no longer collide
+                throw new DatabaseException("included columns are only supported on non-unique indices");
+            }
+            for (String includeColumnName : includeColumnNames) {
+                if (!schemaColNames.contains(includeColumnName)) {
+                    throw new DatabaseException("table " + tableName + " does not have a column " + includeColumnName);
+                }
+                if (columnNames.contains(includeColumnName)
+                        || Collections.frequency(includeColumnNames, includeColumnName) > 1) {
+                    throw new DatabaseException("column " + includeColumnName + " appears more than once in the index");
+                }
+                colTypes.add(schemaColType.get(schemaColNames.indexOf(includeColumnName)));
+            }
+            String columnName = String.join(",", columnNames);
 
-            int columnIndex = schemaColNames.indexOf(columnName);
-            Type colType = schemaColType.get(columnIndex);
+            // A unique index on a single column uses the column's values as
+            // keys; other indices use encoded keys (see KeyEncoding), with any
+            // included columns encoded after the key columns
+            Type keyType = unique && columnNames.size() == 1
+                    ? colTypes.get(0)
+                    : KeyEncoding.keyType(colTypes, unique);
 
             // To create the index we'll need an exclusive lock on its metadata
             LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.X);
@@ -1123,12 +1584,21 @@ public class Database implements AutoCloseable {
                 throw new DatabaseException("index already exists on " + tableName + "(" + columnName + ")");
             }
 
-            int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
+            // String and byte array keys are stored with prefix compression
+            // and suffix truncation, so their fan-out depends on the keys
+            // rather than on the declared width of the column
+            boolean compressed = BPlusTree.supportsCompression(BufferManager.EFFECTIVE_PAGE_SIZE, keyType);
+            int order = compressed
+                    ? BPlusTree.maxCompressedOrder(BufferManager.EFFECTIVE_PAGE_SIZE)
+                    : BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keyType);
             Record indexEntry = new Record(tableName, columnName, order,
                     diskSpaceManager.allocPart(),
                     diskSpaceManager.INVALID_PAGE_NUM,
-                    colType.getTypeId().ordinal(),
-                    colType.getSizeInBytes(), -1
+                    keyType.getTypeId().ordinal(),
+                    keyType.getSizeInBytes(), -1,
+                    unique, compressed, 0f,
+                    new StringDataBox(String.join(",", includeColumnNames), 64),
+                    IndexType.BPLUS_TREE.ordinal()
             );
             synchronized (indexMetadata) {
                 indexMetadata.addRecord(indexEntry);
@@ -1137,15 +1607,114 @@ public class Database implements AutoCloseable {
             BPlusTree tree = indexFromMetadata(metadata);
 
             // load data into index
+            Table table = tableFromMetadata(tableMetadata);
             if (bulkLoad) {
-                throw new UnsupportedOperationException("not implemented");
+                // Sort the (key, rid) pairs with an external sort, then load
+                // them into the leaves in order
+                tree.bulkLoad(sortIndexEntries(table, metadata), indexFillFactor);
             } else {
-                Table table = tableFromMetadata(tableMetadata);
                 for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
                     Record record = table.getRecord(rid);
-                    tree.put(record.getValue(columnIndex), rid);
+                    tree.put(metadata.getKey(s, record, rid), rid);
                 }
             }
+            tree.updateFillFactor();
+        }
+
+        @Override
+        public void createHashIndex(String tableName, String columnName, boolean unique) {
+            if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
+                throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
+            }
+            // We want to check that the table exists
+            Pair<RecordId, TableMetadata> tablePair = getTableMetadata(tableName);
+            if (tablePair == null) {
+                throw new DatabaseException("table " + tableName + " does not exist");
+            }
+            TableMetadata tableMetadata = tablePair.getSecond();
+            Schema s = tableMetadata.schema;
+            if (!s.getFieldNames().contains(columnName)) {
+                throw new DatabaseException("table " + tableName + " does not have a column " + columnName);
+            }
+            // The keys of a hash index are always the column's values
+            Type keyType = s.getFieldType(s.getFieldNames().indexOf(columnName));
+
+            // To create the index we'll need an exclusive lock on its metadata
+            LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.X);
+            if (getColumnIndexMetadata(tableName, columnName) != null) {
+                throw new DatabaseException("index already exists on " + tableName + "(" + columnName + ")");
+            }
+
+            int capacity = HashIndex.maxBucketCapacity(BufferManager.EFFECTIVE_PAGE_SIZE, keyType);
+            Record indexEntry = new Record(tableName, columnName, capacity,
+                    diskSpaceManager.allocPart(),
+                    DiskSpaceManager.INVALID_PAGE_NUM,
+                    keyType.getTypeId().ordinal(),
+                    keyType.getSizeInBytes(), -1,
+                    unique, false, 0f,
+                    new StringDataBox("", 64),
+                    IndexType.HASH.ordinal()
+            );
+            synchronized (indexMetadata) {
+                indexMetadata.addRecord(indexEntry);
+            }
+            BPlusTreeMetadata metadata = new BPlusTreeMetadata(indexEntry);
+            HashIndex index = hashIndexFromMetadata(metadata);
+
+            // load data into index
+            Table table = tableFromMetadata(tableMetadata);
+            for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
+                index.put(metadata.getKey(s, table.getRecord(rid), rid), rid);
+            }
+        }
+
+        /**
+         * @return `table`中所有记录在索引`metadata`中的(键, 记录ID)对，按键排序
+         * （见ExternalSorter）。唯一索引中有重复的键时抛出DatabaseException。
+         */
+        private Iterator<Pair<DataBox, RecordId>> sortIndexEntries(Table table, BPlusTreeMetadata metadata) {
+            Schema schema = table.getSchema();
+            Schema entrySchema = new Schema()
+                    .add("key", metadata.getKeySchema())
+                    .add("page_num", Type.longType())
+                    .add("entry_num", Type.intType());
+            Iterator<RecordId> rids = table.ridIterator();
+            Iterator<Record> entries = new Iterator<Record>() {
+                @Override
+                public boolean hasNext() {
+                    return rids.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    RecordId rid = rids.next();
+                    DataBox key = metadata.getKey(schema, table.getRecord(rid), rid);
+                    return new Record(key, rid.getPageNum(), (int) rid.getEntryNum());
+                }
+            };
+            ExternalSorter sorter = new ExternalSorter(transactionContext, entrySchema,
+                    Comparator.comparing(r -> r.getValue(0)), Math.max(3, transactionContext.getWorkMemSize()));
+            Iterator<Record> sorted = sorter.sort(entries);
+            return new Iterator<Pair<DataBox, RecordId>>() {
+                private DataBox prev;
+
+                @Override
+                public boolean hasNext() {
+                    return sorted.hasNext();
+                }
+
+                @Override
+                public Pair<DataBox, RecordId> next() {
+                    Record r = sorted.next();
+                    DataBox key = r.getValue(0);
+                    if (key.equals(prev)) {
+                        throw new DatabaseException("duplicate key " + key + " in unique index on "
+                                + metadata.getTableName() + "(" + metadata.getColName() + ")");
+                    }
+                    prev = key;
+                    return new Pair<>(key, new RecordId(r.getValue(1).getLong(), (short) r.getValue(2).getInt()));
+                }
+            };
         }
 
         @Override
@@ -1158,6 +1727,8 @@ public class Database implements AutoCloseable {
             }
             indexMetadata.deleteRecord(pair.getFirst());
             bufferManager.freePart(pair.getSecond().getPartNum());
+            indexLatches.remove(pair.getSecond().getPartNum());
+            indexCaches.remove(pair.getSecond().getPartNum());
         }
 
         @Override
@@ -1206,16 +1777,25 @@ public class Database implements AutoCloseable {
         @Override
         public void savepoint(String savepointName) {
             recoveryManager.savepoint(transNum, savepointName);
+            savepointIndexWrites.put(savepointName, transactionContext.concurrentIndexWrites);
         }
 
         @Override
         public void rollbackToSavepoint(String savepointName) {
+            Long indexWrites = savepointIndexWrites.get(savepointName);
+            if (indexWrites != null && indexWrites != transactionContext.concurrentIndexWrites) {
+                throw new DatabaseException("transaction " + transNum + " modified an index in concurrent mode "
+                        + "since savepoint " + savepointName + " and cannot roll back to it");
+            }
             recoveryManager.rollbackToSavepoint(transNum, savepointName);
+            invalidateZoneMaps();
+            invalidateIndexCaches();
         }
 
         @Override
         public void releaseSavepoint(String savepointName) {
             recoveryManager.releaseSavepoint(transNum, savepointName);
+            savepointIndexWrites.remove(savepointName);
         }
 
         @Override
@@ -1257,6 +1837,116 @@ public class Database implements AutoCloseable {
         getBufferManager().evictAll();
     }
 
+    /**
+     * 在线整理表 `tableName`：把稀疏页面中的记录移动到较满的页面中，释放变空的数据页
+     * 和页面目录末尾的空头页面，并相应地更新表上所有B+树索引中的记录ID。
+     *
+     * 整理按页面进行，每个被清空的页面使用一个单独的短事务，因此任何时候只会锁住
+     * 少数几个页面，其他事务可以在整理期间继续读写表。不能在事务中调用此方法。
+     *
+     * @param tableName 要整理的表名
+     * @return 释放的数据页数量
+     */
+    public int compactTable(String tableName) {
+        // 找出整理后仍然保留的页面（记录最多的那些）和需要清空的页面
+        Map<Long, Integer> counts;
+        int numRecordsPerPage;
+        try (Transaction t = beginTransaction()) {
+            Table table = t.getTransactionContext().getTable(tableName);
+            counts = table.getRecordCountsByPage();
+            numRecordsPerPage = table.getNumRecordsPerPage();
+        }
+        if (numRecordsPerPage == 1) return 0;
+        int numRecords = 0;
+        for (int count : counts.values()) numRecords += count;
+        int numPagesToKeep = (numRecords + numRecordsPerPage - 1) / numRecordsPerPage;
+        List<Long> pages = new ArrayList<>(counts.keySet());
+        pages.sort((a, b) -> Integer.compare(counts.get(b), counts.get(a)));
+        List<Long> targets = new ArrayList<>(pages.subList(0, numPagesToKeep));
+        List<Long> sources = pages.subList(numPagesToKeep, pages.size());
+
+        int numFreed = 0;
+        for (long source : sources) {
+            if (targets.isEmpty()) break;
+            try (Transaction t = beginTransaction()) {
+                TransactionContext transaction = t.getTransactionContext();
+                Table table = transaction.getTable(tableName);
+                Schema schema = table.getSchema();
+                List<BPlusTree> indices = new ArrayList<>();
+                List<HashIndex> hashIndices = new ArrayList<>();
+                for (Pair<RecordId, BPlusTreeMetadata> p : getTableIndicesMetadata(tableName)) {
+                    if (p.getSecond().isHash()) {
+                        hashIndices.add(hashIndexFromMetadata(p.getSecond()));
+                    } else {
+                        indices.add(indexFromMetadata(p.getSecond()));
+                    }
+                }
+
+                Iterator<RecordId> rids;
+                try {
+                    rids = table.pageRidIterator(source);
+                } catch (PageException e) {
+                    // 页面在规划之后已被并发的删除释放
+                    continue;
+                }
+                boolean emptied = true;
+                while (rids.hasNext()) {
+                    RecordId rid = rids.next();
+                    RecordId newRid = null;
+                    // 目标页面可能已被并发的插入填满，此时换下一个目标页面
+                    while (newRid == null && !targets.isEmpty()) {
+                        newRid = table.moveRecord(rid, targets.get(0));
+                        if (newRid == null) targets.remove(0);
+                    }
+                    if (newRid == null) {
+                        emptied = false;
+                        break;
+                    }
+                    Record record = table.getRecord(newRid);
+                    for (BPlusTree tree : indices) {
+                        BPlusTreeMetadata metadata = tree.getMetadata();
+                        tree.remove(metadata.getKey(schema, record, rid));
+                        tree.put(metadata.getKey(schema, record, newRid), newRid);
+                    }
+                    for (HashIndex index : hashIndices) {
+                        BPlusTreeMetadata metadata = index.getMetadata();
+                        index.remove(metadata.getKey(schema, record, rid), rid);
+                        index.put(metadata.getKey(schema, record, newRid), newRid);
+                    }
+                }
+                if (emptied) ++numFreed;
+            }
+        }
+
+        try (Transaction t = beginTransaction()) {
+            t.getTransactionContext().getTable(tableName).freeEmptyHeaderPages();
+        }
+        return numFreed;
+    }
+
+    /**
+     * 在线整理表`tableName`的列`columnName`上的B+树索引（见BPlusTree.compact）：合并大量
+     * 删除之后几乎为空的节点，释放多余的页面，并更新索引元数据中的填充率。
+     *
+     * 整理使用一个单独的短事务，只锁住这个索引，不需要删除并重建索引。
+     * 不能在事务中调用此方法，也不支持并发模式下的索引（见setConcurrentIndexes）。
+     *
+     * @return 释放的页面数量
+     */
+    public int compactIndex(String tableName, String columnName) {
+        try (Transaction t = beginTransaction()) {
+            LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.X);
+            if (t.getTransactionContext().hashIndexExists(tableName, columnName)) {
+                throw new DatabaseException("hash index on " + tableName + "(" + columnName + ") cannot be compacted");
+            }
+            Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
+            if (pair == null) {
+                throw new DatabaseException("no index on " + tableName + "(" + columnName + ")");
+            }
+            return indexFromMetadata(pair.getSecond()).compact();
+        }
+    }
+
     /**
      * Loads a CSV from src/main/resources in as a table.
      * @param name the name of the csv file (without .csv extension)
@@ -6,7 +6,9 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -122,6 +124,16 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void createTable(Schema s, String tableName);
 
+    /**
+     * 与 createTable(s, tableName) 相同，但指定表的数据页布局。
+     * 对于只扫描少数几列的分析型表，可以使用 Table.Layout.PAX 按列存放每页中的值。
+     *
+     * @param s 新表的模式
+     * @param tableName 新表的名称
+     * @param layout 新表数据页中记录的布局
+     */
+    public abstract void createTable(Schema s, String tableName, Table.Layout layout);
+
     /**
      * 删除表。等同于
      *      DROP TABLE tableName
@@ -145,10 +157,62 @@ public abstract class Transaction implements AutoCloseable {
      *
      * @param tableName 要为其创建索引的表名
      * @param columnName 要在其上创建索引的列名
-     * @param bulkLoad 是否批量加载数据
+     * @param bulkLoad 是否批量加载数据：先用外部排序把表中所有的(键, 记录ID)对排序，
+     *                 再按Database.setIndexFillFactor设置的填充率依次填满叶节点，
+     *                 而不是逐条插入
      */
     public abstract void createIndex(String tableName, String columnName, boolean bulkLoad);
 
+    /**
+     * 在多个列上创建索引。等同于
+     *      CREATE [UNIQUE] INDEX ON tableName (columnNames[0], columnNames[1], ...)
+     * 在postgres中。
+     *
+     * 非唯一索引允许多条记录有相同的键。查找、范围扫描和查询计划可以使用组合键索引的
+     * 第一列，就像它是该列上的索引一样。createIndex(tableName, columnName, bulkLoad)
+     * 等同于createIndex(tableName, [columnName], true, bulkLoad)。
+     *
+     * @param tableName 要为其创建索引的表名
+     * @param columnNames 要在其上创建索引的列名（按键的比较顺序）
+     * @param unique 索引是否唯一
+     * @param bulkLoad 是否批量加载数据
+     */
+    public abstract void createIndex(String tableName, List<String> columnNames, boolean unique, boolean bulkLoad);
+
+    /**
+     * 创建覆盖索引。等同于
+     *      CREATE INDEX ON tableName (columnNames[0], ...) INCLUDE (includeColumnNames[0], ...)
+     * 在postgres中。
+     *
+     * INCLUDE列的值和键一起存储在叶节点中，但不参与查找。查询只用到索引的列和INCLUDE列时，
+     * 查询计划可以选择仅索引扫描，直接从叶节点读出结果而不用访问表。INCLUDE列只支持
+     * 非唯一索引。createIndex(tableName, columnNames, unique, bulkLoad)等同于
+     * createIndex(tableName, columnNames, [], unique, bulkLoad)。
+     *
+     * @param tableName 要为其创建索引的表名
+     * @param columnNames 要在其上创建索引的列名（按键的比较顺序）
+     * @param includeColumnNames 额外存储在索引中的列名
+     * @param unique 索引是否唯一
+     * @param bulkLoad 是否批量加载数据
+     */
+    public abstract void createIndex(String tableName, List<String> columnNames, List<String> includeColumnNames,
+                                     boolean unique, boolean bulkLoad);
+
+    /**
+     * 创建哈希索引。等同于
+     *      CREATE [UNIQUE] INDEX ON tableName USING HASH (columnName)
+     * 在postgres中。
+     *
+     * 哈希索引（见HashIndex）只能用于等值查找，但每次查找只读取固定数量的页面。
+     * 查询计划对列上的等值谓词会比较哈希索引扫描与其他访问方式的代价。
+     * 一列上只能有一个索引，B+树索引和哈希索引不能同时存在。
+     *
+     * @param tableName 要为其创建索引的表名
+     * @param columnName 要在其上创建索引的列名
+     * @param unique 索引是否唯一
+     */
+    public abstract void createHashIndex(String tableName, String columnName, boolean unique);
+
     /**
      * 删除索引。等同于
      *      DROP INDEX tableName_columnName
@@ -4,15 +4,19 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.query.disk.SpillFile;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.ScanPredicate;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
@@ -85,6 +89,17 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getWorkMemSize();
 
+    /**
+     * @return 外部排序并行地排序和合并时使用的线程池，不并行时返回null
+     * （见Database.setSortParallelism）
+     */
+    public abstract ForkJoinPool getSortPool();
+
+    /**
+     * @return 优化器是否考虑索引嵌套循环连接（见Database.setIndexJoins）
+     */
+    public abstract boolean useIndexJoins();
+
     @Override
     public abstract void close();
 
@@ -98,7 +113,16 @@ public abstract class TransactionContext implements AutoCloseable {
     public abstract String createTempTable(Schema schema);
 
     /**
-     * 删除此事务中的所有临时表。
+     * 在此事务中创建一个溢出文件，用于外部排序和外部哈希中溢出到磁盘的记录。
+     * 事务的所有溢出文件共享一个溢出空间（见SpillSpace）。可以在没有事务的工作线程中调用。
+     *
+     * @param schema 记录的模式
+     * @return 空的溢出文件
+     */
+    public abstract SpillFile createSpillFile(Schema schema);
+
+    /**
+     * 删除此事务中的所有临时表和溢出文件。
      */
     public abstract void deleteAllTempTables();
 
@@ -116,7 +140,7 @@ public abstract class TransactionContext implements AutoCloseable {
     // 索引 /////////////////////////////////////////////////////////////////
 
     /**
-     * 检查数据库是否在该（表，列）上有索引。
+     * 检查数据库是否在该（表，列）上有B+树索引。
      *
      * @param tableName  表名
      * @param columnName 列名
@@ -124,8 +148,23 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract boolean indexExists(String tableName, String columnName);
 
+    /**
+     * 检查数据库是否在该（表，列）上有哈希索引（见HashIndex）。哈希索引只能用于
+     * lookupKey和contains。
+     *
+     * @param tableName  表名
+     * @param columnName 列名
+     * @return 如果哈希索引存在则返回true
+     */
+    public abstract boolean hashIndexExists(String tableName, String columnName);
+
     public abstract void updateIndexMetadata(BPlusTreeMetadata metadata);
 
+    /**
+     * @return 可以直接从（表，列）上的索引中读出的列（未限定）：索引的各列和INCLUDE列
+     */
+    public abstract List<String> getIndexColumns(String tableName, String columnName);
+
     // 扫描 ///////////////////////////////////////////////////////////////////
 
     /**
@@ -140,15 +179,50 @@ public abstract class TransactionContext implements AutoCloseable {
     public abstract Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue);
 
     /**
-     * 返回`tableName`中`columnName`值等于`key`的记录迭代器。
+     * 返回`tableName`中`columnName`值等于`key`的记录迭代器。列上没有B+树索引时
+     * 使用哈希索引。
      */
     public abstract Iterator<Record> lookupKey(String tableName, String columnName, DataBox key);
 
+    /**
+     * 批量版本的lookupKey：`keys`必须按升序排列，返回的第i个迭代器是`columnName`值
+     * 等于keys.get(i)的记录上的迭代器。B+树索引上的一批键只从根向下查找一次
+     * （见BPlusTree.getBatch）。
+     */
+    public abstract List<Iterator<Record>> lookupKeys(String tableName, String columnName, List<DataBox> keys);
+
+    /**
+     * 仅索引扫描：返回（表，列）上的索引中`columnName`的值在闭区间[`startValue`, `endValue`]
+     * 内的条目，按`columnName`值升序排列，不访问表。`startValue`或`endValue`为null时表示
+     * 没有下界或上界。每条记录只包含`columns`中的列（按`columns`中的顺序），这些列必须
+     * 都在getIndexColumns(tableName, columnName)中。
+     */
+    public abstract Iterator<Record> indexOnlyScan(String tableName, String columnName, List<String> columns,
+                                                   DataBox startValue, DataBox endValue);
+
+    /**
+     * 位图堆扫描：返回`tableName`中`columnName`的值在闭区间[`startValue`, `endValue`]内的记录，
+     * `startValue`或`endValue`为null时表示没有下界或上界。先从（表，列）上的索引中收集
+     * 匹配的记录ID，按页面分组，再按页号顺序读取这些页面，每个页面只读取一次。
+     * 每次最多收集工作内存（B页）能容纳的记录ID，更多的匹配记录分成几批处理，
+     * 每批内记录按页号和条目号排列，而不是按`columnName`的值排列。
+     */
+    public abstract Iterator<Record> bitmapHeapScan(String tableName, String columnName,
+                                                    DataBox startValue, DataBox endValue);
+
     /**
      * 返回`tableName`中所有记录的回溯迭代器。
      */
     public abstract BacktrackingIterator<Record> getRecordIterator(String tableName);
 
+    /**
+     * 返回`tableName`中满足所有`predicates`的记录的回溯迭代器。
+     * 谓词直接在页面上的序列化字节上求值，只有满足谓词的记录才会被解码，
+     * 并且每条记录只解码`columns`中的列（为null时解码所有列）。
+     */
+    public abstract BacktrackingIterator<Record> getRecordIterator(String tableName, List<ScanPredicate> predicates,
+                                                                   List<Integer> columns);
+
     public abstract boolean contains(String tableName, String columnName, DataBox key);
 
     // 记录操作 ///////////////////////////////////////////////////////
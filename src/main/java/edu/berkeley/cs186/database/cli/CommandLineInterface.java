@@ -189,6 +189,13 @@ public class CommandLineInterface {
             List<Record> records = db.scanIndexMetadataRecords();
             new PrettyPrinter(out).printRecords(db.getIndexInfoSchema().getFieldNames(),
                     records.iterator());
+        } else if (cmd.equals("vacuum") && tokens.length == 2) {
+            if (tc != null) {
+                this.out.println("不能在事务中整理表。");
+            } else {
+                int freed = db.compactTable(tokens[1]);
+                this.out.printf("整理完成，释放了 %d 个数据页。\n", freed);
+            }
         } else if (cmd.equals("locks")) {
             if (tc == null) {
                 this.out.println("没有持有锁，因为当前不在事务中。");
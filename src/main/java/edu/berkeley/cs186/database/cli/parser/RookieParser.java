@@ -953,6 +953,20 @@ if (jjtc000) {
       identifier();
       jj_consume_token(OPEN_PAR);
       column_name();
+      label_20:
+      while (true) {
+        switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+        case COMMA:{
+          ;
+          break;
+          }
+        default:
+          jj_la1[65] = jj_gen;
+          break label_20;
+        }
+        jj_consume_token(COMMA);
+        column_name();
+      }
       jj_consume_token(CLOSE_PAR);
     } catch (Throwable jjte000) {
 if (jjtc000) {
@@ -2609,7 +2623,7 @@ if (jjtc000) {
   private Token jj_scanpos, jj_lastpos;
   private int jj_la;
   private int jj_gen;
-  final private int[] jj_la1 = new int[65];
+  final private int[] jj_la1 = new int[66];
   static private int[] jj_la1_0;
   static private int[] jj_la1_1;
   static private int[] jj_la1_2;
@@ -2619,13 +2633,13 @@ if (jjtc000) {
 	   jj_la1_init_2();
 	}
 	private static void jj_la1_init_0() {
-	   jj_la1_0 = new int[] {0x20,0x20,0xd0000000,0x20,0x10000000,0x0,0xc0000000,0x10000000,0x0,0xc0000000,0x20,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x200,0x200,0x0,0x200,0x10000000,0x0,0x0,0x200,0x0,0x0,0x0,0x200,0x80,0x200,0x20000080,0x80,0x200,0x0,0x0,0x180000,0x20000000,0x400,0x3806080,0x400,0x400,0x40,0x400,0x0,0x40,0x20000000,0x1806000,0x6000,0x6000,0x1806000,0x7f8000,0x4000000,0x8000000,0x2000000,0x1c00,0x6000,0x8000000,0x4000000,0x2000000,0x200,0x3806480,0x3806480,0x6080,};
+	   jj_la1_0 = new int[] {0x20,0x20,0xd0000000,0x20,0x10000000,0x0,0xc0000000,0x10000000,0x0,0xc0000000,0x20,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x200,0x200,0x0,0x200,0x10000000,0x0,0x0,0x200,0x0,0x0,0x0,0x200,0x80,0x200,0x20000080,0x80,0x200,0x0,0x0,0x180000,0x20000000,0x400,0x3806080,0x400,0x400,0x40,0x400,0x0,0x40,0x20000000,0x1806000,0x6000,0x6000,0x1806000,0x7f8000,0x4000000,0x8000000,0x2000000,0x1c00,0x6000,0x8000000,0x4000000,0x2000000,0x200,0x3806480,0x3806480,0x6080,0x200,};
 	}
 	private static void jj_la1_init_1() {
-	   jj_la1_1 = new int[] {0x0,0x0,0x1b71800a,0x0,0x8,0x8000,0x1b710002,0x8,0x8000,0x1b610002,0x0,0x1000000,0x800000,0x1000000,0x4000000,0x800000,0x600000,0x800000,0x0,0x0,0x100,0x0,0x0,0x200,0x100,0x0,0x1000,0x0,0x4000,0x0,0x0,0x0,0x0,0x0,0x0,0x60,0x20,0x0,0x0,0x0,0x800,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x200,0x400,0x800,0x0,0x0,0x400,0x200,0x800,0x0,0x800,0x800,0x0,};
+	   jj_la1_1 = new int[] {0x0,0x0,0x1b71800a,0x0,0x8,0x8000,0x1b710002,0x8,0x8000,0x1b610002,0x0,0x1000000,0x800000,0x1000000,0x4000000,0x800000,0x600000,0x800000,0x0,0x0,0x100,0x0,0x0,0x200,0x100,0x0,0x1000,0x0,0x4000,0x0,0x0,0x0,0x0,0x0,0x0,0x60,0x20,0x0,0x0,0x0,0x800,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x200,0x400,0x800,0x0,0x0,0x400,0x200,0x800,0x0,0x800,0x800,0x0,0x0,};
 	}
 	private static void jj_la1_init_2() {
-	   jj_la1_2 = new int[] {0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x1,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x62,0x40,0x40,0x0,0x0,0x40,0x0,0x0,0x62,0x0,0x0,0x22,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x62,0x62,0x0,};
+	   jj_la1_2 = new int[] {0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x1,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x62,0x40,0x40,0x0,0x0,0x40,0x0,0x0,0x62,0x0,0x0,0x22,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x62,0x62,0x0,0x0,};
 	}
   final private JJCalls[] jj_2_rtns = new JJCalls[12];
   private boolean jj_rescan = false;
@@ -2642,7 +2656,7 @@ if (jjtc000) {
 	 token = new Token();
 	 jj_ntk = -1;
 	 jj_gen = 0;
-	 for (int i = 0; i < 65; i++) jj_la1[i] = -1;
+	 for (int i = 0; i < 66; i++) jj_la1[i] = -1;
 	 for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2658,7 +2672,7 @@ if (jjtc000) {
 	 jj_ntk = -1;
 	 jjtree.reset();
 	 jj_gen = 0;
-	 for (int i = 0; i < 65; i++) jj_la1[i] = -1;
+	 for (int i = 0; i < 66; i++) jj_la1[i] = -1;
 	 for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2669,7 +2683,7 @@ if (jjtc000) {
 	 token = new Token();
 	 jj_ntk = -1;
 	 jj_gen = 0;
-	 for (int i = 0; i < 65; i++) jj_la1[i] = -1;
+	 for (int i = 0; i < 66; i++) jj_la1[i] = -1;
 	 for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2689,7 +2703,7 @@ if (jjtc000) {
 	 jj_ntk = -1;
 	 jjtree.reset();
 	 jj_gen = 0;
-	 for (int i = 0; i < 65; i++) jj_la1[i] = -1;
+	 for (int i = 0; i < 66; i++) jj_la1[i] = -1;
 	 for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2699,7 +2713,7 @@ if (jjtc000) {
 	 token = new Token();
 	 jj_ntk = -1;
 	 jj_gen = 0;
-	 for (int i = 0; i < 65; i++) jj_la1[i] = -1;
+	 for (int i = 0; i < 66; i++) jj_la1[i] = -1;
 	 for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2710,7 +2724,7 @@ if (jjtc000) {
 	 jj_ntk = -1;
 	 jjtree.reset();
 	 jj_gen = 0;
-	 for (int i = 0; i < 65; i++) jj_la1[i] = -1;
+	 for (int i = 0; i < 66; i++) jj_la1[i] = -1;
 	 for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2845,7 +2859,7 @@ if (jjtc000) {
 	   la1tokens[jj_kind] = true;
 	   jj_kind = -1;
 	 }
-	 for (int i = 0; i < 65; i++) {
+	 for (int i = 0; i < 66; i++) {
 	   if (jj_la1[i] == jj_gen) {
 		 for (int j = 0; j < 32; j++) {
 		   if ((jj_la1_0[i] & (1<<j)) != 0) {
@@ -0,0 +1,76 @@
+package edu.berkeley.cs186.database.common;
+
+/**
+ * 布隆过滤器：判断一个键是否可能被加入过。mightContain返回false时键一定没有被加入过，
+ * 返回true时有很小的概率误判。
+ *
+ * 每个键占用BITS_PER_KEY位，由键的hashCode通过双重哈希得到NUM_HASHES个位置，
+ * 按预期的键数创建时误判率约为1%。可以限制过滤器的位数（例如只给它一页内存），这时每个键
+ * 分到的位数更少，哈希函数的个数也相应减少。加入的键超过预期的键数时过滤器仍然正确，只是误判率变高。
+ */
+public class BloomFilter {
+    private static final int BITS_PER_KEY = 10;
+    private static final int NUM_HASHES = 7;
+
+    private final long[] words;
+    private final long numBits;
+    private final int numHashes;
+
+    /**
+     * @param expectedKeys 预期加入的键数
+     */
+    public BloomFilter(long expectedKeys) {
+        // 最多使用8MB
+        this(expectedKeys, 1L << 26);
+    }
+
+    /**
+     * @param expectedKeys 预期加入的键数
+     * @param maxBits 过滤器最多使用的位数
+     */
+    public BloomFilter(long expectedKeys, long maxBits) {
+        expectedKeys = Math.max(1, expectedKeys);
+        long bits = Math.min(expectedKeys * BITS_PER_KEY, maxBits);
+        bits = Math.max(64, bits);
+        this.words = new long[(int) ((bits + Long.SIZE - 1) / Long.SIZE)];
+        this.numBits = (long) words.length * Long.SIZE;
+        // 每个键分到m位时，k = m * ln2个哈希函数的误判率最低
+        long hashes = Math.round((double) numBits / expectedKeys * Math.log(2));
+        this.numHashes = (int) Math.max(1, Math.min(NUM_HASHES, hashes));
+    }
+
+    /**
+     * 加入一个键。
+     */
+    public void add(Object key) {
+        long h1 = mix(key.hashCode());
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return `key`是否可能被加入过
+     */
+    public boolean mightContain(Object key) {
+        long h1 = mix(key.hashCode());
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // MurmurHash3的64位终结函数，让hashCode的每一位都影响结果的每一位
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
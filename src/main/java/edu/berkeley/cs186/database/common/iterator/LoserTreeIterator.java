@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.common.iterator;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ * 用败者树对k个有序的迭代器做k路合并。
+ *
+ * 每个输入迭代器对应树的一个叶子（槽位），槽位中保存迭代器当前的第一个元素；
+ * 内部结点保存在它的子树中比赛失败的槽位，tree[0]保存最终的胜者，即最小的元素所在的槽位。
+ * 取出胜者之后只需要从它的叶子向根重新比赛一次，每个元素恰好比较⌊log k⌋或⌈log k⌉次，
+ * 而二叉堆的下沉每层要比较两次。槽位在整个合并过程中重复使用，不会为每个元素分配对象。
+ *
+ * 可以给出一个把元素映射为long的键函数（例如SortKey.normalize），键按Long.compare的顺序
+ * 必须与比较器一致：每个元素进入槽位时计算一次键，键相等时才调用比较器。
+ * 相等的元素按输入迭代器的顺序返回。
+ */
+public class LoserTreeIterator<T> implements Iterator<T> {
+    private final List<? extends Iterator<T>> sources;
+    private final Comparator<? super T> comparator;
+    private final ToLongFunction<? super T> keyFunction;
+    private final int k;
+
+    // 每个槽位当前的元素、它的键，以及槽位对应的迭代器是否已经耗尽
+    private final T[] heads;
+    private final long[] keys;
+    private final boolean[] exhausted;
+    // tree[1..k-1]是内部结点中的败者，tree[0]是胜者；叶子i是结点k+i
+    private final int[] tree;
+
+    /**
+     * @param sources 有序的输入迭代器
+     * @param comparator 输入迭代器的顺序
+     */
+    public LoserTreeIterator(List<? extends Iterator<T>> sources, Comparator<? super T> comparator) {
+        this(sources, null, comparator);
+    }
+
+    /**
+     * @param sources 有序的输入迭代器
+     * @param keyFunction 元素的键，为null时只使用比较器
+     * @param comparator 输入迭代器的顺序，用于比较键相等的元素
+     */
+    @SuppressWarnings("unchecked")
+    public LoserTreeIterator(List<? extends Iterator<T>> sources,
+                             ToLongFunction<? super T> keyFunction,
+                             Comparator<? super T> comparator) {
+        this.sources = sources;
+        this.comparator = comparator;
+        this.keyFunction = keyFunction;
+        this.k = sources.size();
+        this.heads = (T[]) new Object[k];
+        this.keys = new long[k];
+        this.exhausted = new boolean[k];
+        this.tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++) {
+            advance(i);
+        }
+        if (k > 0) {
+            tree[0] = k == 1 ? 0 : build(1);
+        }
+    }
+
+    /**
+     * 在结点`node`的子树中比赛，把败者留在内部结点中。
+     *
+     * @return 子树的胜者
+     */
+    private int build(int node) {
+        if (node >= k) return node - k;
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /**
+     * 用槽位`slot`对应的迭代器的下一个元素填充槽位。
+     */
+    private void advance(int slot) {
+        Iterator<T> source = sources.get(slot);
+        if (source.hasNext()) {
+            heads[slot] = source.next();
+            if (keyFunction != null) keys[slot] = keyFunction.applyAsLong(heads[slot]);
+        } else {
+            heads[slot] = null;
+            exhausted[slot] = true;
+        }
+    }
+
+    /**
+     * @return 槽位`a`的元素是否应该在槽位`b`的元素之前返回。耗尽的槽位比任何元素都大。
+     */
+    private boolean beats(int a, int b) {
+        if (exhausted[a]) return false;
+        if (exhausted[b]) return true;
+        if (keyFunction != null && keys[a] != keys[b]) return keys[a] < keys[b];
+        int cmp = comparator.compare(heads[a], heads[b]);
+        return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return k > 0 && !exhausted[tree[0]];
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int winner = tree[0];
+        T result = heads[winner];
+        advance(winner);
+        // 从胜者的叶子向根重新比赛
+        for (int node = (winner + k) / 2; node >= 1; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+        return result;
+    }
+}
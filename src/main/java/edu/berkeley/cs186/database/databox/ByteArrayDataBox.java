@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.databox;
 
+import java.util.Arrays;
+
 public class ByteArrayDataBox extends DataBox {
     byte[] bytes;
 
@@ -20,15 +22,52 @@ public class ByteArrayDataBox extends DataBox {
         return TypeId.BYTE_ARRAY;
     }
 
+    @Override
+    public byte[] getByteArray() {
+        return this.bytes;
+    }
+
     @Override
     public byte[] toBytes() {
         return this.bytes;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ByteArrayDataBox)) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((ByteArrayDataBox) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Byte arrays are ordered lexicographically by their unsigned bytes (like
+     * memcmp), with a proper prefix ordered before the longer array.
+     */
     @Override
     public int compareTo(DataBox other) {
-        throw new RuntimeException("Cannot compare byte arrays");
+        if (!(other instanceof ByteArrayDataBox)) {
+            String err = String.format("Invalid comparison between %s and %s.",
+                                       toString(), other.toString());
+            throw new IllegalArgumentException(err);
+        }
+        byte[] o = ((ByteArrayDataBox) other).bytes;
+        int n = Math.min(bytes.length, o.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(bytes[i] & 0xFF, o[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return Integer.compare(bytes.length, o.length);
     }
+
     @Override
     public String toString() {
         return "byte_array";
@@ -102,6 +102,59 @@ public abstract class DataBox implements Comparable<DataBox> {
         }
     }
 
+    /**
+     * Compares a serialized DataBox against `value` without deserializing it.
+     * The result has the same sign as
+     * DataBox.fromBytes(buf.position(offset), type).compareTo(value), but the
+     * buffer is read using absolute indices and its position is unchanged.
+     *
+     * @param buf the buffer containing the serialized DataBox
+     * @param offset the offset of the serialized DataBox in `buf`
+     * @param type the type of the serialized DataBox
+     * @param value the DataBox to compare against; must have the same TypeId as `type`
+     */
+    public static int compareSerialized(Buffer buf, int offset, Type type, DataBox value) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                return Boolean.compare(buf.get(offset) == 1, value.getBool());
+            case INT:
+                return Integer.compare(buf.getInt(offset), value.getInt());
+            case LONG:
+                return Long.compare(buf.getLong(offset), value.getLong());
+            case FLOAT:
+                return Float.compare(buf.getFloat(offset), value.getFloat());
+            case STRING: {
+                // Strings are stored as ASCII padded with null bytes, which
+                // StringDataBox trims off, so we compare the unpadded prefix
+                // character by character like String.compareTo.
+                int length = type.getSizeInBytes();
+                while (length > 0 && buf.get(offset + length - 1) == 0) length--;
+                String s = value.getString();
+                int n = Math.min(length, s.length());
+                for (int i = 0; i < n; i++) {
+                    int c = (buf.get(offset + i) & 0xFF) - s.charAt(i);
+                    if (c != 0) return c;
+                }
+                return length - s.length();
+            }
+            case BYTE_ARRAY: {
+                // Same unsigned lexicographic order as ByteArrayDataBox.compareTo.
+                byte[] bytes = value.getByteArray();
+                int length = type.getSizeInBytes();
+                int n = Math.min(length, bytes.length);
+                for (int i = 0; i < n; i++) {
+                    int c = (buf.get(offset + i) & 0xFF) - (bytes[i] & 0xFF);
+                    if (c != 0) return c;
+                }
+                return length - bytes.length;
+            }
+            default: {
+                String err = String.format("Unhandled TypeId %s.", type.getTypeId());
+                throw new IllegalArgumentException(err);
+            }
+        }
+    }
+
     public static DataBox fromString(Type type, String s) {
         String raw = s;
         s = s.toLowerCase().trim();
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
@@ -16,6 +17,12 @@ import java.util.Optional;
  * B+树节点的抽象，有两种不同的节点：内部节点 + 叶子节点
  */
 abstract class BPlusNode {
+    // 节点页面的第一个字节：节点的类型和格式（压缩格式见PrefixCompression）
+    static final byte INNER_PAGE = 0;
+    static final byte LEAF_PAGE = 1;
+    static final byte COMPRESSED_INNER_PAGE = 2;
+    static final byte COMPRESSED_LEAF_PAGE = 3;
+
     // 核心API ////////////////////////////////////////////////////////////////
     /**
      * n.get(k) 返回从n查询时k可能所在的叶节点。
@@ -199,6 +206,30 @@ abstract class BPlusNode {
     /** 获取此节点持久化的页面。 */
     abstract Page getPage();
 
+    /** 将此节点复制到一个全新的页面上，并返回新页面上的节点。 */
+    abstract BPlusNode copyToNewPage();
+
+    /** 释放此节点的页面（见BPlusTree.compact）。之后不能再使用此节点。 */
+    void free(BufferManager bufferManager) {
+        Page page = getPage();
+        page.pin();
+        try {
+            bufferManager.freePage(page);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * @return 页面`page`内容的一份拷贝。每次从页面的缓冲区读取都要检查页面上的锁，
+     * 所以反序列化节点时先一次性拷贝整个页面，再从拷贝中逐个读取键和指针。
+     */
+    static Buffer copyOf(Page page) {
+        byte[] bytes = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        page.getBuffer().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
     // Pretty Printing /////////////////////////////////////////////////////////
     /**
      * S表达式（或sexp）是一种紧凑的编码嵌套树状结构的方式
@@ -231,6 +262,45 @@ abstract class BPlusNode {
     /** n.toBytes() 序列化n。 */
     public abstract byte[] toBytes();
 
+    /**
+     * @param buf 节点页面的缓冲区
+     * @return 序列化在`buf`中的节点是否是叶节点（不改变缓冲区的位置）
+     */
+    static boolean isLeafPage(Buffer buf) {
+        byte b = buf.get(0);
+        return b == LEAF_PAGE || b == COMPRESSED_LEAF_PAGE;
+    }
+
+    /**
+     * @param buf 节点页面的缓冲区
+     * @return 序列化在`buf`中的节点是否使用压缩格式（见PrefixCompression）
+     */
+    static boolean isCompressedPage(Buffer buf) {
+        byte b = buf.get(0);
+        return b == COMPRESSED_INNER_PAGE || b == COMPRESSED_LEAF_PAGE;
+    }
+
+    /**
+     * @param buf 节点页面的缓冲区
+     * @return 序列化在`buf`中的节点的键的数量（不改变缓冲区的位置）
+     */
+    static int numKeys(Buffer buf) {
+        // 叶节点的键数量在右兄弟页号之后，内部节点的键数量紧跟在isLeaf之后
+        return isLeafPage(buf) ? buf.getInt(1 + Long.BYTES) : buf.getInt(1);
+    }
+
+    /**
+     * @param buf 节点页面的缓冲区
+     * @return 向序列化在`buf`中的节点再插入一个键时它是否一定不会分裂
+     */
+    static boolean hasRoom(Buffer buf, BPlusTreeMetadata metadata) {
+        if (!isCompressedPage(buf)) {
+            return numKeys(buf) < 2 * metadata.getOrder();
+        }
+        return isLeafPage(buf) ? LeafNode.hasRoom(buf, metadata.getKeySchema())
+                               : InnerNode.hasRoom(buf, metadata.getKeySchema());
+    }
+
     /**
      * BPlusNode.fromBytes(m, p) 从页面`pageNum`加载BPlusNode。
      */
@@ -240,9 +310,9 @@ abstract class BPlusNode {
         try {
             Buffer buf = p.getBuffer();
             byte b = buf.get();
-            if (b == 1) {
+            if (b == LEAF_PAGE || b == COMPRESSED_LEAF_PAGE) {
                 return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else if (b == 0) {
+            } else if (b == INNER_PAGE || b == COMPRESSED_INNER_PAGE) {
                 return InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
             } else {
                 String msg = String.format("Unexpected byte %b.", b);
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
@@ -9,6 +10,7 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.RecordId;
 
 import java.io.FileWriter;
@@ -50,6 +52,20 @@ import java.util.*;
  *   fromDisk.get(new IntDataBox(0)); // Optional.empty()
  *   fromDisk.get(new IntDataBox(1)); // Optional.of(RecordId(1, 1))
  *   fromDisk.get(new IntDataBox(2)); // Optional.of(RecordId(2, 2))
+ *
+ * 默认情况下，树的每个操作都会在整棵树的锁上下文上获取S锁或X锁，所以同一棵树上的
+ * 操作是串行的。并发模式下的树（构造时传入NodeLatches）不获取整棵树的锁，
+ * 而是用节点的闩进行闩耦合（latch coupling）：
+ *
+ *   - 读操作从根开始向下，获取子节点的共享闩后再释放父节点的共享闩；
+ *   - 插入和删除先乐观地以同样的方式向下，只对叶节点获取独占闩。如果叶节点已满
+ *     （插入会使它分裂），则释放所有闩，从根开始以独占闩重新向下，
+ *     遇到不会分裂的节点时释放它的所有祖先；
+ *   - 扫描沿着叶节点的右兄弟指针前进，每次只持有一个叶节点的共享闩。
+ *
+ * 并发模式下根页面不会改变：根节点分裂时，它的内容被复制到新页面上，根页面被改写为
+ * 指向两个子节点的内部节点。因此同一棵树的多个BPlusTree对象（例如不同事务中的）
+ * 只需要共享同一个NodeLatches，就可以安全地并发使用。事务之间的隔离由表上的锁保证。
  */
 public class BPlusTree {
     // 缓冲区管理器
@@ -58,12 +74,20 @@ public class BPlusTree {
     // B+树元数据
     private BPlusTreeMetadata metadata;
 
-    // B+树的根
+    // B+树的根。只有根节点常驻内存：其余的节点在查找时直接在页面上进行二分查找
+    // （见findLeaf），只有被修改的节点才会被反序列化为InnerNode/LeafNode对象。
+    // 有上层节点的缓存时，根节点在第一次使用时才被读取（见getRoot）。
     private BPlusNode root;
 
     // B+树的锁上下文
     private LockContext lockContext;
 
+    // 并发模式下节点的闩；为null时树不是并发的
+    private NodeLatches latches;
+
+    // 上层内部节点的缓存；为null时不缓存。并发模式下不使用缓存。
+    private NodeCache cache;
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * 使用元数据`metadata`和锁上下文`lockContext`构造新的B+树。
@@ -83,10 +107,34 @@ public class BPlusTree {
      * 在给定分区上分配的所有页面都是内部节点和叶节点的序列化。
      */
     public BPlusTree(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext) {
+        this(bufferManager, metadata, lockContext, null);
+    }
+
+    /**
+     * 构造新的B+树。如果`latches`不为null，则树处于并发模式（见类的注释），
+     * 同一棵树的所有BPlusTree对象必须使用同一个`latches`。
+     */
+    public BPlusTree(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext,
+                     NodeLatches latches) {
+        this(bufferManager, metadata, lockContext, latches, null);
+    }
+
+    /**
+     * 构造新的B+树。如果`cache`不为null，则查找时使用缓存的上层内部节点（见NodeCache），
+     * 同一棵树的所有BPlusTree对象必须使用同一个`cache`。并发模式下`cache`必须为null。
+     */
+    public BPlusTree(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext,
+                     NodeLatches latches, NodeCache cache) {
+        if (latches != null && cache != null) {
+            throw new BPlusTreeException("a B+ tree in concurrent mode cannot cache its nodes");
+        }
+        this.latches = latches;
+        this.cache = cache;
+        this.lockContext = lockContext;
         // 防止子锁 - 我们只锁定整个树。
         lockContext.disableChildLocks();
         // 默认情况下我们要读取整棵树
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        lockTree(LockType.S);
 
         // 合理性检查.
         if (metadata.getOrder() < 0) {
@@ -96,7 +144,15 @@ public class BPlusTree {
             throw new BPlusTreeException(msg);
         }
 
-        int maxOrder = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
+        if (metadata.isCompressed() &&
+                !supportsCompression(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema())) {
+            String msg = String.format("Keys of type %s cannot be compressed.", metadata.getKeySchema());
+            throw new BPlusTreeException(msg);
+        }
+
+        int maxOrder = metadata.isCompressed()
+                       ? maxCompressedOrder(BufferManager.EFFECTIVE_PAGE_SIZE)
+                       : BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
         if (metadata.getOrder() > maxOrder) {
             String msg = String.format(
                     "You cannot construct a B+ tree with order %d greater than the " +
@@ -106,15 +162,18 @@ public class BPlusTree {
         }
 
         this.bufferManager = bufferManager;
-        this.lockContext = lockContext;
         this.metadata = metadata;
 
         if (this.metadata.getRootPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
-            this.root = BPlusNode.fromBytes(this.metadata, bufferManager, lockContext,
-                    this.metadata.getRootPageNum());
+            // 并发模式下根节点可能被其他线程修改，所以不在内存中保存根节点；
+            // 有缓存时查找不需要根节点，在第一次使用时才读取
+            if (latches == null && cache == null) {
+                this.root = BPlusNode.fromBytes(this.metadata, bufferManager, lockContext,
+                        this.metadata.getRootPageNum());
+            }
         } else {
             // 我们正在创建根节点，这意味着我们需要对树进行独占访问
-            LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+            lockTree(LockType.X);
             // 构造根节点。
             List<DataBox> keys = new ArrayList<>();
             List<RecordId> rids = new ArrayList<>();
@@ -139,19 +198,20 @@ public class BPlusTree {
     public Optional<RecordId> get(DataBox key) {
         typecheck(key);
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
-
-        // 1.获取对应的叶子节点
-        LeafNode leafNode = root.get(key);
-        // 2.查询叶子节点
-        List<DataBox> keys = leafNode.getKeys();
-        for (int i = 0; i < keys.size(); i++) {
-            if (keys.get(i).equals(key)) {
-                return Optional.of(leafNode.getRids().get(i));
+        lockTree(LockType.S);
+
+        // 直接在页面上找到叶节点并查找键，不反序列化任何节点
+        long pageNum = latches == null ? findLeaf(key, null) : latchLeaf(key, false);
+        try {
+            Page leaf = bufferManager.fetchPage(lockContext, pageNum);
+            try {
+                return LeafNode.findKey(leaf.getBuffer(), metadata.getKeySchema(), key);
+            } finally {
+                leaf.unpin();
             }
+        } finally {
+            unlatch(pageNum, false);
         }
-        // 3.没有就返回空
-        return Optional.empty();
     }
 
     /**
@@ -162,7 +222,7 @@ public class BPlusTree {
     public Iterator<RecordId> scanEqual(DataBox key) {
         typecheck(key);
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        lockTree(LockType.S);
 
         Optional<RecordId> rid = get(key);
         if (rid.isPresent()) {
@@ -199,7 +259,7 @@ public class BPlusTree {
      */
     public Iterator<RecordId> scanAll() {
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        lockTree(LockType.S);
 
         // TODO(proj2): Return a BPlusTreeIterator.
         return new BPlusTreeIterator();
@@ -229,12 +289,164 @@ public class BPlusTree {
     public Iterator<RecordId> scanGreaterEqual(DataBox key) {
         typecheck(key);
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        lockTree(LockType.S);
 
         // TODO(proj2): Return a BPlusTreeIterator.
         return new BPlusTreeIterator(key);
     }
 
+    /**
+     * 返回B+树中存储的键在闭区间[`low`, `high`]内的所有RecordIds的迭代器，
+     * 按其对应键的升序返回。用于查找非唯一索引和组合键索引中以某个前缀开头的键
+     * （见KeyEncoding）。
+     *
+     *   Iterator<RecordId> iter = tree.scanRange(new IntDataBox(2), new IntDataBox(4));
+     *   iter.next(); // RecordId(2, 2)
+     *   iter.next(); // RecordId(3, 3)
+     *   iter.next(); // RecordId(4, 4)
+     *   iter.next(); // NoSuchElementException
+     */
+    public Iterator<RecordId> scanRange(DataBox low, DataBox high) {
+        typecheck(low);
+        typecheck(high);
+        // TODO(proj4_integration): Update the following line
+        lockTree(LockType.S);
+
+        BPlusTreeIterator iter = new BPlusTreeIterator(low);
+        iter.high = high;
+        return iter;
+    }
+
+    /**
+     * 与scanRange相同，但返回(键, 记录ID)对而不只是记录ID，`low`或`high`为null时
+     * 表示没有下界或上界。用于覆盖索引的仅索引扫描：查询需要的列可以直接从键中
+     * 读出（见KeyEncoding.decode），不需要访问表。
+     */
+    public Iterator<Pair<DataBox, RecordId>> scanEntries(DataBox low, DataBox high) {
+        if (low != null) typecheck(low);
+        if (high != null) typecheck(high);
+        // TODO(proj4_integration): Update the following line
+        lockTree(LockType.S);
+
+        BPlusTreeIterator iter = low == null ? new BPlusTreeIterator() : new BPlusTreeIterator(low);
+        iter.high = high;
+        return new Iterator<Pair<DataBox, RecordId>>() {
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public Pair<DataBox, RecordId> next() {
+                if (!iter.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                DataBox key = iter.keys.get(iter.index);
+                return new Pair<>(key, iter.next());
+            }
+        };
+    }
+
+    /**
+     * 批量版本的get：`keys`必须按升序排列，返回的第i个元素是get(keys.get(i))。
+     * 只为第一个键从根向下查找，之后的键如果落在当前叶节点或它的右兄弟节点中就直接
+     * 在叶节点上查找，否则才重新从根向下查找。键比较密集时（例如索引嵌套循环连接中
+     * 一批排好序的连接键）读取的页面比逐个调用get少得多。
+     *
+     *   tree.getBatch(Arrays.asList(new IntDataBox(1), new IntDataBox(2)));
+     *   // [Optional.of(rid1), Optional.of(rid2)]
+     */
+    public List<Optional<RecordId>> getBatch(List<DataBox> keys) {
+        List<Optional<RecordId>> result = new ArrayList<>();
+        for (List<RecordId> rids : scanRangeBatch(keys, keys)) {
+            result.add(rids.isEmpty() ? Optional.empty() : Optional.of(rids.get(0)));
+        }
+        return result;
+    }
+
+    /**
+     * 批量版本的scanRange：返回的第i个元素是scanRange(lows.get(i), highs.get(i))中的
+     * 所有记录ID。`lows`必须按升序排列。叶节点的查找方式同getBatch，用于非唯一索引
+     * 和组合键索引上的批量查找（见KeyEncoding）。
+     */
+    public List<List<RecordId>> scanRangeBatch(List<DataBox> lows, List<DataBox> highs) {
+        if (lows.size() != highs.size()) {
+            throw new BPlusTreeException("batch bounds have different lengths");
+        }
+        // TODO(proj4_integration): Update the following line
+        lockTree(LockType.S);
+
+        List<List<RecordId>> result = new ArrayList<>();
+        LeafNode leaf = null;
+        // 如果当前叶节点是通过从根查找某个键得到的，则为这个键，否则为null
+        DataBox descended = null;
+        for (int i = 0; i < lows.size(); ++i) {
+            DataBox low = lows.get(i);
+            DataBox high = highs.get(i);
+            typecheck(low);
+            typecheck(high);
+
+            // 1.找到第一个>=low的条目所在的叶节点
+            if (leaf == null || !startsAtOrBefore(leaf, descended, low)) {
+                leaf = loadLeaf(low);
+                descended = low;
+            } else if (!covers(leaf, low)) {
+                // 当前叶节点中的键都小于low：先试右兄弟节点，仍然不在其中则从根查找
+                leaf = loadLeaf(leaf.getRightSiblingPageNum().get());
+                descended = null;
+                if (!covers(leaf, low)) {
+                    leaf = loadLeaf(low);
+                    descended = low;
+                }
+            }
+
+            // 2.从low开始沿着叶节点收集<=high的条目
+            List<RecordId> rids = new ArrayList<>();
+            List<DataBox> keys = leaf.getKeys();
+            int index = InnerNode.numLessThan(low, keys);
+            while (true) {
+                if (index >= keys.size()) {
+                    Optional<Long> sibling = leaf.getRightSiblingPageNum();
+                    if (!sibling.isPresent()) {
+                        break;
+                    }
+                    leaf = loadLeaf(sibling.get());
+                    descended = null;
+                    keys = leaf.getKeys();
+                    index = 0;
+                    continue;
+                }
+                if (keys.get(index).compareTo(high) > 0) {
+                    break;
+                }
+                rids.add(leaf.getRids().get(index++));
+            }
+            result.add(rids);
+        }
+        return result;
+    }
+
+    /**
+     * @return `key`之前的叶节点中是否一定没有>=`key`的条目，即从`leaf`开始向右查找
+     * `key`是正确的
+     */
+    private static boolean startsAtOrBefore(LeafNode leaf, DataBox descended, DataBox key) {
+        if (descended != null && descended.compareTo(key) <= 0) {
+            return true;
+        }
+        List<DataBox> keys = leaf.getKeys();
+        return !keys.isEmpty() && keys.get(0).compareTo(key) <= 0;
+    }
+
+    /** @return >=`key`的第一个条目是否在`leaf`中（或者`leaf`是最后一个叶节点） */
+    private static boolean covers(LeafNode leaf, DataBox key) {
+        List<DataBox> keys = leaf.getKeys();
+        if (!keys.isEmpty() && key.compareTo(keys.get(keys.size() - 1)) <= 0) {
+            return true;
+        }
+        return !leaf.getRightSiblingPageNum().isPresent();
+    }
+
     /**
      * 将(key, rid)对插入B+树。如果键已存在于B+树中，则不插入该对并引发异常。
      *
@@ -246,19 +458,30 @@ public class BPlusTree {
     public void put(DataBox key, RecordId rid) {
         typecheck(key);
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+        lockTree(LockType.X);
 
         // TODO(proj2): implement
         // 注意：您不应直接更新根变量。
         // 如果旧根节点分裂，请使用提供的updateRoot()辅助方法来更改树的根节点。
-        // 1.调用根节点的put方法
-        Optional<Pair<DataBox, Long>> optional = root.put(key, rid);
-        // 2.判断是否有Move UP
+        if (latches != null) {
+            putConcurrent(key, rid);
+            return;
+        }
+        // 1.在页面上找到叶节点，记录经过的内部节点，只反序列化叶节点并插入
+        List<Long> path = new ArrayList<>();
+        Optional<Pair<DataBox, Long>> optional = getNode(findLeaf(key, path)).put(key, rid);
+        // 2.沿路径向上处理Move UP，只反序列化需要插入新键的内部节点
+        if (optional.isPresent()) {
+            invalidateCache();
+        }
+        for (int i = path.size() - 1; i >= 0 && optional.isPresent(); --i) {
+            optional = ((InnerNode) getNode(path.get(i))).insertChild(optional.get());
+        }
         if (optional.isPresent()) {
-            // 3.有Move UP, 直接创建新的root节点
+            // 3.根节点分裂了, 直接创建新的root节点
             Pair<DataBox, Long> pair = optional.get();
             DataBox newKey = pair.getFirst();
-            long leftPageNum = root.getPage().getPageNum(); // 原来的root
+            long leftPageNum = metadata.getRootPageNum(); // 原来的root
             Long rightPageNum = pair.getSecond();           // 新分裂出的节点
             // 4.初始化数据
             List<DataBox> keys = new ArrayList<>();
@@ -289,21 +512,30 @@ public class BPlusTree {
      */
     public void bulkLoad(Iterator<Pair<DataBox, RecordId>> data, float fillFactor) {
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+        lockTree(LockType.X);
 
         // TODO(proj2): implement
         // 注意：您不应直接更新根变量。
         // 如果旧根节点分裂，请使用提供的updateRoot()辅助方法来更改树的根节点。
+        if (latches != null || metadata.isCompressed()) {
+            // 并发模式下根页面不能改变，压缩的节点按字节数而不是键的数量分裂，逐个插入
+            while (data.hasNext()) {
+                Pair<DataBox, RecordId> pair = data.next();
+                put(pair.getFirst(), pair.getSecond());
+            }
+            return;
+        }
         while (data.hasNext()) {
             // 1. 直接调用root的批量插入
-            Optional<Pair<DataBox, Long>> optional = root.bulkLoad(data, fillFactor);
+            invalidateCache();
+            Optional<Pair<DataBox, Long>> optional = getRoot().bulkLoad(data, fillFactor);
             // 2. 判断是否有up
             if (optional.isPresent()) {
                 // 3. 由于这是来自root的up, 直接创建新的页面来承载就行
                 Pair<DataBox, Long> pair = optional.get();
 
                 DataBox newKey = pair.getFirst();
-                long leftPageNum = root.getPage().getPageNum();
+                long leftPageNum = metadata.getRootPageNum();
                 Long rightPageNum = pair.getSecond();
                 List<DataBox> keys = new ArrayList<>();
                 keys.add(newKey);
@@ -331,11 +563,88 @@ public class BPlusTree {
     public void remove(DataBox key) {
         typecheck(key);
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+        lockTree(LockType.X);
 
         // TODO(proj2): implement
-        // 调用root的remove即可
-        root.remove(key);
+        // 在页面上找到叶节点，只反序列化叶节点并删除
+        if (latches == null) {
+            getNode(findLeaf(key, null)).remove(key);
+            return;
+        }
+        long pageNum = latchLeaf(key, true);
+        try {
+            LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum).remove(key);
+        } finally {
+            unlatch(pageNum, true);
+        }
+    }
+
+    /**
+     * 在线整理B+树。删除只从叶节点中删除条目，从不合并节点，所以大量删除之后
+     * 树中会有很多几乎为空的页面，范围扫描需要读取的页面也会相应增加。整理自底向上地
+     * 把同一个父节点下相邻的、能放进一个节点的两个节点合并为一个节点并释放多余的页面，
+     * 根节点只剩一个子节点时降低树的高度（见InnerNode.compact）。整理之后重新统计
+     * 填充率（见updateFillFactor）。
+     *
+     * 整理在整棵树的X锁下进行，不需要重建索引。并发模式下的树不支持整理：
+     * 扫描在不持有父节点的闩的情况下沿着右兄弟指针前进，可能会读到被释放的页面。
+     *
+     * @return 释放的页面数量
+     */
+    public int compact() {
+        lockTree(LockType.X);
+
+        if (latches != null) {
+            throw new BPlusTreeException("cannot compact a B+ tree in concurrent mode");
+        }
+        invalidateCache();
+        int numFreed = 0;
+        if (getRoot() instanceof InnerNode) {
+            numFreed += ((InnerNode) root).compact();
+            // 根节点只剩一个子节点时，子节点成为新的根节点
+            while (root instanceof InnerNode && ((InnerNode) root).getKeys().isEmpty()) {
+                BPlusNode oldRoot = root;
+                root = BPlusNode.fromBytes(metadata, bufferManager, lockContext,
+                                           ((InnerNode) root).getChildren().get(0));
+                oldRoot.free(bufferManager);
+                ++numFreed;
+                metadata.setRootPageNum(root.getPage().getPageNum());
+                metadata.decrementHeight();
+            }
+        }
+        updateFillFactor();
+        return numFreed;
+    }
+
+    /**
+     * 统计叶节点的平均填充率（见LeafNode.fillFactor），记录在树的元数据中并返回。
+     * 需要读取所有叶节点。
+     */
+    public float updateFillFactor() {
+        lockTree(LockType.S);
+
+        long pageNum = latches == null ? findLeaf(null, null) : latchLeaf(null, false);
+        unlatch(pageNum, false);
+        float total = 0;
+        int numLeaves = 0;
+        while (pageNum != DiskSpaceManager.INVALID_PAGE_NUM) {
+            long leaf = pageNum;
+            if (latches != null) {
+                latches.lock(leaf, false);
+            }
+            Page page = bufferManager.fetchPage(lockContext, leaf);
+            try {
+                total += LeafNode.fillFactor(page.getBuffer(), metadata);
+                pageNum = LeafNode.rightSiblingAt(page.getBuffer());
+            } finally {
+                page.unpin();
+                unlatch(leaf, false);
+            }
+            ++numLeaves;
+        }
+        metadata.setFillFactor(total / numLeaves);
+        saveMetadata();
+        return metadata.getFillFactor();
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -344,8 +653,8 @@ public class BPlusTree {
      */
     public String toSexp() {
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
-        return root.toSexp();
+        lockTree(LockType.S);
+        return getRoot().toSexp();
     }
 
     /**
@@ -360,12 +669,12 @@ public class BPlusTree {
      */
     public String toDot() {
         // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        lockTree(LockType.S);
 
         List<String> strings = new ArrayList<>();
         strings.add("digraph g {" );
         strings.add("  node [shape=record, height=0.1];");
-        strings.add(root.toDot());
+        strings.add(getRoot().toDot());
         strings.add("}");
         return String.join("\n", strings);
     }
@@ -413,6 +722,21 @@ public class BPlusTree {
         return Math.min(leafOrder, innerOrder);
     }
 
+    /**
+     * @return 键的类型为`keySchema`的树是否可以使用压缩的节点（见PrefixCompression）
+     */
+    public static boolean supportsCompression(short pageSize, Type keySchema) {
+        return PrefixCompression.supports(keySchema, pageSize);
+    }
+
+    /**
+     * 返回使用压缩的节点的树的阶数。压缩的节点在序列化后放不下一个页面时才分裂，
+     * 阶数只是节点中键的数量的上界。
+     */
+    public static int maxCompressedOrder(short pageSize) {
+        return PrefixCompression.maxOrder(pageSize);
+    }
+
     /** 返回B+树所在的分区号。 */
     public int getPartNum() {
         return metadata.getPartNum();
@@ -423,15 +747,325 @@ public class BPlusTree {
      **/
     private void updateRoot(BPlusNode newRoot) {
         this.root = newRoot;
+        invalidateCache();
 
         metadata.setRootPageNum(this.root.getPage().getPageNum());
         metadata.incrementHeight();
+        saveMetadata();
+    }
+
+    /** 在当前事务中更新_metadata.indices中树的元数据。 */
+    private void saveMetadata() {
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction != null) {
             transaction.updateIndexMetadata(metadata);
         }
     }
 
+    /**
+     * 在整棵树的锁上下文上获取`lockType`锁。并发模式下不锁定整棵树。
+     */
+    private void lockTree(LockType lockType) {
+        if (latches == null) {
+            LockUtil.ensureSufficientLockHeld(lockContext, lockType);
+        }
+    }
+
+    /** @return 根节点。并发模式下从根页面读取。 */
+    private BPlusNode getRoot() {
+        if (latches != null) {
+            return BPlusNode.fromBytes(metadata, bufferManager, lockContext, metadata.getRootPageNum());
+        }
+        if (root == null) {
+            root = BPlusNode.fromBytes(metadata, bufferManager, lockContext, metadata.getRootPageNum());
+        }
+        return root;
+    }
+
+    /** 树的内部节点被修改之后使缓存的上层节点失效。 */
+    private void invalidateCache() {
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * @return 页面`pageNum`上的节点。根节点直接返回常驻内存的对象，
+     * 其余节点从页面反序列化。
+     */
+    private BPlusNode getNode(long pageNum) {
+        if (pageNum == metadata.getRootPageNum()) {
+            return getRoot();
+        }
+        return BPlusNode.fromBytes(metadata, bufferManager, lockContext, pageNum);
+    }
+
+    /**
+     * 从根开始向下查找，返回`key`所在叶节点的页号（`key`为null时返回最左叶节点）。
+     * 根节点之下的每一层只在内部节点的页面缓冲区上做二分查找（见InnerNode.findChild），
+     * 不反序列化节点。
+     *
+     * @param key 要查找的键，或null表示最左叶节点
+     * @param path 如果不为null，则从根开始依次加入经过的内部节点的页号
+     * @return 叶节点的页号
+     */
+    private long findLeaf(DataBox key, List<Long> path) {
+        if (cache != null) {
+            return findLeafCached(key, path);
+        }
+        long pageNum = metadata.getRootPageNum();
+        BPlusNode rootNode = getRoot();
+        if (rootNode instanceof LeafNode) {
+            return pageNum;
+        }
+        if (path != null) {
+            path.add(pageNum);
+        }
+        return findLeafFrom(((InnerNode) rootNode).getChildPageNum(key), key, path);
+    }
+
+    /**
+     * 与findLeaf相同，但最上面NodeCache.MAX_LEVELS层内部节点从缓存中读取，
+     * 不在缓存中时读取页面并加入缓存。
+     */
+    private long findLeafCached(DataBox key, List<Long> path) {
+        long version = cache.getVersion();
+        long pageNum = metadata.getRootPageNum();
+        for (int level = 0; level < NodeCache.MAX_LEVELS; ++level) {
+            NodeCache.Node node = cache.get(pageNum, version);
+            long child;
+            if (node != null) {
+                child = node.getChildPageNum(key);
+            } else {
+                Page page = bufferManager.fetchPage(lockContext, pageNum);
+                try {
+                    if (BPlusNode.isLeafPage(page.getBuffer())) {
+                        return pageNum;
+                    }
+                } finally {
+                    page.unpin();
+                }
+                InnerNode inner = pageNum == metadata.getRootPageNum() && root != null
+                                  ? (InnerNode) root
+                                  : InnerNode.fromBytes(metadata, bufferManager, lockContext, pageNum);
+                cache.put(pageNum, version, inner.getKeys(), inner.getChildren());
+                child = inner.getChildPageNum(key);
+            }
+            if (path != null) {
+                path.add(pageNum);
+            }
+            pageNum = child;
+        }
+        return findLeafFrom(pageNum, key, path);
+    }
+
+    /**
+     * 从页面`pageNum`上的节点开始直接在页面上向下查找`key`所在的叶节点（见findLeaf）。
+     */
+    private long findLeafFrom(long pageNum, DataBox key, List<Long> path) {
+        Type keySchema = metadata.getKeySchema();
+        while (true) {
+            Page page = bufferManager.fetchPage(lockContext, pageNum);
+            try {
+                Buffer buf = page.getBuffer();
+                if (BPlusNode.isLeafPage(buf)) {
+                    return pageNum;
+                }
+                if (path != null) {
+                    path.add(pageNum);
+                }
+                pageNum = key == null ? InnerNode.childAt(buf, keySchema, 0)
+                                      : InnerNode.findChild(buf, keySchema, key);
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    // Concurrent Mode ///////////////////////////////////////////////////////
+    private void unlatch(long pageNum, boolean exclusive) {
+        if (latches != null) {
+            latches.unlock(pageNum, exclusive);
+        }
+    }
+
+    /**
+     * 并发模式下从根开始用共享闩进行闩耦合向下查找，返回`key`所在叶节点的页号
+     * （`key`为null时返回最左叶节点）。返回时只持有叶节点的闩：如果`exclusive`为true
+     * 则是独占闩，否则是共享闩。
+     */
+    private long latchLeaf(DataBox key, boolean exclusive) {
+        while (true) {
+            long parent = DiskSpaceManager.INVALID_PAGE_NUM;
+            long pageNum = metadata.getRootPageNum();
+            latches.lock(pageNum, false);
+            long child;
+            while ((child = findChild(pageNum, key)) != DiskSpaceManager.INVALID_PAGE_NUM) {
+                // 先获取子节点的闩，再释放祖父节点的闩，始终持有父节点的闩
+                latches.lock(child, false);
+                if (parent != DiskSpaceManager.INVALID_PAGE_NUM) {
+                    latches.unlock(parent, false);
+                }
+                parent = pageNum;
+                pageNum = child;
+            }
+            if (!exclusive) {
+                if (parent != DiskSpaceManager.INVALID_PAGE_NUM) {
+                    latches.unlock(parent, false);
+                }
+                return pageNum;
+            }
+            // 父节点的共享闩保证叶节点在释放共享闩和获取独占闩之间不会分裂
+            latches.unlock(pageNum, false);
+            latches.lock(pageNum, true);
+            if (parent != DiskSpaceManager.INVALID_PAGE_NUM) {
+                latches.unlock(parent, false);
+                return pageNum;
+            }
+            // 根节点是叶节点：它可能在此期间分裂并变成了内部节点，此时重新开始
+            if (findChild(pageNum, key) == DiskSpaceManager.INVALID_PAGE_NUM) {
+                return pageNum;
+            }
+            latches.unlock(pageNum, true);
+        }
+    }
+
+    /**
+     * @return 页面`pageNum`上的内部节点中`key`所在子节点的页号（`key`为null时返回最左子节点），
+     * 如果页面上是叶节点则返回DiskSpaceManager.INVALID_PAGE_NUM
+     */
+    private long findChild(long pageNum, DataBox key) {
+        Type keySchema = metadata.getKeySchema();
+        Page page = bufferManager.fetchPage(lockContext, pageNum);
+        try {
+            Buffer buf = page.getBuffer();
+            if (BPlusNode.isLeafPage(buf)) {
+                return DiskSpaceManager.INVALID_PAGE_NUM;
+            }
+            return key == null ? InnerNode.childAt(buf, keySchema, 0)
+                               : InnerNode.findChild(buf, keySchema, key);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * 并发模式下的put。先乐观地只对叶节点获取独占闩；如果叶节点会分裂，则从根开始
+     * 用独占闩重新向下，只保留可能被修改的节点的闩。
+     */
+    private void putConcurrent(DataBox key, RecordId rid) {
+        // 1.乐观插入：叶节点不会分裂时不会修改任何内部节点
+        long pageNum = latchLeaf(key, true);
+        try {
+            if (hasRoom(pageNum)) {
+                LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum).put(key, rid);
+                return;
+            }
+        } finally {
+            latches.unlock(pageNum, true);
+        }
+
+        // 2.叶节点会分裂：用独占闩进行闩耦合。一个节点不会分裂时，分裂不会传播到它的祖先，
+        // 释放祖先的闩。`path`中是从上到下被闩住的节点，最后一个是叶节点
+        Deque<Long> path = new ArrayDeque<>();
+        pageNum = metadata.getRootPageNum();
+        latches.lock(pageNum, true);
+        path.addLast(pageNum);
+        try {
+            while (true) {
+                if (hasRoom(pageNum)) {
+                    while (path.size() > 1) {
+                        latches.unlock(path.removeFirst(), true);
+                    }
+                }
+                long child = findChild(pageNum, key);
+                if (child == DiskSpaceManager.INVALID_PAGE_NUM) {
+                    break;
+                }
+                latches.lock(child, true);
+                path.addLast(child);
+                pageNum = child;
+            }
+
+            // 3.插入叶节点，并沿着被闩住的节点向上处理分裂
+            List<Long> nodes = new ArrayList<>(path);
+            Optional<Pair<DataBox, Long>> optional = LeafNode.fromBytes(metadata, bufferManager,
+                    lockContext, nodes.get(nodes.size() - 1)).put(key, rid);
+            for (int i = nodes.size() - 2; i >= 0 && optional.isPresent(); --i) {
+                optional = InnerNode.fromBytes(metadata, bufferManager, lockContext, nodes.get(i))
+                           .insertChild(optional.get());
+            }
+            if (optional.isPresent()) {
+                // 分裂传播到了根节点，此时path中第一个节点就是根节点
+                splitRoot(optional.get());
+            }
+        } finally {
+            for (long p : path) {
+                latches.unlock(p, true);
+            }
+        }
+    }
+
+    /** @return 向页面`pageNum`上的节点再插入一个键时它是否一定不会分裂 */
+    private boolean hasRoom(long pageNum) {
+        Page page = bufferManager.fetchPage(lockContext, pageNum);
+        try {
+            return BPlusNode.hasRoom(page.getBuffer(), metadata);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * 并发模式下处理根节点的分裂。根页面保持不变：根节点（分裂后的左半部分）被复制到
+     * 新页面上，根页面被改写为指向它和右半部分的内部节点。调用者持有根节点的独占闩。
+     *
+     * @param pair 根节点分裂产生的(键, 右半部分的页号)对
+     */
+    private void splitRoot(Pair<DataBox, Long> pair) {
+        long rootPageNum = metadata.getRootPageNum();
+        BPlusNode left = BPlusNode.fromBytes(metadata, bufferManager, lockContext, rootPageNum)
+                         .copyToNewPage();
+        List<DataBox> keys = new ArrayList<>();
+        keys.add(pair.getFirst());
+        List<Long> children = new ArrayList<>();
+        children.add(left.getPage().getPageNum());
+        children.add(pair.getSecond());
+        InnerNode.overwrite(metadata, bufferManager, lockContext, rootPageNum, keys, children);
+
+        metadata.incrementHeight();
+        saveMetadata();
+    }
+
+    /**
+     * @return `key`所在的叶节点（`key`为null时返回最左叶节点）
+     */
+    private LeafNode loadLeaf(DataBox key) {
+        if (latches == null) {
+            return LeafNode.fromBytes(metadata, bufferManager, lockContext, findLeaf(key, null));
+        }
+        long pageNum = latchLeaf(key, false);
+        try {
+            return LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum);
+        } finally {
+            latches.unlock(pageNum, false);
+        }
+    }
+
+    /**
+     * @return 页面`pageNum`上的叶节点。并发模式下在读取时持有叶节点的共享闩。
+     */
+    private LeafNode loadLeaf(long pageNum) {
+        if (latches != null) {
+            latches.lock(pageNum, false);
+        }
+        try {
+            return LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum);
+        } finally {
+            unlatch(pageNum, false);
+        }
+    }
+
     private void typecheck(DataBox key) {
         Type t = metadata.getKeySchema();
         if (!key.type().equals(t)) {
@@ -449,62 +1083,47 @@ public class BPlusTree {
         private int index;
         private List<DataBox> keys; // 缓存 keys
         private List<RecordId> rids; // 缓存 rids
+        private DataBox high; // 键的上界（包含），null表示没有上界
 
         public BPlusTreeIterator() {
-            curLeaf = root.getLeftmostLeaf();
+            curLeaf = loadLeaf(null);
             keys = curLeaf.getKeys();
             rids = curLeaf.getRids();
             index = 0;
         }
 
         public BPlusTreeIterator(DataBox key) {
-            curLeaf = root.get(key);
+            curLeaf = loadLeaf(key);
             keys = curLeaf.getKeys();
             rids = curLeaf.getRids();
 
             // 找到第一个 >= key 的位置, 找不到就是size
-            int pos = 0;
-            for (pos = 0; pos < keys.size(); pos++) {
-                if (key.compareTo(keys.get(pos)) <= 0) {
-                    break;
-                }
-            }
-            index = pos;
+            index = InnerNode.numLessThan(key, keys);
         }
 
         @Override
         public boolean hasNext() {
-            return curLeaf.getRightSibling().isPresent() || index < rids.size();
+            // 当前叶节点已遍历完时，跳过右侧的空叶节点
+            while (index >= rids.size()) {
+                Optional<Long> sibling = curLeaf.getRightSiblingPageNum();
+                if (!sibling.isPresent()) {
+                    return false;
+                }
+                curLeaf = loadLeaf(sibling.get());
+                keys = curLeaf.getKeys();
+                rids = curLeaf.getRids();
+                index = 0;
+            }
+            return high == null || keys.get(index).compareTo(high) <= 0;
         }
 
         @Override
         public RecordId next() {
-            if (index < rids.size()) {
-                return rids.get(index++);
-            } else {
-                if (curLeaf.getRightSibling().isPresent()) {
-                    curLeaf = curLeaf.getRightSibling().get();
-                    keys = curLeaf.getKeys();
-                    rids = curLeaf.getRids();
-                    index = 0;
-
-                    // 处理空节点：跳过直到找到非空节点
-                    while (rids.isEmpty()) {
-                        if (!curLeaf.getRightSibling().isPresent()) {
-                            throw new NoSuchElementException();
-                        }
-                        curLeaf = curLeaf.getRightSibling().get();
-                        keys = curLeaf.getKeys();
-                        rids = curLeaf.getRids();
-                    }
-                    return rids.get(index++);
-                }
-
-
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
+            return rids.get(index++);
         }
-
     }
 
 }
\ No newline at end of file
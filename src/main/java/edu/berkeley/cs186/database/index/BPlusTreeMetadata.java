@@ -1,20 +1,46 @@
 package edu.berkeley.cs186.database.index;
 
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
 
-/** 关于B+树的元数据 */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** 关于B+树的元数据。哈希索引（见HashIndex）也使用同样的元数据，部分字段的含义不同。 */
 public class BPlusTreeMetadata {
     // 此B+树所属的表
     private final String tableName;
 
-    // 此B+树用作搜索键的列
+    // 此B+树用作搜索键的列。组合键索引的各列以逗号分隔，例如"a,b"。
     private final String colName;
 
+    // 覆盖索引在键中额外存储的列（INCLUDE列），以逗号分隔，没有时为空字符串。
+    // 这些列不参与查找，只编码在键的列之后（见KeyEncoding），使得只用到键的列和
+    // INCLUDE列的查询可以直接从叶节点读出结果而不用访问表（仅索引扫描）。
+    private final String includeColName;
+
     // B+树将键（某种类型）映射到记录ID。这是键的类型。
+    // 非唯一索引和组合键索引的键是编码后的字节数组（见KeyEncoding）。
     private final Type keySchema;
 
+    // 索引是否唯一。非唯一索引的键末尾追加了记录ID。
+    private final boolean unique;
+
+    // 节点是否使用压缩格式（见PrefixCompression）。压缩的节点在放不下一个页面时才分裂，
+    // 此时阶数只是节点中键的数量的上界。
+    private final boolean compressed;
+
+    // 索引的类型。哈希索引的键总是列的值（不编码），阶数是每个桶页面可以存储的条目数量，
+    // 根页面是哈希索引的头页面，高度是目录的全局深度。
+    private final IndexType indexType;
+
     // 树的阶数。给定阶数为d的树，其内部节点存储d到2d个键和d+1到2d+1个子节点指针。
     // 叶节点存储d到2d个（键，记录ID）对。值得注意的例外包括根节点和已删除的叶节点；
     // 这些节点可能包含少于d个条目。
@@ -29,11 +55,41 @@ public class BPlusTreeMetadata {
     // 树的高度。
     private int height;
 
+    // 最近一次统计时（见BPlusTree.updateFillFactor）叶节点的平均填充率，0表示还没有统计过。
+    // 删除不会合并节点，所以填充率会随着删除而下降，可以用BPlusTree.compact整理。
+    private float fillFactor;
+
     public BPlusTreeMetadata(String tableName, String colName, Type keySchema, int order, int partNum,
                              long rootPageNum, int height) {
+        this(tableName, colName, keySchema, true, order, partNum, rootPageNum, height);
+    }
+
+    public BPlusTreeMetadata(String tableName, String colName, Type keySchema, boolean unique, int order,
+                             int partNum, long rootPageNum, int height) {
+        this(tableName, colName, keySchema, unique, false, order, partNum, rootPageNum, height);
+    }
+
+    public BPlusTreeMetadata(String tableName, String colName, Type keySchema, boolean unique,
+                             boolean compressed, int order, int partNum, long rootPageNum, int height) {
+        this(tableName, colName, keySchema, unique, compressed, IndexType.BPLUS_TREE, order, partNum,
+             rootPageNum, height);
+    }
+
+    public BPlusTreeMetadata(String tableName, String colName, Type keySchema, boolean unique,
+                             IndexType indexType, int order, int partNum, long rootPageNum, int height) {
+        this(tableName, colName, keySchema, unique, false, indexType, order, partNum, rootPageNum, height);
+    }
+
+    private BPlusTreeMetadata(String tableName, String colName, Type keySchema, boolean unique,
+                              boolean compressed, IndexType indexType, int order, int partNum,
+                              long rootPageNum, int height) {
         this.tableName = tableName;
         this.colName = colName;
+        this.includeColName = "";
         this.keySchema = keySchema;
+        this.unique = unique;
+        this.compressed = compressed;
+        this.indexType = indexType;
         this.order = order;
         this.partNum = partNum;
         this.rootPageNum = rootPageNum;
@@ -50,6 +106,11 @@ public class BPlusTreeMetadata {
         int typeIdIndex = record.getValue(5).getInt();
         int typeSize = record.getValue(6).getInt();
         this.keySchema = new Type(TypeId.values()[typeIdIndex], typeSize);
+        this.unique = record.getValue(8).getBool();
+        this.compressed = record.getValue(9).getBool();
+        this.fillFactor = record.getValue(10).getFloat();
+        this.includeColName = record.getValue(11).getString();
+        this.indexType = IndexType.fromInt(record.getValue(12).getInt());
     }
 
     /**
@@ -65,7 +126,12 @@ public class BPlusTreeMetadata {
                 rootPageNum,
                 keySchema.getTypeId().ordinal(),
                 keySchema.getSizeInBytes(),
-                height
+                height,
+                unique,
+                compressed,
+                fillFactor,
+                new StringDataBox(includeColName, 64),
+                indexType.ordinal()
         );
     }
 
@@ -77,6 +143,30 @@ public class BPlusTreeMetadata {
         return colName;
     }
 
+    /**
+     * @return 此B+树用作搜索键的各列
+     */
+    public List<String> getColNames() {
+        return Arrays.asList(colName.split(","));
+    }
+
+    /**
+     * @return 覆盖索引额外存储的列（INCLUDE列），没有时为空列表
+     */
+    public List<String> getIncludeColNames() {
+        if (includeColName.isEmpty()) return Collections.emptyList();
+        return Arrays.asList(includeColName.split(","));
+    }
+
+    /**
+     * @return 可以直接从键中读出的列：键的各列之后是INCLUDE列
+     */
+    public List<String> getCoveredColNames() {
+        List<String> names = new ArrayList<>(getColNames());
+        names.addAll(getIncludeColNames());
+        return names;
+    }
+
     public String getName() {
         return tableName + "," + colName;
     }
@@ -85,6 +175,83 @@ public class BPlusTreeMetadata {
         return keySchema;
     }
 
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public IndexType getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * @return 如果这是哈希索引（见HashIndex）则返回true
+     */
+    public boolean isHash() {
+        return indexType == IndexType.HASH;
+    }
+
+    /**
+     * @return 如果键是编码后的字节数组（非唯一索引、组合键索引或覆盖索引）则返回true。
+     * 哈希索引的键总是列的值。
+     */
+    public boolean isEncoded() {
+        if (isHash()) return false;
+        return !unique || getColNames().size() > 1 || !includeColName.isEmpty();
+    }
+
+    /**
+     * @param schema 表的模式
+     * @param record 表中的记录
+     * @param rid `record`的记录ID
+     * @return `record`在此B+树中的键
+     */
+    public DataBox getKey(Schema schema, Record record, RecordId rid) {
+        List<String> fieldNames = schema.getFieldNames();
+        if (!isEncoded()) {
+            return record.getValue(fieldNames.indexOf(colName));
+        }
+        List<DataBox> values = new ArrayList<>();
+        for (String name : getCoveredColNames()) {
+            values.add(record.getValue(fieldNames.indexOf(name)));
+        }
+        return KeyEncoding.encode(getColTypes(schema), values, unique ? null : rid);
+    }
+
+    /**
+     * @param schema 表的模式
+     * @param key 此B+树中的一个键。只用于编码后的键。
+     * @return 键中存储的各列的值，顺序与getCoveredColNames相同
+     */
+    public List<DataBox> decodeKey(Schema schema, DataBox key) {
+        return KeyEncoding.decode(getColTypes(schema), key);
+    }
+
+    /**
+     * @return 第一列等于`value`的键中最小的键。只用于编码后的键。
+     */
+    public DataBox getLowerBound(Schema schema, DataBox value) {
+        return KeyEncoding.lowerBound(keySchema, getColTypes(schema), Collections.singletonList(value));
+    }
+
+    /**
+     * @return 第一列等于`value`的键中最大的键。只用于编码后的键。
+     */
+    public DataBox getUpperBound(Schema schema, DataBox value) {
+        return KeyEncoding.upperBound(keySchema, getColTypes(schema), Collections.singletonList(value));
+    }
+
+    private List<Type> getColTypes(Schema schema) {
+        List<Type> types = new ArrayList<>();
+        for (String name : getCoveredColNames()) {
+            types.add(schema.getFieldType(schema.getFieldNames().indexOf(name)));
+        }
+        return types;
+    }
+
     public int getOrder() {
         return order;
     }
@@ -108,4 +275,20 @@ public class BPlusTreeMetadata {
     void incrementHeight() {
         ++height;
     }
+
+    void decrementHeight() {
+        --height;
+    }
+
+    void setHeight(int height) {
+        this.height = height;
+    }
+
+    public float getFillFactor() {
+        return fillFactor;
+    }
+
+    void setFillFactor(float fillFactor) {
+        this.fillFactor = fillFactor;
+    }
 }
\ No newline at end of file
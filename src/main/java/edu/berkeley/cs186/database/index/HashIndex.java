@@ -0,0 +1,573 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockType;
+import edu.berkeley.cs186.database.concurrency.LockUtil;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.util.*;
+
+/**
+ * 持久化的可扩展哈希索引（extendible hashing）。
+ *
+ *   HashIndex index = new HashIndex(bufferManager, metadata, lockContext);
+ *
+ *   index.put(new IntDataBox(0), new RecordId(0, (short) 0));
+ *   index.get(new IntDataBox(0));       // Optional.of(RecordId(0, 0))
+ *   index.scanEqual(new IntDataBox(0)); // [RecordId(0, 0)]
+ *   index.remove(new IntDataBox(0), new RecordId(0, (short) 0));
+ *   index.get(new IntDataBox(0));       // Optional.empty()
+ *
+ * 索引由三种页面组成，都分配在元数据的分区上：
+ *
+ *   - 头页面（元数据的根页面）：全局深度d和各个目录页面的页号；
+ *   - 目录页面：一共2^d个槽，第i个槽存储哈希值的低d位等于i的键所在的桶的页号。
+ *     每个目录页面存储DIRECTORY_PAGE_ENTRIES个槽；
+ *   - 桶页面：局部深度d'（d' <= d）、条目数量、溢出页面的页号和(键, 记录ID)条目。
+ *     有2^(d - d')个槽指向同一个桶。
+ *
+ * 桶满时，如果d' < d则把桶分裂为两个局部深度为d' + 1的桶，并让指向它的一半的槽指向
+ * 新的桶；如果d' = d则先把目录加倍。桶中所有键的哈希值都相同（分裂没有用）或者目录
+ * 已经达到最大深度时，在桶后面链接一个溢出页面。删除不会合并桶，也不会缩小目录。
+ *
+ * 因此等值查找只需要读取头页面、一个目录页面和桶页面（以及很少出现的溢出页面），
+ * 与索引的大小无关。哈希索引不支持范围扫描。与BPlusTree相同，每个操作都在整个索引
+ * 的锁上下文上获取S锁或X锁。
+ */
+public class HashIndex {
+    // 页面类型，与B+树节点的页面类型（见BPlusNode）不重叠
+    static final byte HEADER_PAGE = 4;
+    static final byte DIRECTORY_PAGE = 5;
+    static final byte BUCKET_PAGE = 6;
+
+    // 每个目录页面中槽的数量：类型字节之后是各个槽中桶的页号。取2的幂，
+    // 使得目录页面正好对应哈希值的若干位
+    static final int DIRECTORY_PAGE_ENTRIES =
+            Integer.highestOneBit((BufferManager.EFFECTIVE_PAGE_SIZE - 1) / Long.BYTES);
+
+    // 目录页面的最大数量：头页面中类型字节、全局深度和目录页面数量之后是各个目录页面的页号
+    static final int MAX_DIRECTORY_PAGES =
+            Integer.highestOneBit((BufferManager.EFFECTIVE_PAGE_SIZE - 1 - 2 * Integer.BYTES) / Long.BYTES);
+
+    // 目录的最大全局深度
+    static final int MAX_GLOBAL_DEPTH = Integer.numberOfTrailingZeros(DIRECTORY_PAGE_ENTRIES)
+            + Integer.numberOfTrailingZeros(MAX_DIRECTORY_PAGES);
+
+    // 桶页面的头部：类型字节、局部深度、条目数量和溢出页面的页号
+    private static final int BUCKET_HEADER_SIZE = 1 + Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int NUM_ENTRIES_OFFSET = 1 + Integer.BYTES;
+    private static final int OVERFLOW_OFFSET = NUM_ENTRIES_OFFSET + Integer.BYTES;
+
+    // 查找一个键读取的页面数量（不计溢出页面）：头页面、一个目录页面和桶页面
+    public static final int LOOKUP_IO_COST = 3;
+
+    // 缓冲区管理器
+    private BufferManager bufferManager;
+
+    // 索引的元数据
+    private BPlusTreeMetadata metadata;
+
+    // 索引的锁上下文
+    private LockContext lockContext;
+
+    // Constructors ////////////////////////////////////////////////////////////
+    /**
+     * 使用元数据`metadata`和锁上下文`lockContext`构造哈希索引。元数据的阶数是每个
+     * 桶页面存储的条目数量，最大为maxBucketCapacity。如果元数据的根页面号无效，
+     * 则创建一个全局深度为0的空索引。
+     */
+    public HashIndex(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext) {
+        this.bufferManager = bufferManager;
+        this.metadata = metadata;
+        this.lockContext = lockContext;
+        // 防止子锁 - 我们只锁定整个索引。
+        lockContext.disableChildLocks();
+        // 默认情况下我们要读取整个索引
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+
+        if (!metadata.isHash()) {
+            String msg = String.format("Index %s is not a hash index.", metadata.getName());
+            throw new HashIndexException(msg);
+        }
+        int maxCapacity = maxBucketCapacity(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
+        if (metadata.getOrder() <= 0 || metadata.getOrder() > maxCapacity) {
+            String msg = String.format(
+                    "You cannot construct a hash index with bucket capacity %d; it must be " +
+                            "between 1 and %d.",
+                    metadata.getOrder(), maxCapacity);
+            throw new HashIndexException(msg);
+        }
+
+        if (metadata.getRootPageNum() == DiskSpaceManager.INVALID_PAGE_NUM) {
+            // 我们正在创建索引，这意味着我们需要对索引进行独占访问
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+            // 全局深度为0的目录只有一个槽，指向一个空桶
+            long bucket = writeChain(Collections.emptyList(), 0, new ArrayList<>(), new ArrayList<>());
+            Header header = new Header(0, new long[] {allocatePage()});
+            writeSlot(header, 0, bucket);
+            long headerPageNum = allocatePage();
+            writeHeader(headerPageNum, header);
+            metadata.setRootPageNum(headerPageNum);
+            metadata.setHeight(0);
+            saveMetadata();
+        }
+    }
+
+    // Core API ////////////////////////////////////////////////////////////////
+    /**
+     * @return 与`key`关联的记录ID；非唯一索引中返回任意一个
+     */
+    public Optional<RecordId> get(DataBox key) {
+        Iterator<RecordId> rids = scanEqual(key);
+        return rids.hasNext() ? Optional.of(rids.next()) : Optional.empty();
+    }
+
+    /**
+     * @return 与`key`关联的所有记录ID的迭代器，没有特定的顺序
+     */
+    public Iterator<RecordId> scanEqual(DataBox key) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+
+        List<RecordId> rids = new ArrayList<>();
+        for (BucketPage page : readChain(findBucket(readHeader(), hash(key)))) {
+            for (int i = 0; i < page.keys.size(); ++i) {
+                if (page.keys.get(i).equals(key)) {
+                    rids.add(page.rids.get(i));
+                }
+            }
+        }
+        return rids.iterator();
+    }
+
+    /**
+     * 插入(key, rid)对。唯一索引中已经存在`key`时抛出HashIndexException。
+     */
+    public void put(DataBox key, RecordId rid) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+
+        int hash = hash(key);
+        Header header = readHeader();
+        while (true) {
+            List<BucketPage> chain = readChain(findBucket(header, hash));
+            if (metadata.isUnique()) {
+                for (BucketPage page : chain) {
+                    if (page.keys.contains(key)) {
+                        String msg = String.format("Duplicate key %s in unique hash index %s.",
+                                key, metadata.getName());
+                        throw new HashIndexException(msg);
+                    }
+                }
+            }
+            // 1. 桶（或它的某个溢出页面）还有空间时直接追加
+            for (BucketPage page : chain) {
+                if (page.keys.size() < metadata.getOrder()) {
+                    appendEntry(page, key, rid);
+                    return;
+                }
+            }
+            // 2. 分裂不能把这些键分开时链接一个溢出页面
+            BucketPage first = chain.get(0);
+            if (first.localDepth >= MAX_GLOBAL_DEPTH || !canSplit(chain, hash)) {
+                BucketPage last = chain.get(chain.size() - 1);
+                List<DataBox> keys = new ArrayList<>(Collections.singletonList(key));
+                List<RecordId> rids = new ArrayList<>(Collections.singletonList(rid));
+                long overflow = writeChain(Collections.emptyList(), first.localDepth, keys, rids);
+                setOverflow(last, overflow);
+                return;
+            }
+            // 3. 否则分裂桶（必要时先把目录加倍），然后重试
+            if (first.localDepth == header.globalDepth) {
+                header = doubleDirectory(header);
+            }
+            split(header, chain, hash);
+        }
+    }
+
+    /**
+     * 删除(key, rid)对。不存在时什么也不做。删除不会合并桶。
+     */
+    public void remove(DataBox key, RecordId rid) {
+        typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+
+        for (BucketPage page : readChain(findBucket(readHeader(), hash(key)))) {
+            for (int i = 0; i < page.keys.size(); ++i) {
+                if (page.keys.get(i).equals(key) && page.rids.get(i).equals(rid)) {
+                    removeEntry(page, i);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * @return 键的类型为`keySchema`时一个桶页面最多可以存储的条目数量
+     */
+    public static int maxBucketCapacity(short pageSize, Type keySchema) {
+        int entrySize = keySchema.getSizeInBytes() + RecordId.getSizeInBytes();
+        return (pageSize - BUCKET_HEADER_SIZE) / entrySize;
+    }
+
+    /**
+     * @return `key`的哈希值。哈希值保存在页面上（通过它选择的槽），所以不能使用
+     * DataBox.hashCode，而是对键的字节使用FNV-1a，再混合高位，使得用来选择槽的
+     * 低位分布均匀。
+     */
+    static int hash(DataBox key) {
+        int h = 0x811c9dc5;
+        for (byte b : key.hashBytes()) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /** @return 目录的全局深度 */
+    public int getGlobalDepth() {
+        return readHeader().globalDepth;
+    }
+
+    public BPlusTreeMetadata getMetadata() {
+        return metadata;
+    }
+
+    /** 返回索引所在的分区号。 */
+    public int getPartNum() {
+        return metadata.getPartNum();
+    }
+
+    private static int mask(int depth) {
+        return (1 << depth) - 1;
+    }
+
+    /**
+     * @return 把`chain`中的条目和哈希值为`hash`的新键分裂到更深的桶中是否可能把它们分开，
+     * 即它们的哈希值在目录可以用到的位上是否不全相同
+     */
+    private boolean canSplit(List<BucketPage> chain, int hash) {
+        int bits = hash & mask(MAX_GLOBAL_DEPTH);
+        for (BucketPage page : chain) {
+            for (DataBox k : page.keys) {
+                if ((hash(k) & mask(MAX_GLOBAL_DEPTH)) != bits) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把桶`chain`分裂为两个桶：哈希值第d'位为0的条目留在原来的页面上，为1的条目移到
+     * 新的桶中，并让指向原来的桶且第d'位为1的槽指向新的桶。`hash`是桶中任意一个键的
+     * 哈希值（低d'位相同）。
+     */
+    private void split(Header header, List<BucketPage> chain, int hash) {
+        int depth = chain.get(0).localDepth;
+        List<DataBox> keys0 = new ArrayList<>();
+        List<RecordId> rids0 = new ArrayList<>();
+        List<DataBox> keys1 = new ArrayList<>();
+        List<RecordId> rids1 = new ArrayList<>();
+        for (BucketPage page : chain) {
+            for (int i = 0; i < page.keys.size(); ++i) {
+                DataBox k = page.keys.get(i);
+                boolean high = ((hash(k) >>> depth) & 1) == 1;
+                (high ? keys1 : keys0).add(k);
+                (high ? rids1 : rids0).add(page.rids.get(i));
+            }
+        }
+        writeChain(chain, depth + 1, keys0, rids0);
+        long bucket = writeChain(Collections.emptyList(), depth + 1, keys1, rids1);
+
+        int numSlots = 1 << header.globalDepth;
+        for (int slot = (hash & mask(depth)) | (1 << depth); slot < numSlots; slot += 1 << (depth + 1)) {
+            writeSlot(header, slot, bucket);
+        }
+    }
+
+    /**
+     * 把目录加倍：新的第i + 2^d个槽与第i个槽指向同一个桶。
+     * @return 新的头部
+     */
+    private Header doubleDirectory(Header header) {
+        int numSlots = 1 << header.globalDepth;
+        long[] dirPages = header.dirPages;
+        if (numSlots < DIRECTORY_PAGE_ENTRIES) {
+            // 目录只有一个页面：把已有的槽复制到它们之后
+            Page page = bufferManager.fetchPage(lockContext, dirPages[0]);
+            try {
+                Buffer buf = page.getBuffer();
+                byte[] slots = new byte[numSlots * Long.BYTES];
+                buf.position(1);
+                buf.get(slots);
+                buf.position(1 + slots.length);
+                buf.put(slots);
+            } finally {
+                page.unpin();
+            }
+        } else {
+            // 每个目录页面复制到一个新的目录页面
+            dirPages = Arrays.copyOf(dirPages, dirPages.length * 2);
+            for (int i = 0; i < header.dirPages.length; ++i) {
+                byte[] bytes = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+                Page page = bufferManager.fetchPage(lockContext, dirPages[i]);
+                try {
+                    page.getBuffer().get(bytes);
+                } finally {
+                    page.unpin();
+                }
+                dirPages[header.dirPages.length + i] = allocatePage();
+                writePage(dirPages[header.dirPages.length + i], bytes);
+            }
+        }
+        Header doubled = new Header(header.globalDepth + 1, dirPages);
+        writeHeader(metadata.getRootPageNum(), doubled);
+        metadata.setHeight(doubled.globalDepth);
+        saveMetadata();
+        return doubled;
+    }
+
+    /** @return 哈希值为`hash`的键所在的桶的页号 */
+    private long findBucket(Header header, int hash) {
+        int slot = hash & mask(header.globalDepth);
+        Page page = bufferManager.fetchPage(lockContext, header.dirPages[slot / DIRECTORY_PAGE_ENTRIES]);
+        try {
+            return page.getBuffer().getLong(1 + (slot % DIRECTORY_PAGE_ENTRIES) * Long.BYTES);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /** 让第`slot`个槽指向页面`bucket`上的桶 */
+    private void writeSlot(Header header, int slot, long bucket) {
+        Page page = bufferManager.fetchPage(lockContext, header.dirPages[slot / DIRECTORY_PAGE_ENTRIES]);
+        try {
+            Buffer buf = page.getBuffer();
+            buf.put(0, DIRECTORY_PAGE);
+            buf.putLong(1 + (slot % DIRECTORY_PAGE_ENTRIES) * Long.BYTES, bucket);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private Header readHeader() {
+        Page page = bufferManager.fetchPage(lockContext, metadata.getRootPageNum());
+        Buffer buf;
+        try {
+            buf = BPlusNode.copyOf(page);
+        } finally {
+            page.unpin();
+        }
+        byte type = buf.get();
+        if (type != HEADER_PAGE) {
+            String msg = String.format("Unexpected page type %d for hash index header.", type);
+            throw new HashIndexException(msg);
+        }
+        int globalDepth = buf.getInt();
+        long[] dirPages = new long[buf.getInt()];
+        for (int i = 0; i < dirPages.length; ++i) {
+            dirPages[i] = buf.getLong();
+        }
+        return new Header(globalDepth, dirPages);
+    }
+
+    private void writeHeader(long pageNum, Header header) {
+        Buffer buf = ByteBuffer.allocate(1 + 2 * Integer.BYTES + header.dirPages.length * Long.BYTES);
+        buf.put(HEADER_PAGE).putInt(header.globalDepth).putInt(header.dirPages.length);
+        for (long dirPage : header.dirPages) {
+            buf.putLong(dirPage);
+        }
+        byte[] bytes = new byte[buf.position()];
+        buf.position(0);
+        buf.get(bytes);
+        writePage(pageNum, bytes);
+    }
+
+    /** @return 页面`pageNum`上的桶及其所有溢出页面 */
+    private List<BucketPage> readChain(long pageNum) {
+        List<BucketPage> chain = new ArrayList<>();
+        while (pageNum != DiskSpaceManager.INVALID_PAGE_NUM) {
+            BucketPage page = readBucket(pageNum);
+            chain.add(page);
+            pageNum = page.overflow;
+        }
+        return chain;
+    }
+
+    private BucketPage readBucket(long pageNum) {
+        Page page = bufferManager.fetchPage(lockContext, pageNum);
+        Buffer buf;
+        try {
+            buf = BPlusNode.copyOf(page);
+        } finally {
+            page.unpin();
+        }
+        byte type = buf.get();
+        if (type != BUCKET_PAGE) {
+            String msg = String.format("Unexpected page type %d for hash index bucket.", type);
+            throw new HashIndexException(msg);
+        }
+        BucketPage bucket = new BucketPage(pageNum, buf.getInt());
+        int numEntries = buf.getInt();
+        bucket.overflow = buf.getLong();
+        for (int i = 0; i < numEntries; ++i) {
+            bucket.keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            bucket.rids.add(RecordId.fromBytes(buf));
+        }
+        return bucket;
+    }
+
+    /**
+     * 把`keys`和`rids`写入局部深度为`localDepth`的桶中：按顺序使用`pages`中的页面，
+     * 不够时分配新的溢出页面，多余的页面被释放。
+     * @return 桶的第一个页面的页号
+     */
+    private long writeChain(List<BucketPage> pages, int localDepth, List<DataBox> keys, List<RecordId> rids) {
+        int capacity = metadata.getOrder();
+        int numPages = Math.max(1, (keys.size() + capacity - 1) / capacity);
+        long[] pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = i < pages.size() ? pages.get(i).pageNum : allocatePage();
+        }
+        int entrySize = metadata.getKeySchema().getSizeInBytes() + RecordId.getSizeInBytes();
+        for (int i = 0; i < numPages; ++i) {
+            int from = i * capacity;
+            int to = Math.min(keys.size(), from + capacity);
+            Buffer buf = ByteBuffer.allocate(BUCKET_HEADER_SIZE + (to - from) * entrySize);
+            buf.put(BUCKET_PAGE).putInt(localDepth).putInt(to - from)
+               .putLong(i + 1 < numPages ? pageNums[i + 1] : DiskSpaceManager.INVALID_PAGE_NUM);
+            for (int j = from; j < to; ++j) {
+                buf.put(keys.get(j).toBytes()).put(rids.get(j).toBytes());
+            }
+            byte[] bytes = new byte[buf.position()];
+            buf.position(0);
+            buf.get(bytes);
+            writePage(pageNums[i], bytes);
+        }
+        for (int i = numPages; i < pages.size(); ++i) {
+            Page page = bufferManager.fetchPage(lockContext, pages.get(i).pageNum);
+            try {
+                bufferManager.freePage(page);
+            } finally {
+                page.unpin();
+            }
+        }
+        return pageNums[0];
+    }
+
+    /** 在桶页面`bucket`的末尾追加一个条目 */
+    private void appendEntry(BucketPage bucket, DataBox key, RecordId rid) {
+        int entrySize = metadata.getKeySchema().getSizeInBytes() + RecordId.getSizeInBytes();
+        Page page = bufferManager.fetchPage(lockContext, bucket.pageNum);
+        try {
+            Buffer buf = page.getBuffer();
+            buf.position(BUCKET_HEADER_SIZE + bucket.keys.size() * entrySize);
+            buf.put(key.toBytes()).put(rid.toBytes());
+            buf.putInt(NUM_ENTRIES_OFFSET, bucket.keys.size() + 1);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /** 删除桶页面`bucket`的第`index`个条目：最后一个条目移到它的位置 */
+    private void removeEntry(BucketPage bucket, int index) {
+        int entrySize = metadata.getKeySchema().getSizeInBytes() + RecordId.getSizeInBytes();
+        int last = bucket.keys.size() - 1;
+        Page page = bufferManager.fetchPage(lockContext, bucket.pageNum);
+        try {
+            Buffer buf = page.getBuffer();
+            if (index != last) {
+                byte[] entry = new byte[entrySize];
+                buf.position(BUCKET_HEADER_SIZE + last * entrySize);
+                buf.get(entry);
+                buf.position(BUCKET_HEADER_SIZE + index * entrySize);
+                buf.put(entry);
+            }
+            buf.putInt(NUM_ENTRIES_OFFSET, last);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private void setOverflow(BucketPage bucket, long overflow) {
+        Page page = bufferManager.fetchPage(lockContext, bucket.pageNum);
+        try {
+            page.getBuffer().putLong(OVERFLOW_OFFSET, overflow);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /** @return 在索引的分区上新分配的页面的页号 */
+    private long allocatePage() {
+        Page page = bufferManager.fetchNewPage(lockContext, metadata.getPartNum());
+        try {
+            return page.getPageNum();
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private void writePage(long pageNum, byte[] bytes) {
+        Page page = bufferManager.fetchPage(lockContext, pageNum);
+        try {
+            page.getBuffer().put(bytes);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /** 在当前事务中更新_metadata.indices中索引的元数据。 */
+    private void saveMetadata() {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            transaction.updateIndexMetadata(metadata);
+        }
+    }
+
+    private void typecheck(DataBox key) {
+        Type t = metadata.getKeySchema();
+        if (!key.type().equals(t)) {
+            String msg = String.format("DataBox %s is not of type %s", key, t);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    /** 头页面的内容 */
+    private static class Header {
+        private final int globalDepth;
+        private final long[] dirPages;
+
+        private Header(int globalDepth, long[] dirPages) {
+            this.globalDepth = globalDepth;
+            this.dirPages = dirPages;
+        }
+    }
+
+    /** 一个桶页面（或溢出页面）的内容 */
+    private static class BucketPage {
+        private final long pageNum;
+        private final int localDepth;
+        private long overflow = DiskSpaceManager.INVALID_PAGE_NUM;
+        private final List<DataBox> keys = new ArrayList<>();
+        private final List<RecordId> rids = new ArrayList<>();
+
+        private BucketPage(long pageNum, int localDepth) {
+            this.pageNum = pageNum;
+            this.localDepth = localDepth;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package edu.berkeley.cs186.database.index;
+
+/** 索引的类型（见_metadata.indices的index_type列） */
+public enum IndexType {
+    // B+树（BPlusTree）：支持等值查找和范围扫描
+    BPLUS_TREE,
+    // 可扩展哈希索引（HashIndex）：只支持等值查找，但每次查找只读取固定数量的页面
+    HASH;
+
+    public static IndexType fromInt(int x) {
+        if (x < 0 || x >= values().length) {
+            String err = String.format("Unknown index type ordinal %d.", x);
+            throw new IllegalArgumentException(err);
+        }
+        return values()[x];
+    }
+}
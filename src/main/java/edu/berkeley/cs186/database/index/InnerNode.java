@@ -51,10 +51,12 @@ class InnerNode extends BPlusNode {
               List<Long> children, LockContext treeContext) {
         this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum()),
              keys, children, treeContext);
+        sync();
     }
 
     /**
-     * 构造一个持久化到页面`page`的内部节点。
+     * 构造一个持久化到页面`page`的内部节点。不写入页面：调用者保证页面的内容与
+     * `keys`和`children`一致。
      */
     private InnerNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
                       List<DataBox> keys, List<Long> children, LockContext treeContext) {
@@ -68,7 +70,6 @@ class InnerNode extends BPlusNode {
             this.page = page;
             this.keys = new ArrayList<>(keys);
             this.children = new ArrayList<>(children);
-            sync();
         } finally {
             page.unpin();
         }
@@ -121,57 +122,66 @@ class InnerNode extends BPlusNode {
         // 3. 递归调用
         Optional<Pair<DataBox, Long>> copyUp = childNode.put(key, rid);
 
-
-        // 3. 处理可能的COPY UP操作
+        // 4. 处理可能的COPY UP操作
         if (copyUp.isPresent()) {
-            DataBox newKey = copyUp.get().getFirst();
-            long newPageNum = copyUp.get().getSecond();
-
-            // 3.1 找到新键的插入位置
-            int insertIndex = 0;
-            for (insertIndex = 0; insertIndex < keys.size(); insertIndex++) {
-                if (newKey.compareTo(keys.get(insertIndex)) < 0) {
-                    break;
-                }
-            }
-
-            // 3.2 插入新键和子节点指针
-            keys.add(insertIndex, newKey);
-            children.add(insertIndex + 1, newPageNum);
+            return insertChild(copyUp.get());
+        }
+        return Optional.empty();
+    }
 
-            // 3.3 检查是否溢出
-            if (keys.size() <= metadata.getOrder() * 2) {
-                // 没有溢出，直接刷新返回
-                sync();
-                return Optional.empty();
-            } else {
-                // 溢出处理
-                // 3.4 找到分割点
-                int splitIndex = metadata.getOrder();
+    /**
+     * 将子节点分裂产生的(键, 新子节点页号)对插入此节点。如果此节点因此溢出，
+     * 则像put一样将其分裂，并返回需要提升到父节点的(键, 新节点页号)对。
+     */
+    Optional<Pair<DataBox, Long>> insertChild(Pair<DataBox, Long> copyUp) {
+        DataBox newKey = copyUp.getFirst();
+        long newPageNum = copyUp.getSecond();
+
+        // 1. 找到新键的插入位置
+        int insertIndex = 0;
+        for (insertIndex = 0; insertIndex < keys.size(); insertIndex++) {
+            if (newKey.compareTo(keys.get(insertIndex)) < 0) {
+                break;
+            }
+        }
 
-                // 3.5 准备新节点的数据
-                ArrayList<DataBox> newKeys = new ArrayList<>(keys.subList(splitIndex + 1, keys.size()));
-                ArrayList<Long> newChildren = new ArrayList<>(children.subList(splitIndex + 1, children.size()));
+        // 2. 插入新键和子节点指针
+        keys.add(insertIndex, newKey);
+        children.add(insertIndex + 1, newPageNum);
+
+        // 3. 检查是否溢出（压缩的节点：序列化后能否放进页面）
+        boolean overflows = metadata.isCompressed()
+                            ? toBytes().length > BufferManager.EFFECTIVE_PAGE_SIZE
+                            : keys.size() > metadata.getOrder() * 2;
+        if (!overflows) {
+            // 没有溢出，直接刷新返回
+            syncFrom(insertIndex);
+            return Optional.empty();
+        } else {
+            // 溢出处理
+            // 4. 找到分割点（压缩的节点按字节数取中间位置）
+            int splitIndex = metadata.isCompressed() ? compressedSplitIndex() : metadata.getOrder();
+
+            // 5. 准备新节点的数据
+            ArrayList<DataBox> newKeys = new ArrayList<>(keys.subList(splitIndex + 1, keys.size()));
+            ArrayList<Long> newChildren = new ArrayList<>(children.subList(splitIndex + 1, children.size()));
 
-                // 3.6 创建新内部节点
-                InnerNode newInnerNode = new InnerNode(metadata, bufferManager, newKeys, newChildren, treeContext);
+            // 6. 创建新内部节点
+            InnerNode newInnerNode = new InnerNode(metadata, bufferManager, newKeys, newChildren, treeContext);
 
-                // 3.7 获取提升的键和新节点页号
-                Pair<DataBox, Long> entry = new Pair<>(keys.get(splitIndex), newInnerNode.getPage().getPageNum());
+            // 7. 获取提升的键和新节点页号
+            Pair<DataBox, Long> entry = new Pair<>(keys.get(splitIndex), newInnerNode.getPage().getPageNum());
 
-                // 3.8 更新当前节点
-                keys = new ArrayList<>(keys.subList(0, splitIndex));
-                children = new ArrayList<>(children.subList(0, splitIndex + 1));
+            // 8. 更新当前节点
+            keys = new ArrayList<>(keys.subList(0, splitIndex));
+            children = new ArrayList<>(children.subList(0, splitIndex + 1));
 
-                // 3.9 刷盘
-                sync();
+            // 9. 刷盘：新键在右半部分时左半部分的键不变，只需写入子节点指针
+            syncFrom(Math.min(insertIndex, keys.size()));
 
-                // 3.10 返回提升的键值对
-                return Optional.of(entry);
-            }
+            // 10. 返回提升的键值对
+            return Optional.of(entry);
         }
-
-        return Optional.empty();
     }
 
     // 参见 BPlusNode.bulkLoad。
@@ -212,7 +222,7 @@ class InnerNode extends BPlusNode {
 
             // 7. 更新当前节点并刷盘
             keys = new ArrayList<>(keys.subList(0, splitIndex));
-            children = new ArrayList<>(children.subList(0, splitIndex));
+            children = new ArrayList<>(children.subList(0, splitIndex + 1));
             sync();
 
             return Optional.of(entry);
@@ -242,32 +252,269 @@ class InnerNode extends BPlusNode {
         sync();*/
     }
 
+    /**
+     * 整理以此节点为根的子树（见BPlusTree.compact）：先整理每个内部子节点，然后合并
+     * 相邻的子节点（见mergeChildren）。
+     *
+     * @return 释放的页面数量
+     */
+    int compact() {
+        int numFreed = 0;
+        for (int i = 0; i < children.size(); ++i) {
+            BPlusNode child = getChild(i);
+            if (child instanceof InnerNode) {
+                numFreed += ((InnerNode) child).compact();
+            }
+        }
+        return numFreed + mergeChildren(0);
+    }
+
+    /**
+     * 从第`from`个子节点开始，从左到右依次把相邻的两个子节点中能放进一个节点的合并为
+     * 一个节点，并释放右边节点的页面。之后从`from`开始任意两个相邻的子节点都不能合并，
+     * 所以子节点平均至少是半满的。两个内部节点合并之后，原来分别在两个节点中的相邻的
+     * 子节点也可能可以合并，所以从合并的位置开始递归地合并它们。
+     *
+     * @return 释放的页面数量
+     */
+    private int mergeChildren(int from) {
+        int numFreed = 0;
+        boolean changed = false;
+        BPlusNode left = getChild(from);
+        int i = from;
+        while (i + 1 < children.size()) {
+            BPlusNode right = getChild(i + 1);
+            boolean merged;
+            if (left instanceof LeafNode) {
+                merged = ((LeafNode) left).merge((LeafNode) right);
+            } else {
+                InnerNode inner = (InnerNode) left;
+                int boundary = inner.children.size() - 1;
+                merged = inner.merge(keys.get(i), (InnerNode) right);
+                if (merged) {
+                    numFreed += inner.mergeChildren(boundary);
+                }
+            }
+            if (merged) {
+                keys.remove(i);
+                children.remove(i + 1);
+                right.free(bufferManager);
+                ++numFreed;
+                changed = true;
+            } else {
+                left = right;
+                ++i;
+            }
+        }
+        if (changed) {
+            sync();
+        }
+        return numFreed;
+    }
+
+    /**
+     * 如果此节点、父节点中的分隔键`separator`和右边相邻的节点`right`能放进一个节点，
+     * 则把它们合并到此节点中。调用者负责释放`right`的页面。
+     *
+     * @return 是否合并了两个节点
+     */
+    boolean merge(DataBox separator, InnerNode right) {
+        int numKeys = keys.size();
+        int numChildren = children.size();
+        if (numKeys + 1 + right.keys.size() > 2 * metadata.getOrder()) {
+            return false;
+        }
+        keys.add(separator);
+        keys.addAll(right.keys);
+        children.addAll(right.children);
+        if (metadata.isCompressed() && toBytes().length > BufferManager.EFFECTIVE_PAGE_SIZE) {
+            keys.subList(numKeys, keys.size()).clear();
+            children.subList(numChildren, children.size()).clear();
+            return false;
+        }
+        syncFrom(numKeys);
+        return true;
+    }
+
     // Helpers /////////////////////////////////////////////////////////////////
     @Override
     public Page getPage() {
         return page;
     }
 
+    @Override
+    InnerNode copyToNewPage() {
+        return new InnerNode(metadata, bufferManager, keys, children, treeContext);
+    }
+
+    /**
+     * 构造一个持久化到已有页面`pageNum`的内部节点，覆盖页面原来的内容。
+     */
+    static InnerNode overwrite(BPlusTreeMetadata metadata, BufferManager bufferManager,
+                               LockContext treeContext, long pageNum,
+                               List<DataBox> keys, List<Long> children) {
+        Page page = bufferManager.fetchPage(treeContext, pageNum);
+        InnerNode node = new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
+        node.sync();
+        return node;
+    }
+
+    /** @return 压缩的内部节点溢出时分裂的位置，使左右两半的字节数大致相等 */
+    private int compressedSplitIndex() {
+        int[] sizes = new int[keys.size()];
+        for (int i = 0; i < keys.size(); ++i) {
+            sizes[i] = PrefixCompression.trimmedLength(keys.get(i).toBytes());
+        }
+        return PrefixCompression.splitIndex(sizes);
+    }
+
     private BPlusNode getChild(int i) {
         long pageNum = children.get(i);
         return BPlusNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
     }
 
+    // 节点的修改只写入页面中变化的字节范围（恢复管理器也只记录这些字节）。
+    // 由于子节点指针紧跟在键之后，插入第i个键会使第i个键之后的所有字节都发生变化，
+    // 但前i个键保持不变，不需要重新写入。压缩的节点总是序列化整个节点。
+
+    /** 将整个内部节点序列化到其页面。 */
     private void sync() {
         page.pin();
         try {
-            Buffer b = page.getBuffer();
-            byte[] newBytes = toBytes();
-            byte[] bytes = new byte[newBytes.length];
-            b.get(bytes);
-            if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
+            page.getBuffer().put(toBytes());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * 写入键的数量，以及第`from`个及之后的键和所有子节点指针。页面上前`from`个键
+     * 必须已经与节点一致。
+     */
+    private void syncFrom(int from) {
+        if (metadata.isCompressed()) {
+            sync();
+            return;
+        }
+        page.pin();
+        try {
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            ByteBuffer buf = ByteBuffer.allocate((keys.size() - from) * keySize
+                                                 + children.size() * Long.BYTES);
+            for (int i = from; i < keys.size(); ++i) {
+                buf.put(keys.get(i).toBytes());
+            }
+            for (Long child : children) {
+                buf.putLong(child);
             }
+            Buffer b = page.getBuffer();
+            b.putInt(1, keys.size());
+            b.position(KEYS_OFFSET + from * keySize).put(buf.array());
         } finally {
             page.unpin();
         }
     }
 
+    /**
+     * @return `key`所在子节点的页号（`key`为null时返回最左子节点的页号）
+     */
+    long getChildPageNum(DataBox key) {
+        return children.get(key == null ? 0 : numLessThanEqual(key, keys));
+    }
+
+    // Page-Resident Search //////////////////////////////////////////////////
+    // 序列化内部节点中键的起始偏移量（见 toBytes）：isLeaf（1字节）和键的数量（4字节）之后
+    private static final int KEYS_OFFSET = 1 + Integer.BYTES;
+    // 压缩的内部节点中公共前缀的长度和公共前缀的偏移量（见 toCompressedBytes）
+    private static final int PREFIX_LENGTH_OFFSET = KEYS_OFFSET;
+    private static final int PREFIX_OFFSET = PREFIX_LENGTH_OFFSET + Short.BYTES;
+
+    /**
+     * 直接在内部节点的序列化页面上查找`key`所在子节点的页号，不反序列化节点。
+     * 由于键槽是定长的，可以在页面缓冲区上对键进行二分查找，每一步只比较一个键
+     * 的字节，不创建任何 DataBox。结果与 get 中选择的子节点相同，
+     * 即第 numLessThanEqual(key, keys) 个子节点。
+     *
+     * @param buf 内部节点页面的缓冲区（使用绝对下标读取）
+     * @param keySchema 树的键类型
+     * @param key 要查找的键
+     * @return `key`所在子节点的页号
+     */
+    static long findChild(Buffer buf, Type keySchema, DataBox key) {
+        if (BPlusNode.isCompressedPage(buf)) {
+            return findCompressedChild(buf, key);
+        }
+        int n = buf.getInt(1);
+        int keySize = keySchema.getSizeInBytes();
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (DataBox.compareSerialized(buf, KEYS_OFFSET + mid * keySize, keySchema, key) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return childAt(buf, keySchema, lo);
+    }
+
+    /**
+     * @return 序列化在`buf`中的内部节点的第`i`个子节点的页号
+     */
+    static long childAt(Buffer buf, Type keySchema, int i) {
+        if (BPlusNode.isCompressedPage(buf)) {
+            return buf.getLong(PREFIX_OFFSET + buf.getShort(PREFIX_LENGTH_OFFSET) + i * Long.BYTES);
+        }
+        int n = buf.getInt(1);
+        return buf.getLong(KEYS_OFFSET + n * keySchema.getSizeInBytes() + i * Long.BYTES);
+    }
+
+    /**
+     * findChild的压缩格式版本。如果`key`与节点的公共前缀不同，则它小于或大于节点中
+     * 所有的键，不需要比较任何后缀；否则在槽上对后缀进行二分查找。
+     */
+    private static long findCompressedChild(Buffer buf, DataBox key) {
+        byte[] bytes = key.toBytes();
+        int n = buf.getInt(1);
+        int prefixLength = buf.getShort(PREFIX_LENGTH_OFFSET);
+        int childrenOffset = PREFIX_OFFSET + prefixLength;
+        int cmp = PrefixCompression.comparePrefix(buf, PREFIX_OFFSET, prefixLength, bytes);
+        if (cmp != 0) {
+            return buf.getLong(childrenOffset + (cmp > 0 ? 0 : n) * Long.BYTES);
+        }
+        int slotsOffset = childrenOffset + (n + 1) * Long.BYTES;
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int offset = buf.getShort(slotsOffset + mid * Short.BYTES);
+            int length = buf.getShort(offset);
+            if (PrefixCompression.compare(buf, offset + Short.BYTES, length, bytes, prefixLength) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return buf.getLong(childrenOffset + lo * Long.BYTES);
+    }
+
+    /**
+     * @return 向序列化在`buf`中的压缩的内部节点再插入一个键时它是否一定不会分裂。
+     * 新的键可能使公共前缀变为空，此时每个键都会变长。
+     */
+    static boolean hasRoom(Buffer buf, Type keySchema) {
+        int n = buf.getInt(1);
+        int prefixLength = buf.getShort(PREFIX_LENGTH_OFFSET);
+        int end = PREFIX_OFFSET + prefixLength + (n + 1) * Long.BYTES;
+        if (n > 0) {
+            int offset = buf.getShort(end + (n - 1) * Short.BYTES);
+            end = offset + Short.BYTES + buf.getShort(offset);
+        }
+        int worst = end + (n - 1) * prefixLength + PrefixCompression.maxInnerEntrySize(keySchema);
+        return worst <= BufferManager.EFFECTIVE_PAGE_SIZE;
+    }
+
     // Just for testing.
     List<DataBox> getKeys() {
         return keys;
@@ -432,6 +679,9 @@ class InnerNode extends BPlusNode {
         // 校验节点的阶数
         assert (keys.size() <= 2 * metadata.getOrder());
         assert (keys.size() + 1 == children.size());
+        if (metadata.isCompressed()) {
+            return toCompressedBytes();
+        }
 
         // 计算存储这个节点需要的字节数
         int isLeafSize = 1;  // 内部节点还是叶子节点的标识
@@ -454,6 +704,53 @@ class InnerNode extends BPlusNode {
         return buf.array();
     }
 
+    /**
+     * 压缩的内部节点（见PrefixCompression）的序列化。我们写入：
+     *
+     *   a. 字面值2（1字节），表示此节点是压缩的内部节点，
+     *   b. 键的数量n（4字节），
+     *   c. 所有键（去掉末尾的0字节后）的公共前缀的长度p（2字节）和公共前缀（p字节），
+     *   d. n+1个子节点指针，
+     *   e. n个槽（每个2字节），第i个槽是第i个键在页面中的偏移量，以及
+     *   f. n个键，每个键是后缀的长度（2字节）和后缀。
+     *
+     * 子节点指针在键之前，所以可以直接读取第i个子节点指针。
+     */
+    private byte[] toCompressedBytes() {
+        List<byte[]> keyBytes = new ArrayList<>();
+        for (DataBox key : keys) {
+            keyBytes.add(key.toBytes());
+        }
+        int prefixLength = PrefixCompression.commonPrefixLength(keyBytes);
+        int slotsOffset = PREFIX_OFFSET + prefixLength + children.size() * Long.BYTES;
+        int size = slotsOffset + keys.size() * Short.BYTES;
+        for (byte[] key : keyBytes) {
+            size += Short.BYTES + PrefixCompression.trimmedLength(key) - prefixLength;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(COMPRESSED_INNER_PAGE);
+        buf.putInt(keys.size());
+        buf.putShort((short) prefixLength);
+        if (!keyBytes.isEmpty()) {
+            buf.put(keyBytes.get(0), 0, prefixLength);
+        }
+        for (Long child : children) {
+            buf.putLong(child);
+        }
+        int offset = slotsOffset + keys.size() * Short.BYTES;
+        for (int i = 0; i < keys.size(); ++i) {
+            byte[] key = keyBytes.get(i);
+            int length = PrefixCompression.trimmedLength(key) - prefixLength;
+            buf.putShort(slotsOffset + i * Short.BYTES, (short) offset);
+            buf.position(offset);
+            buf.putShort((short) length);
+            buf.put(key, prefixLength, length);
+            offset = buf.position();
+        }
+        return buf.array();
+    }
+
     /**
      * 从页面`pageNum`加载内部节点。
      */
@@ -461,18 +758,34 @@ class InnerNode extends BPlusNode {
                                       BufferManager bufferManager, LockContext treeContext, long pageNum) {
         // 从页面`pageNum`加载内部节点。
         Page page = bufferManager.fetchPage(treeContext, pageNum);
-        // 获取指向页面的JVM缓冲区
-        Buffer buf = page.getBuffer();
+        // 获取页面内容的拷贝（见BPlusNode.copyOf）
+        Buffer buf = copyOf(page);
 
         // 获取节点类型, 并校验
         byte nodeType = buf.get();
-        assert(nodeType == (byte) 0);
+        assert(nodeType == INNER_PAGE || nodeType == COMPRESSED_INNER_PAGE);
 
         // 读取keys 和 指针
         List<DataBox> keys = new ArrayList<>();
         List<Long> children = new ArrayList<>();
         // 读取Key的数量
         int n = buf.getInt();
+        if (nodeType == COMPRESSED_INNER_PAGE) {
+            // 压缩的节点：公共前缀、子节点指针，然后是槽和键的后缀
+            byte[] prefix = new byte[buf.getShort()];
+            buf.get(prefix);
+            for (int i = 0; i < n + 1; ++i) {
+                children.add(buf.getLong());
+            }
+            int slotsOffset = buf.position();
+            for (int i = 0; i < n; ++i) {
+                int offset = buf.getShort(slotsOffset + i * Short.BYTES);
+                int length = buf.getShort(offset);
+                keys.add(PrefixCompression.readKey(buf, prefix, offset + Short.BYTES, length,
+                                                   metadata.getKeySchema()));
+            }
+            return new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
+        }
         // 读取Key数组
         for (int i = 0; i < n; ++i) {
             keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
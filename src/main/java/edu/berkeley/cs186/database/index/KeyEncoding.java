@@ -0,0 +1,192 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 非唯一索引和组合键索引的键编码。B+树只支持单个类型的唯一键，所以这类索引的键
+ * 被编码为一个字节数组（见ByteArrayDataBox），字节数组按无符号字节的字典序
+ * （类似memcmp）比较的结果与按列依次比较原始值的结果相同：
+ *
+ *   - INT和LONG：翻转符号位后按大端序存储；
+ *   - FLOAT：非负数翻转符号位，负数翻转所有位；
+ *   - BOOL：0或1；
+ *   - STRING：字符串的字节，用0补齐到列的长度。
+ *
+ * 非唯一索引在键的末尾追加记录ID（页号和条目号，同样翻转符号位），
+ * 使得重复的键在树中仍然是不同的键，并按记录ID排序。例如列(a INT, b STRING(4))
+ * 上的非唯一索引的键长度为4 + 4 + 10字节：
+ *
+ *   encode([INT, STRING(4)], [1, "ab"], rid) = 80 00 00 01 | 61 62 00 00 | rid
+ *
+ * 查找键的前缀（例如a = 1）时，使用lowerBound和upperBound得到的闭区间扫描树。
+ * 编码是可逆的（见decode），所以覆盖索引可以直接从键中读出各列的值。
+ */
+public class KeyEncoding {
+    // 追加在非唯一索引的键末尾的记录ID的长度
+    static final int RID_SIZE = Long.BYTES + Short.BYTES;
+
+    private KeyEncoding() {}
+
+    /**
+     * @return 列类型为`types`的索引的键的类型
+     */
+    public static Type keyType(List<Type> types, boolean unique) {
+        int size = unique ? 0 : RID_SIZE;
+        for (Type type : types) {
+            size += encodedSize(type);
+        }
+        return Type.byteArrayType(size);
+    }
+
+    /**
+     * @param types 索引各列的类型
+     * @param values 索引各列的值
+     * @param rid 记录ID，唯一索引为null
+     * @return 编码后的键
+     */
+    public static DataBox encode(List<Type> types, List<DataBox> values, RecordId rid) {
+        int size = keyType(types, rid == null).getSizeInBytes();
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (int i = 0; i < types.size(); ++i) {
+            putValue(buf, types.get(i), values.get(i));
+        }
+        if (rid != null) {
+            buf.putLong(rid.getPageNum() ^ Long.MIN_VALUE);
+            buf.putShort((short) (rid.getEntryNum() ^ Short.MIN_VALUE));
+        }
+        return new ByteArrayDataBox(buf.array(), size);
+    }
+
+    /**
+     * @param keyType 索引的键的类型（见keyType）
+     * @param prefix 索引的前prefix.size()列的值
+     * @return 以`prefix`开头的键中最小的键
+     */
+    public static DataBox lowerBound(Type keyType, List<Type> types, List<DataBox> prefix) {
+        return bound(keyType, types, prefix, (byte) 0);
+    }
+
+    /**
+     * @param keyType 索引的键的类型（见keyType）
+     * @param prefix 索引的前prefix.size()列的值
+     * @return 以`prefix`开头的键中最大的键
+     */
+    public static DataBox upperBound(Type keyType, List<Type> types, List<DataBox> prefix) {
+        return bound(keyType, types, prefix, (byte) 0xFF);
+    }
+
+    private static DataBox bound(Type keyType, List<Type> types, List<DataBox> prefix, byte fill) {
+        int size = keyType.getSizeInBytes();
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (int i = 0; i < prefix.size(); ++i) {
+            putValue(buf, types.get(i), prefix.get(i));
+        }
+        byte[] bytes = buf.array();
+        Arrays.fill(bytes, buf.position(), size, fill);
+        return new ByteArrayDataBox(bytes, size);
+    }
+
+    /**
+     * encode的逆运算。
+     *
+     * @param types 键的前types.size()列的类型
+     * @param key 编码后的键（末尾可能还有其他列或记录ID）
+     * @return 键的前types.size()列的值
+     */
+    public static List<DataBox> decode(List<Type> types, DataBox key) {
+        ByteBuffer buf = ByteBuffer.wrap(key.toBytes());
+        List<DataBox> values = new ArrayList<>();
+        for (Type type : types) {
+            values.add(getValue(buf, type));
+        }
+        return values;
+    }
+
+    private static int encodedSize(Type type) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                return 1;
+            case INT:
+            case FLOAT:
+                return Integer.BYTES;
+            case LONG:
+                return Long.BYTES;
+            case STRING:
+                return type.getSizeInBytes();
+            default:
+                throw new IllegalArgumentException("cannot index a column of type " + type);
+        }
+    }
+
+    // 将`value`按列类型`type`编码写入`buf`。查询中的值可能是可以比较的另一种数值类型
+    // （例如LONG列和INT值），此时先转换为列的类型。
+    private static void putValue(ByteBuffer buf, Type type, DataBox value) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                buf.put((byte) (value.getBool() ? 1 : 0));
+                break;
+            case INT:
+                buf.putInt(value.getInt() ^ Integer.MIN_VALUE);
+                break;
+            case LONG: {
+                long l;
+                switch (value.getTypeId()) {
+                    case INT: l = value.getInt(); break;
+                    default: l = value.getLong(); break;
+                }
+                buf.putLong(l ^ Long.MIN_VALUE);
+                break;
+            }
+            case FLOAT: {
+                float f;
+                switch (value.getTypeId()) {
+                    case INT: f = value.getInt(); break;
+                    case LONG: f = value.getLong(); break;
+                    default: f = value.getFloat(); break;
+                }
+                int bits = Float.floatToIntBits(f);
+                buf.putInt(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE);
+                break;
+            }
+            case STRING: {
+                byte[] bytes = value.getString().getBytes();
+                int n = type.getSizeInBytes();
+                byte[] padded = new byte[n];
+                System.arraycopy(bytes, 0, padded, 0, Math.min(n, bytes.length));
+                buf.put(padded);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("cannot index a column of type " + type);
+        }
+    }
+
+    // 从`buf`中读取一个按列类型`type`编码的值，见putValue
+    private static DataBox getValue(ByteBuffer buf, Type type) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                return new BoolDataBox(buf.get() != 0);
+            case INT:
+                return new IntDataBox(buf.getInt() ^ Integer.MIN_VALUE);
+            case LONG:
+                return new LongDataBox(buf.getLong() ^ Long.MIN_VALUE);
+            case FLOAT: {
+                int bits = buf.getInt();
+                return new FloatDataBox(Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits));
+            }
+            case STRING: {
+                byte[] bytes = new byte[type.getSizeInBytes()];
+                buf.get(bytes);
+                return new StringDataBox(new String(bytes), type.getSizeInBytes());
+            }
+            default:
+                throw new IllegalArgumentException("cannot index a column of type " + type);
+        }
+    }
+}
@@ -108,10 +108,12 @@ class LeafNode extends BPlusNode {
         this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum()),
              keys, rids,
              rightSibling, treeContext);
+        sync();
     }
 
     /**
-     * 构造一个持久化到页面`page`的叶节点。
+     * 构造一个持久化到页面`page`的叶节点。不写入页面：调用者保证页面的内容与
+     * `keys`、`rids`和`rightSibling`一致。
      */
     private LeafNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
                      List<DataBox> keys,
@@ -127,8 +129,6 @@ class LeafNode extends BPlusNode {
             this.keys = new ArrayList<>(keys);
             this.rids = new ArrayList<>(rids);
             this.rightSibling = rightSibling;
-
-            sync();
         } finally {
             page.unpin();
         }
@@ -165,14 +165,19 @@ class LeafNode extends BPlusNode {
         keys.add(index, key);
         rids.add(index, rid);
 
-        // 3.未溢出 keys.size() <= 2d
-        if (keys.size() <= 2 * metadata.getOrder()) {
-            sync();
+        // 3.未溢出 keys.size() <= 2d（压缩的节点：序列化后能放进页面）
+        if (!overflows()) {
+            syncInsert(index);
             return Optional.empty();
         } else {
             // 4.溢出 需要分裂
-            // 分裂点应该是中间位置
-            int splitIndex = metadata.getOrder();
+            // 分裂点应该是中间位置（压缩的节点按字节数取中间位置）
+            int splitIndex = metadata.isCompressed() ? compressedSplitIndex() : metadata.getOrder();
+            // 压缩的节点提升能区分左右两个节点的最短的键（后缀截断）
+            DataBox splitKey = metadata.isCompressed()
+                               ? PrefixCompression.separator(keys.get(splitIndex - 1), keys.get(splitIndex),
+                                                             metadata.getKeySchema())
+                               : keys.get(splitIndex);
 
             // 5.创建右节点包含的键和记录
             List<DataBox> newKeys = new ArrayList<>(keys.subList(splitIndex, keys.size()));
@@ -189,11 +194,11 @@ class LeafNode extends BPlusNode {
             long newLeafNodePageNum = newLeafNode.page.getPageNum();
             rightSibling = Optional.of(newLeafNodePageNum);
 
-            // 9.刷盘
-            sync();
+            // 9.刷盘：只有新条目在左半部分时才需要移动条目
+            syncInsert(index);
 
             // 10.返回提升的键和新节点页号 (应该是新节点的第一个键)
-            return Optional.of(new Pair<>(newKeys.get(0), newLeafNodePageNum));
+            return Optional.of(new Pair<>(splitKey, newLeafNodePageNum));
         }
 
 
@@ -205,6 +210,7 @@ class LeafNode extends BPlusNode {
             float fillFactor) {
         // TODO(proj2): implement
         // 1. 插入，直到 = 2 * d + 1
+        int oldSize = keys.size();
         while (data.hasNext() && keys.size() <= metadata.getOrder() * 2) {
             Pair<DataBox, RecordId> pair = data.next(); // 注意next只能调用一次
             keys.add(pair.getFirst());
@@ -228,13 +234,13 @@ class LeafNode extends BPlusNode {
             rightSibling = Optional.of(pageNum);
 
             // 4.4 刷盘
-            sync();
+            syncEntries(Math.min(oldSize, keys.size()));
             // 4.4 copy up
             return Optional.of(new Pair<>(newKeys.get(0), pageNum));
         }
 
         // 刷盘
-        sync();
+        syncEntries(oldSize);
         return Optional.empty();
     }
 
@@ -248,10 +254,34 @@ class LeafNode extends BPlusNode {
         if (index != -1) {
             keys.remove(index);
             rids.remove(index);
+
+            // 3.记住刷盘
+            syncRemove(index);
         }
+    }
 
-        // 3.记住刷盘
-        sync();
+    /**
+     * 如果此叶节点和它的右兄弟节点`right`的条目能放进一个节点，则把`right`的所有条目
+     * 追加到此节点中，并让此节点指向`right`的右兄弟节点（见InnerNode.compact）。
+     * 调用者负责释放`right`的页面。
+     *
+     * @return 是否合并了两个节点
+     */
+    boolean merge(LeafNode right) {
+        int size = keys.size();
+        if (size + right.keys.size() > 2 * metadata.getOrder()) {
+            return false;
+        }
+        keys.addAll(right.keys);
+        rids.addAll(right.rids);
+        if (overflows()) {
+            keys.subList(size, keys.size()).clear();
+            rids.subList(size, rids.size()).clear();
+            return false;
+        }
+        rightSibling = right.rightSibling;
+        syncEntries(size);
+        return true;
     }
 
     // Iterators ///////////////////////////////////////////////////////////////
@@ -283,6 +313,16 @@ class LeafNode extends BPlusNode {
         return page;
     }
 
+    @Override
+    LeafNode copyToNewPage() {
+        return new LeafNode(metadata, bufferManager, keys, rids, rightSibling, treeContext);
+    }
+
+    /** 返回此叶节点右兄弟节点的页号（如果有的话）。 */
+    Optional<Long> getRightSiblingPageNum() {
+        return rightSibling;
+    }
+
     /** 返回此叶节点的右兄弟节点（如果有的话）。 */
     Optional<LeafNode> getRightSibling() {
         if (!rightSibling.isPresent()) {
@@ -293,22 +333,254 @@ class LeafNode extends BPlusNode {
         return Optional.of(LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
     }
 
-    /** 将此叶节点序列化到其页面。 */
+    /** @return 插入一个条目之后，此叶节点是否需要分裂 */
+    private boolean overflows() {
+        if (metadata.isCompressed()) {
+            return toBytes().length > BufferManager.EFFECTIVE_PAGE_SIZE;
+        }
+        return keys.size() > 2 * metadata.getOrder();
+    }
+
+    /** @return 压缩的叶节点溢出时分裂的位置，使左右两半的字节数大致相等 */
+    private int compressedSplitIndex() {
+        int[] sizes = new int[keys.size()];
+        for (int i = 0; i < keys.size(); ++i) {
+            sizes[i] = PrefixCompression.trimmedLength(keys.get(i).toBytes());
+        }
+        return PrefixCompression.splitIndex(sizes);
+    }
+
+    // Page-Resident Search //////////////////////////////////////////////////
+    // 序列化叶节点中右兄弟页号、条目数量和条目的偏移量（见 toBytes）
+    private static final int SIBLING_OFFSET = 1;
+    private static final int COUNT_OFFSET = SIBLING_OFFSET + Long.BYTES;
+    private static final int ENTRIES_OFFSET = COUNT_OFFSET + Integer.BYTES;
+    // 压缩的叶节点中公共前缀的长度和公共前缀的偏移量（见 toCompressedBytes）
+    private static final int PREFIX_LENGTH_OFFSET = ENTRIES_OFFSET;
+    private static final int PREFIX_OFFSET = PREFIX_LENGTH_OFFSET + Short.BYTES;
+
+    /**
+     * 直接在叶节点的序列化页面上查找与`key`关联的记录ID，不反序列化节点。
+     * 条目是定长的（键 + 记录ID），因此可以在页面缓冲区上对键进行二分查找。
+     *
+     * @param buf 叶节点页面的缓冲区（使用绝对下标读取）
+     * @param keySchema 树的键类型
+     * @param key 要查找的键
+     * @return 与`key`关联的记录ID，如果叶节点中没有`key`则返回Optional.empty()
+     */
+    static Optional<RecordId> findKey(Buffer buf, Type keySchema, DataBox key) {
+        if (BPlusNode.isCompressedPage(buf)) {
+            return findCompressedKey(buf, key);
+        }
+        int n = buf.getInt(COUNT_OFFSET);
+        int keySize = keySchema.getSizeInBytes();
+        int entrySize = keySize + RecordId.getSizeInBytes();
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int offset = ENTRIES_OFFSET + mid * entrySize;
+            int cmp = DataBox.compareSerialized(buf, offset, keySchema, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return Optional.of(new RecordId(buf.getLong(offset + keySize),
+                                                buf.getShort(offset + keySize + Long.BYTES)));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * findKey的压缩格式版本。先将`key`与节点的公共前缀比较一次，然后在槽上对后缀
+     * 进行二分查找。
+     */
+    private static Optional<RecordId> findCompressedKey(Buffer buf, DataBox key) {
+        byte[] bytes = key.toBytes();
+        int n = buf.getInt(COUNT_OFFSET);
+        int prefixLength = buf.getShort(PREFIX_LENGTH_OFFSET);
+        if (PrefixCompression.comparePrefix(buf, PREFIX_OFFSET, prefixLength, bytes) != 0) {
+            return Optional.empty();
+        }
+        int slotsOffset = PREFIX_OFFSET + prefixLength;
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int offset = buf.getShort(slotsOffset + mid * Short.BYTES);
+            int length = buf.getShort(offset);
+            int cmp = PrefixCompression.compare(buf, offset + Short.BYTES, length, bytes, prefixLength);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                int ridOffset = offset + Short.BYTES + length;
+                return Optional.of(new RecordId(buf.getLong(ridOffset), buf.getShort(ridOffset + Long.BYTES)));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return 向序列化在`buf`中的压缩的叶节点再插入一个条目时它是否一定不会分裂。
+     * 新的键可能使公共前缀变为空，此时每个条目都会变长。
+     */
+    static boolean hasRoom(Buffer buf, Type keySchema) {
+        int n = buf.getInt(COUNT_OFFSET);
+        int prefixLength = buf.getShort(PREFIX_LENGTH_OFFSET);
+        int worst = compressedSize(buf) + (n - 1) * prefixLength + PrefixCompression.maxLeafEntrySize(keySchema);
+        return worst <= BufferManager.EFFECTIVE_PAGE_SIZE;
+    }
+
+    /** @return 序列化在`buf`中的压缩的叶节点占用的字节数 */
+    private static int compressedSize(Buffer buf) {
+        int n = buf.getInt(COUNT_OFFSET);
+        int prefixLength = buf.getShort(PREFIX_LENGTH_OFFSET);
+        if (n == 0) {
+            return PREFIX_OFFSET + prefixLength;
+        }
+        int offset = buf.getShort(PREFIX_OFFSET + prefixLength + (n - 1) * Short.BYTES);
+        return offset + Short.BYTES + buf.getShort(offset) + RecordId.getSizeInBytes();
+    }
+
+    /**
+     * @return 序列化在`buf`中的叶节点的填充率：未压缩的节点是条目数量与2d的比值，
+     * 压缩的节点是占用的字节数与页面大小的比值
+     */
+    static float fillFactor(Buffer buf, BPlusTreeMetadata metadata) {
+        if (BPlusNode.isCompressedPage(buf)) {
+            return (float) compressedSize(buf) / BufferManager.EFFECTIVE_PAGE_SIZE;
+        }
+        return (float) buf.getInt(COUNT_OFFSET) / (2 * metadata.getOrder());
+    }
+
+    /**
+     * @return 序列化在`buf`中的叶节点的右兄弟节点的页号，没有右兄弟节点时返回
+     * DiskSpaceManager.INVALID_PAGE_NUM
+     */
+    static long rightSiblingAt(Buffer buf) {
+        return buf.getLong(SIBLING_OFFSET);
+    }
+
+    // Page Writes //////////////////////////////////////////////////////////
+    // 节点的修改只写入页面中变化的字节范围（恢复管理器也只记录这些字节），
+    // 而不是重新序列化整个节点。插入和删除在页面上直接移动后面的条目，
+    // 不需要重新序列化它们。这些方法都假设页面的内容与修改之前的节点一致。
+    // 压缩的节点中一个键可能改变公共前缀和所有条目的位置，所以总是序列化整个节点
+    // （缓冲区管理器仍然只记录实际变化的字节）。
+
+    /** 将整个叶节点序列化到其页面。只用于新节点。 */
     private void sync() {
+        page.pin();
+        try {
+            page.getBuffer().put(toBytes());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * 在第`index`个条目被插入（以及节点可能因分裂被截断）之后同步页面：
+     * 页面上原来的第`index`个及之后仍属于此节点的条目整体后移一个条目，
+     * 新条目写入空出的位置，然后写入右兄弟页号和条目数量。
+     */
+    private void syncInsert(int index) {
+        if (metadata.isCompressed()) {
+            sync();
+            return;
+        }
+        page.pin();
+        try {
+            Buffer b = page.getBuffer();
+            if (index < keys.size()) {
+                int entrySize = entrySize();
+                byte[] tail = new byte[(keys.size() - index - 1) * entrySize];
+                b.position(entryOffset(index)).get(tail);
+                byte[] bytes = new byte[tail.length + entrySize];
+                putEntry(bytes, 0, index);
+                System.arraycopy(tail, 0, bytes, entrySize, tail.length);
+                b.position(entryOffset(index)).put(bytes);
+            }
+            syncHeader(b);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * 在第`index`个条目被删除之后同步页面：页面上原来的第`index`个之后的条目
+     * 整体前移一个条目，然后写入条目数量。最后一个条目原来的位置不再使用，不需要清除。
+     */
+    private void syncRemove(int index) {
+        if (metadata.isCompressed()) {
+            sync();
+            return;
+        }
+        page.pin();
+        try {
+            Buffer b = page.getBuffer();
+            if (index < keys.size()) {
+                int entrySize = entrySize();
+                byte[] bytes = new byte[(keys.size() - index) * entrySize];
+                b.position(entryOffset(index + 1)).get(bytes);
+                b.position(entryOffset(index)).put(bytes);
+            }
+            b.putInt(COUNT_OFFSET, keys.size());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * 写入第`from`个及之后的条目，以及右兄弟页号和条目数量。用于在节点末尾追加条目
+     * （可能同时被截断）的批量加载。
+     */
+    private void syncEntries(int from) {
+        if (metadata.isCompressed()) {
+            sync();
+            return;
+        }
         page.pin();
         try {
             Buffer b = page.getBuffer();
-            byte[] newBytes = toBytes();
-            byte[] bytes = new byte[newBytes.length];
-            b.get(bytes);
-            if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
+            if (from < keys.size()) {
+                byte[] bytes = new byte[(keys.size() - from) * entrySize()];
+                for (int i = from; i < keys.size(); ++i) {
+                    putEntry(bytes, (i - from) * entrySize(), i);
+                }
+                b.position(entryOffset(from)).put(bytes);
             }
+            syncHeader(b);
         } finally {
             page.unpin();
         }
     }
 
+    /** 将右兄弟页号和条目数量写入页面缓冲区`b`。 */
+    private void syncHeader(Buffer b) {
+        b.putLong(SIBLING_OFFSET, rightSibling.orElse(-1L));
+        b.putInt(COUNT_OFFSET, keys.size());
+    }
+
+    /** 将第`i`个条目序列化到`bytes`中从`offset`开始的位置。 */
+    private void putEntry(byte[] bytes, int offset, int i) {
+        byte[] key = keys.get(i).toBytes();
+        byte[] rid = rids.get(i).toBytes();
+        System.arraycopy(key, 0, bytes, offset, key.length);
+        System.arraycopy(rid, 0, bytes, offset + key.length, rid.length);
+    }
+
+    private int entrySize() {
+        return metadata.getKeySchema().getSizeInBytes() + RecordId.getSizeInBytes();
+    }
+
+    private int entryOffset(int i) {
+        return ENTRIES_OFFSET + i * entrySize();
+    }
+
     // Just for testing.
     List<DataBox> getKeys() {
         return keys;
@@ -408,6 +680,9 @@ class LeafNode extends BPlusNode {
 
         assert (keys.size() == rids.size());
         assert (keys.size() <= 2 * metadata.getOrder());
+        if (metadata.isCompressed()) {
+            return toCompressedBytes();
+        }
 
         // 所有大小均以字节为单位。
         int isLeafSize = 1;
@@ -429,6 +704,53 @@ class LeafNode extends BPlusNode {
         return buf.array();
     }
 
+    /**
+     * 压缩的叶节点（见PrefixCompression）的序列化。我们写入：
+     *
+     *   a. 字面值3（1字节），表示此节点是压缩的叶节点，
+     *   b. 我们右兄弟节点的页ID（8字节）（如果没有右兄弟节点，则为-1），
+     *   c. 条目的数量n（4字节），
+     *   d. 所有键（去掉末尾的0字节后）的公共前缀的长度p（2字节）和公共前缀（p字节），
+     *   e. n个槽（每个2字节），第i个槽是第i个条目在页面中的偏移量，以及
+     *   f. n个条目，每个条目是键的后缀的长度（2字节）、键的后缀和记录ID（10字节）。
+     *
+     * 例如键"apple"和"apply"（类型为string(8)）的条目的公共前缀是"appl"，
+     * 两个条目中只存储后缀"e"和"y"。
+     */
+    private byte[] toCompressedBytes() {
+        List<byte[]> keyBytes = new ArrayList<>();
+        for (DataBox key : keys) {
+            keyBytes.add(key.toBytes());
+        }
+        int prefixLength = PrefixCompression.commonPrefixLength(keyBytes);
+        int slotsOffset = PREFIX_OFFSET + prefixLength;
+        int size = slotsOffset + keys.size() * Short.BYTES;
+        for (byte[] key : keyBytes) {
+            size += Short.BYTES + PrefixCompression.trimmedLength(key) - prefixLength + RecordId.getSizeInBytes();
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(COMPRESSED_LEAF_PAGE);
+        buf.putLong(rightSibling.orElse(-1L));
+        buf.putInt(keys.size());
+        buf.putShort((short) prefixLength);
+        if (!keyBytes.isEmpty()) {
+            buf.put(keyBytes.get(0), 0, prefixLength);
+        }
+        int offset = slotsOffset + keys.size() * Short.BYTES;
+        for (int i = 0; i < keys.size(); ++i) {
+            byte[] key = keyBytes.get(i);
+            int length = PrefixCompression.trimmedLength(key) - prefixLength;
+            buf.putShort(slotsOffset + i * Short.BYTES, (short) offset);
+            buf.position(offset);
+            buf.putShort((short) length);
+            buf.put(key, prefixLength, length);
+            buf.put(rids.get(i).toBytes());
+            offset = buf.position();
+        }
+        return buf.array();
+    }
+
     /**
      * 从页面`pageNum`加载叶节点。
      */
@@ -437,12 +759,12 @@ class LeafNode extends BPlusNode {
         // TODO(proj2): implement 注意没有右节点的情况
         // 1.从页面`pageNum`加载内部节点。
         Page page = bufferManager.fetchPage(treeContext, pageNum);
-        // 2.获取指向页面的JVM缓冲区
-        Buffer buffer = page.getBuffer();
+        // 2.获取页面内容的拷贝（见BPlusNode.copyOf）
+        Buffer buffer = copyOf(page);
 
         // 3.获取节点类型, 并校验
         byte nodeType = buffer.get();
-        assert(nodeType == 0x01); // 是叶子节点
+        assert(nodeType == LEAF_PAGE || nodeType == COMPRESSED_LEAF_PAGE); // 是叶子节点
 
         // 4.右兄弟节点的页ID
         long rightSibling = buffer.getLong();
@@ -453,9 +775,23 @@ class LeafNode extends BPlusNode {
         List<RecordId> recordIds = new ArrayList<>();
 
         // 6.读取entrys
-        for (int i = 0; i < entryNum; i++) {
-            keys.add(DataBox.fromBytes(buffer, metadata.getKeySchema()));
-            recordIds.add(RecordId.fromBytes(buffer));
+        if (nodeType == COMPRESSED_LEAF_PAGE) {
+            // 压缩的节点：公共前缀之后是槽，每个条目是后缀的长度、后缀和记录ID
+            byte[] prefix = new byte[buffer.getShort()];
+            buffer.get(prefix);
+            int slotsOffset = PREFIX_OFFSET + prefix.length;
+            for (int i = 0; i < entryNum; i++) {
+                int offset = buffer.getShort(slotsOffset + i * Short.BYTES);
+                int length = buffer.getShort(offset);
+                keys.add(PrefixCompression.readKey(buffer, prefix, offset + Short.BYTES, length,
+                                                   metadata.getKeySchema()));
+                recordIds.add(RecordId.fromBytes(buffer));
+            }
+        } else {
+            for (int i = 0; i < entryNum; i++) {
+                keys.add(DataBox.fromBytes(buffer, metadata.getKeySchema()));
+                recordIds.add(RecordId.fromBytes(buffer));
+            }
         }
 
         // 注意：LeafNode有两个构造函数。要实现fromBytes，请确保使用
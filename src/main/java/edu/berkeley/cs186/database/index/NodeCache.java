@@ -0,0 +1,88 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * B+树上层内部节点的缓存：
+ *
+ *   NodeCache cache = new NodeCache();
+ *   BPlusTree tree = new BPlusTree(bufferManager, metadata, lockContext, null, cache);
+ *
+ * 每次查找都要经过根节点和它的子节点，Database为每个索引的每次操作构造一个新的BPlusTree
+ * 对象，所以这些节点会被反复地从页面上读取。缓存保存最上面MAX_LEVELS层内部节点反序列化
+ * 之后的键和子节点指针，查找只需要在内存中选择子节点，之后只读取下层节点和叶节点的页面。
+ * 与NodeLatches相同，同一棵树的所有BPlusTree对象必须共享同一个NodeCache。
+ *
+ * 缓存带有版本号。内部节点被修改（节点分裂、根节点改变、批量加载、整理）或者页面被
+ * 回滚时，invalidate增加版本号并清空缓存。每个缓存的节点记录它被读取时的版本号，
+ * 只有版本号与当前版本号相同的节点才会被使用，因此与invalidate并发地读取的旧节点
+ * 不会被误用。
+ */
+public class NodeCache {
+    // 缓存的层数：根节点和它的子节点
+    static final int MAX_LEVELS = 2;
+
+    // 当前版本号
+    private final AtomicLong version = new AtomicLong();
+
+    // 页号 -> 该页面上的内部节点
+    private final Map<Long, Node> nodes = new ConcurrentHashMap<>();
+
+    /** @return 当前版本号。在读取页面之前获取，并传给put。 */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return 页面`pageNum`上的内部节点，如果没有缓存或者缓存的节点不是在版本`version`
+     * 中读取的则返回null
+     */
+    Node get(long pageNum, long version) {
+        Node node = nodes.get(pageNum);
+        if (node == null || node.version != version) {
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * 缓存在版本`version`中从页面`pageNum`读取的内部节点。
+     */
+    void put(long pageNum, long version, List<DataBox> keys, List<Long> children) {
+        if (version == this.version.get()) {
+            nodes.put(pageNum, new Node(version, keys, children));
+        }
+    }
+
+    /**
+     * 使所有缓存的节点失效。树的内部节点被修改或页面被回滚之后调用。
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+        nodes.clear();
+    }
+
+    /** 缓存的内部节点：不可变的键和子节点指针的拷贝 */
+    static class Node {
+        private final long version;
+        private final List<DataBox> keys;
+        private final List<Long> children;
+
+        private Node(long version, List<DataBox> keys, List<Long> children) {
+            this.version = version;
+            this.keys = new ArrayList<>(keys);
+            this.children = new ArrayList<>(children);
+        }
+
+        /** @return `key`所在子节点的页号，`key`为null时返回最左子节点（同InnerNode.getChildPageNum） */
+        long getChildPageNum(DataBox key) {
+            return children.get(key == null ? 0 : InnerNode.numLessThanEqual(key, keys));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package edu.berkeley.cs186.database.index;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 并发B+树中节点的闩（latch）。每个节点页面对应一个读写闩：
+ *
+ *   NodeLatches latches = new NodeLatches();
+ *   BPlusTree tree = new BPlusTree(bufferManager, metadata, lockContext, latches);
+ *
+ * 闩只在一次树操作期间持有，用于保证多个线程同时读写节点页面时树结构的一致性，
+ * 与事务的锁（LockContext）无关。同一棵树的所有BPlusTree对象必须共享同一个
+ * NodeLatches对象（见BPlusTree中并发模式的说明）。
+ */
+public class NodeLatches {
+    // 页号 -> 该页面上节点的闩。节点页面不会被释放，所以闩也不会被移除。
+    private Map<Long, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+
+    /**
+     * 获取页面`pageNum`上节点的闩，如果`exclusive`为true则获取独占闩，否则获取共享闩。
+     * 持有共享闩的线程不能再获取同一个节点的独占闩。
+     */
+    void lock(long pageNum, boolean exclusive) {
+        ReentrantReadWriteLock latch = latches.computeIfAbsent(pageNum, p -> new ReentrantReadWriteLock());
+        if (exclusive) {
+            latch.writeLock().lock();
+        } else {
+            latch.readLock().lock();
+        }
+    }
+
+    /**
+     * 释放页面`pageNum`上节点的闩。
+     */
+    void unlock(long pageNum, boolean exclusive) {
+        ReentrantReadWriteLock latch = latches.get(pageNum);
+        if (exclusive) {
+            latch.writeLock().unlock();
+        } else {
+            latch.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.util.List;
+
+/**
+ * 压缩节点格式的辅助方法。STRING和BYTE_ARRAY类型的键是定长的字节串，按字节
+ * （无符号）的字典序比较，而且末尾通常是大量用于补齐的0字节。压缩的节点（见
+ * LeafNode和InnerNode中的压缩格式）中：
+ *
+ *   - 每个键去掉末尾的0字节（读取时再补齐到键的长度）；
+ *   - 节点中所有键的公共前缀只存储一次（前缀压缩），每个键只存储剩下的后缀；
+ *   - 叶节点分裂时提升到父节点的分隔键被截断为能区分左右两个节点的最短前缀
+ *     （后缀截断），所以内部节点中的键通常只有几个字节。
+ *
+ * 压缩的节点中键是变长的，所以节点能容纳的键的数量不再由树的阶数决定，而是由
+ * 序列化后的字节数决定：节点在放不下时才分裂。
+ */
+final class PrefixCompression {
+    private PrefixCompression() {}
+
+    /**
+     * @return 键的类型为`keySchema`的树是否可以使用压缩的节点。键必须足够短，
+     * 使得溢出的节点按字节数分成两半后每一半都能放进一个页面。
+     */
+    static boolean supports(Type keySchema, short pageSize) {
+        switch (keySchema.getTypeId()) {
+            case STRING:
+            case BYTE_ARRAY:
+                return (keySchema.getSizeInBytes() + 16) * 8 <= pageSize;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return 压缩的树的阶数d：2d不小于一个压缩的节点最多能容纳的键的数量
+     * （每个键至少占用内部节点中的12字节：槽、后缀长度和子节点指针）。
+     */
+    static int maxOrder(short pageSize) {
+        return pageSize / 12 / 2 + 1;
+    }
+
+    /** @return 去掉末尾的0字节后`key`的长度 */
+    static int trimmedLength(byte[] key) {
+        int n = key.length;
+        while (n > 0 && key[n - 1] == 0) n--;
+        return n;
+    }
+
+    /** @return `keys`（去掉末尾的0字节后）的最长公共前缀的长度 */
+    static int commonPrefixLength(List<byte[]> keys) {
+        if (keys.isEmpty()) return 0;
+        byte[] first = keys.get(0);
+        int n = trimmedLength(first);
+        for (byte[] key : keys) {
+            n = Math.min(n, trimmedLength(key));
+            for (int i = 0; i < n; i++) {
+                if (key[i] != first[i]) {
+                    n = i;
+                    break;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 后缀截断：返回满足`left` < s <= `right`的最短的键s（用0字节补齐到键的长度）。
+     * 对于字符串，不在多字节字符的中间截断。
+     */
+    static DataBox separator(DataBox left, DataBox right, Type keySchema) {
+        byte[] l = left.toBytes();
+        byte[] r = right.toBytes();
+        int n = 0;
+        while (n < l.length && l[n] == r[n]) n++;
+        // r[0..n]是能区分left和right的最短前缀
+        int length = Math.min(n + 1, r.length);
+        if (keySchema.getTypeId() == TypeId.STRING) {
+            while (length < r.length && (r[length] & 0xC0) == 0x80) length++;
+        }
+        byte[] bytes = new byte[r.length];
+        System.arraycopy(r, 0, bytes, 0, length);
+        return DataBox.fromBytes(ByteBuffer.wrap(bytes), keySchema);
+    }
+
+    /**
+     * 读取压缩的节点中的一个键：公共前缀`prefix`之后是页面上从`offset`开始的
+     * `length`字节的后缀，其余用0字节补齐。
+     */
+    static DataBox readKey(Buffer buf, byte[] prefix, int offset, int length, Type keySchema) {
+        byte[] bytes = new byte[keySchema.getSizeInBytes()];
+        System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+        byte[] suffix = new byte[length];
+        buf.position(offset).get(suffix);
+        System.arraycopy(suffix, 0, bytes, prefix.length, length);
+        return DataBox.fromBytes(ByteBuffer.wrap(bytes), keySchema);
+    }
+
+    /**
+     * 比较页面上从`offset`开始的`length`字节（补齐0字节后）与`key`中从`from`开始的字节。
+     *
+     * @return 负数、0或正数，分别表示页面上的字节小于、等于或大于`key`中的字节
+     */
+    static int compare(Buffer buf, int offset, int length, byte[] key, int from) {
+        for (int i = 0; from + i < key.length; i++) {
+            int a = i < length ? buf.get(offset + i) & 0xFF : 0;
+            int c = a - (key[from + i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    /**
+     * 比较页面上从`offset`开始的长度为`length`的前缀与`key`的前`length`个字节。
+     */
+    static int comparePrefix(Buffer buf, int offset, int length, byte[] key) {
+        for (int i = 0; i < length; i++) {
+            int c = (buf.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    /** @return 压缩的叶节点中一个条目最多占用的字节数（槽、后缀长度、后缀和记录ID） */
+    static int maxLeafEntrySize(Type keySchema) {
+        return Short.BYTES + Short.BYTES + keySchema.getSizeInBytes() + RecordId.getSizeInBytes();
+    }
+
+    /** @return 压缩的内部节点中一个键最多占用的字节数（槽、后缀长度、后缀和子节点指针） */
+    static int maxInnerEntrySize(Type keySchema) {
+        return Short.BYTES + Short.BYTES + keySchema.getSizeInBytes() + Long.BYTES;
+    }
+
+    /**
+     * 返回分裂的位置：使第0到第i - 1个元素的总大小首次达到所有元素总大小一半的i，
+     * 且1 <= i <= sizes.length - 1。
+     */
+    static int splitIndex(int[] sizes) {
+        int total = 0;
+        for (int size : sizes) total += size;
+        int sum = 0;
+        for (int i = 0; i < sizes.length - 1; i++) {
+            sum += sizes[i];
+            if (2 * sum >= total) return Math.max(1, i + 1);
+        }
+        return sizes.length - 1;
+    }
+}
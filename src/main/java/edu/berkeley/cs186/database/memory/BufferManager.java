@@ -10,6 +10,8 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 
@@ -37,6 +39,10 @@ public class BufferManager implements AutoCloseable {
     // 页面号到帧索引的映射
     private Map<Long, Integer> pageToFrame;
 
+    // 已被驱逐但还没有刷新完成的页面号到其旧帧的映射。刷新期间旧帧保持锁定，
+    // 重新获取这些页面的线程在旧帧的锁上等待刷新完成，再从磁盘读取页面
+    private Map<Long, Frame> flushingFrames;
+
     // 缓冲区管理器上的锁
     private ReentrantLock managerLock;
 
@@ -49,8 +55,8 @@ public class BufferManager implements AutoCloseable {
     // 恢复管理器
     private RecoveryManager recoveryManager;
 
-    // I/O操作计数
-    private long numIOs = 0;
+    // I/O操作计数，溢出文件的工作线程也会增加它
+    private AtomicLong numIOs = new AtomicLong();
 
     /**
      * 缓冲帧，包含有关加载页面的信息，包装在底层字节数组周围。空闲帧使用索引字段在空闲帧之间创建（单向）链表。
@@ -352,6 +358,7 @@ public class BufferManager implements AutoCloseable {
         this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
         this.pageToFrame = new HashMap<>();
+        this.flushingFrames = new ConcurrentHashMap<>();
         this.managerLock = new ReentrantLock();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
@@ -389,43 +396,59 @@ public class BufferManager implements AutoCloseable {
      * @return 包含指定页面的缓冲帧
      */
     Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
         Frame newFrame;
         Frame evictedFrame;
         // 确定要加载数据到哪个帧，并更新管理器状态
-        try {
-            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
-                throw new PageException("page " + pageNum + " not allocated");
-            }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // 优先使用空闲帧而不是驱逐
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
-            }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
+        while (true) {
+            this.managerLock.lock();
+            Frame flushingFrame;
+            try {
+                if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+                    throw new PageException("page " + pageNum + " not allocated");
+                }
+                if (this.pageToFrame.containsKey(pageNum)) {
+                    newFrame = this.frames[this.pageToFrame.get(pageNum)];
+                    newFrame.pin();
+                    return newFrame;
+                }
+                flushingFrame = this.flushingFrames.get(pageNum);
+                if (flushingFrame == null) {
+                    // 优先使用空闲帧而不是驱逐
+                    if (this.firstFreeIndex < this.frames.length) {
+                        evictedFrame = this.frames[this.firstFreeIndex];
+                        evictedFrame.setUsed();
+                    } else {
+                        evictedFrame = (Frame) evictionPolicy.evict(frames);
+                        this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
+                        evictionPolicy.cleanup(evictedFrame);
+                    }
+                    int frameIndex = evictedFrame.index;
+                    newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
+                    evictionPolicy.init(newFrame);
 
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+                    evictedFrame.frameLock.lock();
+                    newFrame.frameLock.lock();
 
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
-            this.managerLock.unlock();
+                    this.pageToFrame.put(pageNum, frameIndex);
+                    if (evictedFrame.isValid()) {
+                        this.flushingFrames.put(evictedFrame.pageNum, evictedFrame);
+                    }
+                    break;
+                }
+            } finally {
+                this.managerLock.unlock();
+            }
+            // 页面的旧帧正在被另一个线程刷新，等刷新完成后重试
+            flushingFrame.frameLock.lock();
+            flushingFrame.frameLock.unlock();
         }
-        // 刷新被驱逐的帧
+        // 在管理器锁之外刷新被驱逐的帧：刷新可能需要先刷新日志，而写日志时会获取新页面。
+        // 刷新完成之前，重新获取被驱逐页面的线程会在上面等待，不会从磁盘上读到旧的内容
+        long evictedPageNum = evictedFrame.pageNum;
         try {
             evictedFrame.invalidate();
         } finally {
+            this.flushingFrames.remove(evictedPageNum, evictedFrame);
             evictedFrame.frameLock.unlock();
         }
         // 读取新页面到帧中
@@ -462,12 +485,7 @@ public class BufferManager implements AutoCloseable {
      */
     Frame fetchNewPageFrame(int partNum) {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum);
-        } finally {
-            this.managerLock.unlock();
-        }
+        return fetchPageFrame(pageNum);
     }
 
     /**
@@ -520,7 +538,7 @@ public class BufferManager implements AutoCloseable {
         try {
             for (int i = 0; i < frames.length; ++i) {
                 Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                if (!frame.isFreed() && DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
                     this.pageToFrame.remove(frame.getPageNum(), i);
                     evictionPolicy.cleanup(frame);
                     frame.flush();
@@ -607,11 +625,15 @@ public class BufferManager implements AutoCloseable {
      * @return I/O次数
      */
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.get();
     }
 
     public static boolean logIOs;
-    private void incrementIOs() {
+
+    /**
+     * 记录一次I/O。不经过缓冲池直接读写磁盘的调用者（见SpillFile）用它记录自己的I/O。
+     */
+    public void incrementIOs() {
         if (logIOs) {
             System.out.println("IO incurred");
             StackTraceElement[] trace = Thread.currentThread().getStackTrace();
@@ -622,7 +644,7 @@ public class BufferManager implements AutoCloseable {
                 }
             }
         }
-        ++numIOs;
+        numIOs.incrementAndGet();
     }
 
     /**
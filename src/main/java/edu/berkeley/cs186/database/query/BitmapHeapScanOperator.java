@@ -0,0 +1,147 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 位图堆扫描操作符。IndexScanOperator按键的顺序逐个访问匹配的记录ID，匹配的记录很多时
+ * 会在表的页面之间来回跳跃，同一个页面可能被读取多次。位图堆扫描先从索引中收集所有
+ * 匹配的记录ID并按页面分组，再按页号顺序读取这些页面，每个页面只读取一次
+ * （见TransactionContext.bitmapHeapScan）。代价是输出不再按索引列排序。
+ * 记录ID的位图最多占用B页，匹配的记录ID更多时分批处理，一个页面可能在每一批中各读取一次。
+ */
+class BitmapHeapScanOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private String tableName;
+    private String columnName;
+    private PredicateOperator predicate;
+    private DataBox value;
+
+    private int columnIndex;
+
+    /**
+     * @param transaction 包含此操作符的事务
+     * @param tableName 要迭代的表
+     * @param columnName 索引所在列的名称
+     */
+    BitmapHeapScanOperator(TransactionContext transaction,
+                           String tableName,
+                           String columnName,
+                           PredicateOperator predicate,
+                           DataBox value) {
+        super(OperatorType.INDEX_SCAN);
+        this.tableName = tableName;
+        this.transaction = transaction;
+        this.columnName = columnName;
+        this.predicate = predicate;
+        this.value = value;
+        this.setOutputSchema(this.computeSchema());
+        this.columnIndex = this.getSchema().findField(columnName);
+        this.stats = this.estimateStats();
+    }
+
+    @Override
+    public String str() {
+        return String.format("Bitmap Heap Scan %s%s%s On Table %s (Cost=%d)",
+            this.columnName, this.predicate.toSymbol(), this.value, this.tableName,
+            this.estimateIOCost());
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        TableStats stats = this.transaction.getStats(this.tableName);
+        return stats.copyWithPredicate(this.columnIndex,
+                                       this.predicate,
+                                       this.value);
+    }
+
+    @Override
+    public int estimateIOCost() {
+        int height = transaction.getTreeHeight(tableName, columnName);
+        int order = transaction.getTreeOrder(tableName, columnName);
+        TableStats tableStats = transaction.getStats(tableName);
+
+        int count = tableStats.getHistograms().get(columnIndex).copyWithPredicate(predicate,
+                    value).getCount();
+        // 与IndexScanOperator相同的叶节点代价，但每一批中每个页面只读取一次：假设匹配的
+        // 记录均匀分布在表的各个页面上，一批n条记录期望落在
+        // pages * (1 - (1 - 1/pages)^n)个不同的页面上
+        int pages = Math.max(1, transaction.getNumDataPages(tableName));
+        int maxRids = Math.max(1, transaction.getWorkMemSize() * BufferManager.EFFECTIVE_PAGE_SIZE
+                / RecordId.getSizeInBytes());
+        int batches = Math.max(1, (int) Math.ceil(count / (double) maxRids));
+        double pagesTouched = batches * pages * (1 - Math.pow(1 - 1.0 / pages, count / (double) batches));
+        return (int) (height + Math.ceil(count / (1.5 * order)) + Math.ceil(pagesTouched));
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new BitmapHeapScanIterator();
+    }
+
+    @Override
+    public Schema computeSchema() {
+        return this.transaction.getFullyQualifiedSchema(this.tableName);
+    }
+
+    /**
+     * 为该操作符提供迭代器接口的Iterator实现。
+     */
+    private class BitmapHeapScanIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        private Record nextRecord;
+
+        private BitmapHeapScanIterator() {
+            // 索引只能按闭区间扫描，开区间的端点由谓词过滤掉
+            DataBox start = null;
+            DataBox end = null;
+            switch (predicate) {
+                case EQUALS:
+                    start = value;
+                    end = value;
+                    break;
+                case LESS_THAN:
+                case LESS_THAN_EQUALS:
+                    end = value;
+                    break;
+                case GREATER_THAN:
+                case GREATER_THAN_EQUALS:
+                    start = value;
+                    break;
+                default:
+                    throw new UnsupportedOperationException("bitmap heap scan does not support " + predicate);
+            }
+            this.sourceIterator = transaction.bitmapHeapScan(tableName, columnName, start, end);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.nextRecord == null && this.sourceIterator.hasNext()) {
+                Record r = this.sourceIterator.next();
+                if (predicate.evaluate(r.getValue(columnIndex), value)) {
+                    this.nextRecord = r;
+                }
+            }
+            return this.nextRecord != null;
+        }
+
+        @Override
+        public Record next() {
+            if (this.hasNext()) {
+                Record r = this.nextRecord;
+                this.nextRecord = null;
+                return r;
+            }
+            throw new NoSuchElementException();
+        }
+    }
+}
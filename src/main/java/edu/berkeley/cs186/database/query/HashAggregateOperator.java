@@ -0,0 +1,258 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.HashFunc;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.query.disk.Partition;
+import edu.berkeley.cs186.database.query.expr.Expression;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.*;
+
+/**
+ * 哈希聚合：按分组列对源的记录分组，并直接计算每个分组的输出记录，代替
+ * GroupByOperator和ProjectOperator的组合。GroupByOperator为每个分组创建一个临时表，
+ * 分组很多时会创建大量的分区文件。
+ *
+ * 内存中的哈希表为每个分组保存分组的第一条记录（用于计算非聚合的表达式）和输出
+ * 表达式的一个副本（见Expression.copyAggregates），聚合函数随着记录的到来增量地更新，
+ * 分组的记录不会被物化。
+ *
+ * B页工作内存中一页用于读取输入，其余的页面大约平均地分给哈希表和溢出分区的写缓冲：
+ * 哈希表最多保存numGroupPages()页记录那么多个分组；哈希表满了之后，不在哈希表中的
+ * 分组的记录按分组列的哈希值写入numPartitions()个溢出分区，每个分区在第一次收到记录时
+ * 才创建并占用一页写缓冲。处理完输入之后再用下一个哈希函数递归地聚合每个分区。
+ * 一个分组的记录要么全部在内存中聚合，要么全部被写入同一个分区，所以每个分组只输出一次。
+ */
+class HashAggregateOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private List<String> groupByColumns;
+    private List<Integer> groupByColumnIndices;
+
+    // 输出列的名称和对应的表达式
+    private List<String> outputColumns;
+    private List<Expression> expressions;
+
+    private int numBuffers;
+
+    /**
+     * @param source 源操作符
+     * @param transaction 包含此操作符的事务
+     * @param groupByColumns 分组列
+     * @param columns 输出列的名称
+     * @param expressions 输出列的表达式，为null时从`columns`解析
+     */
+    HashAggregateOperator(QueryOperator source,
+                          TransactionContext transaction,
+                          List<String> groupByColumns,
+                          List<String> columns,
+                          List<Expression> expressions) {
+        super(OperatorType.GROUP_BY);
+        this.source = source;
+        this.transaction = transaction;
+        this.numBuffers = transaction.getWorkMemSize();
+        this.outputColumns = columns;
+        if (expressions == null) {
+            expressions = new ArrayList<>();
+            for (String column : columns) {
+                expressions.add(Expression.fromString(column));
+            }
+        }
+        this.expressions = expressions;
+
+        Schema sourceSchema = source.getSchema();
+        this.groupByColumns = new ArrayList<>();
+        this.groupByColumnIndices = new ArrayList<>();
+        for (String column : groupByColumns) {
+            this.groupByColumns.add(sourceSchema.matchFieldName(column));
+            this.groupByColumnIndices.add(sourceSchema.findField(column));
+        }
+
+        boolean hasAgg = false;
+        for (Expression expression : expressions) {
+            expression.setSchema(sourceSchema);
+            hasAgg |= expression.hasAgg();
+        }
+        // 同ProjectOperator：有聚合函数时，非聚合表达式只能引用分组列
+        for (int i = 0; hasAgg && i < expressions.size(); i++) {
+            Expression expression = expressions.get(i);
+            if (expression.hasAgg()) continue;
+            for (String colName : expression.getDependencies()) {
+                if (!this.groupByColumnIndices.contains(sourceSchema.findField(colName))) {
+                    throw new UnsupportedOperationException(
+                            "非聚合表达式 `" + columns.get(i) + "` 引用了未分组字段 `" + colName + "`");
+                }
+            }
+        }
+        this.setOutputSchema(this.computeSchema());
+        this.stats = this.estimateStats();
+    }
+
+    @Override
+    public boolean isGroupBy() {
+        return true;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new HashAggregateIterator();
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        Schema schema = new Schema();
+        for (int i = 0; i < outputColumns.size(); i++) {
+            schema.add(outputColumns.get(i), expressions.get(i).getType());
+        }
+        return schema;
+    }
+
+    @Override
+    public String str() {
+        String columns;
+        if (this.groupByColumns.size() == 1) columns = groupByColumns.get(0);
+        else columns = "(" + String.join(", ", groupByColumns) + ")";
+        return "Hash Aggregate (cost=" + this.estimateIOCost() + ")" +
+               "\n  columns: (" + String.join(", ", this.outputColumns) + ")" +
+               "\n  group by: " + columns;
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().estimateStats();
+    }
+
+    @Override
+    public int estimateIOCost() {
+        // 输入放不进内存时，最坏情况下几乎所有记录都被写入溢出分区再读出一次
+        int N = getSource().estimateStats().getNumPages();
+        int spillCost = N <= numGroupPages() ? 0 : 2 * N;
+        return spillCost + getSource().estimateIOCost();
+    }
+
+    /** @return 溢出分区的数量，每个分区占用一页写缓冲 */
+    private int numPartitions() {
+        return Math.max(1, (numBuffers - 1) / 2);
+    }
+
+    /**
+     * @return 哈希表可以使用的页数：B页减去输入页和溢出分区的写缓冲。B=2时没有多余的页面，
+     * 哈希表仍然使用一页，否则聚合无法推进
+     */
+    private int numGroupPages() {
+        return Math.max(1, numBuffers - 1 - numPartitions());
+    }
+
+    /** @return 内存中的哈希表最多保存的分组数量：numGroupPages()页源记录 */
+    private int maxGroups() {
+        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE,
+                getSource().getSchema());
+        return Math.max(1, numGroupPages() * recordsPerPage);
+    }
+
+    /**
+     * 一个分组的聚合状态
+     */
+    private class Group {
+        // 分组的第一条记录，用于计算非聚合的表达式（它们只引用分组列）
+        private Record first;
+        // 输出表达式，其中的聚合函数只属于这个分组
+        private List<Expression> expressions = new ArrayList<>();
+
+        private Group(Record first) {
+            this.first = first;
+            for (Expression expression : HashAggregateOperator.this.expressions) {
+                this.expressions.add(expression.copyAggregates());
+            }
+        }
+
+        private void update(Record record) {
+            for (Expression expression : expressions) {
+                if (expression.hasAgg()) expression.update(record);
+            }
+        }
+
+        private Record toRecord() {
+            List<DataBox> values = new ArrayList<>();
+            for (Expression expression : expressions) {
+                values.add(expression.evaluate(first));
+            }
+            return new Record(values);
+        }
+    }
+
+    private class HashAggregateIterator implements Iterator<Record> {
+        // 还没有聚合的溢出分区，以及写入它们时使用的哈希轮次
+        private Deque<Pair<Partition, Integer>> partitions = new ArrayDeque<>();
+        // 当前一轮聚合的输出
+        private Iterator<Record> results;
+
+        private HashAggregateIterator() {
+            this.results = aggregate(getSource().iterator(), 1);
+        }
+
+        /**
+         * 聚合`records`：在哈希表中的分组就地更新，哈希表满了之后其余分组的记录
+         * 用第`pass`个哈希函数写入溢出分区，留给之后的轮次。
+         *
+         * @return 哈希表中所有分组的输出记录
+         */
+        private Iterator<Record> aggregate(Iterator<Record> records, int pass) {
+            Map<Record, Group> groups = new LinkedHashMap<>();
+            int maxGroups = maxGroups();
+            // 溢出分区在第一次收到记录时才创建
+            Partition[] spilled = new Partition[numPartitions()];
+            while (records.hasNext()) {
+                Record record = records.next();
+                List<DataBox> values = new ArrayList<>();
+                for (int index : groupByColumnIndices) {
+                    values.add(record.getValue(index));
+                }
+                Record key = new Record(values);
+                Group group = groups.get(key);
+                if (group == null && groups.size() < maxGroups) {
+                    group = new Group(record);
+                    groups.put(key, group);
+                }
+                if (group != null) {
+                    group.update(record);
+                    continue;
+                }
+                int partitionNum = Math.floorMod(HashFunc.hashRecord(key, pass), spilled.length);
+                if (spilled[partitionNum] == null) {
+                    spilled[partitionNum] = new Partition(transaction, getSource().getSchema());
+                }
+                spilled[partitionNum].add(record);
+            }
+            for (Partition partition : spilled) {
+                if (partition != null) partitions.push(new Pair<>(partition, pass));
+            }
+
+            List<Record> output = new ArrayList<>();
+            for (Group group : groups.values()) {
+                output.add(group.toRecord());
+            }
+            return output.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!this.results.hasNext() && !this.partitions.isEmpty()) {
+                Pair<Partition, Integer> partition = this.partitions.pop();
+                this.results = aggregate(partition.getFirst().iterator(), partition.getSecond() + 1);
+            }
+            return this.results.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            return this.results.next();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.index.HashIndex;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.Iterator;
+
+/**
+ * 哈希索引扫描操作符：通过列上的哈希索引（见HashIndex）查找列的值等于`value`的记录。
+ * 哈希索引只支持等值查找，查找只读取头页面、一个目录页面和桶页面，与B+树的高度无关，
+ * 之后每条匹配的记录访问一次表。
+ */
+class HashIndexScanOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private String tableName;
+    private String columnName;
+    private DataBox value;
+
+    private int columnIndex;
+
+    /**
+     * @param transaction 包含此操作符的事务
+     * @param tableName 要迭代的表
+     * @param columnName 哈希索引所在列的名称
+     * @param value 要查找的值
+     */
+    HashIndexScanOperator(TransactionContext transaction,
+                          String tableName,
+                          String columnName,
+                          DataBox value) {
+        super(OperatorType.INDEX_SCAN);
+        this.tableName = tableName;
+        this.transaction = transaction;
+        this.columnName = columnName;
+        this.value = value;
+        this.setOutputSchema(this.computeSchema());
+        this.columnIndex = this.getSchema().findField(columnName);
+        this.stats = this.estimateStats();
+    }
+
+    @Override
+    public String str() {
+        return String.format("Hash Index Scan %s=%s On Table %s (Cost=%d)",
+            this.columnName, this.value, this.tableName, this.estimateIOCost());
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        TableStats stats = this.transaction.getStats(this.tableName);
+        return stats.copyWithPredicate(this.columnIndex,
+                                       PredicateOperator.EQUALS,
+                                       this.value);
+    }
+
+    @Override
+    public int estimateIOCost() {
+        TableStats tableStats = transaction.getStats(tableName);
+        int count = tableStats.getHistograms().get(columnIndex).copyWithPredicate(PredicateOperator.EQUALS,
+                    value).getCount();
+        // 溢出页面很少出现，不计入代价
+        return HashIndex.LOOKUP_IO_COST + count;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return this.transaction.lookupKey(this.tableName, this.columnName, this.value);
+    }
+
+    @Override
+    public Schema computeSchema() {
+        return this.transaction.getFullyQualifiedSchema(this.tableName);
+    }
+}
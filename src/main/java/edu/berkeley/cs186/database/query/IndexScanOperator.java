@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -19,6 +20,11 @@ class IndexScanOperator extends QueryOperator {
     private PredicateOperator predicate;
     private DataBox value;
 
+    // 仅索引扫描输出的列在表模式中的下标（按表模式中的顺序排列），
+    // 为null时是普通的索引扫描：对每个记录ID访问表，输出所有列
+    private List<Integer> columns;
+
+    // 索引列在输出模式中的下标
     private int columnIndex;
 
     /**
@@ -33,17 +39,63 @@ class IndexScanOperator extends QueryOperator {
                       String columnName,
                       PredicateOperator predicate,
                       DataBox value) {
+        this(transaction, tableName, columnName, predicate, value, null);
+    }
+
+    /**
+     * 仅索引扫描操作符：直接从索引的键中读出`columnNames`中的列，不访问表。
+     * 这些列必须都被索引覆盖（见TransactionContext.getIndexColumns）。
+     * 输出模式只包含这些列和索引列（完全限定，按表模式中的顺序排列）。
+     *
+     * @param columnNames 需要的列名（未限定），为null时是普通的索引扫描
+     */
+    IndexScanOperator(TransactionContext transaction,
+                      String tableName,
+                      String columnName,
+                      PredicateOperator predicate,
+                      DataBox value,
+                      List<String> columnNames) {
         super(OperatorType.INDEX_SCAN);
         this.tableName = tableName;
         this.transaction = transaction;
         this.columnName = columnName;
         this.predicate = predicate;
         this.value = value;
+        this.columns = resolveColumns(transaction, tableName, columnName, columnNames);
         this.setOutputSchema(this.computeSchema());
         this.columnIndex = this.getSchema().findField(columnName);
         this.stats = this.estimateStats();
     }
 
+    /**
+     * @return `columnNames`和`columnName`在表模式中的下标（按表模式中的顺序排列），
+     * 如果`columnNames`为null则返回null
+     */
+    private static List<Integer> resolveColumns(TransactionContext transaction,
+                                                String tableName,
+                                                String columnName,
+                                                List<String> columnNames) {
+        if (columnNames == null) return null;
+        Schema schema = transaction.getSchema(tableName);
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < schema.size(); i++) {
+            String name = schema.getFieldName(i);
+            boolean needed = name.equalsIgnoreCase(columnName);
+            for (String c : columnNames) {
+                needed |= name.equalsIgnoreCase(c);
+            }
+            if (needed) columns.add(i);
+        }
+        return columns;
+    }
+
+    /**
+     * @return 如果此操作符是仅索引扫描则返回true
+     */
+    public boolean isIndexOnly() {
+        return this.columns != null;
+    }
+
     @Override
     public boolean isIndexScan() {
         return true;
@@ -51,9 +103,14 @@ class IndexScanOperator extends QueryOperator {
 
     @Override
     public String str() {
-        return String.format("Index Scan %s%s%s On Table %s (Cost=%d)",
+        String str = String.format("%s %s%s%s On Table %s (Cost=%d)",
+            isIndexOnly() ? "Index Only Scan" : "Index Scan",
             this.columnName, this.predicate.toSymbol(), this.value, this.tableName,
             this.estimateIOCost());
+        if (isIndexOnly()) {
+            str += "\n\tcolumns: (" + String.join(", ", this.getSchema().getFieldNames()) + ")";
+        }
+        return str;
     }
 
     /**
@@ -68,9 +125,11 @@ class IndexScanOperator extends QueryOperator {
     @Override
     public TableStats estimateStats() {
         TableStats stats = this.transaction.getStats(this.tableName);
-        return stats.copyWithPredicate(this.columnIndex,
-                                       this.predicate,
-                                       this.value);
+        stats = stats.copyWithPredicate(this.getTableColumnIndex(),
+                                        this.predicate,
+                                        this.value);
+        if (this.columns == null) return stats;
+        return stats.copyWithProjection(this.columns);
     }
 
     @Override
@@ -79,10 +138,18 @@ class IndexScanOperator extends QueryOperator {
         int order = transaction.getTreeOrder(tableName, columnName);
         TableStats tableStats = transaction.getStats(tableName);
 
-        int count = tableStats.getHistograms().get(columnIndex).copyWithPredicate(predicate,
+        int count = tableStats.getHistograms().get(getTableColumnIndex()).copyWithPredicate(predicate,
                     value).getCount();
         // 2 * order 个条目/叶节点，但叶节点填充度为50-100%；我们使用75%的填充因子作为粗略估计
-        return (int) (height + Math.ceil(count / (1.5 * order)) + count);
+        int leafCost = (int) (height + Math.ceil(count / (1.5 * order)));
+        // 仅索引扫描不需要为每个记录访问表
+        return isIndexOnly() ? leafCost : leafCost + count;
+    }
+
+    // 索引列在表模式中的下标
+    private int getTableColumnIndex() {
+        if (this.columns == null) return this.columnIndex;
+        return this.columns.get(this.columnIndex);
     }
 
     @Override
@@ -92,7 +159,9 @@ class IndexScanOperator extends QueryOperator {
 
     @Override
     public Schema computeSchema() {
-        return this.transaction.getFullyQualifiedSchema(this.tableName);
+        Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+        if (this.columns == null) return schema;
+        return schema.project(this.columns);
     }
 
     @Override
@@ -111,19 +180,25 @@ class IndexScanOperator extends QueryOperator {
             this.nextRecord = null;
             // ==
             if (IndexScanOperator.this.predicate == PredicateOperator.EQUALS) {
-                this.sourceIterator = IndexScanOperator.this.transaction.lookupKey(
+                this.sourceIterator = isIndexOnly()
+                        ? indexOnlyScan(IndexScanOperator.this.value, IndexScanOperator.this.value)
+                        : IndexScanOperator.this.transaction.lookupKey(
                                           IndexScanOperator.this.tableName,
                                           IndexScanOperator.this.columnName,
                                           IndexScanOperator.this.value);
                 // < <=
             } else if (IndexScanOperator.this.predicate == PredicateOperator.LESS_THAN ||
                        IndexScanOperator.this.predicate == PredicateOperator.LESS_THAN_EQUALS) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
+                this.sourceIterator = isIndexOnly()
+                        ? indexOnlyScan(null, IndexScanOperator.this.value)
+                        : IndexScanOperator.this.transaction.sortedScan(
                                           IndexScanOperator.this.tableName,
                                           IndexScanOperator.this.columnName);
                 // >
             } else if (IndexScanOperator.this.predicate == PredicateOperator.GREATER_THAN) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
+                this.sourceIterator = isIndexOnly()
+                        ? indexOnlyScan(IndexScanOperator.this.value, null)
+                        : IndexScanOperator.this.transaction.sortedScanFrom(
                                           IndexScanOperator.this.tableName,
                                           IndexScanOperator.this.columnName,
                                           IndexScanOperator.this.value);
@@ -137,13 +212,27 @@ class IndexScanOperator extends QueryOperator {
                     }
                 }
             } else if (IndexScanOperator.this.predicate == PredicateOperator.GREATER_THAN_EQUALS) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
+                this.sourceIterator = isIndexOnly()
+                        ? indexOnlyScan(IndexScanOperator.this.value, null)
+                        : IndexScanOperator.this.transaction.sortedScanFrom(
                                           IndexScanOperator.this.tableName,
                                           IndexScanOperator.this.columnName,
                                           IndexScanOperator.this.value);
             }
         }
 
+        /**
+         * @return 索引中索引列的值在[start, end]内的条目的输出列，null表示没有界
+         */
+        private Iterator<Record> indexOnlyScan(DataBox start, DataBox end) {
+            List<String> names = new ArrayList<>();
+            Schema schema = transaction.getSchema(tableName);
+            for (int i : columns) {
+                names.add(schema.getFieldName(i));
+            }
+            return transaction.indexOnlyScan(tableName, columnName, names, start, end);
+        }
+
         /**
          * @return 如果此迭代器还有下一个记录要返回，则返回true，否则返回false
          */
@@ -13,7 +13,9 @@ public abstract class JoinOperator extends QueryOperator {
         BNLJ, // 块嵌套循环连接
         SORTMERGE, // 排序合并连接
         SHJ, // 简单哈希连接 也就是需要左表能够完全载入内存
-        GHJ  // 优雅哈希连接 GraceHashJoin
+        GHJ, // 优雅哈希连接 GraceHashJoin
+        INLJ, // 索引嵌套循环连接 右表通过连接列上的索引查找
+        HASH // 哈希连接 左表放得进内存时在内存中连接，否则先分区
     }
     protected JoinType joinType; // Join方式
 
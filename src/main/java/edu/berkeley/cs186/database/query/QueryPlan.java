@@ -5,7 +5,10 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.query.join.BNLJOperator;
+import edu.berkeley.cs186.database.query.join.HashJoinOperator;
+import edu.berkeley.cs186.database.query.join.INLJOperator;
 import edu.berkeley.cs186.database.query.join.SNLJOperator;
+import edu.berkeley.cs186.database.query.join.SortMergeOperator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
@@ -281,7 +284,16 @@ public class QueryPlan {
         if (!this.projectColumns.isEmpty()) {
             if (this.finalOperator == null)
                 throw new RuntimeException("无法在空的finalOperator上添加Project。");
-            if (this.projectFunctions == null) {
+            if (this.groupByColumns.size() > 0) {
+                // 分组和投影由哈希聚合一起完成，见addGroupBy
+                this.finalOperator = new HashAggregateOperator(
+                        this.finalOperator,
+                        this.transaction,
+                        this.groupByColumns,
+                        this.projectColumns,
+                        this.projectFunctions
+                );
+            } else if (this.projectFunctions == null) {
                 this.finalOperator = new ProjectOperator(
                         this.finalOperator,
                         this.projectColumns,
@@ -309,6 +321,8 @@ public class QueryPlan {
 
     /**
      * 如果指定了排序且最终操作符尚未排序，则将最终操作符设置为排序操作符。
+     * 同时指定了limit并且前limit + offset条记录能放进工作内存时，使用只保留这些记录的
+     * Top-N排序代替外部排序，之后的LimitOperator再丢弃偏移量之前的记录。
      */
     private void addSort() {
         if (this.sortColumn == null) return;
@@ -316,6 +330,11 @@ public class QueryPlan {
         if (this.finalOperator.sortedBy().contains(sortColumn.toLowerCase())) {
             return; // 已经排序
         }
+        long n = (long) this.limit + this.offset;
+        if (this.limit >= 0 && TopNOperator.fitsInMemory(this.transaction, this.finalOperator.getSchema(), n)) {
+            this.finalOperator = new TopNOperator(this.finalOperator, this.sortColumn, (int) n);
+            return;
+        }
         // 添加排序操作符
         this.finalOperator = new SortOperator(
                 this.transaction,
@@ -412,10 +431,11 @@ public class QueryPlan {
 
     /**
      * 将最终操作符设置为以原始最终操作符为源的GroupByOperator。
-     * 如果没有分组列，则不执行任何操作。
+     * 如果没有分组列，则不执行任何操作。有投影列时分组由addProject中的
+     * HashAggregateOperator完成，它增量地计算每个分组的聚合函数，不需要物化分组。
      */
     private void addGroupBy() {
-        if (this.groupByColumns.size() > 0) {
+        if (this.groupByColumns.size() > 0 && this.projectColumns.isEmpty()) {
             if (this.finalOperator == null) throw new RuntimeException(
                     "无法在空的finalOperator上添加GroupBy。"
             );
@@ -516,6 +536,66 @@ public class QueryPlan {
         this.transaction.setAliasMap(this.aliases);
     }
 
+    // Projection Pushdown 投影下推 ////////////////////////////////////////////////////
+
+    /**
+     * 计算查询实际用到的`table`的列：投影列表（或投影表达式依赖的列）、
+     * 连接谓词、选择谓词、分组列和排序列中引用的列。顺序扫描只需要解码这些列。
+     *
+     * 未限定的列名会匹配所有表中的同名列，这样得到的列集合只会偏大而不会遗漏。
+     *
+     * @param table 表的别名
+     * @return 需要的列名（未限定）；如果需要所有列（例如 SELECT *）则返回null
+     */
+    private List<String> getRequiredColumns(String table) {
+        // 没有投影意味着 SELECT *，需要所有列
+        if (this.projectColumns.isEmpty()) return null;
+
+        // 收集所有被引用的列名
+        List<String> referenced = new ArrayList<>();
+        for (int i = 0; i < this.projectColumns.size(); i++) {
+            Expression expression = null;
+            if (this.projectFunctions != null) expression = this.projectFunctions.get(i);
+            if (expression == null) {
+                try {
+                    expression = Expression.fromString(this.projectColumns.get(i));
+                } catch (RuntimeException e) {
+                    // 无法确定依赖的列，保守地扫描所有列
+                    return null;
+                }
+            }
+            referenced.addAll(expression.getDependencies());
+        }
+        for (JoinPredicate predicate : this.joinPredicates) {
+            referenced.add(predicate.leftColumn);
+            referenced.add(predicate.rightColumn);
+        }
+        for (SelectPredicate predicate : this.selectPredicates) {
+            referenced.add(predicate.tableName + "." + predicate.column);
+        }
+        referenced.addAll(this.groupByColumns);
+        if (this.sortColumn != null) referenced.add(this.sortColumn);
+
+        // 找出表中被引用的列
+        Schema schema = this.transaction.getSchema(table);
+        List<String> required = new ArrayList<>();
+        for (String fieldName : schema.getFieldNames()) {
+            // 临时表的列名可能已经是限定过的，这种情况下不做投影下推
+            if (fieldName.contains(".")) return null;
+            String qualified = (table + "." + fieldName).toLowerCase();
+            for (String column : referenced) {
+                column = column.trim().toLowerCase();
+                if (column.equals(qualified) || column.equals(fieldName.toLowerCase())) {
+                    required.add(fieldName);
+                    break;
+                }
+            }
+        }
+        // 至少保留一列，使得 COUNT(*) 之类的查询仍然能按记录计数
+        if (required.isEmpty()) required.add(schema.getFieldName(0));
+        return required;
+    }
+
     // Task 5: Single Table Access Selection 单表访问选择 ///////////////////////////////////
     /**
      * 获取给定表中可以使用索引扫描的所有选择谓词的索引位置。
@@ -541,7 +621,10 @@ public class QueryPlan {
             boolean indexExists = this.transaction.indexExists(table, p.column);
             // 检查操作符是否可以使用索引扫描
             boolean canScan = p.operator != PredicateOperator.NOT_EQUALS;
-            if (indexExists && canScan) result.add(i);
+            // 哈希索引只能用于等值谓词
+            boolean hashIndexExists = p.operator == PredicateOperator.EQUALS
+                    && this.transaction.hashIndexExists(table, p.column);
+            if ((indexExists && canScan) || hashIndexExists) result.add(i);
         }
         return result;
     }
@@ -586,6 +669,43 @@ public class QueryPlan {
         return source;
     }
 
+    /**
+     * 创建利用`predicate`列上的索引扫描`table`的操作符：
+     *
+     *   - 如果查询用到的`table`的列都能直接从索引中读出（索引的列和INCLUDE列，
+     *     见Transaction.createIndex），返回不访问表的仅索引扫描；
+     *   - 否则根据TableStats估计的匹配记录数，在按键的顺序逐个读取记录的索引扫描和
+     *     按页面顺序每个页面只读取一次的位图堆扫描中选择代价较小的一个；
+     *   - 列上只有哈希索引时（只用于等值谓词），返回哈希索引扫描。
+     */
+    private QueryOperator indexScan(String table, SelectPredicate predicate) {
+        if (!this.transaction.indexExists(table, predicate.column)) {
+            // 列上只有哈希索引（见getEligibleIndexColumns）
+            return new HashIndexScanOperator(this.transaction, table, predicate.column, predicate.value);
+        }
+        List<String> required = getRequiredColumns(table);
+        if (required != null) {
+            List<String> covered = this.transaction.getIndexColumns(table, predicate.column);
+            boolean covering = true;
+            for (String column : required) {
+                boolean found = false;
+                for (String c : covered) {
+                    found |= c.equalsIgnoreCase(column);
+                }
+                covering &= found;
+            }
+            if (covering) {
+                return new IndexScanOperator(this.transaction, table, predicate.column,
+                                             predicate.operator, predicate.value, required);
+            }
+        }
+        QueryOperator indexScan = new IndexScanOperator(this.transaction, table, predicate.column,
+                                                        predicate.operator, predicate.value);
+        QueryOperator bitmapScan = new BitmapHeapScanOperator(this.transaction, table, predicate.column,
+                                                              predicate.operator, predicate.value);
+        return bitmapScan.estimateIOCost() < indexScan.estimateIOCost() ? bitmapScan : indexScan;
+    }
+
     /**
      * 查找访问给定表的最低成本 QueryOperator。首先确定给定表的顺序扫描成本。
      * 然后对于该表上每个可用的索引，确定索引扫描的成本。跟踪最小成本操作并下推符合条件的选择谓词。
@@ -598,7 +718,7 @@ public class QueryPlan {
      * 这个函数就是给一个表名，然后返回一个访问该表的最优操作符
      */
     public QueryOperator minCostSingleAccess(String table) {
-        QueryOperator minOp = new SequentialScanOperator(this.transaction, table);
+        QueryOperator minOp = new SequentialScanOperator(this.transaction, table, getRequiredColumns(table));
 
         // TODO(proj3_part2): implement
         int minCost = minOp.estimateIOCost();
@@ -613,7 +733,7 @@ public class QueryPlan {
             SelectPredicate selectPredicate = selectPredicates.get(eligibleIndexColumnIndex);
 
             // 创建对应的索引扫描算子
-            QueryOperator tempOp = new IndexScanOperator(this.transaction, table, selectPredicate.column, selectPredicate.operator, selectPredicate.value);
+            QueryOperator tempOp = indexScan(table, selectPredicate);
             int tempCost = tempOp.estimateIOCost();
             // 比较开销
             if (tempCost < minCost) {
@@ -635,7 +755,11 @@ public class QueryPlan {
     /**
      * 运用开销最小的连接操作符
      * 给定左右操作符之间的连接谓词，从 JoinOperator.JoinType 中找到成本最低的连接操作符。
-     * 默认情况下只考虑 SNLJ 和 BNLJ，以防止依赖 GHJ、Sort 和 SMJ。
+     * 考虑 SNLJ、BNLJ、哈希连接和排序合并连接。GHJ 和 SHJ 在某些输入上会失败，不考虑它们；
+     * 哈希连接在左表放得进内存时不分区，否则按 GHJ 的方式分区。打开了索引连接
+     * （见 Database.setIndexJoins）并且右操作符是一张在连接列上有索引的表上的顺序扫描时，
+     * 还考虑索引嵌套循环连接。排序合并连接不会重新排序
+     * 已经在连接列上有序（见 sortedBy()）的输入。成本相同时优先选择嵌套循环连接。
      *
      * 提醒：您的实现不需要考虑笛卡尔积，也不需要跟踪有趣的排序。
      *
@@ -652,9 +776,19 @@ public class QueryPlan {
         // 开始选择最小成本的
         int minimumCost = Integer.MAX_VALUE;
         List<QueryOperator> allJoins = new ArrayList<>();
-        // 仅考虑 SNLJ BNLJ
         allJoins.add(new SNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
         allJoins.add(new BNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        allJoins.add(new HashJoinOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        allJoins.add(new SortMergeOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        if (this.transaction.useIndexJoins() && rightOp.getType() == QueryOperator.OperatorType.SEQ_SCAN
+                && this.transaction.getWorkMemSize() > 2) {
+            // INLJ每批读取B-2页左记录，所以至少需要3页工作内存
+            SequentialScanOperator rightScan = (SequentialScanOperator) rightOp;
+            String column = rightColumn.substring(rightColumn.lastIndexOf('.') + 1);
+            if (this.transaction.indexExists(rightScan.getTableName(), column)) {
+                allJoins.add(new INLJOperator(leftOp, rightScan, leftColumn, rightColumn, this.transaction));
+            }
+        }
         for (QueryOperator join : allJoins) {
             int joinCost = join.estimateIOCost();
             if (joinCost < minimumCost) {
@@ -875,12 +1009,7 @@ public class QueryPlan {
     private void generateIndexPlanNaive(int indexPredicate) {
         // 创建索引扫描
         SelectPredicate predicate = this.selectPredicates.get(indexPredicate);
-        this.finalOperator = new IndexScanOperator(
-                this.transaction, this.tableNames.get(0),
-                predicate.column,
-                predicate.operator,
-                predicate.value
-        );
+        this.finalOperator = indexScan(this.tableNames.get(0), predicate);
 
         // 删除该选择谓词
         this.selectPredicates.remove(indexPredicate);
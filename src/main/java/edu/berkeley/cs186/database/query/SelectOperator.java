@@ -3,10 +3,13 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.ScanPredicate;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class SelectOperator extends QueryOperator {
@@ -77,7 +80,49 @@ public class SelectOperator extends QueryOperator {
     }
 
     @Override
-    public Iterator<Record> iterator() { return new SelectIterator(); }
+    public Iterator<Record> iterator() {
+        // 如果此选择（以及它下面的所有选择）直接位于顺序扫描之上，
+        // 就把谓词下推到表扫描中，在页面字节上求值，只解码满足条件的记录
+        List<ScanPredicate> predicates = this.getPushedDownPredicates();
+        if (predicates != null) {
+            return this.getScan().filteredIterator(predicates);
+        }
+        return new SelectIterator();
+    }
+
+    /**
+     * 收集从此操作符到底层顺序扫描之间所有选择操作符的谓词。
+     *
+     * @return 可以下推到顺序扫描中的谓词列表；如果此选择链不是直接位于顺序扫描之上，
+     * 或者其中某个谓词不能在序列化字节上求值（例如字面量与列类型不同），则返回null
+     */
+    private List<ScanPredicate> getPushedDownPredicates() {
+        Schema schema = this.getSchema();
+        if (!ScanPredicate.canPushDown(schema.getFieldType(this.columnIndex), this.value)) {
+            return null;
+        }
+        List<ScanPredicate> predicates;
+        QueryOperator source = this.getSource();
+        if (source.isSequentialScan()) {
+            predicates = new ArrayList<>();
+        } else if (source.isSelect()) {
+            predicates = ((SelectOperator) source).getPushedDownPredicates();
+            if (predicates == null) return null;
+        } else {
+            return null;
+        }
+        predicates.add(new ScanPredicate(this.columnIndex, this.operator, this.value));
+        return predicates;
+    }
+
+    /**
+     * @return 此选择链底部的顺序扫描操作符
+     */
+    private SequentialScanOperator getScan() {
+        QueryOperator source = this.getSource();
+        while (source.isSelect()) source = source.getSource();
+        return (SequentialScanOperator) source;
+    }
 
     /**
      * 为该操作符提供迭代器接口的Iterator实现。
@@ -3,14 +3,20 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.ScanPredicate;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 public class SequentialScanOperator extends QueryOperator {
     private TransactionContext transaction;
     private String tableName;
+    // 投影扫描要解码的列在表模式中的下标，为null时解码所有列
+    private List<Integer> columns;
 
     /**
      * 创建一个新的SequentialScanOperator，提供表中所有元组的迭代器。
@@ -22,24 +28,76 @@ public class SequentialScanOperator extends QueryOperator {
      */
     public SequentialScanOperator(TransactionContext transaction,
                            String tableName) {
-        this(OperatorType.SEQ_SCAN, transaction, tableName);
+        this(OperatorType.SEQ_SCAN, transaction, tableName, null);
+    }
+
+    /**
+     * 创建一个新的投影扫描，只解码`columnNames`中的列，其余列的字节直接跳过。
+     * 输出模式只包含这些列（完全限定，按表模式中的顺序排列）。
+     *
+     * @param transaction 事务上下文
+     * @param tableName 表名
+     * @param columnNames 需要的列名（未限定），为null时扫描所有列
+     */
+    public SequentialScanOperator(TransactionContext transaction,
+                                  String tableName,
+                                  List<String> columnNames) {
+        this(OperatorType.SEQ_SCAN, transaction, tableName,
+             resolveColumns(transaction, tableName, columnNames));
     }
 
     protected SequentialScanOperator(OperatorType type,
                                      TransactionContext transaction,
                                      String tableName) {
+        this(type, transaction, tableName, null);
+    }
+
+    private SequentialScanOperator(OperatorType type,
+                                   TransactionContext transaction,
+                                   String tableName,
+                                   List<Integer> columns) {
         super(type);
         this.transaction = transaction;
         this.tableName = tableName;
+        this.columns = columns;
         this.setOutputSchema(this.computeSchema());
 
         this.stats = this.estimateStats();
     }
 
+    /**
+     * @return `columnNames`在表模式中的下标（按表模式中的顺序排列），
+     * 如果需要所有列则返回null
+     */
+    private static List<Integer> resolveColumns(TransactionContext transaction,
+                                                String tableName,
+                                                List<String> columnNames) {
+        if (columnNames == null) return null;
+        Schema schema = transaction.getSchema(tableName);
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < schema.size(); i++) {
+            for (String columnName : columnNames) {
+                if (schema.getFieldName(i).equalsIgnoreCase(columnName)) {
+                    columns.add(i);
+                    break;
+                }
+            }
+        }
+        if (columns.size() == schema.size()) return null;
+        return columns;
+    }
+
     public String getTableName() {
         return this.tableName;
     }
 
+    /**
+     * @return 投影扫描解码的列在表模式中的下标，扫描所有列时返回null
+     */
+    public List<Integer> getColumns() {
+        return this.columns;
+    }
+
     @Override
     public boolean isSequentialScan() {
         return true;
@@ -55,22 +113,53 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
-        return this.transaction.getRecordIterator(tableName);
+        if (this.columns == null) {
+            return this.transaction.getRecordIterator(tableName);
+        }
+        return this.transaction.getRecordIterator(tableName, Collections.emptyList(), this.columns);
+    }
+
+    /**
+     * 将谓词下推到表扫描中：谓词直接在页面缓冲区中的序列化字节上求值，
+     * 只有满足所有谓词的记录才会被解码为Record。
+     *
+     * @param predicates 要下推的谓词，列下标相对于此操作符的输出模式
+     * @return 满足所有谓词的记录的回溯迭代器
+     */
+    public BacktrackingIterator<Record> filteredIterator(List<ScanPredicate> predicates) {
+        if (this.columns != null) {
+            // 谓词的列下标是相对于输出模式的，需要转换为表模式中的下标
+            List<ScanPredicate> translated = new ArrayList<>();
+            for (ScanPredicate p : predicates) {
+                translated.add(new ScanPredicate(this.columns.get(p.getColumnIndex()),
+                                                 p.getOperator(), p.getValue()));
+            }
+            predicates = translated;
+        }
+        return this.transaction.getRecordIterator(tableName, predicates, this.columns);
     }
 
     @Override
     public Schema computeSchema() {
-        return this.transaction.getFullyQualifiedSchema(this.tableName);
+        Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+        if (this.columns == null) return schema;
+        return schema.project(this.columns);
     }
 
     @Override
     public String str() {
-        return "Seq Scan on " + this.tableName + " (cost=" + this.estimateIOCost() + ")";
+        String str = "Seq Scan on " + this.tableName + " (cost=" + this.estimateIOCost() + ")";
+        if (this.columns != null) {
+            str += "\n\tcolumns: (" + String.join(", ", this.getSchema().getFieldNames()) + ")";
+        }
+        return str;
     }
 
     @Override
     public TableStats estimateStats() {
-        return this.transaction.getStats(this.tableName);
+        TableStats stats = this.transaction.getStats(this.tableName);
+        if (this.columns == null) return stats;
+        return stats.copyWithProjection(this.columns);
     }
 
     @Override
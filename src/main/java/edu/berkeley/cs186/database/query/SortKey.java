@@ -0,0 +1,81 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.Record;
+
+import java.util.Comparator;
+
+/**
+ * 规范化的排序键：每条记录只从排序列中提取一次的long，两个键按Long.compare比较的结果
+ * 与排序列按DataBox.compareTo比较的结果一致，排序时大多数比较因此只是long的比较，
+ * 不需要Record.getValue和DataBox.compareTo的虚调用。
+ *
+ *   - INT、LONG：值本身；
+ *   - FLOAT：翻转了低31位的负数的位模式，与Float.compare的顺序相同（包括-0.0和NaN）；
+ *   - BOOL：0或1；
+ *   - STRING：前8个字符每个取一个字节，按大端序拼成的无符号数，不足8个字符时用0补齐。
+ *     字符串通常是ASCII，一个字节就足够；遇到不小于0xFF的字符时这个位置取0xFF，
+ *     之后的位置都取0，这样键的顺序仍然与String.compareTo一致，只是不再区分这之后的字符。
+ *
+ * 字符串的键只是一个前缀，BYTE_ARRAY没有键（总是0），键相等时还要比较排序列本身。
+ */
+final class SortKey {
+    // 键相同并且键不精确时才需要比较的记录
+    final Record record;
+    // 记录所在的Run，只在置换选择中使用
+    int run;
+    long key;
+
+    SortKey(Record record, long key) {
+        this.record = record;
+        this.key = key;
+    }
+
+    /**
+     * @return 值的规范化键
+     */
+    static long normalize(DataBox value) {
+        switch (value.getTypeId()) {
+            case INT: return value.getInt();
+            case LONG: return value.getLong();
+            case BOOL: return value.getBool() ? 1 : 0;
+            case FLOAT: {
+                int bits = Float.floatToIntBits(value.getFloat());
+                return bits ^ ((bits >> 31) & 0x7fffffff);
+            }
+            case STRING: {
+                String s = value.getString();
+                long key = 0;
+                boolean truncated = false;
+                for (int i = 0; i < 8; i++) {
+                    int c = truncated || i >= s.length() ? 0 : Math.min(s.charAt(i), 0xFF);
+                    truncated |= c == 0xFF;
+                    key = (key << 8) | c;
+                }
+                // 翻转符号位，让有符号的比较得到无符号的顺序
+                return key ^ Long.MIN_VALUE;
+            }
+            default: return 0;
+        }
+    }
+
+    /**
+     * @return 类型为`typeId`的值的键是否精确，即键相等时值一定相等
+     */
+    static boolean isExact(TypeId typeId) {
+        return typeId == TypeId.INT || typeId == TypeId.LONG
+                || typeId == TypeId.BOOL || typeId == TypeId.FLOAT;
+    }
+
+    /**
+     * @return 先比较键的比较器；键相等并且不精确时，再用`recordComparator`比较记录
+     */
+    static Comparator<SortKey> comparator(Comparator<Record> recordComparator, boolean exact) {
+        return (k1, k2) -> {
+            int cmp = Long.compare(k1.key, k2.key);
+            if (cmp != 0 || exact) return cmp;
+            return recordComparator.compare(k1.record, k2.record);
+        };
+    }
+}
@@ -1,15 +1,42 @@
 package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
-import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.common.iterator.LoserTreeIterator;
 import edu.berkeley.cs186.database.query.disk.Run;
+import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.*;
-
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * 外部归并排序。
+ *
+ * 第0趟用置换选择生成初始的Run：堆中保存B-2页记录（留出一页读取输入、一页写出Run），
+ * 每次把堆中最小的记录追加到当前的Run，再读入一条记录，比当前Run的最后一条记录小的记录
+ * 留给下一个Run。输入随机时Run的平均长度约为2(B-2)页，输入已经有序时只有一个Run，所以需要的合并趟数更少。
+ * B不超过4时2(B-2)不比B大，置换选择不会比整块排序生成更少的Run，所以仍然每次读取B页
+ * 在内存中排序（见sortRun）。排序和堆中的比较都使用每条记录只提取一次的规范化键（见SortKey）。
+ *
+ * 事务的sortPool不为null时（见Database.setSortParallelism）以并行模式排序：
+ *
+ *   - 第0趟由调用者的线程每次从源读取B/P页记录（P为sortPool的并行度），交给sortPool中的
+ *     一个任务排序并写出为一个Run，同时最多有P个这样的任务，所以它们的记录加起来不超过
+ *     B页。源只在调用者的线程中读取；
+ *   - 合并时把Run分成不相交的几组，在sortPool中同时合并几组。同时进行的合并平分B页
+ *     工作内存，所以每组的Run比串行模式少；剩下不超过B-1个Run时仍然用全部内存一次合并。
+ *
+ * Run存储在溢出文件中（见SpillFile），读写不经过缓冲池、锁和日志，所以工作线程可以
+ * 直接读写Run：每个Run同一时间只被一个线程读写，溢出文件只对当前事务可见，
+ * 并且在事务结束时被删除。每个Run写完之后立即写出最后一页并释放写缓冲区，
+ * 合并时输入的Run平分输入缓冲区，每次读取几个连续的页面。
+ */
 public class SortOperator extends QueryOperator {
     protected Comparator<Record> comparator;
     private TransactionContext transaction;
@@ -17,15 +44,29 @@ public class SortOperator extends QueryOperator {
     private int numBuffers;
     private int sortColumnIndex;
     private String sortColumnName;
+    // 并行模式使用的线程池，串行模式为null
+    private ForkJoinPool sortPool;
+    // 比较规范化键的比较器，键相等时用comparator比较记录
+    private Comparator<SortKey> keyComparator;
 
     public SortOperator(TransactionContext transaction, QueryOperator source,
                         String columnName) {
         super(OperatorType.SORT, source);
         this.transaction = transaction;
         this.numBuffers = this.transaction.getWorkMemSize();
+        this.sortPool = this.transaction.getSortPool();
         this.sortColumnIndex = getSchema().findField(columnName);
         this.sortColumnName = getSchema().getFieldName(this.sortColumnIndex);
         this.comparator = new RecordComparator(); // 默认比较器，用于比较排序字段
+        boolean exact = SortKey.isExact(getSchema().getFieldType(this.sortColumnIndex).getTypeId());
+        this.keyComparator = SortKey.comparator(this.comparator, exact);
+    }
+
+    /**
+     * @return 记录的规范化排序键
+     */
+    private SortKey sortKey(Record record) {
+        return new SortKey(record, SortKey.normalize(record.getValue(sortColumnIndex)));
     }
 
     private class RecordComparator implements Comparator<Record> {
@@ -47,8 +88,10 @@ public class SortOperator extends QueryOperator {
 
     @Override
     public int estimateIOCost() {
+        // 置换选择按每个初始Run B-2页估计，它生成的Run通常更长，这是一个上界
         int N = getSource().estimateStats().getNumPages();
-        double pass0Runs = Math.ceil(N / (double)numBuffers);
+        int runPages = useReplacementSelection() ? heapPages() : numBuffers;
+        double pass0Runs = Math.ceil(N / (double) runPages);
         double numPasses = 1 + Math.ceil(Math.log(pass0Runs) / Math.log(numBuffers - 1));
         return (int) (2 * N * numPasses) + getSource().estimateIOCost();
     }
@@ -85,75 +128,85 @@ public class SortOperator extends QueryOperator {
      */
     public Run sortRun(Iterator<Record> records) {
         // TODO(proj3_part1): implement
-        // 1. 读取B页数据，并进行内存中排序
-        BacktrackingIterator<Record> blockIterator = QueryOperator.getBlockIterator(records, getSchema(), numBuffers);
-        List<Record> list = new ArrayList<>();
-        blockIterator.forEachRemaining(list::add);
+        // 1. 读取B页数据
+        List<Record> block = new ArrayList<>();
+        QueryOperator.getBlockIterator(records, getSchema(), numBuffers).forEachRemaining(block::add);
+        // 2. 在内存中排序并输出到Run
+        return sortBlock(block);
+    }
 
-        // 排序
-        list.sort(comparator);
+    /**
+     * @return 包含`block`中记录的已排序Run。可以在sortPool的工作线程中调用。
+     */
+    private Run sortBlock(List<Record> block) {
+        SortKey[] array = new SortKey[block.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = sortKey(block.get(i));
+        }
+        // 按规范化键排序
+        Arrays.sort(array, keyComparator);
 
-        // 2. 输出到临时文件
-        return makeRun(list);
+        Run run = makeRun();
+        for (SortKey key : array) {
+            run.add(key.record);
+        }
+        run.finish();
+        return run;
     }
 
     /**
-     * 给定一个已排序的Run列表，返回一个新的Run，它是合并输入Run的结果。
-     * 您应该使用优先队列(java.util.PriorityQueue)来确定下一个应该添加到输出Run中的记录。
+     * 并行模式的第0趟：每次从源读取B/P页记录，交给sortPool中的一个任务排序并写出，
+     * 同时最多有P个任务。
      *
-     * 在任何给定时刻，您不允许在优先队列中有超过runs.size()条记录。
-     * 建议您的优先队列保存Pair<Record, Integer>对象，
-     * 其中Pair (r, i)表示当前从未合并的第i个Run中取出的具有最小排序值的记录r。
-     * `i`在从队列中移除最小元素后，可用于定位下一个要添加到队列中的记录。
+     * @return 有序的Run，按读取源的顺序排列
+     */
+    private List<Run> parallelSortRuns(Iterator<Record> records) {
+        int parallelism = sortPool.getParallelism();
+        int blockPages = Math.max(1, numBuffers / parallelism);
+        List<Run> runs = new ArrayList<>();
+        Deque<ForkJoinTask<Run>> tasks = new ArrayDeque<>();
+        while (records.hasNext()) {
+            // 已经有P个任务时，等最早的任务写完再读取下一块
+            if (tasks.size() == parallelism) runs.add(tasks.poll().join());
+            List<Record> block = new ArrayList<>();
+            QueryOperator.getBlockIterator(records, getSchema(), blockPages).forEachRemaining(block::add);
+            tasks.add(sortPool.submit(() -> sortBlock(block)));
+        }
+        while (!tasks.isEmpty()) {
+            runs.add(tasks.poll().join());
+        }
+        return runs;
+    }
+
+    /**
+     * 给定一个已排序的Run列表，返回一个新的Run，它是合并输入Run的结果。
+     * 合并使用败者树（见LoserTreeIterator），树中每个输入Run只保存一条记录。
+     * 输入Run少于B-1个时，每个输入Run平分B-1页输入缓冲区，每次读取几个连续的页面。
      *
      * @return 通过合并输入Run获得的单个已排序Run
      */
     public Run mergeSortedRuns(List<Run> runs) {
         assert (runs.size() <= this.numBuffers - 1);
         // TODO(proj3_part1): implement
-        // 内存中的优先队列，用于接收多个有序段合并为一个大的
         Run run = makeRun();
-        PriorityQueue<Pair<Record, Integer>> priorityQueue = new PriorityQueue<>(runs.size(), new RecordPairComparator());
-
-        // 获取所有Run的迭代器
-        List<BacktrackingIterator<Record>> iterators = new ArrayList<>();
-        for (Run runItem : runs) {
-            iterators.add(runItem.iterator());
-        }
-
-        // 初始化优先队列，每个Run的第一个元素入队
-        for (int i = 0; i < iterators.size(); i++) {
-            if (iterators.get(i).hasNext()) {
-                priorityQueue.offer(new Pair<>(iterators.get(i).next(), i));
-            }
-        }
-
-        // 合并过程：不断从优先队列取出最小元素，并将该元素所在Run的下一个元素入队
-        while (!priorityQueue.isEmpty()) {
-            Pair<Record, Integer> pair = priorityQueue.poll();
-            run.add(pair.getFirst());
-
-            // 如果该元素所在的Run还有下一个元素，则将其入队
-            if (iterators.get(pair.getSecond()).hasNext()) {
-                priorityQueue.offer(new Pair<>(
-                        iterators.get(pair.getSecond()).next(),
-                        pair.getSecond()
-                ));
-            }
-        }
-
+        mergeInto(runs, run::add, this.numBuffers - 1);
+        run.finish();
         return run;
     }
 
     /**
-     * 仅根据默认比较器比较两个(记录, 整数)对的记录组件。
-     * 您可能会发现这对实现mergeSortedRuns很有用。
+     * 合并有序的`runs`，按顺序把记录交给`output`。`runs`平分`inputPages`页输入缓冲区。
      */
-    private class RecordPairComparator implements Comparator<Pair<Record, Integer>> {
-        @Override
-        public int compare(Pair<Record, Integer> o1, Pair<Record, Integer> o2) {
-            return SortOperator.this.comparator.compare(o1.getFirst(), o2.getFirst());
+    private void mergeInto(List<Run> runs, Consumer<Record> output, int inputPages) {
+        // 败者树的每个槽位保存一个Run当前的第一条记录和它的规范化键
+        int bufferPages = Math.max(1, inputPages / Math.max(1, runs.size()));
+        List<Iterator<Record>> iterators = new ArrayList<>();
+        for (Run runItem : runs) {
+            iterators.add(runItem.iterator(bufferPages));
         }
+        Iterator<Record> merged = new LoserTreeIterator<>(iterators,
+                record -> SortKey.normalize(record.getValue(sortColumnIndex)), comparator);
+        merged.forEachRemaining(output);
     }
 
     /**
@@ -170,6 +223,9 @@ public class SortOperator extends QueryOperator {
         if (runs.size() <= numBuffers - 1) {
             return Collections.singletonList(mergeSortedRuns(runs));
         }
+        if (sortPool != null) {
+            return parallelMergePass(runs);
+        }
 
         // 每次处理(numBuffers - 1)个Run
         List<Run> result = new ArrayList<>();
@@ -185,6 +241,40 @@ public class SortOperator extends QueryOperator {
         return result;
     }
 
+    /**
+     * 并行模式的mergePass：同时进行的合并平分工作内存，每个合并使用fanIn个输入页和
+     * 一个输出页。
+     */
+    private List<Run> parallelMergePass(List<Run> runs) {
+        int parallelism = sortPool.getParallelism();
+        int fanIn = Math.max(2, numBuffers / parallelism - 1);
+        int numConcurrent = Math.max(1, Math.min(parallelism, numBuffers / (fanIn + 1)));
+
+        List<List<Run>> groups = new ArrayList<>();
+        List<Run> result = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            groups.add(runs.subList(i, Math.min(i + fanIn, runs.size())));
+            result.add(makeRun());
+        }
+
+        // 每次同时合并numConcurrent组
+        for (int i = 0; i < groups.size(); i += numConcurrent) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int j = i; j < Math.min(i + numConcurrent, groups.size()); j++) {
+                List<Run> group = groups.get(j);
+                Run output = result.get(j);
+                tasks.add(sortPool.submit(() -> {
+                    mergeInto(group, output::add, fanIn);
+                    output.finish();
+                }));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        return result;
+    }
+
     /**
      * 对源操作符的记录执行外部归并排序。
      * 您可能会发现QueryOperator类的getBlockIterator方法在这里很有用，
@@ -197,11 +287,9 @@ public class SortOperator extends QueryOperator {
         Iterator<Record> sourceIterator = getSource().iterator();
 
         // TODO(proj3_part1): implement
-        // Pass 0  创建初始的排序段 一次可以从内存中加载 B 页数据排序然后输出到Run
-        List<Run> runs = new ArrayList<>();
-        while (sourceIterator.hasNext()) {
-            runs.add(sortRun(sourceIterator));
-        }
+        // Pass 0  创建初始的排序段
+        List<Run> runs = initialRuns(sourceIterator);
+        if (runs.isEmpty()) return makeRun();
 
         // Pass 1, 2, ...: 多轮合并直到只剩一个Run
         while (runs.size() > 1) {
@@ -212,6 +300,74 @@ public class SortOperator extends QueryOperator {
         return runs.get(0);
     }
 
+    /**
+     * 第0趟：并行模式同时排序几块数据；串行模式在置换选择能生成更长的Run时使用置换选择，
+     * 否则每次读取B页排序。
+     *
+     * @return 有序的初始Run
+     */
+    public List<Run> initialRuns(Iterator<Record> records) {
+        if (sortPool != null) return parallelSortRuns(records);
+        if (useReplacementSelection()) return replacementSelection(records);
+        List<Run> runs = new ArrayList<>();
+        while (records.hasNext()) {
+            runs.add(sortRun(records));
+        }
+        return runs;
+    }
+
+    /**
+     * @return 置换选择的平均Run长度2(B-2)页是否超过整块排序的B页，即B > 4
+     */
+    private boolean useReplacementSelection() {
+        return 2 * heapPages() > numBuffers;
+    }
+
+    /**
+     * @return 置换选择的堆占用的页数：B页中留出一页输入缓冲和一页输出缓冲，至少为1页
+     */
+    private int heapPages() {
+        return Math.max(1, numBuffers - 2);
+    }
+
+    /**
+     * 用置换选择生成初始的Run。堆中最多保存B-2页记录，按(Run的编号, 规范化键)排序：
+     * 新读入的记录比刚输出的记录小时不能再追加到当前的Run，它的Run编号加一。
+     *
+     * @return 有序的Run，除了最后一个以外每个Run至少有B-2页记录
+     */
+    public List<Run> replacementSelection(Iterator<Record> records) {
+        int capacity = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, getSchema()) * heapPages();
+        PriorityQueue<SortKey> heap = new PriorityQueue<>(Math.max(1, capacity), (k1, k2) -> {
+            if (k1.run != k2.run) return Integer.compare(k1.run, k2.run);
+            return keyComparator.compare(k1, k2);
+        });
+        for (int i = 0; i < capacity && records.hasNext(); i++) {
+            heap.add(sortKey(records.next()));
+        }
+
+        List<Run> runs = new ArrayList<>();
+        Run current = null;
+        int currentRun = -1;
+        while (!heap.isEmpty()) {
+            SortKey min = heap.poll();
+            if (min.run != currentRun) {
+                if (current != null) current.finish();
+                current = makeRun();
+                runs.add(current);
+                currentRun = min.run;
+            }
+            current.add(min.record);
+            if (records.hasNext()) {
+                SortKey next = sortKey(records.next());
+                next.run = keyComparator.compare(next, min) < 0 ? currentRun + 1 : currentRun;
+                heap.add(next);
+            }
+        }
+        if (current != null) current.finish();
+        return runs;
+    }
+
     /**
      * @return 一个新的空Run。
      */
@@ -226,6 +382,7 @@ public class SortOperator extends QueryOperator {
     public Run makeRun(List<Record> records) {
         Run run = new Run(this.transaction, getSchema());
         run.addAll(records);
+        run.finish();
         return run;
     }
 }
@@ -0,0 +1,122 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.iterator.ArrayBacktrackingIterator;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.*;
+
+/**
+ * Top-N排序：只返回源中按排序列最小的n条记录，并且按排序列有序，用于ORDER BY ... LIMIT。
+ *
+ * 读取一遍源，用一个最多保存n条记录的最大堆保留目前为止最小的n条记录：堆满之后新记录
+ * 只有比堆顶小时才替换堆顶。读完源之后把堆中的记录排序，整个过程只需要O(n)的内存，
+ * 不需要外部排序的临时文件。QueryPlan只在n条记录能放进B页工作内存时使用它，
+ * 偏移量和限制仍然由上面的LimitOperator处理，所以n = limit + offset。
+ */
+class TopNOperator extends QueryOperator {
+    private int n;
+    private int sortColumnIndex;
+    private String sortColumnName;
+    private Comparator<SortKey> keyComparator;
+    // 排序后的结果，第一次迭代时计算
+    private List<Record> sortedRecords;
+
+    /**
+     * @param source 源操作符
+     * @param columnName 排序列
+     * @param n 返回的记录数的上限
+     */
+    TopNOperator(QueryOperator source, String columnName, int n) {
+        super(OperatorType.SORT, source);
+        this.n = n;
+        this.sortColumnIndex = getSchema().findField(columnName);
+        this.sortColumnName = getSchema().getFieldName(this.sortColumnIndex);
+        Comparator<Record> comparator = (r1, r2) ->
+                r1.getValue(sortColumnIndex).compareTo(r2.getValue(sortColumnIndex));
+        boolean exact = SortKey.isExact(getSchema().getFieldType(this.sortColumnIndex).getTypeId());
+        this.keyComparator = SortKey.comparator(comparator, exact);
+    }
+
+    /**
+     * @return `transaction`的工作内存能否容纳模式为`schema`的n条记录
+     */
+    static boolean fitsInMemory(TransactionContext transaction, Schema schema, long n) {
+        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, schema);
+        return n <= (long) recordsPerPage * transaction.getWorkMemSize();
+    }
+
+    @Override
+    public Schema computeSchema() {
+        return getSource().getSchema();
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        return getSource().estimateStats();
+    }
+
+    @Override
+    public int estimateIOCost() {
+        // 堆在内存中，只需要读取一遍源
+        return getSource().estimateIOCost();
+    }
+
+    @Override
+    public String str() {
+        return "Top-N (cost=" + estimateIOCost() + ")" +
+               "\n  sort column: " + sortColumnName +
+               "\n  n: " + n;
+    }
+
+    @Override
+    public List<String> sortedBy() {
+        return Collections.singletonList(sortColumnName);
+    }
+
+    @Override
+    public boolean materialized() { return true; }
+
+    @Override
+    public BacktrackingIterator<Record> backtrackingIterator() {
+        if (this.sortedRecords == null) this.sortedRecords = topN();
+        return new ArrayBacktrackingIterator<>(sortedRecords);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return backtrackingIterator();
+    }
+
+    /**
+     * @return 源中按排序列最小的n条记录，按排序列有序
+     */
+    private List<Record> topN() {
+        if (n <= 0) return Collections.emptyList();
+        // 最大堆，堆顶是保留的记录中最大的一条
+        PriorityQueue<SortKey> heap = new PriorityQueue<>(n, keyComparator.reversed());
+        Iterator<Record> records = getSource().iterator();
+        while (records.hasNext()) {
+            Record record = records.next();
+            SortKey key = new SortKey(record, SortKey.normalize(record.getValue(sortColumnIndex)));
+            if (heap.size() < n) {
+                heap.add(key);
+            } else if (keyComparator.compare(key, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(key);
+            }
+        }
+        SortKey[] array = heap.toArray(new SortKey[0]);
+        Arrays.sort(array, keyComparator);
+        List<Record> result = new ArrayList<>(array.length);
+        for (SortKey key : array) {
+            result.add(key.record);
+        }
+        return result;
+    }
+}
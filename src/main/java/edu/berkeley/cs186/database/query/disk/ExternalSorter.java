@@ -0,0 +1,130 @@
+package edu.berkeley.cs186.database.query.disk;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.query.QueryOperator;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.util.*;
+
+/**
+ * 并行外部归并排序，用于不在查询计划中的大量记录的排序（例如批量加载索引时的
+ * (键, 记录ID)对）：
+ *
+ *   - 第0趟每次从输入中读取numBuffers页的记录，用Arrays.parallelSort在多个线程中
+ *     并行地排序。如果输入只有一块，直接返回排序后的记录，不写入磁盘；否则每块写成
+ *     一个有序的Run；
+ *   - 之后每趟把最多numBuffers - 1个Run合并为一个Run，直到剩下不超过numBuffers - 1个Run；
+ *   - 最后一趟不写回磁盘：sort返回的迭代器在遍历时才合并这些Run。
+ *
+ * Run是调用者事务中的溢出文件（见SpillFile），不经过缓冲池，每个正在写入的Run占用一页内存，
+ * 合并时输入的Run平分numBuffers - 1页内存，每次读取几个连续的页面。
+ * 只有内存中的排序是并行的，读写Run都在调用者的线程中进行。
+ */
+public class ExternalSorter {
+    private final TransactionContext transaction;
+    private final Schema schema;
+    private final Comparator<Record> comparator;
+    private final int numBuffers;
+
+    /**
+     * @param transaction Run所在的事务
+     * @param schema 被排序的记录的模式
+     * @param comparator 记录的顺序
+     * @param numBuffers 排序可以使用的缓冲区页数，至少为3
+     */
+    public ExternalSorter(TransactionContext transaction, Schema schema, Comparator<Record> comparator,
+                          int numBuffers) {
+        if (numBuffers < 3) {
+            throw new IllegalArgumentException("external sort needs at least 3 buffers, got " + numBuffers);
+        }
+        this.transaction = transaction;
+        this.schema = schema;
+        this.comparator = comparator;
+        this.numBuffers = numBuffers;
+    }
+
+    /**
+     * 排序`records`中的所有记录。
+     *
+     * @return 按`comparator`的顺序返回所有记录的迭代器
+     */
+    public Iterator<Record> sort(Iterator<Record> records) {
+        // 第0趟
+        List<Record> block = sortBlock(records);
+        if (!records.hasNext()) {
+            return block.iterator();
+        }
+        List<SpillFile> runs = new ArrayList<>();
+        runs.add(makeRun(block.iterator()));
+        while (records.hasNext()) {
+            runs.add(makeRun(sortBlock(records).iterator()));
+        }
+
+        // 第1, 2, ...趟，留下最后一趟
+        int fanIn = numBuffers - 1;
+        while (runs.size() > fanIn) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                merged.add(makeRun(merge(runs.subList(i, Math.min(i + fanIn, runs.size())))));
+            }
+            runs = merged;
+        }
+        return merge(runs);
+    }
+
+    /** 从`records`中读取最多numBuffers页的记录，并行地排序后返回。 */
+    private List<Record> sortBlock(Iterator<Record> records) {
+        List<Record> block = new ArrayList<>();
+        QueryOperator.getBlockIterator(records, schema, numBuffers).forEachRemaining(block::add);
+        Record[] array = block.toArray(new Record[0]);
+        Arrays.parallelSort(array, comparator);
+        return Arrays.asList(array);
+    }
+
+    private SpillFile makeRun(Iterator<Record> records) {
+        SpillFile run = transaction.createSpillFile(schema);
+        records.forEachRemaining(run::add);
+        run.finish();
+        return run;
+    }
+
+    /**
+     * @return 合并有序的`runs`的迭代器。优先队列中始终最多有runs.size()条记录，
+     * (r, i)表示第i个Run中还没有输出的最小的记录r。
+     */
+    private Iterator<Record> merge(List<SpillFile> runs) {
+        List<Iterator<Record>> iterators = new ArrayList<>();
+        PriorityQueue<Pair<Record, Integer>> queue = new PriorityQueue<>(
+                Math.max(1, runs.size()), (a, b) -> comparator.compare(a.getFirst(), b.getFirst()));
+        // 输入的Run平分numBuffers - 1页输入缓冲区
+        int bufferPages = Math.max(1, (numBuffers - 1) / Math.max(1, runs.size()));
+        for (int i = 0; i < runs.size(); ++i) {
+            Iterator<Record> iter = runs.get(i).iterator(bufferPages);
+            iterators.add(iter);
+            if (iter.hasNext()) {
+                queue.add(new Pair<>(iter.next(), i));
+            }
+        }
+        return new Iterator<Record>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Pair<Record, Integer> pair = queue.poll();
+                Iterator<Record> iter = iterators.get(pair.getSecond());
+                if (iter.hasNext()) {
+                    queue.add(new Pair<>(iter.next(), pair.getSecond()));
+                }
+                return pair.getFirst();
+            }
+        };
+    }
+}
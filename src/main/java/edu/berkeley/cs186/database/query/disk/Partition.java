@@ -1,11 +1,10 @@
 package edu.berkeley.cs186.database.query.disk;
 
 import edu.berkeley.cs186.database.TransactionContext;
-import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
-import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -14,14 +13,11 @@ import java.util.List;
  * 自动缓冲读写操作以最小化产生的I/O操作。
  */
 public class Partition implements Iterable<Record> {
-    // 此分区将在其中使用的事务
-    private TransactionContext transaction;
-    // 底层我们将所有记录存储在一个临时表中
-    private String tempTableName;
+    // 底层我们将所有记录存储在一个溢出文件中，读写都不经过缓冲池
+    private SpillFile file;
 
     public Partition(TransactionContext transaction, Schema s) {
-        this.transaction = transaction;
-        this.tempTableName = transaction.createTempTable(s);
+        this.file = transaction.createSpillFile(s);
     }
 
     /**
@@ -30,7 +26,7 @@ public class Partition implements Iterable<Record> {
      * @param record 要添加的记录
      */
     public void add(Record record) {
-        this.transaction.addRecord(this.tempTableName, record);
+        this.file.add(record);
     }
 
     /**
@@ -39,27 +35,34 @@ public class Partition implements Iterable<Record> {
      * @param records 要添加的记录
      */
     public void addAll(List<Record> records) {
-        for (Record record : records) this.add(record);
+        this.file.addAll(records);
     }
 
     /**
-     * @return 返回此分区中记录的迭代器
+     * 写完此分区：把最后一页写入磁盘并释放写缓冲区（见SpillFile.finish）。
      */
-    public BacktrackingIterator<Record> iterator() {
-        return this.transaction.getRecordIterator(this.tempTableName);
+    public void finish() {
+        this.file.finish();
     }
 
     /**
-     * @return 返回在此分区支持的临时表上的顺序扫描操作符。
+     * @return 返回此分区中记录的迭代器
      */
-    public SequentialScanOperator getScanOperator() {
-        return new SequentialScanOperator(this.transaction, this.tempTableName);
+    public Iterator<Record> iterator() {
+        return this.file.iterator();
     }
 
     /**
      * 返回用于存储此分区中记录的页数。
      */
     public int getNumPages() {
-        return this.transaction.getNumDataPages(this.tempTableName);
+        return this.file.getNumPages();
+    }
+
+    /**
+     * 返回此分区中的记录数。
+     */
+    public long getNumRecords() {
+        return this.file.getNumRecords();
     }
 }
@@ -16,8 +16,9 @@ import java.util.List;
 public class Run implements Iterable<Record> {
     // 此run将用于其中的事务
     private TransactionContext transaction;
-    // 在底层，我们将所有记录存储在一个临时表中
-    private String tempTableName;
+    // 在底层，我们将所有记录存储在一个溢出文件中，读写都不经过缓冲池。
+    // 第一次添加记录时才创建
+    private SpillFile file;
     private Schema schema;
 
     public Run(TransactionContext transaction, Schema schema) {
@@ -30,10 +31,10 @@ public class Run implements Iterable<Record> {
      * @param record 要添加的记录
      */
     public void add(Record record) {
-        if (this.tempTableName == null) {
-            this.tempTableName = transaction.createTempTable(schema);
+        if (this.file == null) {
+            this.file = transaction.createSpillFile(schema);
         }
-        this.transaction.addRecord(this.tempTableName, record);
+        this.file.add(record);
     }
 
     /**
@@ -44,18 +45,26 @@ public class Run implements Iterable<Record> {
         for (Record record: records) this.add(record);
     }
 
+    /**
+     * 写完此run：把最后一页写入磁盘并释放写缓冲区（见SpillFile.finish）。
+     */
+    public void finish() {
+        if (this.file != null) this.file.finish();
+    }
+
     /**
      * @return 返回此run中记录的迭代器
      */
     public BacktrackingIterator<Record> iterator() {
-        if (this.tempTableName == null) return new EmptyBacktrackingIterator<>();
-        return this.transaction.getRecordIterator(this.tempTableName);
+        return iterator(1);
     }
 
     /**
-     * @return 返回包含此run记录的表名
+     * @param bufferPages 迭代器每次最多读取的连续页数
+     * @return 返回此run中记录的迭代器
      */
-    public String getTableName() {
-        return this.tempTableName;
+    public BacktrackingIterator<Record> iterator(int bufferPages) {
+        if (this.file == null) return new EmptyBacktrackingIterator<>();
+        return this.file.iterator(bufferPages);
     }
 }
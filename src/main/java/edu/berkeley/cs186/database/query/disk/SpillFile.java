@@ -0,0 +1,268 @@
+package edu.berkeley.cs186.database.query.disk;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 溢出文件：只能追加的记录文件，用于外部哈希的分区和外部排序的Run。
+ *
+ * 临时表的每条记录都要经过PageDirectory的头页面、页面上的位图、统计信息和缓冲池，
+ * 而溢出的记录只会被顺序地写入一次、读取一次或几次，不需要这些。一个事务的所有溢出文件
+ * 共享一个溢出空间（见SpillSpace），页面直接在溢出空间中读写，不经过缓冲池，但每次读写
+ * 页面都记入BufferManager的I/O计数：
+ *
+ *   - 追加的记录先写入一页的写缓冲区，缓冲区满了之后整页写入磁盘。写完之后调用finish
+ *     把最后一页不满的缓冲区写入磁盘并释放缓冲区；没有调用finish时第一次创建迭代器时写入；
+ *   - 页面每次从溢出空间中分配EXTENT_PAGES个连续的页面，迭代器每次把最多bufferPages个
+ *     连续的页面读入自己的读缓冲区，按写入的顺序返回记录；
+ *   - 页面的开头是页面上的记录数（short），之后是紧密排列的定长记录，
+ *     没有页头页面和位图。
+ *
+ * 所以一个正在写入的溢出文件占用一页内存，写完（finish）之后不占用内存，一个迭代器占用
+ * bufferPages页内存，调用者按工作内存中的页数来计算。迭代器支持回溯（见BacktrackingIterator）：
+ * 离开标记所在的页面时保留这一页，reset时不需要重新读取，此时迭代器多占用一页内存。
+ *
+ * 溢出文件由TransactionContext.createSpillFile创建，事务结束时和临时表一起被删除。
+ * 一个溢出文件同一时间只能被一个线程使用，不同的溢出文件可以在不同的线程中同时读写。
+ */
+public class SpillFile implements Iterable<Record> {
+    // 页面开头的记录数占用的字节数
+    private static final int HEADER_SIZE = Short.BYTES;
+
+    private final SpillSpace space;
+    private final Schema schema;
+    private final int recordSize;
+    private final int recordsPerPage;
+
+    // 分配给这个文件的连续页面的第一个页面，第i页位于extents.get(i / EXTENT_PAGES) + i % EXTENT_PAGES
+    private final List<Long> extents = new ArrayList<>();
+    // 已经写入磁盘的页数
+    private int numPages;
+    // 写缓冲区和其中的记录数，追加记录时才分配，finish时释放
+    private byte[] writeBuffer;
+    private int numBuffered;
+    private long numRecords;
+
+    /**
+     * @param space 溢出文件所在的溢出空间
+     * @param schema 记录的模式
+     */
+    public SpillFile(SpillSpace space, Schema schema) {
+        this.space = space;
+        this.schema = schema;
+        this.recordSize = schema.getSizeInBytes();
+        this.recordsPerPage = (DiskSpaceManager.PAGE_SIZE - HEADER_SIZE) / Math.max(1, recordSize);
+    }
+
+    /**
+     * 向文件末尾追加一条记录。和Table.addRecord一样，记录先被转换为模式中的类型
+     * （见Schema.verify），例如长度不同的字符串。
+     */
+    public void add(Record record) {
+        if (writeBuffer == null) {
+            writeBuffer = new byte[DiskSpaceManager.PAGE_SIZE];
+        }
+        byte[] bytes = schema.verify(record).toBytes(schema);
+        System.arraycopy(bytes, 0, writeBuffer, HEADER_SIZE + numBuffered * recordSize, recordSize);
+        numBuffered++;
+        numRecords++;
+        if (numBuffered == recordsPerPage) {
+            flush();
+        }
+    }
+
+    /**
+     * 追加一组记录。
+     */
+    public void addAll(List<Record> records) {
+        for (Record record : records) this.add(record);
+    }
+
+    /**
+     * 写完文件：把写缓冲区中的记录写入磁盘，并释放写缓冲区。之后仍然可以继续追加记录，
+     * 它们从一个新页面开始。
+     */
+    public void finish() {
+        flush();
+        writeBuffer = null;
+    }
+
+    /**
+     * 把写缓冲区中的记录写入一个新页面。
+     */
+    private void flush() {
+        if (numBuffered == 0) return;
+        ByteBuffer.wrap(writeBuffer).putShort((short) numBuffered);
+        if (numPages % SpillSpace.EXTENT_PAGES == 0) {
+            extents.add(space.allocExtent());
+        }
+        space.write(pageAddress(extents, numPages), writeBuffer, 1);
+        numPages++;
+        numBuffered = 0;
+    }
+
+    /**
+     * @return 第`index`页在溢出空间中的位置
+     */
+    private static long pageAddress(List<Long> extents, int index) {
+        return extents.get(index / SpillSpace.EXTENT_PAGES) + index % SpillSpace.EXTENT_PAGES;
+    }
+
+    /**
+     * @return 文件中记录的迭代器，每次读取一页，见iterator(int)
+     */
+    @Override
+    public BacktrackingIterator<Record> iterator() {
+        return iterator(1);
+    }
+
+    /**
+     * 返回文件中记录的迭代器，它每次最多读取`bufferPages`个连续的页面。文件先被写完（见finish），
+     * 之后仍然可以继续追加记录，但迭代器不保证返回创建迭代器之后追加的记录。
+     *
+     * @param bufferPages 迭代器的读缓冲区的页数，至少为1
+     */
+    public BacktrackingIterator<Record> iterator(int bufferPages) {
+        finish();
+        return new SpillFileIterator(new ArrayList<>(extents), numPages, Math.max(1, bufferPages));
+    }
+
+    /**
+     * @return 文件占用的页数，包括写缓冲区中还没有写入磁盘的页面
+     */
+    public int getNumPages() {
+        return numPages + (numBuffered > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return 文件中的记录数
+     */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @return 文件所在的溢出空间
+     */
+    public SpillSpace getSpace() {
+        return space;
+    }
+
+    private class SpillFileIterator implements BacktrackingIterator<Record> {
+        private final List<Long> extents;
+        private final int numPages;
+        // 读缓冲区和其中的页面：第blockStart页开始的blockPages页，blockStart为-1表示还没有读取
+        private final byte[] block;
+        private int blockStart = -1;
+        private int blockPages = 0;
+        // 离开标记所在的页面时保留的页面和它的下标，没有保留时keptPage为-1
+        private byte[] kept;
+        private int keptPage = -1;
+
+        // 当前页面：它所在的缓冲区和在缓冲区中的偏移量，以及它的下标
+        private byte[] current;
+        private int currentOffset;
+        private int pageIndex = -1;
+        // 当前页面上的记录数，和下一条要返回的记录在页面上的下标
+        private int numOnPage = 0;
+        private int nextRecord = 0;
+
+        // 上一条返回的记录的位置，reset之后还没有返回记录时prevPage为-1
+        private int prevPage = -1;
+        private int prevRecord;
+        // 标记的位置，没有标记时markPage为-1
+        private int markPage = -1;
+        private int markRecord;
+
+        private SpillFileIterator(List<Long> extents, int numPages, int bufferPages) {
+            this.extents = extents;
+            this.numPages = numPages;
+            this.block = new byte[Math.min(bufferPages, Math.max(1, numPages)) * DiskSpaceManager.PAGE_SIZE];
+        }
+
+        private boolean inBlock(int index) {
+            return blockStart >= 0 && index >= blockStart && index < blockStart + blockPages;
+        }
+
+        /**
+         * 让第`index`个页面成为当前页面。如果它在读缓冲区中或者是保留的页面，不需要读取；
+         * 否则从它开始读取最多一个读缓冲区的连续页面，如果标记所在的页面在读缓冲区中，先保留它。
+         */
+        private void loadPage(int index) {
+            if (inBlock(index)) {
+                current = block;
+                currentOffset = (index - blockStart) * DiskSpaceManager.PAGE_SIZE;
+            } else if (index == keptPage) {
+                current = kept;
+                currentOffset = 0;
+            } else {
+                if (markPage >= 0 && inBlock(markPage)) {
+                    if (kept == null) kept = new byte[DiskSpaceManager.PAGE_SIZE];
+                    System.arraycopy(block, (markPage - blockStart) * DiskSpaceManager.PAGE_SIZE,
+                            kept, 0, DiskSpaceManager.PAGE_SIZE);
+                    keptPage = markPage;
+                }
+                // 只读取同一组连续页面中的页面
+                int capacity = block.length / DiskSpaceManager.PAGE_SIZE;
+                int extentLeft = SpillSpace.EXTENT_PAGES - index % SpillSpace.EXTENT_PAGES;
+                int count = Math.min(capacity, Math.min(extentLeft, numPages - index));
+                space.read(pageAddress(extents, index), block, count);
+                blockStart = index;
+                blockPages = count;
+                current = block;
+                currentOffset = 0;
+            }
+            pageIndex = index;
+            numOnPage = ByteBuffer.wrap(current).position(currentOffset).getShort();
+            nextRecord = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextRecord == numOnPage && pageIndex + 1 < numPages) {
+                loadPage(pageIndex + 1);
+            }
+            return nextRecord < numOnPage;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            prevPage = pageIndex;
+            prevRecord = nextRecord;
+            Buffer page = ByteBuffer.wrap(current).position(currentOffset + HEADER_SIZE + nextRecord * recordSize);
+            nextRecord++;
+            return Record.fromBytes(page, schema);
+        }
+
+        @Override
+        public void markPrev() {
+            if (prevPage < 0) return;
+            markPage = prevPage;
+            markRecord = prevRecord;
+        }
+
+        @Override
+        public void markNext() {
+            if (!hasNext()) return;
+            markPage = pageIndex;
+            markRecord = nextRecord;
+        }
+
+        @Override
+        public void reset() {
+            if (markPage < 0) return;
+            if (markPage != pageIndex) loadPage(markPage);
+            nextRecord = markRecord;
+            prevPage = -1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package edu.berkeley.cs186.database.query.disk;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 溢出空间：一个事务的所有溢出文件（见SpillFile）共享的临时文件。
+ *
+ * 溢出的记录只在事务中使用，崩溃之后也不需要恢复，所以溢出空间不是数据库的分区：
+ * 它是系统临时目录中的一个普通文件，分配页面不需要写分区的头页面，写入不记日志，
+ * 也不需要强制刷盘。文件在事务结束时（见close）被删除；在支持的系统上文件打开之后
+ * 立即被删除（见StandardOpenOption.DELETE_ON_CLOSE），所以进程崩溃也不会留下文件。
+ *
+ * 溢出文件每次从溢出空间中分配EXTENT_PAGES个连续的页面，所以一个溢出文件的页面大多是
+ * 连续的，迭代器可以一次读取几页（见SpillFile.iterator(int)）。每读写一页记一次I/O
+ * （见BufferManager.incrementIOs）。不同线程可以同时读写不同的页面。
+ */
+public class SpillSpace implements AutoCloseable {
+    // 每次为一个溢出文件分配的连续页数
+    static final int EXTENT_PAGES = 16;
+
+    private final BufferManager bufferManager;
+    private final Path path;
+    private final FileChannel channel;
+    // 下一个还没有分配的页面
+    private final AtomicLong nextPage = new AtomicLong();
+
+    /**
+     * @param bufferManager 记录溢出空间的I/O次数的缓冲管理器
+     */
+    public SpillSpace(BufferManager bufferManager) {
+        this.bufferManager = bufferManager;
+        try {
+            this.path = Files.createTempFile("spill", null);
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new PageException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return 新分配的EXTENT_PAGES个连续页面中的第一个页面
+     */
+    long allocExtent() {
+        return nextPage.getAndAdd(EXTENT_PAGES);
+    }
+
+    /**
+     * 把`buf`的前`numPages`页写入从`page`开始的连续页面。
+     */
+    void write(long page, byte[] buf, int numPages) {
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, numPages * DiskSpaceManager.PAGE_SIZE);
+        long position = page * DiskSpaceManager.PAGE_SIZE;
+        try {
+            while (b.hasRemaining()) {
+                position += channel.write(b, position);
+            }
+        } catch (IOException e) {
+            throw new PageException("could not write spill pages: " + e.getMessage());
+        }
+        for (int i = 0; i < numPages; i++) bufferManager.incrementIOs();
+    }
+
+    /**
+     * 把从`page`开始的`numPages`个连续页面读入`buf`的前`numPages`页。
+     */
+    void read(long page, byte[] buf, int numPages) {
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, numPages * DiskSpaceManager.PAGE_SIZE);
+        long position = page * DiskSpaceManager.PAGE_SIZE;
+        try {
+            while (b.hasRemaining()) {
+                int read = channel.read(b, position);
+                if (read < 0) throw new PageException("spill page " + position / DiskSpaceManager.PAGE_SIZE
+                        + " was never written");
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not read spill pages: " + e.getMessage());
+        }
+        for (int i = 0; i < numPages; i++) bufferManager.incrementIOs();
+    }
+
+    /**
+     * @return 临时文件的路径
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 关闭并删除临时文件。之后不能再读写这个溢出空间中的溢出文件。
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new PageException("could not delete spill file: " + e.getMessage());
+        }
+    }
+}
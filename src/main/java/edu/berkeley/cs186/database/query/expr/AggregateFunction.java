@@ -48,6 +48,15 @@ abstract class AggregateFunction extends Expression {
         return s.toString();
     }
 
+    @Override
+    public Expression copyAggregates() {
+        Expression[] children = this.children.toArray(new Expression[0]);
+        Expression copy = Expression.function(this.getName(), children);
+        copy.needsParentheses = this.needsParentheses;
+        if (this.schema != null) copy.setSchema(this.schema);
+        return copy;
+    }
+
     public abstract void update(Record record);
     public abstract void reset();
     public abstract String getName();
@@ -574,7 +583,7 @@ abstract class AggregateFunction extends Expression {
 
         @Override
         public String getName() {
-            return "VAR";
+            return "VARIANCE";
         }
     }
 
@@ -29,7 +29,7 @@ import java.util.function.Function;
  * - update(Record r): Used by aggregates to compute partial results
  * - Expression.fromString(String s): Creates an expression from a String!
  */
-public abstract class Expression {
+public abstract class Expression implements Cloneable {
     // The dependencies of an expression are the names of columns whose values
     // must be known in order into compute the expression. For example, the
     // dependencies of the expression `2 * int1 + int2` would be `int1` and
@@ -138,6 +138,32 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * Returns an expression that computes the same thing as this one, but
+     * with fresh aggregate functions that haven't seen any records. Parts of
+     * the expression without aggregates are stateless and are shared with the
+     * copy. Hash aggregation keeps one copy per group so that the aggregates
+     * of every group can be updated incrementally (see HashAggregateOperator).
+     */
+    public Expression copyAggregates() {
+        if (!this.hasAgg) return this;
+        Expression copy;
+        try {
+            copy = (Expression) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        Expression[] children = new Expression[this.children.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = this.children.get(i).copyAggregates();
+        }
+        copy.children = Arrays.asList(children);
+        // setSchema rebuilds state derived from the children (e.g. the
+        // evaluation function of arithmetic expressions) for the copy
+        if (this.schema != null) copy.setSchema(this.schema);
+        return copy;
+    }
+
     public final String toString() {
         if (this.needsParentheses) return "(" + subclassString() + ")";
         return subclassString();
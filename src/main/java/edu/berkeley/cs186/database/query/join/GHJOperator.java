@@ -81,6 +81,8 @@ public class GHJOperator extends JoinOperator {
             // 插入到对应的分区
             partitions[partitionNum].add(record);
         }
+        // 分区写完，写出最后一页并释放写缓冲区
+        for (Partition partition : partitions) partition.finish();
     }
 
     /**
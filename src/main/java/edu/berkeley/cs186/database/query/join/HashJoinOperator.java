@@ -0,0 +1,377 @@
+package edu.berkeley.cs186.database.query.join;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.BloomFilter;
+import edu.berkeley.cs186.database.common.HashFunc;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.query.JoinOperator;
+import edu.berkeley.cs186.database.query.QueryOperator;
+import edu.berkeley.cs186.database.query.disk.Partition;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 混合哈希连接，左源是构建侧。
+ *
+ * 构建阶段按连接列的哈希值把左记录分到若干个分区中，所有分区一开始都在内存中。内存中的
+ * 记录超过工作内存时，把内存中最大的分区溢出到磁盘，之后属于它的左记录直接写入磁盘。
+ * 每个溢出的分区占用一页写缓冲区，所以每溢出一个分区，内存中的分区可用的页数就少一页。
+ * 第一个分区溢出时再从B-2页中拿出一页作为布隆过滤器，溢出的左记录的连接值被加入过滤器。
+ * 只有B-2页在留出其余分区的写缓冲区和一个内存中的分区之后还有空余的页时才使用过滤器，
+ * 否则这一页更应该用来留住一个分区。
+ *
+ * 探测阶段中，属于内存中分区的右记录直接探测哈希表；属于溢出分区的右记录先检查布隆过滤器，
+ * 一定没有匹配的记录被丢弃，其余的写入对应的右分区。最后连接每对溢出的分区：有一边放得进
+ * B-2页时直接构建并探测（必要时交换构建侧），否则用下一个哈希函数再做一次混合哈希连接。
+ *
+ * 分区的数量按构建侧的估计大小选择，使得溢出的分区在下一轮能放进B-2页。左源放得进B-2页时
+ * 不会溢出任何分区，两边都只读一遍。
+ *
+ * 一个溢出的分区包含了这一轮全部的左记录时（例如所有记录的连接值都相同），继续分区没有意义，
+ * 这时不再分区，而是每次把B-2页构建记录读入哈希表，用整个探测分区探测一遍；分区了MAX_PASSES轮
+ * 之后也这样处理，所以递归一定会结束。
+ *
+ * 连接的记录边产生边返回，不会写入磁盘：迭代器依次执行构建、探测和连接每对溢出分区这几个
+ * 阶段，每个阶段的探测记录逐条探测哈希表，下一个阶段在上一个阶段的输出被取完之后才开始，
+ * 所以任何时候内存中只有一个哈希表。
+ *
+ * 与GHJOperator和SHJOperator不同，它不会因为输入而失败，所以有可以被优化器使用的成本。
+ */
+public class HashJoinOperator extends JoinOperator {
+    // 分区的最大轮数
+    private static final int MAX_PASSES = 5;
+
+    private int numBuffers;
+
+    public HashJoinOperator(QueryOperator leftSource,
+                            QueryOperator rightSource,
+                            String leftColumnName,
+                            String rightColumnName,
+                            TransactionContext transaction) {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.HASH);
+        this.numBuffers = transaction.getWorkMemSize();
+        this.stats = this.estimateStats();
+    }
+
+    @Override
+    public int estimateIOCost() {
+        // 读取两个源各一次；溢出的那部分记录在每一轮分区中写入并读出一次。
+        // 布隆过滤器丢弃的右记录没有计算在内，所以这是一个上界
+        int leftPages = getLeftSource().estimateStats().getNumPages();
+        int rightPages = getRightSource().estimateStats().getNumPages();
+        int cost = getLeftSource().estimateIOCost() + getRightSource().estimateIOCost();
+        if (leftPages <= memoryPages()) return cost;
+
+        int numPartitions = numPartitions(leftPages);
+        double partitionPages = leftPages / (double) numPartitions;
+        // 溢出的分区各占一页写缓冲区，布隆过滤器占一页，剩下的内存能留住的分区数
+        int resident = 0;
+        while (resident < numPartitions
+                && (resident + 1) * partitionPages + (numPartitions - resident - 1)
+                + bloomFilterPages(leftPages) <= memoryPages()) {
+            resident++;
+        }
+        double spilledFraction = (numPartitions - resident) / (double) numPartitions;
+        // 溢出的分区仍然放不进B-2页时还要继续分区
+        int passes = 1;
+        for (double pages = partitionPages; pages > memoryPages() && passes < MAX_PASSES; passes++) {
+            pages /= numPartitions((long) Math.ceil(pages));
+        }
+        return cost + (int) Math.ceil(2 * passes * spilledFraction * (leftPages + rightPages));
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new HashJoinIterator();
+    }
+
+    /**
+     * @return 构建哈希表可用的页数：除去一页输入缓冲区和一页输出缓冲区
+     */
+    private int memoryPages() {
+        return Math.max(1, numBuffers - 2);
+    }
+
+    /**
+     * @return 构建侧有`pages`页并且有分区溢出时布隆过滤器占用的页数：B-2页减去其余分区的
+     * 写缓冲区和一个分区之后还有空余的页时为1，否则不使用过滤器，为0
+     */
+    private int bloomFilterPages(long pages) {
+        int numPartitions = numPartitions(pages);
+        long partitionPages = (pages + numPartitions - 1) / numPartitions;
+        return memoryPages() - (numPartitions - 1) - partitionPages >= 1 ? 1 : 0;
+    }
+
+    /**
+     * @return B-2页能容纳的模式为`schema`的记录数
+     */
+    private int capacity(Schema schema) {
+        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, schema);
+        return Math.max(1, recordsPerPage * memoryPages());
+    }
+
+    /**
+     * @return 构建侧有`pages`页时的分区数：溢出的分区应该能放进B-2页，再多一个分区
+     * 让一部分记录留在内存中，但不超过B-1个
+     */
+    private int numPartitions(long pages) {
+        long n = (long) Math.ceil(pages / (double) memoryPages()) + 1;
+        return (int) Math.max(2, Math.min(numBuffers - 1, n));
+    }
+
+    /**
+     * 依次执行连接的各个阶段的迭代器。每个阶段返回它产生的连接记录的迭代器，
+     * 阶段在迭代的过程中可以加入新的阶段（例如连接一对溢出的分区）。
+     */
+    private class HashJoinIterator implements Iterator<Record> {
+        private Deque<Supplier<Iterator<Record>>> stages = new ArrayDeque<>();
+        private Iterator<Record> current = Collections.emptyIterator();
+
+        private HashJoinIterator() {
+            TableStats leftStats = getLeftSource().estimateStats();
+            stages.push(() -> hybridJoin(stages, getLeftSource(), getRightSource(), 1,
+                    leftStats.getNumPages(), leftStats.getNumRecords()));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (stages.isEmpty()) return false;
+                current = stages.pop().get();
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return current.next();
+        }
+    }
+
+    /**
+     * 用第`pass`个哈希函数对`leftRecords`和`rightRecords`做一轮混合哈希连接。
+     * 构建阶段在调用时完成，探测阶段在返回的迭代器中进行；探测记录取完之后，
+     * 连接每对溢出分区的阶段被加入`stages`。
+     *
+     * @param leftPages 左记录的（估计）页数，用于选择分区数
+     * @param expectedLeftRecords 左记录的（估计）数量，用于确定布隆过滤器中每个键的位数
+     * @return 探测阶段产生的连接记录
+     */
+    private Iterator<Record> hybridJoin(Deque<Supplier<Iterator<Record>>> stages,
+                                        Iterable<Record> leftRecords, Iterable<Record> rightRecords, int pass,
+                                        long leftPages, long expectedLeftRecords) {
+        Schema leftSchema = getLeftSource().getSchema();
+        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, leftSchema);
+        int numPartitions = numPartitions(leftPages);
+        int filterPages = bloomFilterPages(leftPages);
+
+        // 构建阶段：resident.get(i)是内存中的第i个分区，leftSpilled[i]不为null时它已经溢出
+        List<List<Record>> resident = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            resident.add(new ArrayList<>());
+        }
+        Partition[] leftSpilled = new Partition[numPartitions];
+        // 第一个分区溢出时才创建，没有可用的页时为null
+        BloomFilter bloomFilter = null;
+        long numLeft = 0;
+        long numResident = 0;
+        int numSpilled = 0;
+        for (Record record : leftRecords) {
+            numLeft++;
+            DataBox key = record.getValue(getLeftColumnIndex());
+            int partitionNum = Math.floorMod(HashFunc.hashDataBox(key, pass), numPartitions);
+            if (leftSpilled[partitionNum] != null) {
+                leftSpilled[partitionNum].add(record);
+                if (bloomFilter != null) bloomFilter.add(key);
+                continue;
+            }
+            resident.get(partitionNum).add(record);
+            numResident++;
+            // 内存中的分区可用B-2页减去溢出分区的写缓冲区和布隆过滤器，超过时溢出内存中最大的分区
+            while (numResident > (long) recordsPerPage
+                    * Math.max(0, memoryPages() - numSpilled - (numSpilled > 0 ? filterPages : 0))) {
+                if (numSpilled == 0 && filterPages > 0) {
+                    bloomFilter = new BloomFilter(expectedLeftRecords, 8L * PageDirectory.EFFECTIVE_PAGE_SIZE);
+                }
+                int victim = 0;
+                for (int i = 1; i < numPartitions; i++) {
+                    if (resident.get(i).size() > resident.get(victim).size()) victim = i;
+                }
+                leftSpilled[victim] = new Partition(getTransaction(), leftSchema);
+                for (Record spilled : resident.get(victim)) {
+                    leftSpilled[victim].add(spilled);
+                    if (bloomFilter != null) bloomFilter.add(spilled.getValue(getLeftColumnIndex()));
+                }
+                numResident -= resident.get(victim).size();
+                resident.set(victim, new ArrayList<>());
+                numSpilled++;
+            }
+        }
+
+        // 溢出的左分区写完，释放它们的写缓冲区
+        for (Partition partition : leftSpilled) {
+            if (partition != null) partition.finish();
+        }
+
+        Map<DataBox, List<Record>> hashTable = new HashMap<>();
+        for (List<Record> partition : resident) {
+            for (Record record : partition) {
+                hashTable.computeIfAbsent(record.getValue(getLeftColumnIndex()), k -> new ArrayList<>()).add(record);
+            }
+        }
+
+        // 探测阶段：溢出分区的右记录经过布隆过滤器之后写入对应的右分区
+        Partition[] rightSpilled = new Partition[numPartitions];
+        boolean spilled = numSpilled > 0;
+        BloomFilter filter = bloomFilter;
+        long leftTotal = numLeft;
+        Predicate<Record> spill = record -> {
+            if (!spilled) return false;
+            DataBox key = record.getValue(getRightColumnIndex());
+            int partitionNum = Math.floorMod(HashFunc.hashDataBox(key, pass), numPartitions);
+            if (leftSpilled[partitionNum] == null) return false;
+            if (filter == null || filter.mightContain(key)) {
+                if (rightSpilled[partitionNum] == null) {
+                    rightSpilled[partitionNum] = new Partition(getTransaction(), getRightSource().getSchema());
+                }
+                rightSpilled[partitionNum].add(record);
+            }
+            return true;
+        };
+        Runnable scheduleSpilled = () -> {
+            for (Partition partition : rightSpilled) {
+                if (partition != null) partition.finish();
+            }
+            for (int i = numPartitions - 1; i >= 0; i--) {
+                if (leftSpilled[i] == null || rightSpilled[i] == null) continue;
+                Partition left = leftSpilled[i];
+                Partition right = rightSpilled[i];
+                stages.push(() -> join(stages, left, right, pass + 1, left.getNumRecords() == leftTotal));
+            }
+        };
+        return new ProbeIterator(hashTable, rightRecords.iterator(), getRightColumnIndex(), true,
+                spill, scheduleSpilled);
+    }
+
+    /**
+     * 连接一对溢出的分区。
+     *
+     * @param pass 继续分区时使用的哈希函数
+     * @param unsplittable 左分区是否包含了上一轮全部的左记录
+     * @return 连接记录的迭代器
+     */
+    private Iterator<Record> join(Deque<Supplier<Iterator<Record>>> stages,
+                                  Partition leftPartition, Partition rightPartition, int pass, boolean unsplittable) {
+        if (leftPartition.getNumPages() <= memoryPages()) {
+            return buildAndProbe(stages, leftPartition.iterator(), rightPartition, true);
+        } else if (rightPartition.getNumPages() <= memoryPages()) {
+            return buildAndProbe(stages, rightPartition.iterator(), leftPartition, false);
+        } else if (unsplittable || pass > MAX_PASSES) {
+            // 继续分区也分不开，每次用B-2页构建记录连接
+            return buildAndProbe(stages, leftPartition.iterator(), rightPartition, true);
+        }
+        return hybridJoin(stages, leftPartition, rightPartition, pass,
+                leftPartition.getNumPages(), leftPartition.getNumRecords());
+    }
+
+    /**
+     * 把接下来最多B-2页构建记录读入哈希表，并用所有探测记录探测它。构建记录还没有读完时，
+     * 探测记录取完之后把下一批构建记录的阶段加入`stages`。
+     *
+     * @param buildIsLeft 构建记录是否来自左源
+     * @return 连接记录的迭代器
+     */
+    private Iterator<Record> buildAndProbe(Deque<Supplier<Iterator<Record>>> stages, Iterator<Record> buildIterator,
+                                           Partition probeRecords, boolean buildIsLeft) {
+        int buildColumnIndex = buildIsLeft ? getLeftColumnIndex() : getRightColumnIndex();
+        int probeColumnIndex = buildIsLeft ? getRightColumnIndex() : getLeftColumnIndex();
+        Schema buildSchema = (buildIsLeft ? getLeftSource() : getRightSource()).getSchema();
+        Map<DataBox, List<Record>> hashTable = build(buildIterator, buildColumnIndex, capacity(buildSchema));
+        Runnable nextBatch = () -> {
+            if (buildIterator.hasNext()) {
+                stages.push(() -> buildAndProbe(stages, buildIterator, probeRecords, buildIsLeft));
+            }
+        };
+        return new ProbeIterator(hashTable, probeRecords.iterator(), probeColumnIndex, buildIsLeft,
+                record -> false, nextBatch);
+    }
+
+    /**
+     * 从`records`中读取最多`capacity`条记录，按连接列构建哈希表。
+     */
+    private Map<DataBox, List<Record>> build(Iterator<Record> records, int columnIndex, int capacity) {
+        Map<DataBox, List<Record>> hashTable = new HashMap<>();
+        for (int i = 0; i < capacity && records.hasNext(); i++) {
+            Record record = records.next();
+            hashTable.computeIfAbsent(record.getValue(columnIndex), k -> new ArrayList<>()).add(record);
+        }
+        return hashTable;
+    }
+
+    /**
+     * 用探测记录逐条探测哈希表，返回连接的记录。
+     */
+    private class ProbeIterator implements Iterator<Record> {
+        private Map<DataBox, List<Record>> hashTable;
+        private Iterator<Record> probeRecords;
+        private int probeColumnIndex;
+        private boolean buildIsLeft;
+        // 返回true的探测记录不探测哈希表（例如它们属于溢出的分区）
+        private Predicate<Record> skip;
+        // 探测记录取完之后调用一次
+        private Runnable onFinish;
+
+        // 当前探测记录和它在哈希表中的匹配记录
+        private Record probeRecord;
+        private List<Record> matches = Collections.emptyList();
+        private int matchIndex = 0;
+
+        private ProbeIterator(Map<DataBox, List<Record>> hashTable, Iterator<Record> probeRecords,
+                              int probeColumnIndex, boolean buildIsLeft,
+                              Predicate<Record> skip, Runnable onFinish) {
+            this.hashTable = hashTable;
+            this.probeRecords = probeRecords;
+            this.probeColumnIndex = probeColumnIndex;
+            this.buildIsLeft = buildIsLeft;
+            this.skip = skip;
+            this.onFinish = onFinish;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (matchIndex >= matches.size()) {
+                if (onFinish == null) return false;
+                if (!probeRecords.hasNext()) {
+                    // 释放哈希表，再开始后面的阶段
+                    hashTable = null;
+                    onFinish.run();
+                    onFinish = null;
+                    return false;
+                }
+                Record record = probeRecords.next();
+                if (skip.test(record)) continue;
+                List<Record> found = hashTable.get(record.getValue(probeColumnIndex));
+                if (found == null) continue;
+                probeRecord = record;
+                matches = found;
+                matchIndex = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Record buildRecord = matches.get(matchIndex++);
+            return buildIsLeft ? buildRecord.concat(probeRecord) : probeRecord.concat(buildRecord);
+        }
+    }
+}
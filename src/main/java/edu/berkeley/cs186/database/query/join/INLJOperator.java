@@ -0,0 +1,185 @@
+package edu.berkeley.cs186.database.query.join;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.query.JoinOperator;
+import edu.berkeley.cs186.database.query.QueryOperator;
+import edu.berkeley.cs186.database.query.SequentialScanOperator;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Table;
+
+import java.util.*;
+
+/**
+ * 使用索引嵌套循环连接算法对两个关系的leftColumnName和rightColumnName列执行等值连接。
+ * 右关系必须是一张表上的顺序扫描，并且表在连接列上有B+树索引：右关系的记录不会被扫描，
+ * 而是通过索引查找。
+ *
+ * 每次从左关系读取B-2页记录作为一批，按连接值排序后用TransactionContext.lookupKeys
+ * 批量查找。一批键只需要从索引的根向下查找一次，之后沿着叶节点查找后面的键，
+ * 因此连接键比较密集时（例如与维度表的连接）读取的索引页面比逐个查找少得多。
+ * 输出的记录按每批中左记录的连接值排列，而不是左关系的顺序。
+ */
+public class INLJOperator extends JoinOperator {
+    private int numBuffers;
+
+    // 右关系的表名和被索引的列名（不带表名限定）
+    private String tableName;
+    private String indexColumnName;
+
+    // 右关系扫描的投影列，为null时是所有列
+    private List<Integer> columns;
+
+    public INLJOperator(QueryOperator leftSource,
+                        SequentialScanOperator rightSource,
+                        String leftColumnName,
+                        String rightColumnName,
+                        TransactionContext transaction) {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.INLJ);
+        this.numBuffers = transaction.getWorkMemSize();
+        this.tableName = rightSource.getTableName();
+        this.indexColumnName = rightColumnName.contains(".")
+                ? rightColumnName.substring(rightColumnName.lastIndexOf('.') + 1)
+                : rightColumnName;
+        this.columns = rightSource.getColumns();
+        if (!transaction.indexExists(tableName, indexColumnName)) {
+            throw new DatabaseException("no index on " + tableName + "(" + indexColumnName + ")");
+        }
+        this.stats = this.estimateStats();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new INLJIterator();
+    }
+
+    @Override
+    public int estimateIOCost() {
+        TransactionContext transaction = getTransaction();
+        int numLeftRecords = getLeftSource().estimateStats().getNumRecords();
+        int recordsPerBatch = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE,
+                getLeftSource().getSchema()) * (numBuffers - 2);
+        int numBatches = (int) Math.ceil((double) numLeftRecords / recordsPerBatch);
+
+        int height = transaction.getTreeHeight(tableName, indexColumnName);
+        int order = transaction.getTreeOrder(tableName, indexColumnName);
+        int numRightRecords = transaction.getStats(tableName).getNumRecords();
+        // 同IndexScanOperator，叶节点的填充率按75%估计
+        int numLeaves = (int) Math.ceil(numRightRecords / (1.5 * order));
+        // 每批向下查找一次；每个键最多读取一个叶节点，每批最多读取所有叶节点
+        int leafCost = Math.min(numLeftRecords, numBatches * numLeaves);
+        // 每条匹配的记录访问一次表
+        int numMatches = this.estimateStats().getNumRecords();
+        return getLeftSource().estimateIOCost() + numBatches * height + leafCost + numMatches;
+    }
+
+    /**
+     * 执行索引嵌套循环连接逻辑的记录迭代器。
+     */
+    private class INLJIterator implements Iterator<Record> {
+        // 左源所有记录的迭代器
+        private Iterator<Record> leftSourceIterator;
+        // 当前批次中按连接值排序的左记录
+        private List<Record> leftBatch = Collections.emptyList();
+        // 当前批次中每个左记录的连接值在右关系中匹配的记录
+        private Map<DataBox, List<Record>> matches = Collections.emptyMap();
+        // 当前左记录在leftBatch中的下标，以及下一个要连接的匹配记录的下标
+        private int leftIndex = 0;
+        private int matchIndex = 0;
+        // 下一个要返回的记录
+        private Record nextRecord;
+
+        private INLJIterator() {
+            this.leftSourceIterator = getLeftSource().iterator();
+        }
+
+        /**
+         * 从左源读取下一批最多B-2页记录，按连接值排序，并在索引上批量查找它们的匹配记录。
+         */
+        private void fetchNextLeftBatch() {
+            Iterator<Record> block = QueryOperator.getBlockIterator(leftSourceIterator,
+                    getLeftSource().getSchema(), numBuffers - 2);
+            List<Record> batch = new ArrayList<>();
+            block.forEachRemaining(batch::add);
+            int leftColumnIndex = getLeftColumnIndex();
+            batch.sort(Comparator.comparing(r -> r.getValue(leftColumnIndex)));
+
+            List<DataBox> keys = new ArrayList<>();
+            for (Record record : batch) {
+                DataBox key = record.getValue(leftColumnIndex);
+                if (keys.isEmpty() || keys.get(keys.size() - 1).compareTo(key) != 0) {
+                    keys.add(key);
+                }
+            }
+            List<Iterator<Record>> found = getTransaction().lookupKeys(tableName, indexColumnName, keys);
+            Map<DataBox, List<Record>> matches = new HashMap<>();
+            for (int i = 0; i < keys.size(); ++i) {
+                List<Record> records = new ArrayList<>();
+                found.get(i).forEachRemaining(r -> records.add(project(r)));
+                matches.put(keys.get(i), records);
+            }
+
+            this.leftBatch = batch;
+            this.matches = matches;
+            this.leftIndex = 0;
+            this.matchIndex = 0;
+        }
+
+        /** @return 只包含右关系扫描的投影列的记录 */
+        private Record project(Record record) {
+            if (columns == null) {
+                return record;
+            }
+            List<DataBox> values = new ArrayList<>();
+            for (int column : columns) {
+                values.add(record.getValue(column));
+            }
+            return new Record(values);
+        }
+
+        /**
+         * 返回从此连接中应该产生的下一条记录，
+         * 如果没有更多记录可连接则返回null。
+         */
+        private Record fetchNextRecord() {
+            while (true) {
+                if (leftIndex < leftBatch.size()) {
+                    Record leftRecord = leftBatch.get(leftIndex);
+                    List<Record> rightRecords = matches.get(leftRecord.getValue(getLeftColumnIndex()));
+                    if (matchIndex < rightRecords.size()) {
+                        return leftRecord.concat(rightRecords.get(matchIndex++));
+                    }
+                    leftIndex++;
+                    matchIndex = 0;
+                } else if (leftSourceIterator.hasNext()) {
+                    fetchNextLeftBatch();
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * @return 如果此迭代器还有另一条记录要产生则返回true，否则返回false
+         */
+        @Override
+        public boolean hasNext() {
+            if (this.nextRecord == null) this.nextRecord = fetchNextRecord();
+            return this.nextRecord != null;
+        }
+
+        /**
+         * @return 此迭代器的下一条记录
+         * @throws NoSuchElementException 如果没有更多记录可产生
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            Record nextRecord = this.nextRecord;
+            this.nextRecord = null;
+            return nextRecord;
+        }
+    }
+}
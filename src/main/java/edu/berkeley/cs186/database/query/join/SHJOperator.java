@@ -15,7 +15,7 @@ import java.util.*;
 
 public class SHJOperator extends JoinOperator {
     private int numBuffers;     // 缓冲区个数
-    private Run joinedRecords;  // 连接记录，被物化到一个临时表中
+    private Run joinedRecords;  // 连接记录，被物化到一个溢出文件中
 
     /**
      * 这个类表示一个简单的哈希连接。为了连接两个关系，
@@ -71,6 +71,8 @@ public class SHJOperator extends JoinOperator {
                 partitionNum += partitions.length;
             partitions[partitionNum].add(record);
         }
+        // 分区写完，写出最后一页并释放写缓冲区
+        for (Partition partition : partitions) partition.finish();
     }
 
     /**
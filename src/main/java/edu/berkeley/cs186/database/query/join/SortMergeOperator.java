@@ -82,8 +82,20 @@ public class SortMergeOperator extends JoinOperator {
 
     @Override
     public int estimateIOCost() {
-        //什么都不做
-        return 0;
+        // 排序的代价已经包含在SortOperator的代价中，归并阶段再读取一遍排好序的Run；
+        // 已经有序的源只需要按它自己的代价读取一次
+        int cost = getLeftSource().estimateIOCost() + getRightSource().estimateIOCost();
+        if (getLeftSource() instanceof SortOperator) {
+            cost += getLeftSource().estimateStats().getNumPages();
+        }
+        if (getRightSource() instanceof SortOperator) {
+            cost += getRightSource().estimateStats().getNumPages();
+        } else if (getRightSource() instanceof MaterializeOperator) {
+            // MaterializeOperator的代价只是扫描临时表，还要加上读取它的源并写入临时表的代价
+            QueryOperator materialized = getRightSource().getSource();
+            cost += materialized.estimateIOCost() + materialized.estimateStats().getNumPages();
+        }
+        return cost;
     }
 
     /**
@@ -16,6 +16,7 @@ import edu.berkeley.cs186.database.memory.Page;
 
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.function.LongPredicate;
 
 /**
  * An implementation of a heap file, using a page directory. Assumes data pages are packed (but record
@@ -121,7 +122,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     }
 
     public void updateFreeSpace(Page page, short newFreeSpace) {
-        if (newFreeSpace <= 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        if (newFreeSpace < 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
             throw new IllegalArgumentException("bad size for data page free space");
         }
 
@@ -146,7 +147,16 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        return iterator(pageNum -> true);
+    }
+
+    /**
+     * Same as iterator(), but data pages whose page number does not satisfy
+     * `pageFilter` are skipped using only the header pages' data page entries,
+     * without the data pages ever being fetched.
+     */
+    public BacktrackingIterator<Page> iterator(LongPredicate pageFilter) {
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(pageFilter));
     }
 
     public int getNumDataPages() {
@@ -163,6 +173,43 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         return partNum;
     }
 
+    /**
+     * Frees the header pages at the end of the header page chain that no
+     * longer manage any data pages. Header pages in the middle of the chain
+     * are kept, since data pages refer to their header page by its position
+     * in the chain. The first header page is never freed.
+     *
+     * @return the number of header pages freed
+     */
+    public int freeEmptyHeaderPages() {
+        int freed = 0;
+        while (true) {
+            HeaderPage prev = null;
+            HeaderPage last = firstHeader;
+            while (last.nextPage != null) {
+                prev = last;
+                last = last.nextPage;
+            }
+            if (prev == null || last.numDataPages > 0) {
+                return freed;
+            }
+            prev.page.pin();
+            try {
+                prev.page.getBuffer().position(1).putLong(DiskSpaceManager.INVALID_PAGE_NUM);
+                prev.nextPage = null;
+            } finally {
+                prev.page.unpin();
+            }
+            last.page.pin();
+            try {
+                bufferManager.freePage(last.page);
+            } finally {
+                last.page.unpin();
+            }
+            ++freed;
+        }
+    }
+
     /**
      * Wrapper around page object to skip the header and verify that it belongs to this
      * page directory.
@@ -381,6 +428,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     (new DataPageEntry()).toBytes(b);
                     bufferManager.freePage(dataPage);
+                    --this.numDataPages;
                 }
             } finally {
                 this.page.unpin();
@@ -389,13 +437,17 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return new HeaderPageIterator(pageNum -> true);
         }
 
-        // iterator over the data pages managed by this header page
+        // iterator over the data pages managed by this header page whose page
+        // numbers satisfy pageFilter
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
+            private LongPredicate pageFilter;
+
+            private HeaderPageIterator(LongPredicate pageFilter) {
                 super(HEADER_ENTRY_COUNT);
+                this.pageFilter = pageFilter;
             }
 
             @Override
@@ -406,7 +458,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * ++currentIndex);
                     for (int i = currentIndex; i < HEADER_ENTRY_COUNT; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                        if (dpe.isValid()) {
+                        if (dpe.isValid() && pageFilter.test(dpe.pageNum)) {
                             return i;
                         }
                     }
@@ -438,8 +490,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private HeaderPage nextPage;
         private HeaderPage prevPage;
         private HeaderPage markedPage;
+        private LongPredicate pageFilter;
 
-        private HeaderPageIterator() {
+        private HeaderPageIterator(LongPredicate pageFilter) {
+            this.pageFilter = pageFilter;
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
@@ -451,14 +505,14 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            return () -> next.new HeaderPageIterator(pageFilter);
         }
 
         @Override
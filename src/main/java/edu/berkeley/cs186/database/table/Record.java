@@ -76,6 +76,29 @@ public class Record {
         return new Record(values);
     }
 
+    /**
+     * Same as fromBytes(buf, schema), except that only the fields at the
+     * given column indices are decoded, using the fixed field offsets of
+     * `schema`. The bytes of the other fields are skipped without ever being
+     * turned into DataBoxes. After this method returns, the buffer is
+     * positioned at the end of the record.
+     *
+     * @param buf the byte array to decode
+     * @param schema the schema of the full, serialized record
+     * @param columns the indices (in `schema`) of the fields to decode, in output order
+     * @return a Record containing only the requested fields
+     */
+    public static Record fromBytes(Buffer buf, Schema schema, List<Integer> columns) {
+        int start = buf.position();
+        List<DataBox> values = new ArrayList<>(columns.size());
+        for (int i : columns) {
+            buf.position(start + schema.getFieldOffset(i));
+            values.add(DataBox.fromBytes(buf, schema.getFieldType(i)));
+        }
+        buf.position(start + schema.getSizeInBytes());
+        return new Record(values);
+    }
+
     /**
      * @return the number of values in this record
      */
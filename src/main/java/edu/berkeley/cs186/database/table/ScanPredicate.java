@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * 可以下推到表扫描中的简单谓词，形如 `column op literal`。例如：
+ *
+ *   // t.x >= 186，其中 x 是 t 的第 1 列
+ *   ScanPredicate p = new ScanPredicate(1, PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(186));
+ *
+ * 谓词直接在页面缓冲区中序列化的记录字节上求值（使用 Schema 中的定长偏移量），
+ * 因此扫描只需要解码满足谓词的记录。求值语义与 SelectOperator 完全一致：
+ * EQUALS 和 NOT_EQUALS 使用 DataBox.equals，其余比较使用 DataBox.compareTo。
+ *
+ * 只有当字面量与列的类型相同时谓词才能下推（见 canPushDown），
+ * 否则仍需交给 SelectOperator 在解码后的记录上求值。
+ */
+public class ScanPredicate {
+    // 谓词作用的列在模式中的下标
+    private final int columnIndex;
+    // 比较运算符
+    private final PredicateOperator operator;
+    // 用于比较的字面量
+    private final DataBox value;
+
+    public ScanPredicate(int columnIndex, PredicateOperator operator, DataBox value) {
+        this.columnIndex = columnIndex;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    /**
+     * @param columnType 列的类型
+     * @param value 用于比较的字面量
+     * @return 如果 `column op value` 可以直接在序列化的字节上求值则返回true
+     */
+    public static boolean canPushDown(Type columnType, DataBox value) {
+        if (columnType.getTypeId() != value.getTypeId()) return false;
+        switch (columnType.getTypeId()) {
+            case BOOL:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case STRING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    public PredicateOperator getOperator() {
+        return operator;
+    }
+
+    public DataBox getValue() {
+        return value;
+    }
+
+    /**
+     * 在已解码的记录上求值。
+     */
+    public boolean evaluate(Record record) {
+        DataBox v = record.getValue(columnIndex);
+        switch (operator) {
+            case EQUALS: return v.equals(value);
+            case NOT_EQUALS: return !v.equals(value);
+            default: return operator.evaluate(v, value);
+        }
+    }
+
+    /**
+     * 在序列化记录的字节上求值，不创建任何 DataBox。
+     *
+     * @param buf 包含记录的缓冲区（使用绝对下标读取，不改变缓冲区的位置）
+     * @param recordOffset 记录在 `buf` 中的起始偏移量
+     * @param schema 记录的模式
+     * @return 记录是否满足此谓词
+     */
+    public boolean evaluate(Buffer buf, int recordOffset, Schema schema) {
+        return evaluate(buf, recordOffset + schema.getFieldOffset(columnIndex),
+                        schema.getFieldType(columnIndex));
+    }
+
+    /**
+     * 与上面相同，但直接给出列值在 `buf` 中的偏移量，
+     * 用于列值不与记录的其他字段相邻存放的页面布局（例如 PAX）。
+     *
+     * @param buf 包含列值的缓冲区（使用绝对下标读取，不改变缓冲区的位置）
+     * @param offset 列值在 `buf` 中的偏移量
+     * @param type 列的类型
+     * @return 列值是否满足此谓词
+     */
+    public boolean evaluate(Buffer buf, int offset, Type type) {
+        if (type.getTypeId() == TypeId.FLOAT) {
+            // FloatDataBox.equals 使用 ==，而 compareTo 使用 Float.compare，
+            // 两者对 -0.0 和 NaN 的处理不同，这里分别保持一致
+            float f = buf.getFloat(offset);
+            switch (operator) {
+                case EQUALS: return f == value.getFloat();
+                case NOT_EQUALS: return f != value.getFloat();
+                default: return test(Float.compare(f, value.getFloat()));
+            }
+        }
+        return test(DataBox.compareSerialized(buf, offset, type, value));
+    }
+
+    private boolean test(int cmp) {
+        switch (operator) {
+            case EQUALS: return cmp == 0;
+            case NOT_EQUALS: return cmp != 0;
+            case LESS_THAN: return cmp < 0;
+            case LESS_THAN_EQUALS: return cmp <= 0;
+            case GREATER_THAN: return cmp > 0;
+            case GREATER_THAN_EQUALS: return cmp >= 0;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("col%d %s %s", columnIndex, operator.toSymbol(), value);
+    }
+}
@@ -22,6 +22,8 @@ import java.util.Objects;
 public class Schema {
     private List<String> fieldNames;
     private List<Type> fieldTypes;
+    // 每个字段在序列化记录中的字节偏移量
+    private List<Integer> fieldOffsets;
     private short sizeInBytes;
 
     /**
@@ -30,6 +32,7 @@ public class Schema {
     public Schema() {
         this.fieldNames = new ArrayList<>();
         this.fieldTypes = new ArrayList<>();
+        this.fieldOffsets = new ArrayList<>();
         this.sizeInBytes = 0;
     }
 
@@ -42,6 +45,7 @@ public class Schema {
     public Schema add(String fieldName, Type fieldType) {
         this.fieldNames.add(fieldName);
         this.fieldTypes.add(fieldType);
+        this.fieldOffsets.add((int) this.sizeInBytes);
         this.sizeInBytes += fieldType.getSizeInBytes();
         return this;
     }
@@ -72,6 +76,13 @@ public class Schema {
      */
     public Type getFieldType(int i) { return fieldTypes.get(i); }
 
+    /**
+     * @param i
+     * @return 索引`i`处字段在序列化记录中的字节偏移量。由于所有类型都是定长的，
+     * 偏移量就是前面所有字段大小之和。
+     */
+    public int getFieldOffset(int i) { return fieldOffsets.get(i); }
+
     /**
      * @return 此模式中字段的数量
      */
@@ -145,12 +156,25 @@ public class Schema {
         Schema copy = new Schema();
         copy.fieldTypes = new ArrayList<>(fieldTypes);
         copy.fieldNames = new ArrayList<>(fieldNames);
+        copy.fieldOffsets = new ArrayList<>(fieldOffsets);
         copy.sizeInBytes = sizeInBytes;
         for(int i = 0; i < other.size(); i++)
             copy.add(other.fieldNames.get(i), other.fieldTypes.get(i));
         return copy;
     }
 
+    /**
+     * @param columns 要保留的字段的索引，按输出顺序排列
+     * @return 只包含`columns`中字段的新模式
+     */
+    public Schema project(List<Integer> columns) {
+        Schema projected = new Schema();
+        for (int i : columns) {
+            projected.add(fieldNames.get(i), fieldTypes.get(i));
+        }
+        return projected;
+    }
+
     /**
      * 验证记录是否与给定模式匹配。执行以下隐式转换：
      * - 错误大小的字符串将转换为模式期望的大小
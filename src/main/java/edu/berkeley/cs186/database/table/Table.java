@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.table;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
@@ -12,10 +13,17 @@ import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -80,8 +88,41 @@ import java.util.Map;
  * 在某些情况下，即使对于小记录，这种行为也可能是可取的
  * （我们的数据库只支持页面级锁定，所以在每个元组的 I/O 成本下需要元组级锁的情况下，全页记录可能是可取的）,
  * 并且可以通过 setFullPageRecords 方法显式切换。
+ *
+ * # PAX 布局
+ * 对于只扫描少数几列的分析型表，可以通过 setLayout(Layout.PAX) 使用 PAX
+ * （Partition Attributes Across）布局。PAX 页面的位图和每页记录数与行式布局完全相同，
+ * 但位图之后的空间被划分为每列一个的 minipage：第 c 列的 minipage 依次存放该页所有
+ * 槽位的第 c 列值。仍以上面的例子说明，若记录为 (x: int, y: int)，每页 m 条记录：
+ *
+ *   +--------+-----------------------------+-----------------------------+
+ *   | 位图   | x0 | x1 | ... | x(m-1)       | y0 | y1 | ... | y(m-1)       |
+ *   +--------+-----------------------------+-----------------------------+
+ *             \_________ minipage x _______/ \_________ minipage y _______/
+ *
+ * 这样只读取部分列的扫描（投影下推、谓词下推）在页面内只会访问所需列的连续字节。
+ * 记录 ID、空闲空间管理和 PageDirectory 都与行式布局相同，布局只影响页面内字段的位置
+ * （见 getFieldOffset），并作为表的元数据持久化在 _metadata.tables 中。
  */
 public class Table implements BacktrackingIterable<Record> {
+    /**
+     * 数据页中记录的布局方式。
+     */
+    public enum Layout {
+        // 每条记录的字段连续存放
+        ROW,
+        // 同一列的值连续存放在该列的 minipage 中
+        PAX;
+
+        public static Layout fromInt(int x) {
+            if (x < 0 || x >= values().length) {
+                String err = String.format("Unknown table layout %d", x);
+                throw new IllegalArgumentException(err);
+            }
+            return values()[x];
+        }
+    }
+
     // The name of the table.
     private String name;
 
@@ -97,6 +138,9 @@ public class Table implements BacktrackingIterable<Record> {
     // The number of records on each data page.
     private int numRecordsPerPage;
 
+    // The layout of records within each data page.
+    private Layout layout = Layout.ROW;
+
     // The lock context of the table.
     private LockContext tableContext;
 
@@ -147,10 +191,28 @@ public class Table implements BacktrackingIterable<Record> {
                                           schema.getSizeInBytes()));
     }
 
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Sets the layout of records within data pages. Like setFullPageRecords,
+     * this must be called before any records are added to the table, and
+     * must be called again with the same layout every time the table is
+     * reloaded.
+     */
+    public void setLayout(Layout layout) {
+        this.layout = layout;
+    }
+
     public TableStats getStats() {
         return this.stats.get(name);
     }
 
+    private ZoneMap getZoneMap() {
+        return this.stats.get(name).getZoneMap();
+    }
+
     public int getNumDataPages() {
         return this.pageDirectory.getNumDataPages();
     }
@@ -222,9 +284,31 @@ public class Table implements BacktrackingIterable<Record> {
         this.stats.get(name).refreshHistograms(buckets, this);
     }
 
+    /**
+     * @return the offset of column `column` of entry `entryNum` within a data
+     * page. For the row layout this is the start of the record plus the
+     * field's offset within the record; for the PAX layout it is the start of
+     * the column's minipage plus `entryNum` values of the column's type.
+     */
+    private int getFieldOffset(int entryNum, int column) {
+        if (layout == Layout.PAX) {
+            int minipageOffset = numRecordsPerPage * schema.getFieldOffset(column);
+            int fieldSize = schema.getFieldType(column).getSizeInBytes();
+            return bitmapSizeInBytes + minipageOffset + entryNum * fieldSize;
+        }
+        return bitmapSizeInBytes + entryNum * schema.getSizeInBytes() + schema.getFieldOffset(column);
+    }
+
     private synchronized void insertRecord(Page page, int entryNum, Record record) {
+        Buffer buf = page.getBuffer();
+        if (layout == Layout.PAX) {
+            for (int i = 0; i < schema.size(); ++i) {
+                buf.position(getFieldOffset(entryNum, i)).put(record.getValue(i).toBytes());
+            }
+            return;
+        }
         int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
-        page.getBuffer().position(offset).put(record.toBytes(schema));
+        buf.position(offset).put(record.toBytes(schema));
     }
 
     /**
@@ -243,6 +327,11 @@ public class Table implements BacktrackingIterable<Record> {
             // entry number of the first free slot and store it in entryNum; and (2) we
             // count the total number of entries on this page.
             byte[] bitmap = getBitMap(page);
+            // full page records always go to an empty page
+            boolean wasEmpty = true;
+            for (int i = 0; i < bitmapSizeInBytes; ++i) {
+                if (bitmap[i] != 0) wasEmpty = false;
+            }
             int entryNum = 0;
             for (; entryNum < numRecordsPerPage; ++entryNum) {
                 if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO) {
@@ -259,8 +348,15 @@ public class Table implements BacktrackingIterable<Record> {
             Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
             writeBitMap(page, bitmap);
 
-            // Update the metadata.
+            // Update the metadata. The zone map is updated while the page is
+            // still pinned so that it cannot race with other writers or with
+            // a scan building the page's summary.
             stats.get(name).addRecord(record);
+            if (wasEmpty) {
+                getZoneMap().reset(page.getPageNum(), record);
+            } else {
+                getZoneMap().widen(page.getPageNum(), record);
+            }
             return new RecordId(page.getPageNum(), (short) entryNum);
         } finally {
             page.unpin();
@@ -272,6 +368,14 @@ public class Table implements BacktrackingIterable<Record> {
      * exists.
      */
     public synchronized Record getRecord(RecordId rid) {
+        return getRecord(rid, null);
+    }
+
+    /**
+     * Same as getRecord(rid), but only decodes the columns whose indices are
+     * in `columns` (or every column if `columns` is null).
+     */
+    public synchronized Record getRecord(RecordId rid, List<Integer> columns) {
         validateRecordId(rid);
         Page page = fetchPage(rid.getPageNum());
         try {
@@ -281,10 +385,61 @@ public class Table implements BacktrackingIterable<Record> {
                 throw new DatabaseException(msg);
             }
 
-            int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
+            return readRecord(page.getBuffer(), rid.getEntryNum(), columns);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Decodes the columns in `columns` (or every column if `columns` is null)
+     * of entry `entryNum` from the buffer of a pinned data page.
+     */
+    private Record readRecord(Buffer buf, int entryNum, List<Integer> columns) {
+        if (layout == Layout.PAX) {
+            List<DataBox> values = new ArrayList<>();
+            for (int i = 0; i < (columns == null ? schema.size() : columns.size()); ++i) {
+                int column = columns == null ? i : columns.get(i);
+                buf.position(getFieldOffset(entryNum, column));
+                values.add(DataBox.fromBytes(buf, schema.getFieldType(column)));
+            }
+            return new Record(values);
+        }
+        int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
+        buf.position(offset);
+        if (columns == null) {
+            // Copy the whole record out of the page at once: every read from a
+            // page buffer checks the page's lock, so decoding the fields one by
+            // one straight from the page costs a lock check per field
+            byte[] bytes = new byte[schema.getSizeInBytes()];
+            buf.get(bytes);
+            return Record.fromBytes(ByteBuffer.wrap(bytes), schema);
+        }
+        return Record.fromBytes(buf, schema, columns);
+    }
+
+    /**
+     * 读取数据页`pageNum`中条目号在`entryNums`中的所有记录。页面只被固定和读取一次，
+     * 用于按页面顺序访问一批记录ID（见位图堆扫描）。
+     *
+     * @return 这些记录，按条目号升序排列
+     */
+    public synchronized List<Record> getRecords(long pageNum, BitSet entryNums) {
+        Page page = fetchPage(pageNum);
+        try {
+            byte[] bitmap = getBitMap(page);
             Buffer buf = page.getBuffer();
-            buf.position(offset);
-            return Record.fromBytes(buf, schema);
+            List<Record> records = new ArrayList<>();
+            for (int e = entryNums.nextSetBit(0); e >= 0; e = entryNums.nextSetBit(e + 1)) {
+                RecordId rid = new RecordId(pageNum, (short) e);
+                validateRecordId(rid);
+                if (Bits.getBit(bitmap, e) == Bits.Bit.ZERO) {
+                    String msg = String.format("Record %s does not exist.", rid);
+                    throw new DatabaseException(msg);
+                }
+                records.add(readRecord(buf, e, null));
+            }
+            return records;
         } finally {
             page.unpin();
         }
@@ -310,6 +465,7 @@ public class Table implements BacktrackingIterable<Record> {
 
             this.stats.get(name).removeRecord(oldRecord);
             this.stats.get(name).addRecord(newRecord);
+            getZoneMap().widen(rid.getPageNum(), newRecord);
             return oldRecord;
         } finally {
             page.unpin();
@@ -337,6 +493,10 @@ public class Table implements BacktrackingIterable<Record> {
 
             stats.get(name).removeRecord(record);
             int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
+            if (numRecords == 0) {
+                // the page directory frees the page, so its summary is stale
+                getZoneMap().remove(page.getPageNum());
+            }
             pageDirectory.updateFreeSpace(page,
                                      (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
             return record;
@@ -345,6 +505,67 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * 将记录 rid 移动到数据页 pageNum 的第一个空闲槽中，并返回记录的新 ID。
+     * 如果目标页面没有空闲槽，则不做任何修改并返回 null。统计信息不变；
+     * 如果源页面因此变空，它会被释放。调用者负责更新索引中的记录 ID。
+     *
+     * 用于表整理（见 Database.compactTable）：两个页面都只需要页面级的 X 锁。
+     */
+    public synchronized RecordId moveRecord(RecordId rid, long pageNum) {
+        validateRecordId(rid);
+        if (rid.getPageNum() == pageNum) return rid;
+        LockUtil.ensureSufficientLockHeld(tableContext.childContext(rid.getPageNum()), LockType.X);
+        LockUtil.ensureSufficientLockHeld(tableContext.childContext(pageNum), LockType.X);
+
+        Record record = getRecord(rid);
+        Page target = fetchPage(pageNum);
+        RecordId newRid;
+        try {
+            byte[] bitmap = getBitMap(target);
+            int entryNum = 0;
+            while (entryNum < numRecordsPerPage && Bits.getBit(bitmap, entryNum) == Bits.Bit.ONE) {
+                ++entryNum;
+            }
+            if (numRecordsPerPage == 1 || entryNum == numRecordsPerPage) return null;
+
+            insertRecord(target, entryNum, record);
+            Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
+            writeBitMap(target, bitmap);
+            pageDirectory.updateFreeSpace(target,
+                    (short) ((numRecordsPerPage - numRecordsOnPage(target)) * schema.getSizeInBytes()));
+            getZoneMap().widen(pageNum, record);
+            newRid = new RecordId(pageNum, (short) entryNum);
+        } finally {
+            target.unpin();
+        }
+
+        Page source = fetchPage(rid.getPageNum());
+        try {
+            byte[] bitmap = getBitMap(source);
+            Bits.setBit(bitmap, rid.getEntryNum(), Bits.Bit.ZERO);
+            writeBitMap(source, bitmap);
+            int numRecords = numRecordsOnPage(source);
+            if (numRecords == 0) {
+                getZoneMap().remove(source.getPageNum());
+            }
+            pageDirectory.updateFreeSpace(source,
+                    (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
+        } finally {
+            source.unpin();
+        }
+        return newRid;
+    }
+
+    /**
+     * 释放页面目录末尾不再管理任何数据页的头页面。
+     *
+     * @return 释放的头页面数量
+     */
+    public synchronized int freeEmptyHeaderPages() {
+        return pageDirectory.freeEmptyHeaderPages();
+    }
+
     @Override
     public String toString() {
         return "Table " + name;
@@ -392,11 +613,23 @@ public class Table implements BacktrackingIterable<Record> {
      * @return 对表进行全表扫描，返回所有现有记录的ID
      */
     public BacktrackingIterator<RecordId> ridIterator() {
+        return ridIterator(Collections.emptyList());
+    }
+
+    /**
+     * @param predicates 下推到扫描中的谓词（它们之间是 AND 关系）
+     * @return 对表进行全表扫描，只返回满足所有谓词的记录的ID。谓词在页面被固定时直接在
+     * 页面缓冲区的序列化字节上求值，不满足谓词的记录不会被解码。区域映射表明不可能包含
+     * 满足谓词的记录的页面会被直接跳过，不会被读取。
+     */
+    public BacktrackingIterator<RecordId> ridIterator(List<ScanPredicate> predicates) {
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
 
-        BacktrackingIterator<Page> iter = pageDirectory.iterator();
-        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
+        ZoneMap zoneMap = getZoneMap();
+        BacktrackingIterator<Page> iter = predicates.isEmpty() ? pageDirectory.iterator() :
+                pageDirectory.iterator(pageNum -> !zoneMap.canSkip(pageNum, predicates));
+        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false, predicates));
     }
 
     /**
@@ -413,12 +646,61 @@ public class Table implements BacktrackingIterable<Record> {
         return pageDirectory.iterator();
     }
 
+    /**
+     * @return 每个数据页的页号及其中的记录数量，按页面目录中的顺序排列
+     */
+    public Map<Long, Integer> getRecordCountsByPage() {
+        LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
+
+        Map<Long, Integer> counts = new LinkedHashMap<>();
+        BacktrackingIterator<Page> iter = pageDirectory.iterator();
+        while (iter.hasNext()) {
+            Page page = iter.next();
+            try {
+                counts.put(page.getPageNum(), numRecordsPerPage == 1 ? 1 : numRecordsOnPage(page));
+            } finally {
+                page.unpin();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 只对数据页 pageNum 加页面级的 S 锁，不锁住整张表。
+     *
+     * @param pageNum 数据页的页号
+     * @return 数据页 pageNum 中所有现有记录的ID
+     * @throws PageException 如果页面 pageNum 不是表的数据页（例如已被释放）
+     */
+    public BacktrackingIterator<RecordId> pageRidIterator(long pageNum) {
+        LockUtil.ensureSufficientLockHeld(tableContext.childContext(pageNum), LockType.S);
+        return new RIDPageIterator(pageDirectory.getPage(pageNum));
+    }
+
     @Override
     public BacktrackingIterator<Record> iterator() {
         // returns an iterator over all the records in this table
         return new RecordIterator(ridIterator());
     }
 
+    /**
+     * @param predicates 下推到扫描中的谓词（它们之间是 AND 关系）
+     * @return 表中所有满足谓词的记录的迭代器，只有满足谓词的记录才会被解码
+     */
+    public BacktrackingIterator<Record> iterator(List<ScanPredicate> predicates) {
+        return new RecordIterator(ridIterator(predicates));
+    }
+
+    /**
+     * @param predicates 下推到扫描中的谓词（它们之间是 AND 关系），列下标相对于表的模式
+     * @param columns 要解码的列在表模式中的下标，按输出顺序排列；为null时解码所有列
+     * @return 表中所有满足谓词的记录的迭代器。每条记录只包含`columns`中的列，
+     * 其余列的字节不会被解码。
+     */
+    public BacktrackingIterator<Record> iterator(List<ScanPredicate> predicates, List<Integer> columns) {
+        return new RecordIterator(ridIterator(predicates), columns);
+    }
+
     /**
      * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
      * page of the table.
@@ -431,10 +713,59 @@ public class Table implements BacktrackingIterable<Record> {
         private byte[] bitmap;
 
         RIDPageIterator(Page page) {
+            this(page, Collections.emptyList());
+        }
+
+        /**
+         * 与上面相同，但在页面仍被固定时对每个有效记录求值 `predicates`，
+         * 并从位图的副本中清除不满足谓词的记录，这样迭代器只会返回满足谓词的记录。
+         * 如果页面的区域映射摘要中还没有谓词涉及的某一列，则顺便只解码这一列的值，
+         * 为它建立这一列的范围；其余的列不会被解码。
+         */
+        RIDPageIterator(Page page, List<ScanPredicate> predicates) {
             super(numRecordsPerPage);
             this.page = page;
             this.bitmap = getBitMap(page);
-            page.unpin();
+            try {
+                if (!predicates.isEmpty()) {
+                    Buffer buf = page.getBuffer();
+                    ZoneMap zoneMap = getZoneMap();
+                    // 需要建立范围的列，以及它们在页面中的最小值和最大值
+                    List<Integer> missing = new ArrayList<>();
+                    for (ScanPredicate predicate : predicates) {
+                        int column = predicate.getColumnIndex();
+                        if (!missing.contains(column) && !zoneMap.hasColumn(page.getPageNum(), column)
+                                && ZoneMap.isOrderable(schema.getFieldType(column).getTypeId())) {
+                            missing.add(column);
+                        }
+                    }
+                    DataBox[] mins = new DataBox[missing.size()];
+                    DataBox[] maxs = new DataBox[missing.size()];
+                    for (int i = 0; i < numRecordsPerPage; ++i) {
+                        if (Bits.getBit(bitmap, i) == Bits.Bit.ZERO) continue;
+                        for (int j = 0; j < missing.size(); ++j) {
+                            int column = missing.get(j);
+                            buf.position(getFieldOffset(i, column));
+                            DataBox value = DataBox.fromBytes(buf, schema.getFieldType(column));
+                            if (mins[j] == null || value.compareTo(mins[j]) < 0) mins[j] = value;
+                            if (maxs[j] == null || value.compareTo(maxs[j]) > 0) maxs[j] = value;
+                        }
+                        for (ScanPredicate predicate : predicates) {
+                            int column = predicate.getColumnIndex();
+                            int offset = getFieldOffset(i, column);
+                            if (!predicate.evaluate(buf, offset, schema.getFieldType(column))) {
+                                Bits.setBit(bitmap, i, Bits.Bit.ZERO);
+                                break;
+                            }
+                        }
+                    }
+                    for (int j = 0; j < missing.size(); ++j) {
+                        if (mins[j] != null) zoneMap.buildColumn(page.getPageNum(), missing.get(j), mins[j], maxs[j]);
+                    }
+                }
+            } finally {
+                page.unpin();
+            }
         }
 
         @Override
@@ -456,10 +787,13 @@ public class Table implements BacktrackingIterable<Record> {
     private class PageIterator implements BacktrackingIterator<BacktrackingIterable<RecordId>> {
         private BacktrackingIterator<Page> sourceIterator;
         private boolean pinOnFetch;
+        private List<ScanPredicate> predicates;
 
-        private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch) {
+        private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch,
+                             List<ScanPredicate> predicates) {
             this.sourceIterator = sourceIterator;
             this.pinOnFetch = pinOnFetch;
+            this.predicates = predicates;
         }
 
         @Override
@@ -500,7 +834,7 @@ public class Table implements BacktrackingIterable<Record> {
             @Override
             public BacktrackingIterator<RecordId> iterator() {
                 baseObject.pin();
-                return new RIDPageIterator(baseObject);
+                return new RIDPageIterator(baseObject, predicates);
             }
         }
     }
@@ -510,9 +844,16 @@ public class Table implements BacktrackingIterable<Record> {
      */
     private class RecordIterator implements BacktrackingIterator<Record> {
         private Iterator<RecordId> ridIter;
+        // the columns to decode, or null for all of them
+        private List<Integer> columns;
 
         public RecordIterator(Iterator<RecordId> ridIter) {
+            this(ridIter, null);
+        }
+
+        public RecordIterator(Iterator<RecordId> ridIter, List<Integer> columns) {
             this.ridIter = ridIter;
+            this.columns = columns;
         }
 
         @Override
@@ -523,7 +864,7 @@ public class Table implements BacktrackingIterable<Record> {
         @Override
         public Record next() {
             try {
-                return getRecord(ridIter.next());
+                return getRecord(ridIter.next(), columns);
             } catch (DatabaseException e) {
                 throw new IllegalStateException(e);
             }
@@ -46,6 +46,8 @@ public class TableStats {
     private int numRecordsPerPage;
     private int numRecords;
     private List<Histogram> histograms;
+    // 每个数据页的最小值/最大值摘要，用于在扫描中跳过页面
+    private ZoneMap zoneMap;
 
     /** 为具有模式'schema'的空表构造TableStats */
     public TableStats(Schema schema, int numRecordsPerPage) {
@@ -57,6 +59,7 @@ public class TableStats {
             Histogram h = new Histogram();
             this.histograms.add(h);
         }
+        this.zoneMap = new ZoneMap(schema);
     }
 
     private TableStats(Schema schema, int numRecordsPerPage, int numRecords,
@@ -65,6 +68,7 @@ public class TableStats {
         this.numRecordsPerPage = numRecordsPerPage;
         this.numRecords = numRecords;
         this.histograms = histograms;
+        this.zoneMap = new ZoneMap(schema);
     }
 
     // 修改器 /////////////////////////////////////////////////////////////////
@@ -109,6 +113,10 @@ public class TableStats {
         return histograms;
     }
 
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
     // 复制器 ///////////////////////////////////////////////////////////////////
     /**
      * 估计应用过滤条件后产生的表的统计信息
@@ -166,6 +174,21 @@ public class TableStats {
         return new TableStats(this.schema, this.numRecordsPerPage, numRecords, copyHistograms);
     }
 
+    /**
+     * 估计只保留'columns'中的列后产生的表的统计信息。记录数不变，
+     * 每页记录数也保持为原表的值，因为投影扫描仍然需要读取原表的所有页面。
+     *
+     * @param columns 要保留的列的索引，按输出顺序排列
+     * @return 基于此对象的新TableStats
+     */
+    public TableStats copyWithProjection(List<Integer> columns) {
+        List<Histogram> copyHistograms = new ArrayList<>();
+        for (int i : columns) {
+            copyHistograms.add(histograms.get(i));
+        }
+        return new TableStats(schema.project(columns), this.numRecordsPerPage, this.numRecords, copyHistograms);
+    }
+
     /**
      * 创建一个新的TableStats，表示此TableStats与给定TableStats连接后产生的表的统计信息
      *
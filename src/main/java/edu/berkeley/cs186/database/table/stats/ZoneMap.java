@@ -0,0 +1,230 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.ScanPredicate;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 区域映射（zone map）为表的每个数据页记录每个可排序列的最小值和最大值，
+ * 使得扫描可以在不读取页面的情况下跳过不可能包含满足下推谓词的记录的页面。例如：
+ *
+ *   // 页面 7 中 x 列的取值范围是 [1, 10]
+ *   zoneMap.canSkip(7, predicates); // 对于谓词 x > 10 返回 true
+ *
+ * 区域映射只保存在内存中，由 Table 在插入和更新记录时维护（此时页面被固定，
+ * 同一页面的修改因此是串行的）：
+ *
+ *   - 向空页面插入记录时，页面的摘要被重置为该记录的值；
+ *   - 向有摘要的页面插入或更新记录时，摘要被扩展为包含新值；
+ *   - 删除记录时摘要保持不变（范围可能变宽，但仍然正确）；
+ *   - 页面被释放时摘要被移除。
+ *
+ * 没有摘要的页面（例如数据库重启后）总是会被读取。扫描在读取这样的页面时会顺便
+ * 为下推谓词涉及的列建立摘要，只解码这些列的字节（见 Table.RIDPageIterator），
+ * 所以摘要可能只包含部分列的范围，其余列的范围未知。因为摘要只能扩展不能收缩，
+ * 所以回滚（可能恢复已被删除的记录或旧值）后必须调用 clear 丢弃所有摘要。
+ */
+public class ZoneMap {
+    // 表的模式
+    private Schema schema;
+
+    // 页号 -> 该页的摘要。摘要一旦放入映射就不再被修改，扩展时会替换为新对象，
+    // 因此无需固定页面也能安全地读取。
+    private Map<Long, PageSummary> summaries;
+
+    public ZoneMap(Schema schema) {
+        this.schema = schema;
+        this.summaries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return 如果类型为`typeId`的列可以维护最小值和最大值则返回true
+     */
+    public static boolean isOrderable(TypeId typeId) {
+        switch (typeId) {
+            case BOOL:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case STRING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // 修改器 /////////////////////////////////////////////////////////////////
+    /**
+     * 将页面`pageNum`的摘要设置为只包含`record`。在向空页面插入记录时调用。
+     */
+    public void reset(long pageNum, Record record) {
+        summaries.put(pageNum, new PageSummary(record, record));
+    }
+
+    /**
+     * 如果页面`pageNum`有摘要，将其扩展为包含`record`；否则页面的范围仍然未知。
+     */
+    public void widen(long pageNum, Record record) {
+        PageSummary summary = summaries.get(pageNum);
+        if (summary != null) {
+            summaries.put(pageNum, summary.widen(record));
+        }
+    }
+
+    /**
+     * 将页面`pageNum`的摘要中列`column`的范围设置为[min, max]（页面中所有有效记录的
+     * 该列的最小值和最大值）。如果摘要中已经有这一列的范围或列不可排序则不做任何事；
+     * 页面没有摘要时，新摘要只包含这一列。
+     */
+    public void buildColumn(long pageNum, int column, DataBox min, DataBox max) {
+        if (!isOrderable(schema.getFieldType(column).getTypeId())) return;
+        PageSummary summary = summaries.get(pageNum);
+        if (summary == null) {
+            summary = new PageSummary(new DataBox[schema.size()], new DataBox[schema.size()]);
+        } else if (summary.mins[column] != null) {
+            return;
+        }
+        summaries.put(pageNum, summary.withColumn(column, min, max));
+    }
+
+    /**
+     * @return 如果页面`pageNum`有摘要则返回true
+     */
+    public boolean hasSummary(long pageNum) {
+        return summaries.containsKey(pageNum);
+    }
+
+    /**
+     * @return 如果页面`pageNum`的摘要中有列`column`的范围则返回true
+     */
+    public boolean hasColumn(long pageNum, int column) {
+        PageSummary summary = summaries.get(pageNum);
+        return summary != null && summary.mins[column] != null;
+    }
+
+    /**
+     * 移除页面`pageNum`的摘要。在页面被释放时调用。
+     */
+    public void remove(long pageNum) {
+        summaries.remove(pageNum);
+    }
+
+    /**
+     * 丢弃所有摘要。
+     */
+    public void clear() {
+        summaries.clear();
+    }
+
+    // 访问器 /////////////////////////////////////////////////////////////////
+    /**
+     * @param pageNum 数据页的页号
+     * @param predicates 下推到扫描中的谓词（它们之间是 AND 关系）
+     * @return 如果根据页面的摘要，页面中没有任何记录能满足所有谓词则返回true
+     */
+    public boolean canSkip(long pageNum, List<ScanPredicate> predicates) {
+        if (predicates.isEmpty()) return false;
+        PageSummary summary = summaries.get(pageNum);
+        if (summary == null) return false;
+        for (ScanPredicate predicate : predicates) {
+            int i = predicate.getColumnIndex();
+            if (summary.mins[i] != null && !mayMatch(predicate, summary.mins[i], summary.maxs[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 如果取值范围为[min, max]的列中可能存在满足`predicate`的值则返回true
+     */
+    private static boolean mayMatch(ScanPredicate predicate, DataBox min, DataBox max) {
+        DataBox value = predicate.getValue();
+        if (value.getTypeId() != min.getTypeId()) return true;
+        if (value.getTypeId() == TypeId.FLOAT) {
+            // 浮点数的相等比较使用 ==（-0.0 == 0.0，NaN 不等于任何值），
+            // 而摘要按 Float.compare 排序，因此只对不受影响的情况剪枝
+            float f = value.getFloat();
+            switch (predicate.getOperator()) {
+                case EQUALS:
+                    if (f == 0.0f || Float.isNaN(f)) return true;
+                    break;
+                case NOT_EQUALS:
+                    return true;
+                default:
+                    break;
+            }
+        }
+        switch (predicate.getOperator()) {
+            case EQUALS:
+                return min.compareTo(value) <= 0 && max.compareTo(value) >= 0;
+            case NOT_EQUALS:
+                return !(min.compareTo(value) == 0 && max.compareTo(value) == 0);
+            case LESS_THAN:
+                return min.compareTo(value) < 0;
+            case LESS_THAN_EQUALS:
+                return min.compareTo(value) <= 0;
+            case GREATER_THAN:
+                return max.compareTo(value) > 0;
+            case GREATER_THAN_EQUALS:
+                return max.compareTo(value) >= 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 单个页面的摘要：每个可排序列的最小值和最大值（不可排序或范围未知的列为null）。
+     */
+    private class PageSummary {
+        private final DataBox[] mins;
+        private final DataBox[] maxs;
+
+        private PageSummary(DataBox[] mins, DataBox[] maxs) {
+            this.mins = mins;
+            this.maxs = maxs;
+        }
+
+        private PageSummary(Record min, Record max) {
+            this(new DataBox[schema.size()], new DataBox[schema.size()]);
+            for (int i = 0; i < schema.size(); ++i) {
+                if (isOrderable(schema.getFieldType(i).getTypeId())) {
+                    mins[i] = min.getValue(i);
+                    maxs[i] = max.getValue(i);
+                }
+            }
+        }
+
+        /**
+         * @return 包含此摘要和`record`的新摘要
+         */
+        private PageSummary widen(Record record) {
+            DataBox[] newMins = mins.clone();
+            DataBox[] newMaxs = maxs.clone();
+            for (int i = 0; i < schema.size(); ++i) {
+                if (newMins[i] == null) continue;
+                DataBox value = record.getValue(i);
+                if (value.compareTo(newMins[i]) < 0) newMins[i] = value;
+                if (value.compareTo(newMaxs[i]) > 0) newMaxs[i] = value;
+            }
+            return new PageSummary(newMins, newMaxs);
+        }
+
+        /**
+         * @return 把列`column`的范围设置为[min, max]的新摘要
+         */
+        private PageSummary withColumn(int column, DataBox min, DataBox max) {
+            DataBox[] newMins = mins.clone();
+            DataBox[] newMaxs = maxs.clone();
+            newMins[column] = min;
+            newMaxs[column] = max;
+            return new PageSummary(newMins, newMaxs);
+        }
+    }
+}
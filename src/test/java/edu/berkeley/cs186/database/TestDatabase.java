@@ -3,7 +3,9 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
@@ -11,6 +13,7 @@ import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -19,10 +22,12 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
-import java.util.Iterator;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -148,6 +153,442 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testPaxTableDurability() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        String tableName = "testTable1";
+
+        RecordId rid;
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName, Table.Layout.PAX);
+            rid = t1.getTransactionContext().addRecord(tableName, input);
+            assertEquals(Table.Layout.PAX, t1.getTransactionContext().getTable(tableName).getLayout());
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+
+        try(Transaction t1 = db.beginTransaction()) {
+            assertEquals(Table.Layout.PAX, t1.getTransactionContext().getTable(tableName).getLayout());
+            assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+        }
+    }
+
+    @Test
+    public void testCompactTable() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(100));
+        String tableName = "compactMe";
+        int numRecords = 1000;
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            t.createIndex(tableName, "id", false);
+            for (int i = 0; i < numRecords; ++i) {
+                t.insert(tableName, i, "name" + i);
+            }
+        }
+        // keep every tenth record
+        try (Transaction t = db.beginTransaction()) {
+            t.getTransactionContext().deleteRecordWhere(tableName,
+                    r -> new BoolDataBox(r.getValue(0).getInt() % 10 != 0));
+        }
+        int numPagesBefore;
+        try (Transaction t = db.beginTransaction()) {
+            numPagesBefore = t.getTransactionContext().getNumDataPages(tableName);
+        }
+
+        int freed = db.compactTable(tableName);
+        assertTrue(freed > 0);
+
+        try (Transaction t = db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            assertEquals(numPagesBefore - freed, tc.getNumDataPages(tableName));
+            int recordsPerPage = tc.getTable(tableName).getNumRecordsPerPage();
+            assertEquals((numRecords / 10 + recordsPerPage - 1) / recordsPerPage,
+                    tc.getNumDataPages(tableName));
+
+            // every record survived, and the index points at its new location
+            Iterator<Record> records = tc.getRecordIterator(tableName);
+            int count = 0;
+            while (records.hasNext()) {
+                records.next();
+                ++count;
+            }
+            assertEquals(numRecords / 10, count);
+            for (int i = 0; i < numRecords; i += 10) {
+                Iterator<Record> iter = tc.lookupKey(tableName, "id", new IntDataBox(i));
+                assertEquals(new Record(i, "name" + i), iter.next());
+                assertFalse(iter.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void testCompactIndex() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10));
+        String tableName = "compactIndex";
+        int numRecords = 1000;
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            t.createIndex(tableName, "id", false);
+            for (int i = 0; i < numRecords; ++i) {
+                t.insert(tableName, i, "name" + i);
+            }
+        }
+        // keep every tenth record: the leaves of the index are now mostly empty
+        try (Transaction t = db.beginTransaction()) {
+            t.getTransactionContext().deleteRecordWhere(tableName,
+                    r -> new BoolDataBox(r.getValue(0).getInt() % 10 != 0));
+            assertEquals(1, t.getTransactionContext().getTreeHeight(tableName, "id"));
+        }
+
+        assertTrue(db.compactIndex(tableName, "id") > 0);
+
+        // the remaining keys fit in a single leaf, and the new root and height
+        // were written back to the index metadata
+        try (Transaction t = db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            assertEquals(0, tc.getTreeHeight(tableName, "id"));
+            for (int i = 0; i < numRecords; ++i) {
+                Iterator<Record> iter = tc.lookupKey(tableName, "id", new IntDataBox(i));
+                assertEquals(i % 10 == 0, iter.hasNext());
+            }
+            t.insert(tableName, numRecords, "new");
+            assertTrue(tc.lookupKey(tableName, "id", new IntDataBox(numRecords)).hasNext());
+        }
+
+        try {
+            db.compactIndex(tableName, "name");
+            fail();
+        } catch (DatabaseException e) {
+            // no index on name
+        }
+    }
+
+    @Test
+    public void testBulkLoadIndex() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("grp", Type.intType());
+        String tableName = "bulkLoaded";
+        int numRecords = 5000;
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(186));
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            for (int id : ids) {
+                t.insert(tableName, id, id % 7);
+            }
+        }
+
+        // with 4 pages of work memory the sort needs several runs and merge passes
+        db.setIndexFillFactor(0.75f);
+        try (Transaction t = db.beginTransaction()) {
+            t.createIndex(tableName, "id", true);
+            t.createIndex(tableName, Collections.singletonList("grp"), false, true);
+        }
+
+        try (Transaction t = db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            Iterator<Record> iter = tc.sortedScan(tableName, "id");
+            for (int i = 0; i < numRecords; ++i) {
+                assertEquals(new Record(i, i % 7), iter.next());
+            }
+            assertFalse(iter.hasNext());
+            for (int i = 0; i < numRecords; i += 97) {
+                iter = tc.lookupKey(tableName, "id", new IntDataBox(i));
+                assertEquals(new Record(i, i % 7), iter.next());
+                assertFalse(iter.hasNext());
+            }
+            int count = 0;
+            iter = tc.lookupKey(tableName, "grp", new IntDataBox(3));
+            while (iter.hasNext()) {
+                assertEquals(3, iter.next().getValue(1).getInt());
+                ++count;
+            }
+            assertEquals(numRecords / 7, count);
+
+            // the index is still writable after the bulk load
+            t.insert(tableName, numRecords, 3);
+            assertTrue(tc.lookupKey(tableName, "id", new IntDataBox(numRecords)).hasNext());
+        }
+
+        // a unique index cannot be bulk loaded over duplicate keys
+        try (Transaction t = db.beginTransaction()) {
+            t.dropIndex(tableName, "grp");
+            t.createIndex(tableName, "grp", true);
+            fail();
+        } catch (DatabaseException e) {
+            assertTrue(e.getMessage().contains("duplicate key"));
+        }
+    }
+
+    @Test
+    public void testConcurrentIndexes() {
+        db.setConcurrentIndexes(true);
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10));
+        String tableName = "concurrentIndex";
+        int numRecords = 2000;
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            t.createIndex(tableName, "id", false);
+        }
+        // each transaction loads the index metadata again and must find the
+        // root that the previous transactions split
+        for (int i = 0; i < numRecords; i += 500) {
+            try (Transaction t = db.beginTransaction()) {
+                for (int j = i; j < i + 500; ++j) {
+                    t.insert(tableName, numRecords - j, "name" + j);
+                }
+            }
+        }
+        try (Transaction t = db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            for (int j = 0; j < numRecords; j += 7) {
+                Iterator<Record> iter = tc.lookupKey(tableName, "id", new IntDataBox(numRecords - j));
+                assertEquals(new Record(numRecords - j, "name" + j), iter.next());
+                assertFalse(iter.hasNext());
+            }
+            Iterator<Record> iter = tc.sortedScan(tableName, "id");
+            for (int id = 1; id <= numRecords; ++id) {
+                assertEquals(id, iter.next().getValue(0).getInt());
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testConcurrentIndexRollback() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10));
+        String tableName = "concurrentRollback";
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            t.createIndex(tableName, "id", false);
+            // the mode cannot change under an active transaction
+            try {
+                db.setConcurrentIndexes(true);
+                fail();
+            } catch (IllegalStateException e) {
+                /* do nothing */
+            }
+        }
+        db.setConcurrentIndexes(true);
+
+        // a transaction that wrote the index cannot roll back, but can commit
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.insert(tableName, 1, "one");
+            try {
+                t1.rollback();
+                fail();
+            } catch (DatabaseException e) {
+                assertTrue(e.getMessage().contains("concurrent mode"));
+            }
+            assertEquals(Transaction.Status.RUNNING, t1.getStatus());
+        }
+
+        try (Transaction t2 = db.beginTransaction()) {
+            TransactionContext tc = t2.getTransactionContext();
+            assertEquals(new Record(1, "one"), tc.lookupKey(tableName, "id", new IntDataBox(1)).next());
+        }
+    }
+
+    @Test
+    public void testNonUniqueIndex() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("dept", Type.intType());
+        String tableName = "employees";
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            for (int i = 0; i < 300; ++i) {
+                t.insert(tableName, i, i % 10);
+            }
+            // the index is built over existing records with duplicate keys
+            t.createIndex(tableName, Collections.singletonList("dept"), false, false);
+            for (int i = 300; i < 600; ++i) {
+                t.insert(tableName, i, i % 10);
+            }
+        }
+        try (Transaction t = db.beginTransaction()) {
+            t.delete(tableName, r -> new BoolDataBox(r.getValue(0).getInt() % 2 == 0));
+        }
+        try (Transaction t = db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            for (int dept = 0; dept < 10; ++dept) {
+                // only odd ids are left, so even departments are empty
+                Iterator<Record> iter = tc.lookupKey(tableName, "dept", new IntDataBox(dept));
+                Set<Integer> ids = new HashSet<>();
+                while (iter.hasNext()) {
+                    Record r = iter.next();
+                    assertEquals(dept, r.getValue(1).getInt());
+                    ids.add(r.getValue(0).getInt());
+                }
+                assertEquals(dept % 2 == 0 ? 0 : 60, ids.size());
+                assertEquals(dept % 2 == 1, tc.contains(tableName, "dept", new IntDataBox(dept)));
+            }
+            Iterator<Record> iter = tc.sortedScanFrom(tableName, "dept", new IntDataBox(7));
+            int count = 0;
+            while (iter.hasNext()) {
+                assertTrue(iter.next().getValue(1).getInt() >= 7);
+                ++count;
+            }
+            assertEquals(2 * 60, count);
+        }
+    }
+
+    @Test
+    public void testCompositeIndex() {
+        Schema s = new Schema()
+                .add("last", Type.stringType(10))
+                .add("first", Type.stringType(10))
+                .add("age", Type.intType());
+        String tableName = "people";
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            t.createIndex(tableName, Arrays.asList("last", "first"), true, false);
+            t.insert(tableName, "Doe", "John", 30);
+            t.insert(tableName, "Doe", "Jane", 28);
+            t.insert(tableName, "Roe", "Jane", 41);
+            t.insert(tableName, "Al", "Zed", 19);
+        }
+        try (Transaction t = db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            // a composite index is also an index on its first column...
+            assertTrue(tc.indexExists(tableName, "last"));
+            assertFalse(tc.indexExists(tableName, "first"));
+            Iterator<Record> iter = tc.lookupKey(tableName, "last", new StringDataBox("Doe", 10));
+            assertEquals(new Record("Doe", "Jane", 28), iter.next());
+            assertEquals(new Record("Doe", "John", 30), iter.next());
+            assertFalse(iter.hasNext());
+
+            // ...ordered by all of its columns
+            iter = tc.sortedScan(tableName, "last");
+            assertEquals(new Record("Al", "Zed", 19), iter.next());
+            assertEquals(new Record("Doe", "Jane", 28), iter.next());
+            assertEquals(new Record("Doe", "John", 30), iter.next());
+            assertEquals(new Record("Roe", "Jane", 41), iter.next());
+            assertFalse(iter.hasNext());
+
+            // which the query planner uses for predicates on the first column
+            QueryPlan query = t.query(tableName);
+            query.select("last", PredicateOperator.EQUALS, "Roe");
+            iter = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("Index Scan"));
+            assertEquals(new Record("Roe", "Jane", 41), iter.next());
+            assertFalse(iter.hasNext());
+        }
+        try (Transaction t = db.beginTransaction()) {
+            // the index is unique over (last, first) only
+            t.insert(tableName, "Roe", "Jim", 12);
+            try {
+                t.insert(tableName, "Roe", "Jane", 12);
+                fail();
+            } catch (Exception e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testCoveringIndex() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10))
+                .add("score", Type.floatType())
+                .add("note", Type.stringType(20));
+        String tableName = "covered";
+        int numRecords = 1000;
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            for (int i = 0; i < numRecords; ++i) {
+                t.insert(tableName, i, "n" + i, (float) (i % 100) - 50, "note" + i);
+            }
+            t.createIndex(tableName, Collections.singletonList("score"),
+                          Collections.singletonList("name"), false, true);
+        }
+
+        try (Transaction t = db.beginTransaction()) {
+            TransactionContext tc = t.getTransactionContext();
+            assertEquals(Arrays.asList("score", "name"), tc.getIndexColumns(tableName, "score"));
+
+            // the included values are read straight out of the index, in key
+            // order (ties are ordered by the included columns)
+            Iterator<Record> iter = tc.indexOnlyScan(tableName, "score", Arrays.asList("name", "score"),
+                                                     new FloatDataBox(-3f), new FloatDataBox(-2f));
+            List<Record> expected = new ArrayList<>();
+            for (int score = -3; score <= -2; ++score) {
+                List<String> names = new ArrayList<>();
+                for (int i = score + 50; i < numRecords; i += 100) {
+                    names.add("n" + i);
+                }
+                Collections.sort(names);
+                for (String name : names) {
+                    expected.add(new Record(name, (float) score));
+                }
+            }
+            List<Record> actual = new ArrayList<>();
+            iter.forEachRemaining(actual::add);
+            assertEquals(expected, actual);
+
+            // a query touching only covered columns never visits the table
+            QueryPlan query = t.query(tableName);
+            query.select("score", PredicateOperator.EQUALS, 7f);
+            query.project("name", "score");
+            iter = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("Index Only Scan"));
+            actual.clear();
+            iter.forEachRemaining(actual::add);
+            assertEquals(numRecords / 100, actual.size());
+            for (Record record : actual) {
+                assertEquals(7f, record.getValue(1).getFloat(), 0f);
+                assertTrue(record.getValue(0).getString().endsWith("57"));
+            }
+
+            // one that needs another column falls back to a regular index scan
+            query = t.query(tableName);
+            query.select("score", PredicateOperator.EQUALS, 7f);
+            query.project("note");
+            iter = query.execute();
+            assertFalse(query.getFinalOperator().toString().contains("Index Only Scan"));
+            actual.clear();
+            iter.forEachRemaining(actual::add);
+            assertEquals(numRecords / 100, actual.size());
+            for (Record record : actual) {
+                assertTrue(record.getValue(0).getString().endsWith("57"));
+            }
+        }
+
+        // included columns are kept up to date and only allowed on non-unique indices
+        try (Transaction t = db.beginTransaction()) {
+            t.update(tableName, "name", x -> new StringDataBox("renamed", 10),
+                     "id", PredicateOperator.EQUALS, new IntDataBox(57));
+            List<Record> names = new ArrayList<>();
+            t.getTransactionContext().indexOnlyScan(tableName, "score", Collections.singletonList("name"),
+                    new FloatDataBox(7f), new FloatDataBox(7f)).forEachRemaining(names::add);
+            assertTrue(names.contains(new Record("renamed")));
+            assertFalse(names.contains(new Record("n57")));
+            try {
+                t.createIndex(tableName, Collections.singletonList("id"),
+                              Collections.singletonList("name"), true, false);
+                fail();
+            } catch (DatabaseException e) {
+                assertTrue(e.getMessage().contains("non-unique"));
+            }
+        }
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -2,6 +2,8 @@ package edu.berkeley.cs186.database.cli.visitor;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.cli.parser.ASTSQLStatementList;
 import edu.berkeley.cs186.database.cli.parser.ParseException;
 import edu.berkeley.cs186.database.cli.parser.RookieParser;
@@ -11,6 +13,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
@@ -19,7 +22,9 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+@Category({Proj99Tests.class, SystemTests.class})
 public class TestStatementList {
     private static final String TestDir = "testSelectClause";
     private Database db;
@@ -107,4 +112,17 @@ public class TestStatementList {
         assertEquals(StatementType.SELECT, visitor.statementVisitors.get(0).getType());
         assertEquals(StatementType.EXPLAIN, visitor.statementVisitors.get(1).getType());
     }
+
+    @Test
+    public void testCreateCompositeIndex() {
+        StatementListVisitor visitor = parse(
+                "CREATE INDEX ON Students (major, gpa);"
+        );
+        assertEquals(1, visitor.statementVisitors.size());
+        assertEquals(StatementType.CREATE_INDEX, visitor.statementVisitors.get(0).getType());
+        try (Transaction t = db.beginTransaction()) {
+            visitor.statementVisitors.get(0).execute(t, System.out);
+            assertTrue(t.getTransactionContext().indexExists("Students", "major"));
+        }
+    }
 }
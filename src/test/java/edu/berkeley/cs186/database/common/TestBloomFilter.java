@@ -0,0 +1,68 @@
+package edu.berkeley.cs186.database.common;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestBloomFilter {
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(new IntDataBox(i * 7));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(new IntDataBox(i * 7)));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(new StringDataBox("key" + i, 10));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 20000; i++) {
+            if (filter.mightContain(new StringDataBox("key" + i, 10))) falsePositives++;
+        }
+        // about 1% with 10 bits per key
+        assertTrue(falsePositives + " false positives", falsePositives < 300);
+    }
+
+    @Test
+    public void testBoundedBits() {
+        // one page of bits for 10000 keys: about 3 bits and 2 hashes per key
+        BloomFilter filter = new BloomFilter(10000, 8 * 4096);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(new IntDataBox(i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(new IntDataBox(i)));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 20000; i++) {
+            if (filter.mightContain(new IntDataBox(i))) falsePositives++;
+        }
+        // about 20%, still rejects most keys
+        assertTrue(falsePositives + " false positives", falsePositives < 3000);
+    }
+
+    @Test
+    public void testOverfull() {
+        // more keys than expected only raise the false positive rate
+        BloomFilter filter = new BloomFilter(1);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(new IntDataBox(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(new IntDataBox(i)));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package edu.berkeley.cs186.database.common;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.iterator.LoserTreeIterator;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLoserTreeIterator {
+    // Creates `k` sorted lists holding `n` random integers in total
+    private static List<List<Integer>> sortedLists(int k, int n, Random gen) {
+        List<List<Integer>> lists = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            lists.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            lists.get(gen.nextInt(k)).add(gen.nextInt(n));
+        }
+        for (List<Integer> list : lists) {
+            Collections.sort(list);
+        }
+        return lists;
+    }
+
+    private static List<Iterator<Integer>> iterators(List<List<Integer>> lists) {
+        List<Iterator<Integer>> iterators = new ArrayList<>();
+        for (List<Integer> list : lists) {
+            iterators.add(list.iterator());
+        }
+        return iterators;
+    }
+
+    private static List<Integer> drain(Iterator<Integer> iter) {
+        List<Integer> result = new ArrayList<>();
+        iter.forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    public void testMerge() {
+        Random gen = new Random(186);
+        for (int k : new int[] {1, 2, 3, 5, 8, 13, 100}) {
+            List<List<Integer>> lists = sortedLists(k, 50 * k, gen);
+            List<Integer> expected = new ArrayList<>();
+            lists.forEach(expected::addAll);
+            Collections.sort(expected);
+
+            assertEquals("k=" + k, expected, drain(new LoserTreeIterator<>(
+                    iterators(lists), Comparator.naturalOrder())));
+            assertEquals("k=" + k, expected, drain(new LoserTreeIterator<>(
+                    iterators(lists), i -> i, Comparator.naturalOrder())));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        Iterator<Integer> iter = new LoserTreeIterator<>(Collections.emptyList(), Comparator.naturalOrder());
+        assertFalse(iter.hasNext());
+        try {
+            iter.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            /* do nothing */
+        }
+
+        List<List<Integer>> lists = Arrays.asList(
+                Collections.emptyList(), Arrays.asList(1, 4), Collections.emptyList(), Arrays.asList(2, 3));
+        assertEquals(Arrays.asList(1, 2, 3, 4), drain(new LoserTreeIterator<>(
+                iterators(lists), Comparator.naturalOrder())));
+    }
+
+    @Test
+    public void testStable() {
+        // equal elements are returned in the order of their sources
+        List<List<int[]>> lists = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            lists.add(Arrays.asList(new int[] {1, i}, new int[] {2, i}));
+        }
+        List<Iterator<int[]>> iterators = new ArrayList<>();
+        for (List<int[]> list : lists) {
+            iterators.add(list.iterator());
+        }
+        Iterator<int[]> iter = new LoserTreeIterator<>(iterators, Comparator.comparingInt(a -> a[0]));
+        for (int value = 1; value <= 2; value++) {
+            for (int i = 0; i < 7; i++) {
+                int[] next = iter.next();
+                assertEquals(value, next[0]);
+                assertEquals(i, next[1]);
+            }
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testComparisons() {
+        // merging 128 runs compares each element log2(128) = 7 times, about
+        // half of what a binary heap needs
+        int k = 128;
+        int n = 100000;
+        List<List<Integer>> lists = sortedLists(k, n, new Random(42));
+
+        int[] treeComparisons = {0};
+        List<Integer> merged = drain(new LoserTreeIterator<>(iterators(lists), (a, b) -> {
+            treeComparisons[0]++;
+            return Integer.compare(a, b);
+        }));
+        assertEquals(n, merged.size());
+        assertTrue("loser tree made " + treeComparisons[0] + " comparisons",
+                treeComparisons[0] <= (n + k) * 7);
+
+        int[] heapComparisons = {0};
+        PriorityQueue<Pair<Integer, Iterator<Integer>>> heap = new PriorityQueue<>((a, b) -> {
+            heapComparisons[0]++;
+            return Integer.compare(a.getFirst(), b.getFirst());
+        });
+        for (Iterator<Integer> iter : iterators(lists)) {
+            if (iter.hasNext()) heap.add(new Pair<>(iter.next(), iter));
+        }
+        while (!heap.isEmpty()) {
+            Pair<Integer, Iterator<Integer>> min = heap.poll();
+            if (min.getSecond().hasNext()) heap.add(new Pair<>(min.getSecond().next(), min.getSecond()));
+        }
+        assertTrue(treeComparisons[0] < heapComparisons[0]);
+    }
+}
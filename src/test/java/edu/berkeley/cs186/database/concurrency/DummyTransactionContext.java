@@ -5,14 +5,18 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.query.disk.SpillFile;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.ScanPredicate;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -34,6 +38,21 @@ public class DummyTransactionContext extends TransactionContext {
         return this.tNum;
     }
 
+    @Override
+    public SpillFile createSpillFile(Schema schema) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public ForkJoinPool getSortPool() {
+        return null;
+    }
+
+    @Override
+    public boolean useIndexJoins() {
+        return false;
+    }
+
     @Override
     public String createTempTable(Schema schema) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -59,6 +78,16 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public boolean hashIndexExists(String tableName, String columnName) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public List<String> getIndexColumns(String tableName, String columnName) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public Iterator<Record> sortedScan(String tableName, String columnName) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -76,6 +105,23 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public List<Iterator<Record>> lookupKeys(String tableName, String columnName, List<DataBox> keys) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public Iterator<Record> indexOnlyScan(String tableName, String columnName, List<String> columns,
+                                          DataBox startValue, DataBox endValue) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public Iterator<Record> bitmapHeapScan(String tableName, String columnName,
+                                           DataBox startValue, DataBox endValue) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public boolean contains(String tableName, String columnName, DataBox key) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -106,6 +152,12 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public BacktrackingIterator<Record> getRecordIterator(String tableName, List<ScanPredicate> predicates,
+                                                          List<Integer> columns) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public RecordId updateRecord(String tableName, RecordId rid, Record record)  {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
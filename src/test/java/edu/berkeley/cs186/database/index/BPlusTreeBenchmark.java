@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the throughput of a B+ tree in concurrent mode (see NodeLatches)
+ * for inserts, point lookups and full scans with an increasing number of
+ * threads. Not part of the test suite; run it with
+ *
+ *   java -cp target/classes:target/test-classes \
+ *       edu.berkeley.cs186.database.index.BPlusTreeBenchmark [numKeys] [maxThreads]
+ *
+ * Each thread count gets a fresh tree in an in-memory disk space manager
+ * with a buffer pool large enough to hold the whole tree, so the numbers
+ * measure latch contention and CPU work rather than I/O.
+ */
+public class BPlusTreeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%d keys, %d available processors%n", numKeys,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %14s %14s %14s%n", "threads", "inserts/s", "lookups/s", "scanned/s");
+        // one warm-up round so that the first measured round is not dominated by JIT compilation
+        run(numKeys, 1);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double[] rates = run(numKeys, threads);
+            System.out.printf("%8d %14.0f %14.0f %14.0f%n", threads, rates[0], rates[1], rates[2]);
+        }
+    }
+
+    // Returns the insert, lookup and scan rates (per second) with `threads` threads.
+    private static double[] run(int numKeys, int threads) throws Exception {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, Type.intType());
+        int numPages = 4 * numKeys / order + 1024;
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                numPages, new ClockEvictionPolicy());
+        try {
+            BPlusTreeMetadata metadata = new BPlusTreeMetadata("bench", "key", Type.intType(), order,
+                    0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+            BPlusTree tree = new BPlusTree(bufferManager, metadata, new DummyLockContext(), new NodeLatches());
+
+            long inserts = time(threads, t -> {
+                for (int i = t; i < numKeys; i += threads) {
+                    // spread consecutive inserts over the key space so threads share leaves
+                    int key = (int) ((i * 2654435761L) % numKeys);
+                    tree.put(new IntDataBox(key), rid(key));
+                }
+            });
+            long lookups = time(threads, t -> {
+                Random random = new Random(t);
+                for (int i = 0; i < numKeys / threads; ++i) {
+                    int key = random.nextInt(numKeys);
+                    if (!tree.get(new IntDataBox(key)).equals(Optional.of(rid(key)))) {
+                        throw new IllegalStateException("lost key " + key);
+                    }
+                }
+            });
+            // every thread scans the whole tree, so `threads` times as many keys are read
+            long scans = time(threads, t -> {
+                Iterator<RecordId> iter = tree.scanAll();
+                int count = 0;
+                while (iter.hasNext()) {
+                    iter.next();
+                    count++;
+                }
+                if (count != numKeys) {
+                    throw new IllegalStateException("scanned " + count + " keys");
+                }
+            });
+            return new double[] {
+                numKeys * 1e9 / inserts,
+                (numKeys / threads) * threads * 1e9 / lookups,
+                (double) numKeys * threads * 1e9 / scans,
+            };
+        } finally {
+            bufferManager.close();
+        }
+    }
+
+    private static RecordId rid(int i) {
+        return new RecordId(i, (short) (i % Short.MAX_VALUE));
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+
+    // Runs task(t) for t = 0, ..., threads - 1 on separate threads and
+    // returns the elapsed wall-clock time in nanoseconds.
+    private static long time(int threads, ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    task.run(thread);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
@@ -149,6 +150,28 @@ public class TestBPlusTree {
         assertEquals(sexp, tree.toSexp());
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testLargeBulkLoad() {
+        // Enough values that inner nodes split as well as leaves.
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        List<Pair<DataBox, RecordId>> data = new ArrayList<>();
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            data.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) i)));
+            expected.add(new RecordId(i, (short) i));
+        }
+        tree.bulkLoad(data.iterator(), 0.75f);
+
+        assertEquals(expected, indexIteratorToList(tree::scanAll));
+        BPlusTree fromDisk = new BPlusTree(bufferManager, metadata, treeContext);
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), fromDisk.get(new IntDataBox(i)));
+        }
+        // Leaves hold 2d * 0.75 = 3 entries each.
+        assertEquals(0.75f, fromDisk.updateFillFactor(), 0.01f);
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testWhiteBoxTest() {
@@ -484,6 +507,314 @@ public class TestBPlusTree {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testPageResidentSearch() {
+        // get and scanGreaterEqual search the serialized pages directly. Check
+        // them against a TreeMap on string keys (compared byte-wise in the page)
+        // and on keys that are missing from the tree.
+        Random random = new Random(186);
+        TreeMap<DataBox, RecordId> expected = new TreeMap<>();
+        BPlusTree tree = getBPlusTree(Type.stringType(4), 3);
+        for (int i = 0; i < 500; ++i) {
+            DataBox key = new StringDataBox(Integer.toString(random.nextInt(2000)), 4);
+            RecordId rid = new RecordId(i, (short) i);
+            if (!expected.containsKey(key)) {
+                expected.put(key, rid);
+                tree.put(key, rid);
+            }
+        }
+
+        for (int i = 0; i < 2000; ++i) {
+            DataBox key = new StringDataBox(Integer.toString(i), 4);
+            assertEquals(Optional.ofNullable(expected.get(key)), tree.get(key));
+        }
+
+        for (int i = 0; i < 2000; i += 97) {
+            DataBox key = new StringDataBox(Integer.toString(i), 4);
+            List<RecordId> tail = new ArrayList<>(expected.tailMap(key, true).values());
+            assertEquals(tail, indexIteratorToList(() -> tree.scanGreaterEqual(key)));
+        }
+        assertEquals(new ArrayList<>(expected.values()), indexIteratorToList(tree::scanAll));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNodeCache() {
+        // Every lookup goes through a new tree object sharing one cache, as
+        // Database does. Once the cache is warm, a lookup only reads the pages
+        // below the cached levels.
+        setBPlusTreeMetadata(Type.intType(), 2);
+        NodeCache cache = new NodeCache();
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(42));
+        for (int i = 0; i < 500; ++i) {
+            int key = keys.get(i);
+            new BPlusTree(bufferManager, metadata, treeContext, null, cache)
+                .put(new IntDataBox(key), new RecordId(key, (short) 0));
+        }
+        assertTrue(metadata.getHeight() > NodeCache.MAX_LEVELS);
+
+        for (int i = 0; i < 500; i += 7) {
+            int key = keys.get(i);
+            DataBox box = new IntDataBox(key);
+            new BPlusTree(bufferManager, metadata, treeContext, null, cache).get(box);
+
+            bufferManager.evictAll();
+            long before = bufferManager.getNumIOs();
+            assertEquals(Optional.of(new RecordId(key, (short) 0)),
+                         new BPlusTree(bufferManager, metadata, treeContext, null, cache).get(box));
+            long cachedIOs = bufferManager.getNumIOs() - before;
+
+            bufferManager.evictAll();
+            before = bufferManager.getNumIOs();
+            assertEquals(Optional.of(new RecordId(key, (short) 0)),
+                         new BPlusTree(bufferManager, metadata, treeContext).get(box));
+            assertEquals(bufferManager.getNumIOs() - before - NodeCache.MAX_LEVELS, cachedIOs);
+        }
+
+        // splits and root changes invalidate the cached nodes
+        for (int i = 500; i < 1000; ++i) {
+            int key = keys.get(i);
+            new BPlusTree(bufferManager, metadata, treeContext, null, cache)
+                .put(new IntDataBox(key), new RecordId(key, (short) 0));
+            DataBox first = new IntDataBox(keys.get(i / 2));
+            assertEquals(Optional.of(new RecordId(keys.get(i / 2), (short) 0)),
+                         new BPlusTree(bufferManager, metadata, treeContext, null, cache).get(first));
+        }
+        for (int key = 0; key < 1000; ++key) {
+            assertEquals(Optional.of(new RecordId(key, (short) 0)),
+                         new BPlusTree(bufferManager, metadata, treeContext, null, cache)
+                         .get(new IntDataBox(key)));
+        }
+
+        // a cache can't be combined with latches
+        try {
+            new BPlusTree(bufferManager, metadata, treeContext, new NodeLatches(), cache);
+            fail();
+        } catch (BPlusTreeException e) {
+            /* do nothing */
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testGetBatch() {
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(42));
+        for (int key : keys) {
+            tree.put(new IntDataBox(key), new RecordId(key, (short) 0));
+        }
+        // leave some empty leaves behind and holes between the remaining keys
+        for (int i = 400; i < 500; ++i) {
+            tree.remove(new IntDataBox(i));
+        }
+        for (int i = 0; i < 1000; i += 7) {
+            tree.remove(new IntDataBox(i));
+        }
+
+        // sorted keys, some of them missing or repeated
+        Random random = new Random(186);
+        List<DataBox> batch = new ArrayList<>();
+        batch.add(new IntDataBox(-5));
+        for (int i = 0; i < 300; ++i) {
+            batch.add(new IntDataBox(random.nextInt(1000)));
+        }
+        batch.add(new IntDataBox(2000));
+        batch.sort(Comparator.naturalOrder());
+        List<Optional<RecordId>> expected = new ArrayList<>();
+        for (DataBox key : batch) {
+            expected.add(tree.get(key));
+        }
+        assertEquals(expected, tree.getBatch(batch));
+
+        List<DataBox> highs = new ArrayList<>();
+        for (DataBox key : batch) {
+            highs.add(new IntDataBox(key.getInt() + 20));
+        }
+        List<List<RecordId>> ranges = tree.scanRangeBatch(batch, highs);
+        for (int i = 0; i < batch.size(); ++i) {
+            List<RecordId> range = new ArrayList<>();
+            tree.scanRange(batch.get(i), highs.get(i)).forEachRemaining(range::add);
+            assertEquals(range, ranges.get(i));
+        }
+
+        // a batch of all the keys descends once and then walks the leaves
+        batch.clear();
+        for (int i = 0; i < 1000; ++i) {
+            batch.add(new IntDataBox(i));
+        }
+        long unbatchedIOs = 0;
+        for (DataBox key : batch) {
+            bufferManager.evictAll();
+            long before = bufferManager.getNumIOs();
+            tree.get(key);
+            unbatchedIOs += bufferManager.getNumIOs() - before;
+        }
+        bufferManager.evictAll();
+        long before = bufferManager.getNumIOs();
+        tree.getBatch(batch);
+        long batchedIOs = bufferManager.getNumIOs() - before;
+        assertTrue(batchedIOs + " * 3 >= " + unbatchedIOs, batchedIOs * 3 < unbatchedIOs);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCompressedNodes() {
+        // Wide string keys that share long prefixes: with prefix compression and
+        // suffix truncation the tree must hold the same keys in fewer levels,
+        // and behave exactly like the uncompressed tree.
+        Type keySchema = Type.stringType(64);
+        short pageSize = BufferManager.EFFECTIVE_PAGE_SIZE;
+        assertTrue(BPlusTree.supportsCompression(pageSize, keySchema));
+        assertFalse(BPlusTree.supportsCompression(pageSize, Type.intType()));
+
+        BPlusTreeMetadata compressedMetadata = new BPlusTreeMetadata("test", "col", keySchema, true, true,
+                BPlusTree.maxCompressedOrder(pageSize), 0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+        BPlusTree compressed = new BPlusTree(bufferManager, compressedMetadata, treeContext);
+        BPlusTree plain = getBPlusTree(keySchema, BPlusTree.maxOrder(pageSize, keySchema));
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            ids.add(i * 7);
+        }
+        Collections.shuffle(ids, new Random(186));
+        TreeMap<DataBox, RecordId> expected = new TreeMap<>();
+        for (int id : ids) {
+            DataBox key = new StringDataBox(String.format("customer-%08d@example.com", id), 64);
+            RecordId rid = new RecordId(id, (short) 0);
+            expected.put(key, rid);
+            compressed.put(key, rid);
+            plain.put(key, rid);
+        }
+        assertTrue(compressedMetadata.getHeight() < metadata.getHeight());
+
+        for (int id = 0; id < 5000 * 7; id += 3) {
+            DataBox key = new StringDataBox(String.format("customer-%08d@example.com", id), 64);
+            if (id % 2 == 0) {
+                compressed.remove(key);
+                expected.remove(key);
+            }
+        }
+
+        // Reload the tree from its pages and check lookups (including missing
+        // keys and keys outside of the common prefixes) and scans.
+        BPlusTree fromDisk = new BPlusTree(bufferManager, compressedMetadata, treeContext);
+        for (int id = 0; id < 5000 * 7; id += 5) {
+            DataBox key = new StringDataBox(String.format("customer-%08d@example.com", id), 64);
+            assertEquals(Optional.ofNullable(expected.get(key)), fromDisk.get(key));
+        }
+        for (String s : Arrays.asList("", "a", "customer-", "customer-0001", "d", "customer-99")) {
+            DataBox key = new StringDataBox(s, 64);
+            assertEquals(Optional.ofNullable(expected.get(key)), fromDisk.get(key));
+            List<RecordId> tail = new ArrayList<>();
+            fromDisk.scanGreaterEqual(key).forEachRemaining(tail::add);
+            assertEquals(new ArrayList<>(expected.tailMap(key, true).values()), tail);
+        }
+        // Compressed leaves hold many more entries than 2d, so the I/O bounds
+        // of indexIteratorToList do not apply here.
+        List<RecordId> all = new ArrayList<>();
+        fromDisk.scanAll().forEachRemaining(all::add);
+        assertEquals(new ArrayList<>(expected.values()), all);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCompact() {
+        // Removing keys never merges nodes. After removing 90% of the keys,
+        // compact() should merge the sparse nodes, shrink the tree and raise
+        // the fill factor, without losing any of the remaining keys.
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(186));
+        for (int i : keys) {
+            tree.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            if (i % 10 == 0) {
+                expected.add(new RecordId(i, (short) i));
+            } else {
+                tree.remove(new IntDataBox(i));
+            }
+        }
+        int height = metadata.getHeight();
+        float fillFactor = tree.updateFillFactor();
+        assertEquals(fillFactor, metadata.getFillFactor(), 0);
+        assertTrue(fillFactor < 0.2);
+
+        assertTrue(tree.compact() > 0);
+        assertTrue(metadata.getHeight() < height);
+        assertTrue(metadata.getFillFactor() > 2 * fillFactor);
+        assertEquals(expected, indexIteratorToList(tree::scanAll));
+
+        // The compacted tree is still a valid tree, on disk as well.
+        BPlusTree fromDisk = new BPlusTree(bufferManager, metadata, treeContext);
+        for (int i = 0; i < 1000; ++i) {
+            Optional<RecordId> rid = i % 10 == 0 ? Optional.of(new RecordId(i, (short) i)) : Optional.empty();
+            assertEquals(rid, fromDisk.get(new IntDataBox(i)));
+        }
+        for (int i = 1; i < 1000; i += 10) {
+            fromDisk.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        assertEquals(200, indexIteratorToList(fromDisk::scanAll).size());
+
+        // Compacting an empty tree leaves a single empty leaf.
+        for (int i = 0; i < 1000; ++i) {
+            fromDisk.remove(new IntDataBox(i));
+        }
+        fromDisk.compact();
+        assertEquals(0, metadata.getHeight());
+        assertEquals(0, metadata.getFillFactor(), 0);
+        assertEquals("()", fromDisk.toSexp());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCompactCompressed() {
+        // Compressed nodes are merged as long as the merged node fits in a page.
+        Type keySchema = Type.stringType(32);
+        BPlusTreeMetadata compressedMetadata = new BPlusTreeMetadata("test", "col", keySchema, true, true,
+                BPlusTree.maxCompressedOrder(BufferManager.EFFECTIVE_PAGE_SIZE), 0,
+                DiskSpaceManager.INVALID_PAGE_NUM, -1);
+        BPlusTree tree = new BPlusTree(bufferManager, compressedMetadata, treeContext);
+        TreeMap<DataBox, RecordId> expected = new TreeMap<>();
+        for (int i = 0; i < 5000; ++i) {
+            DataBox key = new StringDataBox(String.format("key-%06d", i * 37 % 5000), 32);
+            tree.put(key, new RecordId(i, (short) 0));
+            expected.put(key, new RecordId(i, (short) 0));
+        }
+        for (int i = 0; i < 5000; ++i) {
+            if (i % 7 != 0) {
+                DataBox key = new StringDataBox(String.format("key-%06d", i), 32);
+                tree.remove(key);
+                expected.remove(key);
+            }
+        }
+        float fillFactor = tree.updateFillFactor();
+        assertTrue(tree.compact() > 0);
+        assertTrue(compressedMetadata.getFillFactor() > fillFactor);
+
+        BPlusTree fromDisk = new BPlusTree(bufferManager, compressedMetadata, treeContext);
+        List<RecordId> all = new ArrayList<>();
+        fromDisk.scanAll().forEachRemaining(all::add);
+        assertEquals(new ArrayList<>(expected.values()), all);
+        for (int i = 0; i < 5000; i += 3) {
+            DataBox key = new StringDataBox(String.format("key-%06d", i), 32);
+            assertEquals(Optional.ofNullable(expected.get(key)), fromDisk.get(key));
+        }
+    }
+
     @Test
     @Category(SystemTests.class)
     public void testMaxOrder() {
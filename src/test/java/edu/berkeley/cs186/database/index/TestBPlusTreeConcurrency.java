@@ -0,0 +1,229 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.categories.Proj2Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.RecordId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@Category(Proj2Tests.class)
+public class TestBPlusTreeConcurrency {
+    private BufferManager bufferManager;
+    private BPlusTreeMetadata metadata;
+    private LockContext treeContext;
+    private NodeLatches latches;
+
+    // 20 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                20000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+        this.treeContext = new DummyLockContext();
+        this.latches = new NodeLatches();
+    }
+
+    @After
+    public void cleanup() {
+        this.bufferManager.close();
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    private BPlusTree getBPlusTree(int order) {
+        this.metadata = new BPlusTreeMetadata("test", "col", Type.intType(), order,
+                                              0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+        return new BPlusTree(bufferManager, metadata, treeContext, latches);
+    }
+
+    private static RecordId rid(int i) {
+        return new RecordId(i, (short) (i % Short.MAX_VALUE));
+    }
+
+    // Runs task(t) for t = 0, ..., numThreads - 1 on separate threads and
+    // rethrows the first failure.
+    private static void runThreads(int numThreads, ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    task.run(thread);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+
+    // Tests ///////////////////////////////////////////////////////////////////
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentPuts() throws Exception {
+        // Small nodes so that leaf, inner node and root splits race with each
+        // other. Every thread inserts its own shuffled set of keys.
+        int numThreads = 4;
+        int keysPerThread = 2000;
+        BPlusTree tree = getBPlusTree(2);
+        runThreads(numThreads, t -> {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < keysPerThread; ++i) {
+                keys.add(i * numThreads + t);
+            }
+            Collections.shuffle(keys, new Random(t));
+            for (int key : keys) {
+                tree.put(new IntDataBox(key), rid(key));
+            }
+        });
+
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < numThreads * keysPerThread; ++i) {
+            assertEquals(Optional.of(rid(i)), tree.get(new IntDataBox(i)));
+            expected.add(rid(i));
+        }
+        List<RecordId> actual = new ArrayList<>();
+        tree.scanAll().forEachRemaining(actual::add);
+        assertEquals(expected, actual);
+
+        // The root page never moves, so a tree object loaded before the splits
+        // (or any other object sharing the latches) sees the same tree.
+        BPlusTree other = new BPlusTree(bufferManager, metadata, treeContext, latches);
+        assertEquals(Optional.of(rid(4242)), other.get(new IntDataBox(4242)));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentReadsAndWrites() throws Exception {
+        // Writers insert odd keys and remove some of them while readers look up
+        // the even keys (which are never modified) and scan the tree.
+        int numKeys = 4000;
+        BPlusTree tree = getBPlusTree(2);
+        for (int i = 0; i < numKeys; i += 2) {
+            tree.put(new IntDataBox(i), rid(i));
+        }
+
+        AtomicInteger failures = new AtomicInteger();
+        runThreads(4, t -> {
+            if (t < 2) {
+                for (int i = 1 + 2 * t; i < numKeys; i += 4) {
+                    tree.put(new IntDataBox(i), rid(i));
+                    if (i % 3 == 0) {
+                        tree.remove(new IntDataBox(i));
+                    }
+                }
+            } else if (t == 2) {
+                for (int i = 0; i < numKeys; i += 2) {
+                    if (!tree.get(new IntDataBox(i)).equals(Optional.of(rid(i)))) {
+                        failures.incrementAndGet();
+                    }
+                }
+            } else {
+                for (int n = 0; n < 5; ++n) {
+                    // Every even key must be seen exactly once, in order.
+                    int nextEven = 0;
+                    Iterator<RecordId> iter = tree.scanAll();
+                    while (iter.hasNext()) {
+                        int page = (int) iter.next().getPageNum();
+                        if (page % 2 == 0) {
+                            if (page != nextEven) {
+                                failures.incrementAndGet();
+                            }
+                            nextEven = page + 2;
+                        }
+                    }
+                    if (nextEven != numKeys) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }
+        });
+        assertEquals(0, failures.get());
+
+        for (int i = 0; i < numKeys; ++i) {
+            Optional<RecordId> expected = (i % 2 == 1 && i % 3 == 0) ? Optional.empty() : Optional.of(rid(i));
+            assertEquals(expected, tree.get(new IntDataBox(i)));
+        }
+    }
+
+    @Test
+    @Category(SystemTests.class)
+    public void testWorkload() throws Exception {
+        // Inserts, looks up and scans a larger tree with 1, 2 and 4 threads.
+        int numKeys = 40000;
+        for (int numThreads = 1; numThreads <= 4; numThreads *= 2) {
+            final int threads = numThreads;
+            cleanup();
+            setup();
+            BPlusTree tree = getBPlusTree(BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, Type.intType()));
+
+            runThreads(threads, t -> {
+                for (int i = t; i < numKeys; i += threads) {
+                    // Random-ish order within each thread: hot leaves are shared.
+                    int key = (int) ((i * 2654435761L) % numKeys);
+                    tree.put(new IntDataBox(key), rid(key));
+                }
+            });
+
+            runThreads(threads, t -> {
+                Random random = new Random(t);
+                for (int i = 0; i < numKeys / threads; ++i) {
+                    int key = random.nextInt(numKeys);
+                    assertEquals(Optional.of(rid(key)), tree.get(new IntDataBox(key)));
+                }
+            });
+
+            runThreads(threads, t -> {
+                Iterator<RecordId> iter = tree.scanAll();
+                for (int i = 0; i < numKeys; ++i) {
+                    assertTrue(iter.hasNext());
+                    assertEquals(rid(i), iter.next());
+                }
+                assertFalse(iter.hasNext());
+            });
+        }
+    }
+}
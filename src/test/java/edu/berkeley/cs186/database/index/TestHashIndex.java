@@ -0,0 +1,192 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.categories.Proj2Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.RecordId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category(Proj2Tests.class)
+public class TestHashIndex {
+    private BufferManager bufferManager;
+    private BPlusTreeMetadata metadata;
+    private LockContext indexContext;
+
+    // 10 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup()  {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+        this.indexContext = new DummyLockContext();
+        this.metadata = null;
+    }
+
+    @After
+    public void cleanup() {
+        this.bufferManager.close();
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    private HashIndex getHashIndex(Type keySchema, boolean unique, int capacity) {
+        this.metadata = new BPlusTreeMetadata("test", "col", keySchema, unique, IndexType.HASH,
+                                              capacity, 0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+        return new HashIndex(bufferManager, metadata, indexContext);
+    }
+
+    private static <T> List<T> toList(Iterator<T> iter) {
+        List<T> xs = new ArrayList<>();
+        iter.forEachRemaining(xs::add);
+        return xs;
+    }
+
+    // Tests ///////////////////////////////////////////////////////////////////
+    @Test
+    @Category(PublicTests.class)
+    public void testSimplePutGetRemove() {
+        HashIndex index = getHashIndex(Type.intType(), true, 4);
+        assertEquals(0, index.getGlobalDepth());
+        for (int i = 0; i < 10; ++i) {
+            index.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), index.get(new IntDataBox(i)));
+        }
+        assertEquals(Optional.empty(), index.get(new IntDataBox(10)));
+
+        index.remove(new IntDataBox(3), new RecordId(3, (short) 3));
+        assertEquals(Optional.empty(), index.get(new IntDataBox(3)));
+        for (int i = 0; i < 10; ++i) {
+            if (i == 3) continue;
+            assertEquals(Optional.of(new RecordId(i, (short) i)), index.get(new IntDataBox(i)));
+        }
+        // 10 keys don't fit in a bucket of 4, so the directory must have grown
+        assertTrue(index.getGlobalDepth() > 0);
+        assertEquals(index.getGlobalDepth(), metadata.getHeight());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testUniqueDuplicate() {
+        HashIndex index = getHashIndex(Type.intType(), true, 4);
+        index.put(new IntDataBox(1), new RecordId(1, (short) 1));
+        try {
+            index.put(new IntDataBox(1), new RecordId(2, (short) 2));
+            fail();
+        } catch (HashIndexException e) {
+            /* do nothing */
+        }
+        assertEquals(Optional.of(new RecordId(1, (short) 1)), index.get(new IntDataBox(1)));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNonUniqueOverflow() {
+        // All entries share a hash value, so they can only go to overflow pages
+        HashIndex index = getHashIndex(Type.intType(), false, 4);
+        Set<RecordId> expected = new HashSet<>();
+        for (int i = 0; i < 50; ++i) {
+            RecordId rid = new RecordId(i, (short) 0);
+            index.put(new IntDataBox(7), rid);
+            expected.add(rid);
+        }
+        index.put(new IntDataBox(8), new RecordId(100, (short) 0));
+        assertEquals(expected, new HashSet<>(toList(index.scanEqual(new IntDataBox(7)))));
+        assertEquals(Collections.singletonList(new RecordId(100, (short) 0)),
+                     toList(index.scanEqual(new IntDataBox(8))));
+
+        for (int i = 0; i < 50; i += 2) {
+            RecordId rid = new RecordId(i, (short) 0);
+            index.remove(new IntDataBox(7), rid);
+            expected.remove(rid);
+        }
+        assertEquals(expected, new HashSet<>(toList(index.scanEqual(new IntDataBox(7)))));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testManyKeysMultipleDirectoryPages() {
+        HashIndex index = getHashIndex(Type.intType(), true, 2);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(42));
+        for (int k : keys) {
+            index.put(new IntDataBox(k), new RecordId(k, (short) 0));
+        }
+        // with buckets of 2 entries the directory spans several pages
+        assertTrue(1 << index.getGlobalDepth() > HashIndex.DIRECTORY_PAGE_ENTRIES);
+
+        // reload the index from disk
+        HashIndex fromDisk = new HashIndex(bufferManager, metadata, indexContext);
+        for (int k = 0; k < 5000; ++k) {
+            assertEquals(Optional.of(new RecordId(k, (short) 0)), fromDisk.get(new IntDataBox(k)));
+        }
+        for (int k = 0; k < 5000; k += 3) {
+            fromDisk.remove(new IntDataBox(k), new RecordId(k, (short) 0));
+        }
+        for (int k = 0; k < 5000; ++k) {
+            Optional<RecordId> expected = k % 3 == 0 ? Optional.empty() : Optional.of(new RecordId(k, (short) 0));
+            assertEquals(expected, fromDisk.get(new IntDataBox(k)));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLookupIOs() {
+        HashIndex index = getHashIndex(Type.stringType(10), true,
+                HashIndex.maxBucketCapacity(BufferManager.EFFECTIVE_PAGE_SIZE, Type.stringType(10)));
+        for (int i = 0; i < 2000; ++i) {
+            index.put(new StringDataBox("key" + i, 10), new RecordId(i, (short) 0));
+        }
+        // a lookup reads the header page, one directory page and one bucket
+        for (int i = 0; i < 2000; i += 97) {
+            bufferManager.evictAll();
+            long before = bufferManager.getNumIOs();
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), index.get(new StringDataBox("key" + i, 10)));
+            assertTrue(bufferManager.getNumIOs() - before <= HashIndex.LOOKUP_IO_COST);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testMaxBucketCapacity() {
+        // header of 17 bytes, then 14-byte entries of an int key and a record id
+        assertEquals((100 - 17) / 14, HashIndex.maxBucketCapacity((short) 100, Type.intType()));
+        try {
+            getHashIndex(Type.intType(), true,
+                    HashIndex.maxBucketCapacity(BufferManager.EFFECTIVE_PAGE_SIZE, Type.intType()) + 1);
+            fail();
+        } catch (HashIndexException e) {
+            /* do nothing */
+        }
+    }
+}
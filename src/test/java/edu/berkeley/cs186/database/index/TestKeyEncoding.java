@@ -0,0 +1,97 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.categories.Proj2Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.RecordId;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category(Proj2Tests.class)
+public class TestKeyEncoding {
+    private static final List<Type> TYPES = Arrays.asList(
+            Type.intType(), Type.floatType(), Type.stringType(3), Type.longType(), Type.boolType());
+
+    private static List<DataBox> randomValues(Random random) {
+        // Small domains so that many keys share prefixes
+        String s = "";
+        for (int i = random.nextInt(4); i > 0; --i) {
+            s += (char) ('a' + random.nextInt(3));
+        }
+        float[] floats = {-2.5f, -0.0f, 0.0f, 1.0f, Float.NEGATIVE_INFINITY, Float.MAX_VALUE};
+        return Arrays.asList(
+                new IntDataBox(random.nextInt(5) - 2 + (random.nextBoolean() ? 0 : Integer.MIN_VALUE / 2)),
+                new FloatDataBox(floats[random.nextInt(floats.length)]),
+                new StringDataBox(s, 3),
+                new LongDataBox(random.nextInt(3) - 1),
+                new BoolDataBox(random.nextBoolean()));
+    }
+
+    private static int compareValues(List<DataBox> a, List<DataBox> b) {
+        for (int i = 0; i < a.size(); ++i) {
+            int c = a.get(i).compareTo(b.get(i));
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testOrderPreserved() {
+        // Comparing encoded keys must give the same order as comparing the
+        // values column by column, with the record id breaking ties.
+        Random random = new Random(186);
+        for (int i = 0; i < 2000; ++i) {
+            List<DataBox> a = randomValues(random);
+            List<DataBox> b = randomValues(random);
+            RecordId ridA = new RecordId(random.nextInt(3), (short) random.nextInt(3));
+            RecordId ridB = new RecordId(random.nextInt(3), (short) random.nextInt(3));
+
+            int expected = Integer.signum(compareValues(a, b));
+            assertEquals(expected, Integer.signum(
+                    KeyEncoding.encode(TYPES, a, null).compareTo(KeyEncoding.encode(TYPES, b, null))));
+            if (expected == 0) expected = Integer.signum(ridA.compareTo(ridB));
+            assertEquals(expected, Integer.signum(
+                    KeyEncoding.encode(TYPES, a, ridA).compareTo(KeyEncoding.encode(TYPES, b, ridB))));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPrefixBounds() {
+        Type keyType = KeyEncoding.keyType(TYPES, false);
+        assertEquals(Type.byteArrayType(4 + 4 + 3 + 8 + 1 + 10), keyType);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 500; ++i) {
+            List<DataBox> values = randomValues(random);
+            DataBox key = KeyEncoding.encode(TYPES, values, new RecordId(i, (short) i));
+            List<DataBox> prefix = values.subList(0, 1 + random.nextInt(TYPES.size()));
+            assertTrue(KeyEncoding.lowerBound(keyType, TYPES, prefix).compareTo(key) <= 0);
+            assertTrue(KeyEncoding.upperBound(keyType, TYPES, prefix).compareTo(key) >= 0);
+
+            // a key with a different first column is outside the bounds
+            List<DataBox> other = Collections.singletonList(new IntDataBox(values.get(0).getInt() + 1));
+            assertTrue(KeyEncoding.lowerBound(keyType, TYPES, other).compareTo(key) > 0);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDecode() {
+        // decode recovers the values of every column, whether or not a
+        // record id follows them
+        Random random = new Random(7);
+        for (int i = 0; i < 500; ++i) {
+            List<DataBox> values = randomValues(random);
+            RecordId rid = random.nextBoolean() ? null : new RecordId(i, (short) i);
+            DataBox key = KeyEncoding.encode(TYPES, values, rid);
+            assertEquals(values, KeyEncoding.decode(TYPES, key));
+            assertEquals(values.subList(0, 2), KeyEncoding.decode(TYPES.subList(0, 2), key));
+        }
+    }
+}
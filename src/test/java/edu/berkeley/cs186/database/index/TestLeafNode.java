@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
@@ -326,4 +327,31 @@ public class TestLeafNode {
             assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
         }
     }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testInPlaceWrites() {
+        // put and remove only rewrite the changed part of the page. After every
+        // operation the page must still deserialize to the node in memory.
+        int d = 8;
+        setBPlusTreeMetadata(Type.stringType(3), d);
+        LeafNode leaf = getEmptyLeaf(Optional.empty());
+        long pageNum = leaf.getPage().getPageNum();
+        Random random = new Random(7);
+        for (int i = 0; i < 200; ++i) {
+            DataBox key = new StringDataBox(Integer.toString(random.nextInt(100)), 3);
+            if (leaf.getKey(key).isPresent()) {
+                leaf.remove(key);
+            } else {
+                Optional<Pair<DataBox, Long>> split = leaf.put(key, new RecordId(i, (short) i));
+                if (split.isPresent()) {
+                    LeafNode right = LeafNode.fromBytes(metadata, bufferManager, treeContext,
+                                                        split.get().getSecond());
+                    assertEquals(right, leaf.getRightSibling().get());
+                    assertEquals(split.get().getFirst(), right.getKeys().get(0));
+                }
+            }
+            assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
+        }
+    }
 }
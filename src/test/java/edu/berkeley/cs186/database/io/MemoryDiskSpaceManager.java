@@ -12,17 +12,17 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     private int nextPartitionNum = 0;
 
     @Override
-    public void close() {}
+    public synchronized void close() {}
 
     @Override
-    public int allocPart() {
+    public synchronized int allocPart() {
         partitions.put(nextPartitionNum, new HashSet<>());
         nextPageNum.put(nextPartitionNum, 0);
         return nextPartitionNum++;
     }
 
     @Override
-    public int allocPart(int partNum) {
+    public synchronized int allocPart(int partNum) {
         if (partitions.containsKey(partNum)) {
             throw new IllegalStateException("partition " + partNum + " already allocated");
         }
@@ -33,7 +33,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     }
 
     @Override
-    public void freePart(int partNum) {
+    public synchronized void freePart(int partNum) {
         if (!partitions.containsKey(partNum)) {
             throw new NoSuchElementException("partition " + partNum + " not allocated");
         }
@@ -44,7 +44,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     }
 
     @Override
-    public long allocPage(int partNum) {
+    public synchronized long allocPage(int partNum) {
         if (!partitions.containsKey(partNum)) {
             throw new IllegalArgumentException("partition " + partNum + " not allocated");
         }
@@ -57,7 +57,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     }
 
     @Override
-    public long allocPage(long page) {
+    public synchronized long allocPage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int ppageNum = DiskSpaceManager.getPageNum(page);
         if (!partitions.containsKey(partNum)) {
@@ -73,7 +73,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     }
 
     @Override
-    public void freePage(long page) {
+    public synchronized void freePage(long page) {
         if (!pages.containsKey(page)) {
             throw new NoSuchElementException("page " + page + " not allocated");
         }
@@ -84,7 +84,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     }
 
     @Override
-    public void readPage(long page, byte[] buf) {
+    public synchronized void readPage(long page, byte[] buf) {
         if (buf.length != DiskSpaceManager.PAGE_SIZE) {
             throw new IllegalArgumentException("bad buffer size");
         }
@@ -95,7 +95,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     }
 
     @Override
-    public void writePage(long page, byte[] buf) {
+    public synchronized void writePage(long page, byte[] buf) {
         if (buf.length != DiskSpaceManager.PAGE_SIZE) {
             throw new IllegalArgumentException("bad buffer size");
         }
@@ -106,7 +106,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     }
 
     @Override
-    public boolean pageAllocated(long page) {
+    public synchronized boolean pageAllocated(long page) {
         return pages.containsKey(page);
     }
 }
@@ -0,0 +1,99 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.disk.Run;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the throughput of SortOperator with sort parallelism 1 (serial,
+ * replacement selection) and 2, 4, ... (see Database.setSortParallelism).
+ * Not part of the test suite; run it with
+ *
+ *   java -cp target/classes:target/test-classes \
+ *       edu.berkeley.cs186.database.query.SortBenchmark [numRecords] [workMem] [maxParallelism]
+ *
+ * The input is held in memory by a TestSourceOperator, so by default the
+ * number of records is scaled to the maximum heap size (-Xmx). Runs are
+ * written to spill files in a temporary directory.
+ */
+public class SortBenchmark {
+    public static void main(String[] args) throws Exception {
+        // a record of this schema takes roughly 200 bytes on the heap; leave
+        // room for the sort's own copies
+        long defaultRecords = Math.min(4000000, Runtime.getRuntime().maxMemory() / 1000);
+        int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : (int) defaultRecords;
+        int workMem = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int maxParallelism = args.length > 2 ? Integer.parseInt(args[2])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%d records, B=%d, %d available processors%n", numRecords, workMem,
+                Runtime.getRuntime().availableProcessors());
+
+        Schema schema = new Schema().add("int", Type.intType()).add("string", Type.stringType(20));
+        List<Record> records = new ArrayList<>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            records.add(new Record(i, String.format("%020d", i)));
+        }
+        Collections.shuffle(records, new Random(186));
+
+        File dir = Files.createTempDirectory("sort-benchmark").toFile();
+        try (Database db = new Database(dir.getAbsolutePath(), 1024)) {
+            db.setWorkMem(workMem);
+            System.out.printf("%12s %14s %10s%n", "parallelism", "records/s", "speedup");
+            // one warm-up round so that the first measured round is not dominated by JIT compilation
+            run(db, schema, records, 1);
+            double serial = 0;
+            for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+                double rate = run(db, schema, records, parallelism);
+                if (parallelism == 1) serial = rate;
+                System.out.printf("%12d %14.0f %10.2f%n", parallelism, rate, rate / serial);
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    // Returns the number of records sorted per second with `parallelism` threads.
+    private static double run(Database db, Schema schema, List<Record> records, int parallelism) {
+        db.setSortParallelism(parallelism);
+        try (Transaction transaction = db.beginTransaction()) {
+            SortOperator sort = new SortOperator(transaction.getTransactionContext(),
+                    new TestSourceOperator(records, schema), "int");
+            long start = System.nanoTime();
+            Run sorted = sort.sort();
+            long elapsed = System.nanoTime() - start;
+
+            // check the output outside of the timed section
+            Iterator<Record> iter = sorted.iterator();
+            int count = 0;
+            while (iter.hasNext()) {
+                if (iter.next().getValue(0).getInt() != count) {
+                    throw new IllegalStateException("record " + count + " is out of order");
+                }
+                count++;
+            }
+            if (count != records.size()) {
+                throw new IllegalStateException("sorted " + count + " records");
+            }
+            return records.size() * 1e9 / elapsed;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -91,6 +91,40 @@ public class TestBasicQuery {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testProjectionPushdown() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            for (int i = 0; i < 10; ++i) {
+                transaction.insert("table", new Record(false, i, "!", (float) i));
+            }
+            transaction.getTransactionContext().getTable("table").buildStatistics(10);
+
+            // SELECT int FROM table WHERE float >= 5;
+            QueryPlan query = transaction.query("table");
+            query.select("float", PredicateOperator.GREATER_THAN_EQUALS, 5.0f);
+            query.project("int");
+            Iterator<Record> queryOutput = query.execute();
+
+            // the scan should only decode the columns the query references
+            QueryOperator scan = query.getFinalOperator();
+            while (scan.getSource() != null) scan = scan.getSource();
+            assertTrue(scan.isSequentialScan());
+            assertEquals(2, scan.getSchema().size());
+            assertEquals("table.int", scan.getSchema().getFieldName(0));
+            assertEquals("table.float", scan.getSchema().getFieldName(1));
+
+            int count = 5;
+            while (queryOutput.hasNext()) {
+                Record r = queryOutput.next();
+                assertEquals(1, r.size());
+                assertEquals(new IntDataBox(count), r.getValue(0));
+                count++;
+            }
+            assertEquals(10, count);
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testSelect() {
@@ -0,0 +1,171 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj3Part1Tests;
+import edu.berkeley.cs186.database.categories.Proj3Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj3Tests.class, Proj3Part1Tests.class})
+public class TestHashAggregate {
+    private Database d;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 second max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+            10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("hashAggTest");
+        d = new Database(tempDir.getAbsolutePath(), 32);
+        d.setWorkMem(3); // B=3
+        d.waitAllTransactions();
+    }
+
+    @After
+    public void cleanup() {
+        d.close();
+    }
+
+    // Inserts `numRecords` rows (id, grp, val) with `numGroups` distinct values
+    // of grp. About 290 of these rows fit on a page.
+    private void createTable(Transaction transaction, int numRecords, int numGroups) {
+        transaction.createTable(new Schema()
+                .add("id", Type.intType())
+                .add("grp", Type.intType())
+                .add("val", Type.intType()), "t");
+        Random random = new Random(186);
+        for (int i = 0; i < numRecords; ++i) {
+            transaction.insert("t", i, random.nextInt(numGroups), random.nextInt(1000));
+        }
+        transaction.getTransactionContext().getTable("t").buildStatistics(10);
+    }
+
+    // Checks the output of SELECT grp, COUNT(*), SUM(val), MAX(val), SUM(val) * 2
+    // FROM t GROUP BY grp against groups computed by scanning the table.
+    private void checkAggregates(Transaction transaction) {
+        Map<Integer, int[]> expected = new HashMap<>();
+        Iterator<Record> records = transaction.getTransactionContext().getRecordIterator("t");
+        while (records.hasNext()) {
+            Record record = records.next();
+            int val = record.getValue(2).getInt();
+            int[] aggs = expected.computeIfAbsent(record.getValue(1).getInt(),
+                    k -> new int[] {0, 0, Integer.MIN_VALUE});
+            aggs[0]++;
+            aggs[1] += val;
+            aggs[2] = Math.max(aggs[2], val);
+        }
+
+        QueryPlan query = transaction.query("t");
+        query.groupBy("grp");
+        query.project("grp", "COUNT(*)", "SUM(val)", "MAX(val)", "SUM(val) * 2");
+        Iterator<Record> output = query.execute();
+        assertTrue(query.getFinalOperator().toString().contains("Hash Aggregate"));
+
+        Set<Integer> seen = new HashSet<>();
+        while (output.hasNext()) {
+            Record record = output.next();
+            int grp = record.getValue(0).getInt();
+            assertTrue("group " + grp + " returned twice", seen.add(grp));
+            int[] aggs = expected.get(grp);
+            assertNotNull(aggs);
+            assertEquals(aggs[0], record.getValue(1).getInt());
+            assertEquals(aggs[1], record.getValue(2).getInt());
+            assertEquals(aggs[2], record.getValue(3).getInt());
+            assertEquals(2 * aggs[1], record.getValue(4).getInt());
+        }
+        assertEquals(expected.keySet(), seen);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testInMemory() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTable(transaction, 2000, 50);
+            checkAggregates(transaction);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testSpill() {
+        // ~290 groups fit in memory with B=3 (one page for the hash table, one
+        // for input and one for the spill partition), the rest are spilled
+        try (Transaction transaction = d.beginTransaction()) {
+            createTable(transaction, 6000, 2500);
+            checkAggregates(transaction);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testRecursiveSpill() {
+        // with B=2 there is a single spill partition, which is aggregated again
+        // over several passes
+        d.setWorkMem(2);
+        try (Transaction transaction = d.beginTransaction()) {
+            createTable(transaction, 4000, 3000);
+            checkAggregates(transaction);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testAverage() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTable(transaction, 3000, 1500);
+            QueryPlan query = transaction.query("t");
+            query.groupBy("grp");
+            query.project("grp", "AVG(val)", "COUNT(*)", "SUM(val)");
+            Iterator<Record> output = query.execute();
+            int count = 0;
+            while (output.hasNext()) {
+                Record record = output.next();
+                float avg = record.getValue(3).getInt() / (float) record.getValue(2).getInt();
+                assertEquals(avg, record.getValue(1).getFloat(), 1e-3);
+                count += record.getValue(2).getInt();
+            }
+            assertEquals(3000, count);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testUngroupedColumn() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTable(transaction, 10, 5);
+            QueryPlan query = transaction.query("t");
+            query.groupBy("grp");
+            query.project("val", "COUNT(*)");
+            try {
+                query.execute();
+                fail();
+            } catch (UnsupportedOperationException e) {
+                /* do nothing */
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj3Part1Tests;
+import edu.berkeley.cs186.database.categories.Proj3Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.join.HashJoinOperator;
+import edu.berkeley.cs186.database.query.join.SortMergeOperator;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj3Tests.class, Proj3Part1Tests.class})
+public class TestHashJoin {
+    private Database d;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 second max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+            10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("hashJoinTest");
+        d = new Database(tempDir.getAbsolutePath(), 256);
+        d.setWorkMem(6); // B=6
+        d.waitAllTransactions();
+    }
+
+    @After
+    public void cleanup() {
+        d.close();
+    }
+
+    // 8 records per page
+    private static Schema schema() {
+        return new Schema().add("int", Type.intType()).add("string", Type.stringType(500));
+    }
+
+    private static List<Record> records(int count, int numValues) {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new Record(i % numValues, "!"));
+        }
+        return records;
+    }
+
+    // Joins `left` and `right` with a HashJoinOperator and checks the output
+    // against a nested loop join computed in memory
+    private void checkJoin(Transaction transaction, List<Record> left, List<Record> right) {
+        Map<Record, Integer> expected = new HashMap<>();
+        for (Record l : left) {
+            for (Record r : right) {
+                if (l.getValue(0).equals(r.getValue(0))) expected.merge(l.concat(r), 1, Integer::sum);
+            }
+        }
+        HashJoinOperator join = new HashJoinOperator(
+                new TestSourceOperator(left, schema()),
+                new TestSourceOperator(right, schema()),
+                "int", "int",
+                transaction.getTransactionContext()
+        );
+        Map<Record, Integer> actual = new HashMap<>();
+        for (Record record : join) actual.merge(record, 1, Integer::sum);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testInMemory() {
+        // 4 pages on the left fit in B-2 pages
+        try (Transaction transaction = d.beginTransaction()) {
+            checkJoin(transaction, records(32, 40), records(200, 40));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPartitioned() {
+        // 50 pages on the left, partitioned once or twice
+        try (Transaction transaction = d.beginTransaction()) {
+            checkJoin(transaction, records(400, 300), records(300, 500));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testSkew() {
+        // every record has the same join value, so no number of partitioning
+        // passes can make either side fit in memory
+        try (Transaction transaction = d.beginTransaction()) {
+            checkJoin(transaction, records(50, 1), records(50, 1));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPartlyInMemory() {
+        // 6 pages on the left: some partitions stay in memory, the rest are
+        // spilled and joined afterwards
+        try (Transaction transaction = d.beginTransaction()) {
+            checkJoin(transaction, records(48, 48), records(300, 100));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFewMatches() {
+        // most right records have no match, and the bloom filter keeps most
+        // of them out of the spilled partitions. B=20 leaves a spare page for
+        // the filter next to the write buffers and one resident partition
+        d.setWorkMem(20); // B=20
+        try (Transaction transaction = d.beginTransaction()) {
+            List<Record> right = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                right.add(new Record(i * 13, "!"));
+            }
+            checkJoin(transaction, records(300, 300), right);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testHotKey() {
+        // half of the records share one join value, the rest are distinct
+        try (Transaction transaction = d.beginTransaction()) {
+            List<Record> left = new ArrayList<>();
+            List<Record> right = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                left.add(new Record(i % 2 == 0 ? -1 : i, "!"));
+                right.add(new Record(i % 2 == 0 ? -1 : i, "!"));
+            }
+            checkJoin(transaction, left, right);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCost() {
+        try (Transaction transaction = d.beginTransaction()) {
+            // 4, 6 and 50 pages
+            String[] tables = {"small", "medium", "big"};
+            int[] sizes = {32, 48, 400};
+            for (int t = 0; t < tables.length; t++) {
+                transaction.createTable(schema(), tables[t]);
+                for (int i = 0; i < sizes[t]; i++) {
+                    transaction.insert(tables[t], i, "!");
+                }
+                transaction.getTransactionContext().getTable(tables[t]).buildStatistics(10);
+            }
+            QueryOperator small = new SequentialScanOperator(transaction.getTransactionContext(), "small");
+            QueryOperator medium = new SequentialScanOperator(transaction.getTransactionContext(), "medium");
+            QueryOperator big = new SequentialScanOperator(transaction.getTransactionContext(), "big");
+
+            // the left side fits in B-2 pages: each input is read once
+            HashJoinOperator join = new HashJoinOperator(small, big, "small.int", "big.int",
+                    transaction.getTransactionContext());
+            assertEquals(small.estimateIOCost() + big.estimateIOCost(), join.estimateIOCost());
+
+            // slightly too large: some partitions stay in memory, so the cost is
+            // less than a full partitioning pass over both inputs
+            join = new HashJoinOperator(medium, big, "medium.int", "big.int",
+                    transaction.getTransactionContext());
+            int inputCost = medium.estimateIOCost() + big.estimateIOCost();
+            int pages = medium.estimateStats().getNumPages() + big.estimateStats().getNumPages();
+            assertTrue(join.estimateIOCost() > inputCost);
+            assertTrue(join.estimateIOCost() < inputCost + 2 * pages);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testOptimizerChoosesHashJoin() {
+        d.setWorkMem(10); // B=10
+        try (Transaction transaction = d.beginTransaction()) {
+            // 50 pages each: BNLJ reads the right table 7 times, the hash
+            // join partitions both tables once
+            for (String table : Arrays.asList("a", "b")) {
+                transaction.createTable(schema(), table);
+                for (int i = 0; i < 400; i++) {
+                    transaction.insert(table, i, "!");
+                }
+                transaction.getTransactionContext().getTable(table).buildStatistics(10);
+            }
+            QueryPlan query = transaction.query("a");
+            query.join("b", "a.int", "b.int");
+            Iterator<Record> output = query.execute();
+            assertTrue(query.getFinalOperator().toString().contains("HASH"));
+
+            int count = 0;
+            while (output.hasNext()) {
+                Record record = output.next();
+                assertEquals(record.getValue(0), record.getValue(2));
+                count++;
+            }
+            assertEquals(400, count);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testSortMergeCost() {
+        try (Transaction transaction = d.beginTransaction()) {
+            for (String table : Arrays.asList("a", "b")) {
+                transaction.createTable(schema(), table);
+                for (int i = 0; i < 100; i++) {
+                    transaction.insert(table, i, "!");
+                }
+                transaction.getTransactionContext().getTable(table).buildStatistics(10);
+            }
+            SequentialScanOperator a = new SequentialScanOperator(transaction.getTransactionContext(), "a");
+            SequentialScanOperator b = new SequentialScanOperator(transaction.getTransactionContext(), "b");
+            SortOperator sortedA = new SortOperator(transaction.getTransactionContext(), a, "a.int");
+            SortOperator sortedB = new SortOperator(transaction.getTransactionContext(), b, "b.int");
+
+            // both inputs are sorted and then read once more by the merge
+            SortMergeOperator join = new SortMergeOperator(a, b, "a.int", "b.int",
+                    transaction.getTransactionContext());
+            int expected = sortedA.estimateIOCost() + sortedB.estimateIOCost()
+                    + a.estimateStats().getNumPages() + b.estimateStats().getNumPages();
+            assertEquals(expected, join.estimateIOCost());
+
+            // an input that is already sorted on the join column isn't sorted again
+            join = new SortMergeOperator(sortedA, b, "a.int", "b.int", transaction.getTransactionContext());
+            assertEquals(expected, join.estimateIOCost());
+            assertEquals(2, join.toString().split("Sort \\(").length - 1);
+        }
+    }
+}
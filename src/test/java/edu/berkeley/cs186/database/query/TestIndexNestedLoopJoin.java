@@ -0,0 +1,203 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj3Part1Tests;
+import edu.berkeley.cs186.database.categories.Proj3Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.join.INLJOperator;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj3Tests.class, Proj3Part1Tests.class})
+public class TestIndexNestedLoopJoin {
+    private Database d;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 second max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+            10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("inljTest");
+        d = new Database(tempDir.getAbsolutePath(), 32);
+        d.setWorkMem(5); // B=5
+        d.waitAllTransactions();
+    }
+
+    @After
+    public void cleanup() {
+        d.close();
+    }
+
+    // Creates a fact table with `numFacts` rows referencing random keys of a
+    // dimension table with `numDims` rows and an index on its key column. About
+    // 35 dimension rows fit on a page.
+    private void createTables(Transaction transaction, int numFacts, int numDims, boolean unique) {
+        transaction.createTable(new Schema().add("id", Type.intType()).add("dim", Type.intType()), "facts");
+        transaction.createTable(new Schema().add("key", Type.intType()).add("name", Type.stringType(100)), "dims");
+        transaction.createIndex("dims", Collections.singletonList("key"), unique, false);
+        Random random = new Random(186);
+        for (int i = 0; i < numFacts; ++i) {
+            transaction.insert("facts", i, random.nextInt(numDims + 10));
+        }
+        for (int i = 0; i < numDims; ++i) {
+            transaction.insert("dims", i, "d" + i);
+            if (!unique && i % 2 == 0) {
+                transaction.insert("dims", i, "e" + i);
+            }
+        }
+        transaction.getTransactionContext().getTable("facts").buildStatistics(10);
+        transaction.getTransactionContext().getTable("dims").buildStatistics(10);
+    }
+
+    // The expected join output, as a multiset of records.
+    private Map<Record, Integer> expectedJoin(Transaction transaction) {
+        Map<Record, Integer> expected = new HashMap<>();
+        TransactionContext context = transaction.getTransactionContext();
+        Iterator<Record> facts = context.getRecordIterator("facts");
+        while (facts.hasNext()) {
+            Record fact = facts.next();
+            Iterator<Record> dims = context.getRecordIterator("dims");
+            while (dims.hasNext()) {
+                Record dim = dims.next();
+                if (fact.getValue(1).equals(dim.getValue(0))) {
+                    expected.merge(fact.concat(dim), 1, Integer::sum);
+                }
+            }
+        }
+        return expected;
+    }
+
+    private static Map<Record, Integer> toMultiset(Iterator<Record> records) {
+        Map<Record, Integer> result = new HashMap<>();
+        records.forEachRemaining(r -> result.merge(r, 1, Integer::sum));
+        return result;
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testUniqueIndexJoin() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTables(transaction, 2000, 500, true);
+            TransactionContext context = transaction.getTransactionContext();
+            JoinOperator join = new INLJOperator(new SequentialScanOperator(context, "facts"),
+                    new SequentialScanOperator(context, "dims"), "dim", "key", context);
+            assertEquals(expectedJoin(transaction), toMultiset(join.iterator()));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNonUniqueIndexJoin() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTables(transaction, 1000, 300, false);
+            TransactionContext context = transaction.getTransactionContext();
+            JoinOperator join = new INLJOperator(new SequentialScanOperator(context, "facts"),
+                    new SequentialScanOperator(context, "dims"), "dim", "key", context);
+            assertEquals(expectedJoin(transaction), toMultiset(join.iterator()));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testProjectedRightSource() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTables(transaction, 200, 100, true);
+            TransactionContext context = transaction.getTransactionContext();
+            JoinOperator join = new INLJOperator(new SequentialScanOperator(context, "facts"),
+                    new SequentialScanOperator(context, "dims", Collections.singletonList("key")),
+                    "dim", "dims.key", context);
+            Iterator<Record> iter = join.iterator();
+            int count = 0;
+            while (iter.hasNext()) {
+                Record record = iter.next();
+                assertEquals(3, record.size());
+                assertEquals(record.getValue(1), record.getValue(2));
+                count++;
+            }
+            int expected = 0;
+            for (int value : expectedJoin(transaction).values()) {
+                expected += value;
+            }
+            assertEquals(expected, count);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBatchedLookupIOs() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTables(transaction, 2000, 5000, true);
+            TransactionContext context = transaction.getTransactionContext();
+            JoinOperator join = new INLJOperator(new SequentialScanOperator(context, "facts"),
+                    new SequentialScanOperator(context, "dims"), "dim", "key", context);
+
+            d.getBufferManager().evictAll();
+            long before = d.getBufferManager().getNumIOs();
+            Map<Record, Integer> actual = toMultiset(join.iterator());
+            long batchedIOs = d.getBufferManager().getNumIOs() - before;
+
+            // the same join with one index lookup per fact: the dimension pages
+            // don't fit in the buffer and are read in random order
+            d.getBufferManager().evictAll();
+            before = d.getBufferManager().getNumIOs();
+            Map<Record, Integer> unbatched = new HashMap<>();
+            Iterator<Record> facts = context.getRecordIterator("facts");
+            while (facts.hasNext()) {
+                Record fact = facts.next();
+                Iterator<Record> dims = context.lookupKey("dims", "key", fact.getValue(1));
+                dims.forEachRemaining(dim -> unbatched.merge(fact.concat(dim), 1, Integer::sum));
+            }
+            long unbatchedIOs = d.getBufferManager().getNumIOs() - before;
+
+            assertEquals(unbatched, actual);
+            assertTrue(batchedIOs + " >= " + unbatchedIOs, batchedIOs < unbatchedIOs);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNoIndex() {
+        try (Transaction transaction = d.beginTransaction()) {
+            createTables(transaction, 10, 10, true);
+            TransactionContext context = transaction.getTransactionContext();
+            try {
+                new INLJOperator(new SequentialScanOperator(context, "dims"),
+                        new SequentialScanOperator(context, "facts"), "key", "dim", context);
+                fail();
+            } catch (RuntimeException e) {
+                /* do nothing */
+            }
+            // lookups of a missing key find nothing
+            List<Iterator<Record>> found = context.lookupKeys("dims", "key",
+                    Arrays.asList(new IntDataBox(-1), new IntDataBox(3), new IntDataBox(100)));
+            assertFalse(found.get(0).hasNext());
+            assertEquals(new Record(3, "d3"), found.get(1).next());
+            assertFalse(found.get(2).hasNext());
+        }
+    }
+}
@@ -240,6 +240,36 @@ public class TestOptimizationJoins {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testJoinTypeINLJ() {
+        // same query as testJoinTypeC, but with index joins enabled the single
+        // matching t2 record is looked up in t1's index instead of scanning t1
+        db.setIndexJoins(true);
+        try(Transaction transaction = db.beginTransaction()) {
+            for (int i = 0; i < 2000; ++i) {
+                Record r = new Record(false, i, "!", 0.0f);
+                transaction.insert("indexed_table", r);
+            }
+
+            transaction.getTransactionContext().getTable("indexed_table").buildStatistics(10);
+
+            QueryPlan query = transaction.query("indexed_table", "t1");
+            query.join("indexed_table", "t2", "t1.int", "t2.int");
+            query.select("t2.int", PredicateOperator.EQUALS, 9);
+
+            Iterator<Record> output = query.execute();
+            QueryOperator finalOperator = query.getFinalOperator();
+            assertTrue(finalOperator.toString().contains("Index Scan"));
+            assertTrue(finalOperator.toString().contains("INLJ"));
+
+            Record expected = new Record(false, 9, "!", 0.0f);
+            assertTrue(output.hasNext());
+            assertEquals(expected.concat(expected), output.next());
+            assertFalse(output.hasNext());
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testJoinOrderA() {
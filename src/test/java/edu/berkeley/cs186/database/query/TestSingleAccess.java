@@ -9,6 +9,8 @@ import edu.berkeley.cs186.database.categories.Proj3Part2Tests;
 import edu.berkeley.cs186.database.categories.Proj3Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.After;
@@ -22,8 +24,10 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import java.io.File;
-import java.util.Collections;
+import java.util.*;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @Category({Proj3Tests.class, Proj3Part2Tests.class})
@@ -111,6 +115,134 @@ public class TestSingleAccess {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testBitmapHeapScanSelection() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            // about 20 records per page, inserted in random order so that
+            // neighbouring keys live on different pages
+            Schema schema = new Schema()
+                    .add("int", Type.intType())
+                    .add("pad", Type.stringType(200));
+            transaction.createTable(schema, "wide_table");
+            transaction.createIndex("wide_table", "int", false);
+            List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) {
+                values.add(i);
+            }
+            Collections.shuffle(values, new Random(186));
+            for (int i : values) {
+                transaction.insert("wide_table", i, "!");
+            }
+            transaction.getTransactionContext().getTable("wide_table").buildStatistics(10);
+
+            // SELECT * FROM wide_table WHERE int < 40;
+            QueryPlan query = transaction.query("wide_table");
+            query.select("int", PredicateOperator.LESS_THAN, 40);
+            QueryOperator op = query.minCostSingleAccess("wide_table");
+
+            // the 40 matches are spread over most of the pages, so reading each
+            // page once beats fetching the records in key order
+            assertTrue(op.isIndexScan());
+            assertTrue(op.toString().contains("Bitmap Heap Scan"));
+            Set<Integer> found = new HashSet<>();
+            Iterator<Record> iter = op.iterator();
+            while (iter.hasNext()) {
+                assertTrue(found.add(iter.next().getValue(0).getInt()));
+            }
+            assertEquals(40, found.size());
+            for (int i = 0; i < 40; ++i) {
+                assertTrue(found.contains(i));
+            }
+
+            // SELECT * FROM wide_table WHERE int = 9;
+            query = transaction.query("wide_table");
+            query.select("int", PredicateOperator.EQUALS, 9);
+            op = query.minCostSingleAccess("wide_table");
+
+            // a single match is cheapest with a plain index scan
+            assertTrue(op.isIndexScan());
+            assertFalse(op.toString().contains("Bitmap"));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBitmapHeapScanBatches() {
+        // with B=1 at most 409 record ids are collected at a time, so a range
+        // of 1000 keys is fetched in 3 batches
+        this.db.setWorkMem(1);
+        try(Transaction transaction = this.db.beginTransaction()) {
+            Schema schema = new Schema()
+                    .add("int", Type.intType())
+                    .add("pad", Type.stringType(200));
+            transaction.createTable(schema, "wide_table");
+            transaction.createIndex("wide_table", "int", false);
+            List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) {
+                values.add(i);
+            }
+            Collections.shuffle(values, new Random(186));
+            for (int i : values) {
+                transaction.insert("wide_table", i, "!");
+            }
+
+            Set<Integer> found = new HashSet<>();
+            Iterator<Record> iter = transaction.getTransactionContext().bitmapHeapScan(
+                    "wide_table", "int", new IntDataBox(500), new IntDataBox(1499));
+            while (iter.hasNext()) {
+                assertTrue(found.add(iter.next().getValue(0).getInt()));
+            }
+            assertEquals(1000, found.size());
+            for (int i = 500; i < 1500; ++i) {
+                assertTrue(found.contains(i));
+            }
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testHashIndexScanSelection() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "hashed_table");
+            transaction.createHashIndex("hashed_table", "int", false);
+            for (int i = 0; i < 2000; ++i) {
+                transaction.insert("hashed_table", new Record(false, i, "!", 0.0f));
+            }
+            // keep the index up to date through updates and deletes
+            transaction.update("hashed_table", "int", x -> x,
+                    "int", PredicateOperator.EQUALS, new IntDataBox(9));
+            transaction.delete("hashed_table", "int", PredicateOperator.EQUALS, new IntDataBox(10));
+            transaction.update("hashed_table", "int", x -> new IntDataBox(10),
+                    "int", PredicateOperator.EQUALS, new IntDataBox(11));
+            transaction.getTransactionContext().getTable("hashed_table").buildStatistics(10);
+
+            // SELECT * FROM hashed_table WHERE int = 9;
+            QueryPlan query = transaction.query("hashed_table");
+            query.select("int", PredicateOperator.EQUALS, 9);
+            QueryOperator op = query.minCostSingleAccess("hashed_table");
+            assertTrue(op.isIndexScan());
+            assertTrue(op.toString().contains("Hash Index Scan"));
+            List<Record> records = new ArrayList<>();
+            op.iterator().forEachRemaining(records::add);
+            assertEquals(Collections.singletonList(new Record(false, 9, "!", 0.0f)), records);
+
+            for (int i : new int[] {10, 11}) {
+                query = transaction.query("hashed_table");
+                query.select("int", PredicateOperator.EQUALS, i);
+                records.clear();
+                query.minCostSingleAccess("hashed_table").iterator().forEachRemaining(records::add);
+                assertEquals(i == 10 ? 1 : 0, records.size());
+            }
+
+            // a hash index can't be used for range predicates
+            query = transaction.query("hashed_table");
+            query.select("int", PredicateOperator.LESS_THAN, 9);
+            op = query.minCostSingleAccess("hashed_table");
+            assertFalse(op.toString().contains("Index Scan"));
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testPushDownSelects() {
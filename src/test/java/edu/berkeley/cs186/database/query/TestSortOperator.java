@@ -11,8 +11,10 @@ import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.query.disk.Run;
+import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import org.junit.*;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.DisableOnDebug;
@@ -33,10 +35,14 @@ public class TestSortOperator {
     private Page indexHeader;
     private long numIOs;
 
-    // 1 extra I/O on first access to a table after evictAll
-    public static long FIRST_ACCESS_IOS = 1;
-    // 1 I/O to create a header page
-    public static long NEW_RUN_IOS = 1;
+    // Runs are spill files, which have no header page or page directory:
+    // 0 extra I/Os on first access to a run after evictAll
+    public static long FIRST_ACCESS_IOS = 0;
+    // 0 I/Os to create a header page
+    public static long NEW_RUN_IOS = 0;
+    // Spill files bypass the buffer pool, so every scan of a run reads each
+    // of its pages. A page holds 10 records of type string(400) and 409
+    // records with all types.
 
     @Rule
     public TemporaryFolder tempFolder = new TemporaryFolder();
@@ -142,6 +148,8 @@ public class TestSortOperator {
             }
             assertFalse("too many records", iterator.hasNext());
             assertEquals("too few records", 8  * 3, count);
+            // Read 3 pages
+            checkIOs(3);
         }
     }
 
@@ -161,7 +169,7 @@ public class TestSortOperator {
             );
             checkIOs(0);
 
-            // Create 2 runs with 1.5 pages of records each
+            // Create 2 runs with 12 records (2 pages) each
             Run run1 = operator.makeRun();
             Run run2 = operator.makeRun();
             List<Run> runs = Arrays.asList(run1, run2);
@@ -170,12 +178,14 @@ public class TestSortOperator {
                 if (i % 2 == 0) run1.add(record); // even records go in run1
                 else run2.add(record); // odd records go in run2
             }
+            run1.finish();
+            run2.finish();
             checkIOs(2 * (NEW_RUN_IOS + 2));
 
             // Merge the two runs
             startCountIOs();
             Run mergedSortedRuns = operator.mergeSortedRuns(runs);
-            // Access 2 runs with 1.5 pages of records each
+            // Access 2 runs with 2 pages of records each
             // Create 1 run with 3 pages of records
             checkIOs(2 * (2 + FIRST_ACCESS_IOS) + (3 + NEW_RUN_IOS));
 
@@ -190,7 +200,8 @@ public class TestSortOperator {
             }
             assertFalse("too many records", iterator.hasNext());
             assertEquals("too few records", 8 * 3, count);
-            checkIOs(0);
+            // Read 3 pages
+            checkIOs(3);
         }
     }
 
@@ -232,6 +243,11 @@ public class TestSortOperator {
                 }
             }
 
+            r1.finish();
+            r2.finish();
+            r3.finish();
+            r4.finish();
+
             // Create 4 runs with 1 page of records each
             checkIOs(4 * (NEW_RUN_IOS + 1));
 
@@ -265,7 +281,8 @@ public class TestSortOperator {
             }
             assertFalse("too many records", iter2.hasNext());
             assertEquals("too few records", 400 * 2, i);
-            checkIOs(0);
+            // Read 2 runs with 2 pages each
+            checkIOs(2 * 2);
         }
     }
 
@@ -300,7 +317,8 @@ public class TestSortOperator {
             }
             assertFalse("too many records", iter.hasNext());
             assertEquals("too few records", 400 * 3, i);
-            checkIOs(0);
+            // Read 3 pages
+            checkIOs(3);
         }
     }
 
@@ -337,7 +355,8 @@ public class TestSortOperator {
             }
             assertFalse("too many records", iter.hasNext());
             assertEquals("too few records", 400 * 3, i);
-            checkIOs(0);
+            // Read 3 pages
+            checkIOs(3);
         }
     }
 
@@ -375,8 +394,185 @@ public class TestSortOperator {
             }
             assertFalse("too many records", iter.hasNext());
             assertEquals("too few records", 400 * 3, i);
-            checkIOs(0);
+            // Read 3 pages
+            checkIOs(3);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelMergePass() {
+        try (Transaction transaction = d.beginTransaction()) {
+            d.setWorkMem(8); // B=8
+            d.setSortParallelism(2); // 2 concurrent merges of 3 runs each
+            Schema schema = new Schema().add("string", Type.stringType(400));
+            SortOperator s = new SortOperator(
+                    transaction.getTransactionContext(),
+                    new TestSourceOperator(schema),
+                    "string"
+            );
+
+            // 9 runs of 4 records each; run i holds records i, i + 9, i + 18, ...
+            List<Run> runs = new ArrayList<>();
+            for (int i = 0; i < 9; i++) {
+                Run run = s.makeRun();
+                for (int j = i; j < 36; j += 9) {
+                    run.add(new Record(String.format("%02d", j)));
+                }
+                runs.add(run);
+            }
+            List<Run> result = s.mergePass(runs);
+            assertEquals("wrong number of runs", 3, result.size());
+            for (int i = 0; i < 3; i++) {
+                List<String> expected = new ArrayList<>();
+                for (int j = 0; j < 36; j++) {
+                    if (j % 9 / 3 == i) expected.add(String.format("%02d", j));
+                }
+                List<String> actual = new ArrayList<>();
+                result.get(i).iterator().forEachRemaining(r -> actual.add(r.getValue(0).getString()));
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelSort() {
+        try (Transaction transaction = d.beginTransaction()) {
+            d.setWorkMem(8); // B=8, 8 records per page
+            d.setSortParallelism(2);
+            Schema schema = new Schema().add("string", Type.stringType(400));
+
+            // 2 concurrent tasks sort blocks of 4 pages into 20 initial runs,
+            // which are merged in parallel into 7 runs and then into 1
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 8 * 8 * 10; i++) {
+                records.add(new Record(String.format("%04d", i)));
+            }
+            Collections.shuffle(records, new Random(42));
+            SortOperator s = new SortOperator(
+                    transaction.getTransactionContext(),
+                    new TestSourceOperator(records, schema),
+                    "string"
+            );
+
+            Iterator<Record> iter = s.sort().iterator();
+            int i = 0;
+            while (iter.hasNext() && i < 8 * 8 * 10) {
+                assertEquals("mismatch at record " + i, new Record(String.format("%04d", i)), iter.next());
+                i++;
+            }
+            assertFalse("too many records", iter.hasNext());
+            assertEquals("too few records", 8 * 8 * 10, i);
+        }
+
+        try {
+            d.setSortParallelism(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testReplacementSelection() {
+        try (Transaction transaction = d.beginTransaction()) {
+            d.setWorkMem(3); // B=3, 8 records per page
+            Schema schema = new Schema().add("string", Type.stringType(400));
+            SortOperator s = new SortOperator(
+                    transaction.getTransactionContext(),
+                    new TestSourceOperator(schema),
+                    "string"
+            );
+
+            // 30 pages of shuffled records
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 8 * 30; i++) {
+                records.add(new Record(String.format("%04d", i)));
+            }
+            Collections.shuffle(records, new Random(42));
+
+            // at B=3 the heap would only hold B-2 = 1 page, so pass 0 still
+            // sorts blocks of B pages: every run but the last has exactly B pages
+            int blockSize = 3 * Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, schema);
+            List<Run> runs = s.initialRuns(records.iterator());
+            assertEquals((records.size() + blockSize - 1) / blockSize, runs.size());
+            for (int r = 0; r < runs.size() - 1; r++) {
+                List<Record> block = new ArrayList<>();
+                runs.get(r).iterator().forEachRemaining(block::add);
+                assertEquals(blockSize, block.size());
+            }
+
+            // at B=6 sorting blocks of B pages would give 5 runs, replacement
+            // selection keeps B-2 pages in its heap and gives runs of about
+            // 2(B-2) pages
+            d.setWorkMem(6); // B=6
+            s = new SortOperator(
+                    transaction.getTransactionContext(),
+                    new TestSourceOperator(schema),
+                    "string"
+            );
+            runs = s.initialRuns(records.iterator());
+            assertTrue("expected fewer than 5 runs, got " + runs.size(), runs.size() < 5);
+
+            List<Record> output = new ArrayList<>();
+            for (int r = 0; r < runs.size(); r++) {
+                List<Record> run = new ArrayList<>();
+                runs.get(r).iterator().forEachRemaining(run::add);
+                if (r < runs.size() - 1) {
+                    assertTrue("run " + r + " is shorter than B-2 pages", run.size() >= 8 * 4);
+                }
+                List<Record> sorted = new ArrayList<>(run);
+                sorted.sort(Comparator.comparing(record -> record.getValue(0)));
+                assertEquals("run " + r + " is not sorted", sorted, run);
+                output.addAll(run);
+            }
+            assertEquals(records.size(), output.size());
+
+            // sorted input becomes a single run
+            records.sort(Comparator.comparing(record -> record.getValue(0)));
+            runs = s.replacementSelection(records.iterator());
+            assertEquals(1, runs.size());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNormalizedKeys() {
+        try (Transaction transaction = d.beginTransaction()) {
+            d.setWorkMem(3); // B=3
+            Schema schema = new Schema()
+                    .add("float", Type.floatType())
+                    .add("string", Type.stringType(10));
+
+            // floats of both signs, including -0.0, and strings that share a
+            // prefix longer than the 8 characters held by a key
+            List<Record> records = new ArrayList<>();
+            Random random = new Random(186);
+            String[] prefixes = {"", "a", "ab", "abcdefgh", "abcdefghi", "b", "zzzzzzzz"};
+            for (int i = 0; i < 2000; i++) {
+                float f = (random.nextFloat() - 0.5f) * (float) Math.pow(10, random.nextInt(8));
+                String str = prefixes[random.nextInt(prefixes.length)] + random.nextInt(100);
+                records.add(new Record(i % 100 == 0 ? -0.0f : f, str));
+            }
+
+            for (int column = 0; column < 2; column++) {
+                int index = column;
+                SortOperator s = new SortOperator(
+                        transaction.getTransactionContext(),
+                        new TestSourceOperator(records, schema),
+                        schema.getFieldName(column)
+                );
+                List<Record> actual = new ArrayList<>();
+                s.sort().iterator().forEachRemaining(actual::add);
+                assertEquals(records.size(), actual.size());
+                for (int i = 1; i < actual.size(); i++) {
+                    assertTrue("mismatch at record " + i + " of column " + column,
+                            actual.get(i - 1).getValue(index).compareTo(actual.get(i).getValue(index)) <= 0);
+                }
+            }
         }
     }
 
-}
\ No newline at end of file
+}
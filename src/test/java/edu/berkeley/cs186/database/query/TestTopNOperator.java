@@ -0,0 +1,127 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj3Part1Tests;
+import edu.berkeley.cs186.database.categories.Proj3Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj3Tests.class, Proj3Part1Tests.class})
+public class TestTopNOperator {
+    private Database d;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 second max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+            10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("topNTest");
+        d = new Database(tempDir.getAbsolutePath(), 32);
+        d.setWorkMem(3); // B=3
+        d.waitAllTransactions();
+    }
+
+    @After
+    public void cleanup() {
+        d.close();
+    }
+
+    // Inserts 5000 rows (id, val) with random values of val and returns the
+    // values of val in sorted order
+    private List<Float> createTable(Transaction transaction) {
+        transaction.createTable(new Schema()
+                .add("id", Type.intType())
+                .add("val", Type.floatType()), "t");
+        Random random = new Random(186);
+        List<Float> values = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            float val = random.nextFloat() * 2000 - 1000;
+            transaction.insert("t", i, val);
+            values.add(val);
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    // Runs SELECT * FROM t ORDER BY val LIMIT limit OFFSET offset, checks the
+    // values against `sorted` and returns the final operator
+    private QueryOperator checkQuery(Transaction transaction, List<Float> sorted, int limit, int offset) {
+        QueryPlan query = transaction.query("t");
+        query.sort("val");
+        query.limit(limit, offset);
+        Iterator<Record> output = query.execute();
+        List<Float> actual = new ArrayList<>();
+        output.forEachRemaining(record -> actual.add(record.getValue(1).getFloat()));
+        int end = Math.min(sorted.size(), offset + limit);
+        assertEquals(sorted.subList(Math.min(offset, end), end), actual);
+        return query.getFinalOperator();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testTopN() {
+        try (Transaction transaction = d.beginTransaction()) {
+            List<Float> sorted = createTable(transaction);
+            QueryOperator operator = checkQuery(transaction, sorted, 10, 0);
+            assertTrue(operator.toString().contains("Top-N"));
+            assertFalse(operator.toString().contains("Sort"));
+
+            checkQuery(transaction, sorted, 25, 100);
+            checkQuery(transaction, sorted, 0, 0);
+            checkQuery(transaction, sorted, 10, 4995);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLargeLimit() {
+        // limit + offset rows don't fit in B pages, so the plan falls back
+        // to an external sort
+        try (Transaction transaction = d.beginTransaction()) {
+            List<Float> sorted = createTable(transaction);
+            QueryOperator operator = checkQuery(transaction, sorted, 4000, 10);
+            assertTrue(operator.toString().contains("Sort"));
+            assertFalse(operator.toString().contains("Top-N"));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBacktracking() {
+        try (Transaction transaction = d.beginTransaction()) {
+            List<Float> sorted = createTable(transaction);
+            TopNOperator operator = new TopNOperator(
+                    new SequentialScanOperator(transaction.getTransactionContext(), "t"), "val", 20);
+            assertEquals(Collections.singletonList("t.val"), operator.sortedBy());
+            for (int pass = 0; pass < 2; pass++) {
+                List<Float> actual = new ArrayList<>();
+                operator.iterator().forEachRemaining(record -> actual.add(record.getValue(1).getFloat()));
+                assertEquals(sorted.subList(0, 20), actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package edu.berkeley.cs186.database.query.disk;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj3Part1Tests;
+import edu.berkeley.cs186.database.categories.Proj3Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj3Tests.class, Proj3Part1Tests.class})
+public class TestSpillFile {
+    private Database d;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 5 second max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+            5000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setup() throws IOException {
+        File tempDir = tempFolder.newFolder("spillTest");
+        d = new Database(tempDir.getAbsolutePath(), 32);
+        d.waitAllTransactions();
+    }
+
+    @After
+    public void cleanup() {
+        d.close();
+    }
+
+    // 404 bytes per record, 10 records per page
+    private static Schema schema() {
+        return new Schema().add("int", Type.intType()).add("string", Type.stringType(400));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testAppendAndRead() {
+        try (Transaction transaction = d.beginTransaction()) {
+            SpillFile file = transaction.getTransactionContext().createSpillFile(schema());
+            List<Record> expected = new ArrayList<>();
+            for (int i = 0; i < 25; ++i) {
+                Record record = new Record(i, "r" + i);
+                file.add(record);
+                expected.add(record);
+            }
+            assertEquals(3, file.getNumPages());
+            assertEquals(25, file.getNumRecords());
+
+            List<Record> actual = new ArrayList<>();
+            file.forEach(actual::add);
+            assertEquals(expected, actual);
+
+            // appending after reading starts a new page; a file can be read
+            // any number of times
+            List<Record> more = Arrays.asList(new Record(25, "r25"), new Record(26, "r26"));
+            file.addAll(more);
+            expected.addAll(more);
+            assertEquals(4, file.getNumPages());
+            for (int pass = 0; pass < 2; ++pass) {
+                actual.clear();
+                file.forEach(actual::add);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testEmpty() {
+        try (Transaction transaction = d.beginTransaction()) {
+            SpillFile file = transaction.getTransactionContext().createSpillFile(schema());
+            assertEquals(0, file.getNumPages());
+            Iterator<Record> iter = file.iterator();
+            assertFalse(iter.hasNext());
+            try {
+                iter.next();
+                fail();
+            } catch (NoSuchElementException e) {
+                /* do nothing */
+            }
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCountsIOs() {
+        try (Transaction transaction = d.beginTransaction()) {
+            TransactionContext context = transaction.getTransactionContext();
+            d.getBufferManager().evictAll();
+            long before = d.getBufferManager().getNumIOs();
+            Partition partition = new Partition(context, schema());
+            for (int i = 0; i < 1000; ++i) {
+                partition.add(new Record(i, "!"));
+            }
+            int count = 0;
+            for (Record record : partition) {
+                assertEquals(count++, record.getValue(0).getInt());
+            }
+            assertEquals(1000, count);
+            assertEquals(100, partition.getNumPages());
+            // each page is written once and read once, without going through
+            // the buffer pool's page directory and header pages
+            assertEquals(before + 2 * 100, d.getBufferManager().getNumIOs());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBacktracking() {
+        try (Transaction transaction = d.beginTransaction()) {
+            SpillFile file = transaction.getTransactionContext().createSpillFile(schema());
+            for (int i = 0; i < 35; ++i) {
+                file.add(new Record(i, "!"));
+            }
+            BacktrackingIterator<Record> iter = file.iterator();
+            long before = d.getBufferManager().getNumIOs();
+
+            // mark record 8 on the first page and read into the third page
+            for (int i = 0; i < 8; ++i) iter.next();
+            iter.markNext();
+            for (int i = 8; i < 25; ++i) iter.next();
+            assertEquals(before + 3, d.getBufferManager().getNumIOs());
+
+            // the marked page is kept, so resetting to it is free
+            iter.reset();
+            assertEquals(8, iter.next().getValue(0).getInt());
+            assertEquals(before + 3, d.getBufferManager().getNumIOs());
+
+            // markPrev marks the record just returned
+            for (int i = 9; i < 12; ++i) iter.next();
+            iter.markPrev();
+            List<Integer> rest = new ArrayList<>();
+            iter.forEachRemaining(r -> rest.add(r.getValue(0).getInt()));
+            assertEquals(23, rest.size());
+            assertEquals(12, (int) rest.get(0));
+            iter.reset();
+            assertEquals(11, iter.next().getValue(0).getInt());
+            assertEquals(12, iter.next().getValue(0).getInt());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFreedAtCommit() {
+        SpillFile file;
+        try (Transaction transaction = d.beginTransaction()) {
+            file = transaction.getTransactionContext().createSpillFile(schema());
+            for (int i = 0; i < 15; ++i) {
+                file.add(new Record(i, "!"));
+            }
+            file.iterator();
+            // all spill files of a transaction share one spill space
+            SpillFile other = transaction.getTransactionContext().createSpillFile(schema());
+            assertSame(file.getSpace(), other.getSpace());
+        }
+        // the spill space is closed and deleted with the transaction
+        assertFalse(Files.exists(file.getSpace().getPath()));
+        try {
+            file.iterator().next();
+            fail();
+        } catch (PageException e) {
+            /* do nothing */
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFinish() {
+        try (Transaction transaction = d.beginTransaction()) {
+            SpillFile file = transaction.getTransactionContext().createSpillFile(schema());
+            long before = d.getBufferManager().getNumIOs();
+            for (int i = 0; i < 15; ++i) {
+                file.add(new Record(i, "!"));
+            }
+            // the first page is full and written, the second is buffered
+            assertEquals(before + 1, d.getBufferManager().getNumIOs());
+            file.finish();
+            assertEquals(before + 2, d.getBufferManager().getNumIOs());
+            assertEquals(2, file.getNumPages());
+
+            // reading a finished file does not write anything
+            List<Record> actual = new ArrayList<>();
+            file.forEach(actual::add);
+            assertEquals(15, actual.size());
+            assertEquals(before + 2 + 2, d.getBufferManager().getNumIOs());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testMultiPageReads() {
+        try (Transaction transaction = d.beginTransaction()) {
+            // 40 pages, interleaved with another file so that the pages are
+            // only contiguous within each extent of SpillSpace.EXTENT_PAGES pages
+            SpillFile file = transaction.getTransactionContext().createSpillFile(schema());
+            SpillFile other = transaction.getTransactionContext().createSpillFile(schema());
+            for (int i = 0; i < 400; ++i) {
+                file.add(new Record(i, "!"));
+                other.add(new Record(-i, "!"));
+            }
+            file.finish();
+            other.finish();
+            assertEquals(40, file.getNumPages());
+
+            long before = d.getBufferManager().getNumIOs();
+            BacktrackingIterator<Record> iter = file.iterator(6);
+            // reading the first record reads 6 pages at once
+            assertEquals(0, iter.next().getValue(0).getInt());
+            assertEquals(before + 6, d.getBufferManager().getNumIOs());
+
+            // mark a record on page 5, read past the block and reset to it
+            for (int i = 1; i < 55; ++i) iter.next();
+            iter.markNext();
+            for (int i = 55; i < 125; ++i) iter.next();
+            iter.reset();
+            assertEquals(55, iter.next().getValue(0).getInt());
+
+            List<Integer> rest = new ArrayList<>();
+            iter.forEachRemaining(r -> rest.add(r.getValue(0).getInt()));
+            assertEquals(400 - 56, rest.size());
+            for (int i = 0; i < rest.size(); ++i) {
+                assertEquals(56 + i, (int) rest.get(i));
+            }
+        }
+    }
+}
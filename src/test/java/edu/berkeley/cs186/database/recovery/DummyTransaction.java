@@ -7,16 +7,20 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.query.disk.SpillFile;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.ScanPredicate;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -82,6 +86,9 @@ class DummyTransaction extends Transaction {
     @Override
     public void createTable(Schema s, String tableName) {}
 
+    @Override
+    public void createTable(Schema s, String tableName, Table.Layout layout) {}
+
     @Override
     public void dropTable(String tableName) {}
 
@@ -91,6 +98,16 @@ class DummyTransaction extends Transaction {
     @Override
     public void createIndex(String tableName, String columnName, boolean bulkLoad) {}
 
+    @Override
+    public void createIndex(String tableName, List<String> columnNames, boolean unique, boolean bulkLoad) {}
+
+    @Override
+    public void createIndex(String tableName, List<String> columnNames, List<String> includeColumnNames,
+                            boolean unique, boolean bulkLoad) {}
+
+    @Override
+    public void createHashIndex(String tableName, String columnName, boolean unique) {}
+
     @Override
     public void dropIndex(String tableName, String columnName) {}
 
@@ -157,6 +174,21 @@ class DummyTransaction extends Transaction {
         @Override
         public void close() {}
 
+        @Override
+        public SpillFile createSpillFile(Schema schema) {
+            return null;
+        }
+
+        @Override
+        public ForkJoinPool getSortPool() {
+            return null;
+        }
+
+        @Override
+        public boolean useIndexJoins() {
+            return false;
+        }
+
         @Override
         public String createTempTable(Schema schema) {
             return null;
@@ -176,6 +208,16 @@ class DummyTransaction extends Transaction {
             return false;
         }
 
+        @Override
+        public boolean hashIndexExists(String tableName, String columnName) {
+            return false;
+        }
+
+        @Override
+        public List<String> getIndexColumns(String tableName, String columnName) {
+            return null;
+        }
+
         @Override
         public void updateIndexMetadata(BPlusTreeMetadata metadata) {}
 
@@ -194,11 +236,34 @@ class DummyTransaction extends Transaction {
             return null;
         }
 
+        @Override
+        public List<Iterator<Record>> lookupKeys(String tableName, String columnName, List<DataBox> keys) {
+            return null;
+        }
+
+        @Override
+        public Iterator<Record> indexOnlyScan(String tableName, String columnName, List<String> columns,
+                                              DataBox startValue, DataBox endValue) {
+            return null;
+        }
+
+        @Override
+        public Iterator<Record> bitmapHeapScan(String tableName, String columnName,
+                                               DataBox startValue, DataBox endValue) {
+            return null;
+        }
+
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
             return null;
         }
 
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, List<ScanPredicate> predicates,
+                                                              List<Integer> columns) {
+            return null;
+        }
+
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
             return false;
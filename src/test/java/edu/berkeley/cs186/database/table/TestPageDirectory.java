@@ -248,4 +248,41 @@ public class TestPageDirectory {
             assertEquals(page, p);
         }
     }
+
+    @Test
+    public void testFreeEmptyHeaderPages() {
+        createPageDirectory((short) 10);
+
+        // fill the first header page and spill onto a second one
+        short pageSize = (short) (pageDirectory.getEffectivePageSize() - 10);
+        List<Page> pages = new ArrayList<>();
+        int numPages = 500;
+        for (int i = 0; i < numPages; ++i) {
+            Page page = pageDirectory.getPageWithSpace(pageSize);
+            page.unpin();
+            pages.add(page);
+        }
+        assertEquals(numPages, pageDirectory.getNumDataPages());
+        assertEquals(0, pageDirectory.freeEmptyHeaderPages());
+
+        // free the data pages managed by the second header page
+        for (int i = numPages - 1; i >= 0 && pageDirectory.getNumDataPages() > 100; --i) {
+            pageDirectory.updateFreeSpace(pages.get(i), pageSize);
+        }
+        assertEquals(100, pageDirectory.getNumDataPages());
+        assertEquals(1, pageDirectory.freeEmptyHeaderPages());
+
+        // the page directory keeps working after the header page is freed
+        Iterator<Page> iter = pageDirectory.iterator();
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next().unpin();
+            ++count;
+        }
+        assertEquals(100, count);
+        for (int i = 0; i < numPages; ++i) {
+            pageDirectory.getPageWithSpace(pageSize).unpin();
+        }
+        assertEquals(numPages + 100, pageDirectory.getNumDataPages());
+    }
 }
@@ -4,14 +4,19 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.databox.*;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -457,4 +462,190 @@ public class TestTable {
         checkSequentialRecords(1, numRecords, 2, iter);
         assertFalse(iter.hasNext());
     }
+
+    /**
+     * Test of a table scan with predicates pushed down into the page scan.
+     */
+    @Test
+    public void testTableIteratorWithPredicates() {
+        // We add 42 to make sure we have some incomplete pages.
+        int numRecords = table.getNumRecordsPerPage() * 2 + 42;
+
+        // Write the records.
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = createRecordWithAllTypes(i);
+            rids.add(table.addRecord(r));
+        }
+
+        // Delete every other record.
+        for (int i = 0; i < numRecords; i += 2) {
+            table.deleteRecord(rids.get(i));
+        }
+
+        // int >= 100 AND int < 501
+        List<ScanPredicate> predicates = new ArrayList<>();
+        predicates.add(new ScanPredicate(1, PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(100)));
+        predicates.add(new ScanPredicate(1, PredicateOperator.LESS_THAN, new IntDataBox(501)));
+        BacktrackingIterator<Record> iter = table.iterator(predicates);
+        checkSequentialRecords(101, 501, 2, iter);
+        assertFalse(iter.hasNext());
+
+        // Predicates on other columns: every record has bool = false and string = "a".
+        predicates = new ArrayList<>();
+        predicates.add(new ScanPredicate(0, PredicateOperator.EQUALS, new BoolDataBox(false)));
+        predicates.add(new ScanPredicate(2, PredicateOperator.LESS_THAN_EQUALS, new StringDataBox("a")));
+        predicates.add(new ScanPredicate(3, PredicateOperator.GREATER_THAN, new FloatDataBox(1.1f)));
+        iter = table.iterator(predicates);
+        checkSequentialRecords(1, numRecords, 2, iter);
+        assertFalse(iter.hasNext());
+
+        predicates.add(new ScanPredicate(2, PredicateOperator.GREATER_THAN, new StringDataBox("a")));
+        assertFalse(table.iterator(predicates).hasNext());
+    }
+
+    @Test
+    public void testScanPredicateMatchesDataBoxSemantics() {
+        Schema s = new Schema()
+                .add("s", Type.stringType(5))
+                .add("l", Type.longType())
+                .add("f", Type.floatType());
+        Record r = new Record(new StringDataBox("ab", 5), new LongDataBox(7L), new FloatDataBox(-0.0f));
+        Buffer buf = ByteBuffer.wrap(r.toBytes(s));
+        String[] literals = {"a", "ab", "abc", "abcdefg", "b", ""};
+        for (PredicateOperator op : PredicateOperator.values()) {
+            for (String literal : literals) {
+                ScanPredicate p = new ScanPredicate(0, op, new StringDataBox(literal, 7));
+                assertEquals(op + " " + literal, p.evaluate(r), p.evaluate(buf, 0, s));
+            }
+            for (long l = 6; l <= 8; l++) {
+                ScanPredicate p = new ScanPredicate(1, op, new LongDataBox(l));
+                assertEquals(p.evaluate(r), p.evaluate(buf, 0, s));
+            }
+            ScanPredicate p = new ScanPredicate(2, op, new FloatDataBox(0.0f));
+            assertEquals(p.evaluate(r), p.evaluate(buf, 0, s));
+        }
+    }
+
+    /**
+     * Test of the PAX layout: records are stored column by column within each
+     * data page, but behave exactly like records in the row layout.
+     */
+    @Test
+    public void testPaxLayout() {
+        table.setLayout(Table.Layout.PAX);
+        int numRecords = table.getNumRecordsPerPage() * 2 + 42;
+
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i)));
+        }
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), table.getRecord(rids.get(i)));
+        }
+
+        // The int column of the first page is stored contiguously right after
+        // the bool minipage.
+        Page page = pageDirectory.getPage(rids.get(0).getPageNum());
+        try {
+            Buffer buf = page.getBuffer();
+            int intMinipage = 50 + table.getNumRecordsPerPage();
+            for (int i = 0; i < 10; ++i) {
+                assertEquals(i, buf.getInt(intMinipage + i * Integer.BYTES));
+            }
+        } finally {
+            page.unpin();
+        }
+
+        // Updates and deletes.
+        table.updateRecord(rids.get(1), new Record(false, -1, "u", -1.0f));
+        assertEquals(new Record(false, -1, "u", -1.0f), table.getRecord(rids.get(1)));
+        for (int i = 0; i < numRecords; i += 2) {
+            table.deleteRecord(rids.get(i));
+        }
+
+        // Predicates and projections read only the needed minipages.
+        List<ScanPredicate> predicates = new ArrayList<>();
+        predicates.add(new ScanPredicate(1, PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(100)));
+        predicates.add(new ScanPredicate(3, PredicateOperator.NOT_EQUALS, new FloatDataBox(105.0f)));
+        List<Integer> columns = new ArrayList<>();
+        columns.add(3);
+        columns.add(1);
+        BacktrackingIterator<Record> iter = table.iterator(predicates, columns);
+        for (int i = 101; i < numRecords; i += 2) {
+            if (i == 105) continue;
+            assertTrue(iter.hasNext());
+            assertEquals(new Record((float) i, i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+
+        // Reload the table with the same layout.
+        table = new Table(table.getName(), table.getSchema(), pageDirectory, new DummyLockContext());
+        table.setLayout(Table.Layout.PAX);
+        iter = table.iterator();
+        assertEquals(new Record(false, -1, "u", -1.0f), iter.next());
+        checkSequentialRecordsPax(3, numRecords, 2, iter);
+        assertFalse(iter.hasNext());
+    }
+
+    private void checkSequentialRecordsPax(int start, int end, int incr, BacktrackingIterator<Record> iter) {
+        for (int i = start; i < end; i += incr) {
+            assertTrue(iter.hasNext());
+            assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iter.next());
+        }
+    }
+
+    /**
+     * Test that the zone map lets predicate scans skip pages whose value range
+     * cannot satisfy the predicates, and that it stays correct as the table changes.
+     */
+    @Test
+    public void testZoneMapSkipsPages() {
+        int perPage = table.getNumRecordsPerPage();
+        int numRecords = perPage * 3 + 42;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(table.addRecord(createRecordWithAllTypes(i)));
+        }
+        long firstPage = rids.get(0).getPageNum();
+        long lastPage = rids.get(numRecords - 1).getPageNum();
+        ZoneMap zoneMap = table.getStats().getZoneMap();
+
+        // int >= 3 * perPage can only be satisfied by the last page.
+        List<ScanPredicate> predicates = new ArrayList<>();
+        predicates.add(new ScanPredicate(1, PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(3 * perPage)));
+        assertTrue(zoneMap.canSkip(firstPage, predicates));
+        assertFalse(zoneMap.canSkip(lastPage, predicates));
+        BacktrackingIterator<Record> iter = table.iterator(predicates);
+        checkSequentialRecords(3 * perPage, numRecords, 1, iter);
+        assertFalse(iter.hasNext());
+
+        // Updating a record on the first page widens its range.
+        table.updateRecord(rids.get(0), createRecordWithAllTypes(numRecords));
+        assertFalse(zoneMap.canSkip(firstPage, predicates));
+        iter = table.iterator(predicates);
+        assertEquals(createRecordWithAllTypes(numRecords), iter.next());
+        checkSequentialRecords(3 * perPage, numRecords, 1, iter);
+        assertFalse(iter.hasNext());
+
+        // Freeing the last page drops its summary.
+        for (int i = 3 * perPage; i < numRecords; ++i) {
+            table.deleteRecord(rids.get(i));
+        }
+        assertFalse(zoneMap.hasSummary(lastPage));
+
+        // Without summaries nothing is skipped, and a predicate scan rebuilds
+        // them for the predicate's column only.
+        zoneMap.clear();
+        assertFalse(zoneMap.canSkip(firstPage, predicates));
+        iter = table.iterator(predicates);
+        assertEquals(createRecordWithAllTypes(numRecords), iter.next());
+        assertFalse(iter.hasNext());
+        assertTrue(zoneMap.hasSummary(firstPage));
+        assertTrue(zoneMap.hasColumn(firstPage, 1));
+        assertFalse(zoneMap.hasColumn(firstPage, 2));
+        predicates.set(0, new ScanPredicate(1, PredicateOperator.LESS_THAN, new IntDataBox(1)));
+        assertTrue(zoneMap.canSkip(firstPage, predicates));
+        assertFalse(table.iterator(predicates).hasNext());
+    }
 }